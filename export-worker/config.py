@@ -18,6 +18,11 @@ class Settings(BaseSettings):
     REDIS_PASSWORD: Optional[str] = None
     REDIS_QUEUE_NAME: str = "telegram_export"
     REDIS_SUBSCRIPTION_QUEUE_SUFFIX: str = "_subscription"
+    # "list" — BLMOVE из трёх списков (как раньше). "zset" — атомарный claim из
+    # приоритетного sorted set {queue}:pq (score = priority * 1e13 + ms) с досасыванием
+    # legacy-списков в том же скрипте — переключать воркер раньше java-bot.
+    REDIS_QUEUE_BACKEND: str = "list"
+    REDIS_QUEUE_POLL_INTERVAL: float = 1.0
 
     # Java Bot API
     JAVA_API_BASE_URL: str = "http://java-bot:8080"
@@ -101,6 +106,8 @@ class Settings(BaseSettings):
 
     # Redis Stream для статистики (dashboard)
     STATS_STREAM_KEY: str = "stats:events"
+    # Число партиций-стримов {key}:{n}; совпадает с STATS_STREAM_PARTITIONS у java-bot
+    STATS_STREAM_PARTITIONS: int = 1
 
     @field_validator("TELEGRAM_API_ID")
     @classmethod
@@ -126,6 +126,7 @@ class ExportWorker:
                 if on_each_msg is not None:
                     on_each_msg(msg)
                 if len(batch) >= self._CACHE_BATCH_SIZE:
+                    await self.heartbeat(job.task_id, stage="fetch", fetched=fetched_count)
                     if await self._flush_batch_and_check_cancel(job, batch):
                         return None
                 if tracker:
@@ -182,8 +183,14 @@ class ExportWorker:
     # TTL = 2×порог: один пропущенный heartbeat не ломает observability.
     _HEARTBEAT_TTL_SECONDS: int = 120
 
-    async def heartbeat(self, task_id: str, stage: Optional[StageType] = None) -> None:
-        payload = json.dumps({"ts": int(time.time()), "stage": stage or ""})
+    async def heartbeat(
+        self, task_id: str, stage: Optional[StageType] = None, fetched: Optional[int] = None
+    ) -> None:
+        data = {"ts": int(time.time()), "stage": stage or ""}
+        # fetched — для live-прогресса в сообщении "задача принята" (Java ExportProgressNotifier).
+        if fetched is not None:
+            data["fetched"] = fetched
+        payload = json.dumps(data)
         await self._redis_ops.safe_set(
             RedisKeys.heartbeat(task_id),
             payload,
@@ -61,6 +61,7 @@ class ExportRequest(BaseModel):
         default="bot", description="Request source: bot/api/subscription"
     )
     subscription_id: Optional[int] = Field(None, description="Subscription ID for subscription-initiated exports")
+    enqueued_at: Optional[int] = Field(None, description="Epoch ms постановки (Java): aging между express и main")
 
     @property
     def effective_topic_id(self) -> int:
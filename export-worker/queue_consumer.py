@@ -2,7 +2,8 @@
 import logging
 import json
 import asyncio
-from typing import Optional
+import zlib
+from typing import Optional, Tuple
 from datetime import datetime, timezone
 from urllib.parse import quote as _urlquote
 
@@ -16,6 +17,51 @@ logger = logging.getLogger(__name__)
 JOB_MARKER_TTL = 3600  # 1 hour — TTL for completed/failed job markers in Redis
 MAX_PENDING_RETURN = 100  # Max number of pending jobs to deserialize (prevents OOM)
 
+# Приоритетная очередь (REDIS_QUEUE_BACKEND=zset). Должно совпадать с ExportJobProducer:
+# score = priority * PRIORITY_SCORE_BASE + epoch_ms, priority 0=express, 1=main, 2=subscription.
+PRIORITY_SCORE_BASE = 10_000_000_000_000
+
+
+def stats_stream_key(task_id: str) -> str:
+    """Стрим stats-события задачи. Должно совпадать с StatsStreamProperties.streamKeyFor:
+    одна партиция — STATS_STREAM_KEY, иначе {key}:{crc32(task_id) % partitions}."""
+    partitions = int(settings.STATS_STREAM_PARTITIONS)
+    if partitions <= 1:
+        return settings.STATS_STREAM_KEY
+    return f"{settings.STATS_STREAM_KEY}:{zlib.crc32(task_id.encode('utf-8')) % partitions}"
+
+# Атомарный claim: на каждом уровне приоритета сначала zset, затем legacy-список того же
+# уровня (миграция: java-bot мог успеть положить задачи в списки). Payload кладётся в тот
+# же staging-список, что и при BLMOVE, — finalize/recover работают без изменений.
+# Member zset без payload (потерян при частичной записи или ручной чистке) снимается, и claim
+# идёт дальше — к следующему member того же уровня или к списку, а не возвращает nil при живых задачах.
+# KEYS: zset, payload-hash, express, main, subscription, staging_express, staging, staging_subscription
+# ARGV: PRIORITY_SCORE_BASE
+# Ответ: {payload, staging_queue} или nil.
+CLAIM_JOB_LUA = """
+local base = tonumber(ARGV[1])
+for p = 0, 2 do
+    while true do
+        local top = redis.call('ZRANGE', KEYS[1], 0, 0, 'WITHSCORES')
+        if #top == 0 or math.floor(tonumber(top[2]) / base) ~= p then
+            break
+        end
+        redis.call('ZREM', KEYS[1], top[1])
+        local payload = redis.call('HGET', KEYS[2], top[1])
+        if payload then
+            redis.call('HDEL', KEYS[2], top[1])
+            redis.call('RPUSH', KEYS[6 + p], payload)
+            return {payload, KEYS[6 + p]}
+        end
+    end
+    local item = redis.call('LMOVE', KEYS[3 + p], KEYS[6 + p], 'LEFT', 'RIGHT')
+    if item then
+        return {item, KEYS[6 + p]}
+    end
+end
+return nil
+"""
+
 class QueueConsumer:
 
     def __init__(self):
@@ -37,6 +83,15 @@ class QueueConsumer:
         self.staging_express_name = self.express_queue_name + "_processing"
         self.staging_subscription_name = self.subscription_queue_name + "_processing"
 
+        # Приоритетная очередь: members = task_id, payload в отдельном hash.
+        self.use_priority_queue = settings.REDIS_QUEUE_BACKEND == "zset"
+        self.priority_queue_name = self.queue_name + ":pq"
+        self.priority_payloads_name = self.priority_queue_name + ":payloads"
+        self._claim_script = None
+        # task_id → момент начала обработки (UTC) для export.completed/failed: бот меряет время
+        # обслуживания от него, а не от постановки в очередь. После рестарта воркера — пусто.
+        self._processing_started: dict[str, str] = {}
+
         logger.info(
             f"Queue Consumer initialized "
             f"(Redis: {settings.REDIS_HOST}:{settings.REDIS_PORT}, "
@@ -52,6 +107,9 @@ class QueueConsumer:
                 socket_connect_timeout=5, # Таймаут на установку соединения (сек)
             )
 
+            # Скрипт регистрируется на конкретном клиенте — после reconnect заново.
+            self._claim_script = None
+
             # Test connection
             await self.redis_client.ping()
             logger.info("✅ Connected to Redis")
@@ -101,31 +159,10 @@ class QueueConsumer:
             raise RuntimeError("Not connected to Redis")
 
         try:
-            # Atomically move job from source queue to staging queue.
-            # This closes a durability gap from BLPOP+RPUSH (job loss on worker crash
-            # between two commands).
-            # Priority: express > main > subscription.
-            source_queue = self.express_queue_name
-            dest_queue = self.staging_express_name
-            job_json = await self.redis_client.blmove(
-                source_queue, dest_queue, timeout=1, src="LEFT", dest="RIGHT"
-            )
-
-            # If express queue is empty, check regular queue.
-            if not job_json:
-                source_queue = self.queue_name
-                dest_queue = self.staging_name
-                job_json = await self.redis_client.blmove(
-                    source_queue, dest_queue, timeout=2, src="LEFT", dest="RIGHT"
-                )
-
-            # If main queue is also empty, check low-priority subscription queue.
-            if not job_json:
-                source_queue = self.subscription_queue_name
-                dest_queue = self.staging_subscription_name
-                job_json = await self.redis_client.blmove(
-                    source_queue, dest_queue, timeout=2, src="LEFT", dest="RIGHT"
-                )
+            if self.use_priority_queue:
+                job_json, dest_queue = await self._claim_priority_job()
+            else:
+                job_json, dest_queue = await self._move_from_lists()
 
             if not job_json:
                 return None
@@ -169,6 +206,55 @@ class QueueConsumer:
             logger.error(f"Error getting job from queue: {e}", exc_info=True)
             return None
 
+    async def _move_from_lists(self) -> Tuple[Optional[str], Optional[str]]:
+        # Atomically move job from source queue to staging queue.
+        # This closes a durability gap from BLPOP+RPUSH (job loss on worker crash
+        # between two commands).
+        # Priority: express > main > subscription.
+        dest_queue = self.staging_express_name
+        job_json = await self.redis_client.blmove(
+            self.express_queue_name, dest_queue, timeout=1, src="LEFT", dest="RIGHT"
+        )
+
+        # If express queue is empty, check regular queue.
+        if not job_json:
+            dest_queue = self.staging_name
+            job_json = await self.redis_client.blmove(
+                self.queue_name, dest_queue, timeout=2, src="LEFT", dest="RIGHT"
+            )
+
+        # If main queue is also empty, check low-priority subscription queue.
+        if not job_json:
+            dest_queue = self.staging_subscription_name
+            job_json = await self.redis_client.blmove(
+                self.subscription_queue_name, dest_queue, timeout=2, src="LEFT", dest="RIGHT"
+            )
+
+        return job_json, dest_queue
+
+    async def _claim_priority_job(self) -> Tuple[Optional[str], Optional[str]]:
+        """Один EVALSHA вместо трёх BLMOVE. Блокирующего ZPOPMIN+HGET нет, поэтому при
+        пустой очереди спим REDIS_QUEUE_POLL_INTERVAL — иначе main loop крутится вхолостую."""
+        if self._claim_script is None:
+            self._claim_script = self.redis_client.register_script(CLAIM_JOB_LUA)
+        result = await self._claim_script(
+            keys=[
+                self.priority_queue_name,
+                self.priority_payloads_name,
+                self.express_queue_name,
+                self.queue_name,
+                self.subscription_queue_name,
+                self.staging_express_name,
+                self.staging_name,
+                self.staging_subscription_name,
+            ],
+            args=[PRIORITY_SCORE_BASE],
+        )
+        if not result:
+            await asyncio.sleep(settings.REDIS_QUEUE_POLL_INTERVAL)
+            return None, None
+        return result[0], result[1]
+
     async def _move_to_dlq(self, job_json: str, reason: str) -> None:
         if not self.redis_client:
             return
@@ -266,6 +352,7 @@ class QueueConsumer:
                 settings.JOB_TIMEOUT,  # Auto-expire after timeout
                 str(datetime.now().isoformat())
             )
+            self._processing_started[task_id] = datetime.now(timezone.utc).strftime("%Y-%m-%dT%H:%M:%SZ")
             return True
 
         except Exception as e:
@@ -324,6 +411,7 @@ class QueueConsumer:
             terminal_key=f"job:completed:{task_id}",
             terminal_value=str(datetime.now().isoformat()),
         )
+        processing_started_at = self._processing_started.pop(task_id, None)
         if ok:
             logger.debug(f"Marked job completed: {task_id}")
             if (
@@ -338,6 +426,7 @@ class QueueConsumer:
                     subscription_id,
                     messages_count,
                     bytes_count,
+                    processing_started_at,
                 )
         return ok
 
@@ -345,7 +434,8 @@ class QueueConsumer:
                                         bot_user_id: Optional[int],
                                         subscription_id: Optional[int] = None,
                                         messages_count: Optional[int] = None,
-                                        bytes_count: Optional[int] = None) -> None:
+                                        bytes_count: Optional[int] = None,
+                                        processing_started_at: Optional[str] = None) -> None:
         """XADD export.completed в stats:events — обновляет статус в дашборде."""
         try:
             event_data: dict = {
@@ -362,8 +452,10 @@ class QueueConsumer:
                 event_data["messages_count"] = messages_count
             if bytes_count is not None:
                 event_data["bytes_count"] = bytes_count
+            if processing_started_at is not None:
+                event_data["processing_started_at"] = processing_started_at
             await self.redis_client.xadd(
-                settings.STATS_STREAM_KEY,
+                stats_stream_key(task_id),
                 {"payload": json.dumps(event_data)},
                 maxlen=100_000,
                 approximate=True,
@@ -382,14 +474,17 @@ class QueueConsumer:
                 "timestamp": datetime.now().isoformat(),
             }),
         )
+        processing_started_at = self._processing_started.pop(task_id, None)
         if ok:
             logger.debug(f"Marked job failed: {task_id}")
-            await self._publish_failed_event(task_id, error, subscription_id, bot_user_id)
+            await self._publish_failed_event(task_id, error, subscription_id, bot_user_id,
+                                             processing_started_at)
         return ok
 
     async def _publish_failed_event(self, task_id: str, error: str,
                                     subscription_id: Optional[int] = None,
-                                    bot_user_id: Optional[int] = None) -> None:
+                                    bot_user_id: Optional[int] = None,
+                                    processing_started_at: Optional[str] = None) -> None:
         """XADD export.failed в stats:events. Ошибки здесь не должны ронять основной flow."""
         try:
             event_data: dict = {
@@ -403,9 +498,11 @@ class QueueConsumer:
                 event_data["subscription_id"] = subscription_id
             if bot_user_id is not None:
                 event_data["bot_user_id"] = bot_user_id
+            if processing_started_at is not None:
+                event_data["processing_started_at"] = processing_started_at
             payload = json.dumps(event_data)
             await self.redis_client.xadd(
-                settings.STATS_STREAM_KEY,
+                stats_stream_key(task_id),
                 {"payload": payload},
                 maxlen=100_000,
                 approximate=True,
@@ -423,6 +520,8 @@ class QueueConsumer:
             main_total = await self.redis_client.llen(self.queue_name)
             subscription_total = await self.redis_client.llen(self.subscription_queue_name)
             total_count = express_total + main_total + subscription_total
+            if self.use_priority_queue:
+                total_count += await self.redis_client.zcard(self.priority_queue_name)
 
             # Deserialize only the first MAX_PENDING_RETURN items
             express_limit = min(express_total, MAX_PENDING_RETURN)
@@ -1563,6 +1563,22 @@ class TestHeartbeat:
         job_proc_call = next(c for c in calls if c.args[0] == "job:processing:task_abc")
         assert job_proc_call.kwargs.get("ex") == _settings.JOB_TIMEOUT
 
+    async def test_heartbeat_includes_fetched_when_given(self):
+        worker = ExportWorker()
+        worker.control_redis = AsyncMock()
+
+        await worker.heartbeat("task_abc", stage="fetch", fetched=3000)
+        await worker.heartbeat("task_abc", stage="fetch")
+
+        import json as _json
+        payloads = [
+            _json.loads(c.args[1])
+            for c in worker.control_redis.set.call_args_list
+            if c.args[0] == "worker:heartbeat:task_abc"
+        ]
+        assert payloads[0]["fetched"] == 3000
+        assert "fetched" not in payloads[1]
+
     async def test_heartbeat_without_redis_is_noop(self):
         worker = ExportWorker()
         worker.control_redis = None
@@ -4,7 +4,7 @@ import pytest
 from unittest.mock import MagicMock, AsyncMock, patch
 
 from models import ExportRequest
-from queue_consumer import QueueConsumer
+from queue_consumer import QueueConsumer, stats_stream_key
 
 class TestQueueConsumer:
 
@@ -802,3 +802,49 @@ class TestStagingDurability:
         assert event["task_id"] == "task_999"
         assert event.get("bot_user_id") == 42
         assert "subscription_id" not in event
+
+    @pytest.mark.asyncio
+    async def test_completed_event_carries_processing_started_at(self):
+        """Бот меряет время обслуживания от начала обработки, а не от постановки в очередь."""
+        import json as _json
+        mock_client = AsyncMock()
+        mock_client.set = AsyncMock(return_value=True)
+        mock_client.get = AsyncMock(return_value=None)
+        mock_client.xadd = AsyncMock(return_value=b"1-0")
+        mock_pipe = MagicMock()
+        mock_pipe.execute = AsyncMock(return_value=[1, 1, 1])
+        mock_client.pipeline = MagicMock(return_value=mock_pipe)
+
+        with patch('queue_consumer.settings') as mock_settings:
+            mock_settings.REDIS_HOST = "redis"
+            mock_settings.REDIS_PORT = 6379
+            mock_settings.REDIS_DB = 0
+            mock_settings.REDIS_PASSWORD = None
+            mock_settings.REDIS_QUEUE_NAME = "telegram_export"
+            mock_settings.STATS_STREAM_KEY = "stats:events"
+
+            consumer = QueueConsumer()
+            consumer.redis_client = mock_client
+
+        await consumer.mark_job_processing("task_777")
+        await consumer.mark_job_completed("task_777", bot_user_id=42)
+
+        event = _json.loads(mock_client.xadd.call_args.args[1]["payload"])
+        assert event["processing_started_at"].endswith("Z")
+        assert "task_777" not in consumer._processing_started
+
+
+class TestStatsStreamPartitions:
+
+    def test_single_partition_uses_base_key(self):
+        with patch('queue_consumer.settings') as s:
+            s.STATS_STREAM_KEY = "stats:events"
+            s.STATS_STREAM_PARTITIONS = 1
+            assert stats_stream_key("task-1") == "stats:events"
+
+    def test_partition_matches_java_crc32(self):
+        # StatsStreamPropertiesTest: CRC32("task-1") % 4 == 3
+        with patch('queue_consumer.settings') as s:
+            s.STATS_STREAM_KEY = "stats:events"
+            s.STATS_STREAM_PARTITIONS = 4
+            assert stats_stream_key("task-1") == "stats:events:3"
@@ -1,7 +1,7 @@
 
 import json
 import pytest
-from unittest.mock import AsyncMock, patch
+from unittest.mock import AsyncMock, MagicMock, patch
 
 from queue_consumer import QueueConsumer
 
@@ -17,9 +17,10 @@ def _make_job_json(task_id: str, source: str = "bot") -> str:
     })
 
 
-def _make_consumer() -> QueueConsumer:
+def _make_consumer(backend: str = "list") -> QueueConsumer:
     """Создаёт QueueConsumer с замоканными settings."""
     with patch("queue_consumer.settings") as mock_settings:
+        mock_settings.REDIS_QUEUE_BACKEND = backend
         mock_settings.REDIS_HOST = "redis"
         mock_settings.REDIS_PORT = 6379
         mock_settings.REDIS_DB = 0
@@ -141,3 +142,98 @@ class TestQueuePriority:
         consumer = _make_consumer()
         assert hasattr(consumer, "staging_subscription_name")
         assert consumer.staging_subscription_name == "telegram_export_subscription_processing"
+
+
+class TestPriorityQueueBackend:
+    """REDIS_QUEUE_BACKEND=zset: claim одним Lua-скриптом вместо трёх BLMOVE."""
+
+    @staticmethod
+    def _attach_script(consumer: QueueConsumer, result):
+        script = AsyncMock(return_value=result)
+        consumer.redis_client.register_script = MagicMock(return_value=script)
+        return script
+
+    def test_list_backend_by_default(self):
+        consumer = _make_consumer()
+        assert consumer.use_priority_queue is False
+
+    def test_priority_queue_key_names(self):
+        consumer = _make_consumer("zset")
+        assert consumer.use_priority_queue is True
+        assert consumer.priority_queue_name == "telegram_export:pq"
+        assert consumer.priority_payloads_name == "telegram_export:pq:payloads"
+
+    @pytest.mark.asyncio
+    async def test_claims_job_via_script_and_stores_staging_meta(self):
+        consumer = _make_consumer("zset")
+        consumer.redis_client = AsyncMock()
+        payload = _make_job_json("export_zset_001")
+        script = self._attach_script(consumer, [payload, consumer.staging_express_name])
+
+        job = await consumer.get_job()
+
+        assert job is not None
+        assert job.task_id == "export_zset_001"
+        consumer.redis_client.blmove.assert_not_called()
+        keys = script.call_args.kwargs["keys"]
+        assert keys[0] == "telegram_export:pq"
+        assert keys[1] == "telegram_export:pq:payloads"
+        assert keys[2:5] == [
+            consumer.express_queue_name,
+            consumer.queue_name,
+            consumer.subscription_queue_name,
+        ]
+        assert keys[5:] == [
+            consumer.staging_express_name,
+            consumer.staging_name,
+            consumer.staging_subscription_name,
+        ]
+        # staging:meta указывает на staging-список — _finalize_job сделает LREM как обычно
+        meta = json.loads(consumer.redis_client.setex.call_args.args[2])
+        assert meta["queue"] == consumer.staging_express_name
+        assert meta["payload"] == payload
+
+    @pytest.mark.asyncio
+    async def test_empty_priority_queue_sleeps_and_returns_none(self):
+        consumer = _make_consumer("zset")
+        consumer.redis_client = AsyncMock()
+        self._attach_script(consumer, None)
+
+        with patch("queue_consumer.asyncio.sleep", new=AsyncMock()) as sleep_mock:
+            job = await consumer.get_job()
+
+        assert job is None
+        sleep_mock.assert_awaited_once()
+
+    @pytest.mark.asyncio
+    async def test_script_registered_once(self):
+        consumer = _make_consumer("zset")
+        consumer.redis_client = AsyncMock()
+        self._attach_script(consumer, [_make_job_json("export_zset_002"), consumer.staging_name])
+
+        await consumer.get_job()
+        await consumer.get_job()
+
+        assert consumer.redis_client.register_script.call_count == 1
+
+    @pytest.mark.asyncio
+    async def test_malformed_claimed_payload_goes_to_dlq(self):
+        consumer = _make_consumer("zset")
+        consumer.redis_client = AsyncMock()
+        self._attach_script(consumer, ["{not json", consumer.staging_name])
+
+        job = await consumer.get_job()
+
+        assert job is None
+        consumer.redis_client.lrem.assert_any_await(consumer.staging_name, 1, "{not json")
+
+    @pytest.mark.asyncio
+    async def test_pending_jobs_total_includes_zset(self):
+        consumer = _make_consumer("zset")
+        consumer.redis_client = AsyncMock()
+        consumer.redis_client.llen = AsyncMock(return_value=0)
+        consumer.redis_client.zcard = AsyncMock(return_value=4)
+
+        result = await consumer.get_pending_jobs()
+
+        assert result["total_count"] == 4
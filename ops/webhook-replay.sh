@@ -0,0 +1,32 @@
+#!/usr/bin/env bash
+# Локальная заглушка Telegram для режима webhook: POST'ит записанные update'ы
+# (JSON-файлы Bot API) на эндпоинт java-bot так же, как это делает Telegram.
+#
+# Usage:
+#   TELEGRAM_WEBHOOK_SECRET=... ops/webhook-replay.sh [file.json ...]
+#   BOT_URL=http://localhost:8080 REPEAT=100 ops/webhook-replay.sh src/test/resources/webhook/*.json
+#
+# Без аргументов отправляет src/test/resources/webhook/*.json.
+# Ответ 503 — очередь бота переполнена (bot.webhook.shed); Telegram в этом
+# случае повторяет доставку, скрипт просто печатает код.
+
+set -uo pipefail
+
+BOT_URL="${BOT_URL:-http://localhost:8080}"
+SECRET="${TELEGRAM_WEBHOOK_SECRET:?TELEGRAM_WEBHOOK_SECRET не задан}"
+REPEAT="${REPEAT:-1}"
+
+if [[ $# -eq 0 ]]; then
+    set -- "$(dirname "$0")"/../src/test/resources/webhook/*.json
+fi
+
+for ((i = 1; i <= REPEAT; i++)); do
+    for file in "$@"; do
+        code=$(curl -s -o /dev/null -w '%{http_code}' \
+            -X POST "$BOT_URL/telegram/webhook" \
+            -H 'Content-Type: application/json' \
+            -H "X-Telegram-Bot-Api-Secret-Token: $SECRET" \
+            --data-binary "@$file")
+        echo "$(basename "$file") → $code"
+    done
+done
@@ -0,0 +1,107 @@
+package com.tcleaner.bot;
+
+import com.tcleaner.core.BotLanguage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.ReloadableResourceBundleMessageSource;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardRow;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ответ бота: текст с аргументами и клавиатура — через {@code MessageSource}
+ * (lookup + {@code MessageFormat} на каждый вызов, как до {@link BotMessageCatalog})
+ * и через скомпилированный catalog.
+ *
+ * <pre>mvn -Pjmh test-compile exec:exec -Dexec.args="BotI18nBenchmark"</pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BotI18nBenchmark {
+
+    @Param({"EN", "RU", "PT_BR", "FA"})
+    public BotLanguage lang;
+
+    private ReloadableResourceBundleMessageSource messageSource;
+    private BotI18n i18n;
+    private BotKeyboards keyboards;
+    private Locale locale;
+
+    @Setup
+    public void setUp() {
+        messageSource = new ReloadableResourceBundleMessageSource();
+        messageSource.setBasename("classpath:" + BotI18nConfig.BASENAME);
+        messageSource.setDefaultEncoding(StandardCharsets.UTF_8.name());
+        messageSource.setFallbackToSystemLocale(false);
+        messageSource.setDefaultLocale(Locale.ENGLISH);
+        messageSource.setCacheSeconds(600);
+        i18n = new BotI18n(messageSource);
+        keyboards = new BotKeyboards(i18n);
+        locale = lang.getLocale();
+    }
+
+    @Benchmark
+    public String messageSourceNoArgs() {
+        return messageSource.getMessage("bot.progress.convert", null, locale);
+    }
+
+    @Benchmark
+    public String catalogNoArgs() {
+        return i18n.msg(lang, "bot.progress.convert");
+    }
+
+    @Benchmark
+    public String messageSourceWithArgs() {
+        return messageSource.getMessage("bot.queue.position", new Object[] {3L, 2L}, locale);
+    }
+
+    @Benchmark
+    public String catalogWithArgs() {
+        return i18n.msg(lang, "bot.queue.position", 3L, 2L);
+    }
+
+    /** Прежний {@code dateChoiceKeyboard}: markup и тексты кнопок собираются на каждый вызов. */
+    @Benchmark
+    public InlineKeyboardMarkup keyboardRebuilt() {
+        return InlineKeyboardMarkup.builder()
+                .keyboardRow(new InlineKeyboardRow(button("bot.button.export_all", ExportBot.CB_EXPORT_ALL)))
+                .keyboardRow(new InlineKeyboardRow(
+                        button("bot.button.last_24h", ExportBot.CB_LAST_24H),
+                        button("bot.button.last_3d", ExportBot.CB_LAST_3D)))
+                .keyboardRow(new InlineKeyboardRow(
+                        button("bot.button.last_7d", ExportBot.CB_LAST_7D),
+                        button("bot.button.last_30d", ExportBot.CB_LAST_30D)))
+                .keyboardRow(new InlineKeyboardRow(button("bot.button.date_range", ExportBot.CB_DATE_RANGE)))
+                .keyboardRow(new InlineKeyboardRow(button("bot.button.back", ExportBot.CB_BACK_TO_MAIN)))
+                .build();
+    }
+
+    @Benchmark
+    public InlineKeyboardMarkup keyboardCached() {
+        return keyboards.dateChoiceKeyboard(lang);
+    }
+
+    private InlineKeyboardButton button(String key, String callbackData) {
+        return InlineKeyboardButton.builder()
+                .text(messageSource.getMessage(key, null, locale))
+                .callbackData(callbackData)
+                .build();
+    }
+}
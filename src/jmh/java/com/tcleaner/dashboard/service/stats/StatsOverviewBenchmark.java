@@ -0,0 +1,279 @@
+package com.tcleaner.dashboard.service.stats;
+
+import com.tcleaner.dashboard.dto.OverviewDto;
+import com.tcleaner.dashboard.service.stats.StatsPeriod.Granularity;
+import liquibase.integration.spring.SpringLiquibase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Главная страница дашборда на сгенерированном {@code dashboard.db} (схема — из changelog,
+ * rollup-ы — его триггерами): прежний {@code overviewWithDelta} (девять запросов: totals и
+ * активные юзеры за оба периода, топы в два шага, breakdown) и {@link StatsQueryService}
+ * (сводка обоих периодов условной агрегацией, топы с JOIN имён, breakdown). Кеш не участвует —
+ * сервис создаётся без Spring-прокси. Число SQL-запросов на вызов печатается в setup.
+ *
+ * <p>База генерируется один раз ({@code events} событий за год — минуты на 2M: каждое событие
+ * проходит rollup-триггеры) и переиспользуется, пока в ней не меньше событий.
+ *
+ * <pre>mvn -Pjmh test-compile exec:exec -Dexec.args="StatsOverviewBenchmark"</pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StatsOverviewBenchmark {
+
+    private static final LocalDate LAST_DAY = LocalDate.of(2026, 4, 30);
+    private static final StatsPeriod PERIOD = new StatsPeriod(LAST_DAY.minusDays(29), LAST_DAY, Granularity.DAY);
+    private static final DateTimeFormatter SQLITE_TS = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS")
+            .withZone(ZoneOffset.UTC);
+    private static final String[] STATUSES = {"COMPLETED", "COMPLETED", "COMPLETED", "FAILED", "CANCELLED"};
+
+    @Param({"target/bench/dashboard.db"})
+    public String db;
+
+    @Param({"2000000"})
+    public int events;
+
+    @Param({"50000"})
+    public int users;
+
+    /** 0 — ADMIN-агрегат, иначе USER-фильтр. */
+    @Param({"0", "42"})
+    public long botUserId;
+
+    private final AtomicLong statements = new AtomicLong();
+    private SingleConnectionDataSource dataSource;
+    private JdbcTemplate jdbc;
+    private StatsQueryService service;
+
+    @Setup
+    public void setUp() throws Exception {
+        Path file = Path.of(db);
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        dataSource = new SingleConnectionDataSource("jdbc:sqlite:" + file + "?date_class=text", true);
+        jdbc = new JdbcTemplate(countingDataSource());
+        jdbc.execute("PRAGMA journal_mode=WAL");
+        jdbc.execute("PRAGMA synchronous=NORMAL");
+
+        SpringLiquibase liquibase = new SpringLiquibase();
+        liquibase.setDataSource(dataSource);
+        liquibase.setResourceLoader(new DefaultResourceLoader());
+        liquibase.setChangeLog("classpath:/db/changelog/db.changelog-master.sql");
+        liquibase.afterPropertiesSet();
+
+        Long existing = jdbc.queryForObject("SELECT COUNT(*) FROM export_events", Long.class);
+        if (existing == null || existing < events) {
+            generate();
+        }
+        service = new StatsQueryService(jdbc);
+
+        System.out.printf("%nSQL-запросов на overviewWithDelta: прежний %d, текущий %d%n",
+                countStatements(this::legacyOverviewWithDelta), countStatements(this::overviewWithDelta));
+    }
+
+    @TearDown
+    public void tearDown() {
+        dataSource.destroy();
+    }
+
+    @Benchmark
+    public OverviewDto overviewWithDelta() {
+        return service.overviewWithDelta(PERIOD, botUserId);
+    }
+
+    /** Прежний {@code overviewWithDelta}: каждый виджет — свой запрос (топы — агрегат + lookup имён). */
+    @Benchmark
+    public OverviewDto legacyOverviewWithDelta() {
+        long[] current = legacyTotals(PERIOD);
+        long[] prev = legacyTotals(PERIOD.previous());
+        long usersNow = legacyActiveUsers(PERIOD);
+        long usersPrev = legacyActiveUsers(PERIOD.previous());
+
+        List<Map<String, Object>> topUsers = jdbc.queryForList("SELECT bot_user_id, SUM(exports) AS total_exports, "
+                + "SUM(messages) AS total_messages, SUM(bytes) AS total_bytes, MAX(last_started_at) AS last_seen "
+                + "FROM stats_daily_user WHERE day >= ? AND day <= ? " + userFilter()
+                + "GROUP BY bot_user_id HAVING total_exports > 0 ORDER BY total_exports DESC LIMIT 10",
+                args(PERIOD));
+        lookup("SELECT bot_user_id, username, display_name FROM bot_users WHERE bot_user_id IN ",
+                topUsers, "bot_user_id");
+        List<Map<String, Object>> topChats = jdbc.queryForList("SELECT chat_ref_id, SUM(exports) AS export_count, "
+                + "SUM(messages) AS total_messages, SUM(bytes) AS total_bytes "
+                + "FROM stats_daily_chat WHERE day >= ? AND day <= ? " + userFilter()
+                + "GROUP BY chat_ref_id HAVING export_count > 0 ORDER BY total_bytes DESC LIMIT 10",
+                args(PERIOD));
+        lookup("SELECT id, canonical_chat_id, chat_title FROM chats WHERE id IN ", topChats, "chat_ref_id");
+        jdbc.queryForList("SELECT status, SUM(exports) AS cnt FROM stats_daily_status "
+                + "WHERE day >= ? AND day <= ? " + userFilter() + "GROUP BY status HAVING cnt > 0", args(PERIOD));
+
+        return new OverviewDto(current[0], current[1], current[2], usersNow, List.of(), List.of(), Map.of(),
+                delta(current[0], prev[0]), delta(current[1], prev[1]), delta(current[2], prev[2]),
+                delta(usersNow, usersPrev), null);
+    }
+
+    private long[] legacyTotals(StatsPeriod period) {
+        String table = botUserId > 0 ? "stats_daily_user" : "stats_daily";
+        return jdbc.queryForObject("SELECT COALESCE(SUM(exports), 0), COALESCE(SUM(messages), 0), "
+                        + "COALESCE(SUM(bytes), 0) FROM " + table + " WHERE day >= ? AND day <= ? " + userFilter(),
+                (rs, n) -> new long[]{rs.getLong(1), rs.getLong(2), rs.getLong(3)}, args(period));
+    }
+
+    private long legacyActiveUsers(StatsPeriod period) {
+        Long result = jdbc.queryForObject("SELECT COUNT(DISTINCT bot_user_id) FROM stats_daily_user "
+                + "WHERE day >= ? AND day <= ? " + userFilter() + "AND exports > 0", Long.class, args(period));
+        return result != null ? result : 0L;
+    }
+
+    private void lookup(String sql, List<Map<String, Object>> rows, String idColumn) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        String placeholders = "?,".repeat(rows.size());
+        jdbc.queryForList(sql + "(" + placeholders.substring(0, placeholders.length() - 1) + ")",
+                rows.stream().map(r -> r.get(idColumn)).toArray());
+    }
+
+    private String userFilter() {
+        return botUserId > 0 ? "AND bot_user_id = ? " : "";
+    }
+
+    private Object[] args(StatsPeriod period) {
+        return botUserId > 0
+                ? new Object[]{period.fromDay(), period.toDay(), botUserId}
+                : new Object[]{period.fromDay(), period.toDay()};
+    }
+
+    private static Double delta(long current, long previous) {
+        return previous == 0 ? null : ((double) (current - previous) / previous) * 100.0;
+    }
+
+    private long countStatements(Runnable call) {
+        long before = statements.get();
+        call.run();
+        return statements.get() - before;
+    }
+
+    // Считает prepareStatement/createStatement на единственном соединении — это и есть запросы JdbcTemplate.
+    private DelegatingDataSource countingDataSource() {
+        return new DelegatingDataSource(dataSource) {
+            @Override
+            public Connection getConnection() throws SQLException {
+                Connection target = super.getConnection();
+                return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                        new Class<?>[]{Connection.class}, (proxy, method, methodArgs) -> {
+                            if (method.getName().endsWith("Statement")) {
+                                statements.incrementAndGet();
+                            }
+                            try {
+                                return method.invoke(target, methodArgs);
+                            } catch (InvocationTargetException ex) {
+                                throw ex.getCause();
+                            }
+                        });
+            }
+        };
+    }
+
+    /**
+     * {@code users} пользователей, {@code users / 10} чатов и {@code events} событий за год до
+     * {@link #LAST_DAY}: активность по юзерам скошена (квадрат равномерного), rollup-ы
+     * заполняют триггеры changelog-а — как при обычной ingestion.
+     */
+    private void generate() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        conn.setAutoCommit(false);
+        String now = SQLITE_TS.format(LAST_DAY.atStartOfDay().toInstant(ZoneOffset.UTC));
+        try (PreparedStatement user = conn.prepareStatement(
+                "INSERT OR IGNORE INTO bot_users (bot_user_id, username, display_name, first_seen, last_seen) "
+                        + "VALUES (?, ?, ?, ?, ?)");
+             PreparedStatement chat = conn.prepareStatement(
+                     "INSERT OR IGNORE INTO chats (id, canonical_chat_id, chat_id_raw, chat_title, "
+                             + "first_seen, last_seen) VALUES (?, ?, ?, ?, ?, ?)");
+             PreparedStatement event = conn.prepareStatement(
+                     "INSERT OR IGNORE INTO export_events (task_id, bot_user_id, chat_ref_id, started_at, finished_at, "
+                             + "status, messages_count, bytes_count, source, created_at, updated_at) "
+                             + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, 'BOT', ?, ?)")) {
+            for (int id = 1; id <= users; id++) {
+                user.setLong(1, id);
+                user.setString(2, "user" + id);
+                user.setString(3, "User " + id);
+                user.setString(4, now);
+                user.setString(5, now);
+                user.addBatch();
+            }
+            user.executeBatch();
+            int chats = Math.max(1, users / 10);
+            for (int id = 1; id <= chats; id++) {
+                chat.setLong(1, id);
+                chat.setString(2, "-100" + id);
+                chat.setString(3, "@chat" + id);
+                chat.setString(4, "Chat " + id);
+                chat.setString(5, now);
+                chat.setString(6, now);
+                chat.addBatch();
+            }
+            chat.executeBatch();
+
+            SplittableRandom random = new SplittableRandom(42);
+            long yearStart = LAST_DAY.minusDays(364).atStartOfDay().toEpochSecond(ZoneOffset.UTC);
+            for (int i = 0; i < events; i++) {
+                double skew = random.nextDouble();
+                String startedAt = SQLITE_TS.format(Instant.ofEpochSecond(yearStart + random.nextLong(365L * 86_400)));
+                long messages = random.nextLong(1, 50_000);
+                event.setString(1, "bench-" + i);
+                event.setLong(2, 1 + (long) (skew * skew * users));
+                event.setLong(3, 1 + random.nextInt(chats));
+                event.setString(4, startedAt);
+                event.setString(5, startedAt);
+                event.setString(6, STATUSES[random.nextInt(STATUSES.length)]);
+                event.setLong(7, messages);
+                event.setLong(8, messages * 700);
+                event.setString(9, startedAt);
+                event.setString(10, startedAt);
+                event.addBatch();
+                if (i % 10_000 == 9_999) {
+                    event.executeBatch();
+                }
+            }
+            event.executeBatch();
+            conn.commit();
+        } finally {
+            conn.setAutoCommit(true);
+        }
+        jdbc.execute("ANALYZE");
+    }
+}
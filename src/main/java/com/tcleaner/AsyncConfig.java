@@ -11,7 +11,7 @@ import java.util.concurrent.Executor;
 import java.util.concurrent.ThreadPoolExecutor;
 
 /**
- * Изолированный пул для {@code @Async}-методов (например, StatsStreamPublisher.publish).
+ * Изолированный пул для {@code @Async}-методов.
  * <p>
  * Bean назван {@code applicationTaskExecutor} — Spring {@code @EnableAsync} использует его
  * как default executor. До его появления @Async уходил на единственный TaskExecutor —
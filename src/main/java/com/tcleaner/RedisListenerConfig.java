@@ -0,0 +1,34 @@
+package com.tcleaner;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.listener.Topic;
+
+/**
+ * Общий {@link RedisMessageListenerContainer} для всех pub/sub-подписок приложения.
+ * <p>
+ * Каждый контейнер держит своё subscription-соединение к Redis и свой поток диспетчеризации,
+ * поэтому подписки (инвалидация кешей, relay live-ленты, keyspace notifications) не заводят
+ * контейнеров сами, а объявляют bean {@link Subscription} — здесь они регистрируются в одном.
+ * Выключенная по свойству подписка просто не создаёт свой {@link Subscription}.
+ */
+@Configuration
+public class RedisListenerConfig {
+
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(
+            RedisConnectionFactory connectionFactory, ObjectProvider<Subscription> subscriptions) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        subscriptions.orderedStream().forEach(s -> container.addMessageListener(s.listener(), s.topic()));
+        return container;
+    }
+
+    /** Слушатель и канал/паттерн, на который его подписывает общий контейнер. */
+    public record Subscription(MessageListener listener, Topic topic) {
+    }
+}
@@ -0,0 +1,77 @@
+package com.tcleaner.api;
+
+import com.tcleaner.bot.BotUpdateDispatcher;
+import com.tcleaner.bot.BotWebhookController;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Проверка {@code X-Telegram-Bot-Api-Secret-Token} на webhook-эндпоинте — по образцу
+ * {@link ApiKeyFilter}: Telegram присылает секрет, заданный при {@code setWebhook}, и
+ * без него любой мог бы подсунуть боту поддельные update'ы.
+ */
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE - 20)
+@ConditionalOnExpression(BotUpdateDispatcher.WEBHOOK_MODE)
+public class TelegramWebhookSecretFilter extends OncePerRequestFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(TelegramWebhookSecretFilter.class);
+
+    static final String SECRET_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+
+    private final byte[] expectedSecretHash;
+
+    public TelegramWebhookSecretFilter(@Value("${telegram.webhook.secret:}") String expectedSecret) {
+        if (expectedSecret == null || expectedSecret.isEmpty()) {
+            throw new IllegalStateException(
+                    "TELEGRAM_WEBHOOK_SECRET не установлен. Webhook без секрета запрещён.");
+        }
+        this.expectedSecretHash = sha256(expectedSecret);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !BotWebhookController.PATH.equals(request.getRequestURI());
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String provided = request.getHeader(SECRET_HEADER);
+        if (provided == null || !MessageDigest.isEqual(expectedSecretHash, sha256(provided))) {
+            log.warn("Webhook-запрос с неверным секретом: header_present={}", provided != null);
+            ApiErrorWriter.writeJson(
+                    response,
+                    HttpServletResponse.SC_UNAUTHORIZED,
+                    "invalid_webhook_secret",
+                    "Invalid webhook secret"
+            );
+            return;
+        }
+        filterChain.doFilter(request, response);
+    }
+
+    private static byte[] sha256(String value) {
+        try {
+            return MessageDigest.getInstance("SHA-256")
+                    .digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен в JRE", e);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.tcleaner.bot;
+
+import com.tcleaner.RedisListenerConfig;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.PatternTopic;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Подписка на keyspace notifications по {@code bot:blocked:*}: блокировка через
+ * {@code SET bot:blocked:{id}} применяется сразу, а не на следующем снимке
+ * {@link BotSecurityGate#refreshBlacklist()}.
+ *
+ * <p>Требует {@code notify-keyspace-events} с классами {@code K}, {@code g}, {@code $}
+ * и {@code x} (например {@code Kg$x}) на стороне Redis — в docker-compose они заданы в команде
+ * {@code redis-server}. Без них подписка просто молчит, и blacklist обновляется только по
+ * расписанию.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "telegram.security.blacklist.keyspace-events", name = "enabled",
+        havingValue = "true", matchIfMissing = true)
+public class BotBlacklistKeyspaceConfig {
+
+    static final String KEYSPACE_PATTERN = "__keyspace@*__:" + BotSecurityGate.BLOCKED_KEY_PREFIX + "*";
+
+    @Bean
+    public RedisListenerConfig.Subscription botBlacklistKeyspaceSubscription(BotSecurityGate securityGate) {
+        return new RedisListenerConfig.Subscription(keyspaceListener(securityGate),
+                new PatternTopic(KEYSPACE_PATTERN));
+    }
+
+    // Канал — "__keyspace@0__:bot:blocked:42", тело — имя события ("set", "del", "expired").
+    static MessageListener keyspaceListener(BotSecurityGate securityGate) {
+        return (Message message, byte[] pattern) -> securityGate.onBlacklistEvent(
+                new String(message.getChannel(), StandardCharsets.UTF_8),
+                new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+}
@@ -3,6 +3,7 @@ package com.tcleaner.bot;
 import com.tcleaner.core.BotLanguage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.MessageSource;
 import org.springframework.context.NoSuchMessageException;
@@ -14,6 +15,10 @@ import java.util.Locale;
  * Обёртка над {@link MessageSource} для бота. Резолвит ключи в правильную локаль,
  * подставляет аргументы {@code MessageFormat}-ом, в крайнем случае возвращает сам ключ
  * (лучше показать {@code bot.start.help} чем упасть).
+ *
+ * <p>Для {@link BotLanguage} тексты берутся из {@link BotMessageCatalog}, скомпилированного
+ * при старте; {@link MessageSource} — только для произвольной {@link Locale} и
+ * отсутствующих в catalog ключей.
  */
 @Component
 public class BotI18n {
@@ -21,13 +26,22 @@ public class BotI18n {
     private static final Logger log = LoggerFactory.getLogger(BotI18n.class);
 
     private final MessageSource botMessageSource;
+    private final BotMessageCatalog catalog;
 
-    public BotI18n(@Qualifier("botMessageSource") MessageSource botMessageSource) {
+    public BotI18n(MessageSource botMessageSource) {
+        this(botMessageSource, BotMessageCatalog.load(BotI18nConfig.BASENAME));
+    }
+
+    @Autowired
+    public BotI18n(@Qualifier("botMessageSource") MessageSource botMessageSource, BotMessageCatalog catalog) {
         this.botMessageSource = botMessageSource;
+        this.catalog = catalog;
     }
 
     public String msg(BotLanguage lang, String key, Object... args) {
-        return msg(lang != null ? lang.getLocale() : Locale.ENGLISH, key, args);
+        BotLanguage resolved = lang != null ? lang : BotLanguage.EN;
+        String text = catalog.format(resolved, key, args);
+        return text != null ? text : msg(resolved.getLocale(), key, args);
     }
 
     public String msg(Locale locale, String key, Object... args) {
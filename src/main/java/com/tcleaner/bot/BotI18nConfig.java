@@ -17,14 +17,19 @@ import java.util.Locale;
  *
  * <p>Fallback: {@code en} (базовый файл без суффикса) — возвращается при отсутствии
  * ключа в запрошенной локали.
+ *
+ * <p>{@link BotMessageCatalog} — те же bundle-ы, скомпилированные при старте; через него
+ * {@link BotI18n} отвечает на update'ы без lookup-ов и разбора {@code MessageFormat}.
  */
 @Configuration
 public class BotI18nConfig {
 
+    static final String BASENAME = "bot_messages";
+
     @Bean(name = "botMessageSource")
     public MessageSource botMessageSource() {
         ReloadableResourceBundleMessageSource source = new ReloadableResourceBundleMessageSource();
-        source.setBasename("classpath:bot_messages");
+        source.setBasename("classpath:" + BASENAME);
         source.setDefaultEncoding(StandardCharsets.UTF_8.name());
         source.setFallbackToSystemLocale(false);
         source.setDefaultLocale(Locale.ENGLISH);
@@ -32,4 +37,9 @@ public class BotI18nConfig {
         source.setCacheSeconds(600);
         return source;
     }
+
+    @Bean
+    public BotMessageCatalog botMessageCatalog() {
+        return BotMessageCatalog.load(BASENAME);
+    }
 }
@@ -7,23 +7,88 @@ import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKe
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardRow;
 
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Билдеры InlineKeyboardMarkup для Telegram-бота. Выделено из ExportBot
  * (God class). Зависит только от {@link BotI18n} (тексты кнопок) и от
  * package-private CB_* констант в {@link ExportBot}.
+ *
+ * <p>Статические меню (выбор дат, настройки, главное меню, выбор языка, отмена экспорта)
+ * собираются один раз при создании бина — для каждого {@link BotLanguage} — и отдаются
+ * одним и тем же экземпляром. Вызывающий код их не модифицирует: markup только
+ * сериализуется в запрос Bot API.
  */
 @Component
 public class BotKeyboards {
 
     private final BotI18n i18n;
+    private final Map<BotLanguage, Menus> menus = new EnumMap<>(BotLanguage.class);
+    private final InlineKeyboardMarkup languageChoice;
 
     public BotKeyboards(BotI18n i18n) {
         this.i18n = i18n;
+        for (BotLanguage lang : BotLanguage.values()) {
+            menus.put(lang, new Menus(buildDateChoice(lang), buildFromDate(lang), buildToDate(lang),
+                    buildSettings(lang), buildMainMenu(lang), buildCancelExport(lang)));
+        }
+        this.languageChoice = buildLanguageChoice();
     }
 
     public InlineKeyboardMarkup dateChoiceKeyboard(BotLanguage lang) {
+        return menus(lang).dateChoice();
+    }
+
+    public InlineKeyboardMarkup fromDateKeyboard(BotLanguage lang) {
+        return menus(lang).fromDate();
+    }
+
+    public InlineKeyboardMarkup toDateKeyboard(BotLanguage lang) {
+        return menus(lang).toDate();
+    }
+
+    public InlineKeyboardMarkup settingsKeyboard(BotLanguage lang) {
+        return menus(lang).settings();
+    }
+
+    public InlineKeyboardMarkup mainMenuKeyboard(BotLanguage lang) {
+        return menus(lang).mainMenu();
+    }
+
+    /**
+     * Клавиатура с одной кнопкой "Подтвердить подписку" для confirmation-flow.
+     * Callback data: "sub_confirm:{subscriptionId}".
+     */
+    public InlineKeyboardMarkup subConfirmKeyboard(BotLanguage lang, long subscriptionId) {
+        return InlineKeyboardMarkup.builder()
+                .keyboardRow(new InlineKeyboardRow(
+                        InlineKeyboardButton.builder()
+                                .text(i18n.msg(lang, "bot.button.sub_confirm"))
+                                .callbackData(ExportBot.CB_SUB_CONFIRM_PREFIX + subscriptionId)
+                                .build()))
+                .build();
+    }
+
+    /**
+     * Кнопка "Отменить экспорт" под сообщением "задача принята". Та же клавиатура
+     * передаётся при каждом обновлении прогресса — edit без reply_markup её снимает.
+     */
+    public InlineKeyboardMarkup cancelExportKeyboard(BotLanguage lang) {
+        return menus(lang).cancelExport();
+    }
+
+    /** Клавиатура выбора языка — 2 кнопки в ряд. Callback {@code lang:<code>}. */
+    public InlineKeyboardMarkup languageChoiceKeyboard() {
+        return languageChoice;
+    }
+
+    private Menus menus(BotLanguage lang) {
+        return menus.get(lang != null ? lang : BotLanguage.EN);
+    }
+
+    private InlineKeyboardMarkup buildDateChoice(BotLanguage lang) {
         return InlineKeyboardMarkup.builder()
                 .keyboardRow(new InlineKeyboardRow(button(lang, "bot.button.export_all", ExportBot.CB_EXPORT_ALL)))
                 .keyboardRow(new InlineKeyboardRow(
@@ -37,50 +102,42 @@ public class BotKeyboards {
                 .build();
     }
 
-    public InlineKeyboardMarkup fromDateKeyboard(BotLanguage lang) {
+    private InlineKeyboardMarkup buildFromDate(BotLanguage lang) {
         return InlineKeyboardMarkup.builder()
                 .keyboardRow(new InlineKeyboardRow(button(lang, "bot.button.from_start", ExportBot.CB_FROM_START)))
                 .keyboardRow(new InlineKeyboardRow(button(lang, "bot.button.back", ExportBot.CB_BACK_TO_DATE_CHOICE)))
                 .build();
     }
 
-    public InlineKeyboardMarkup toDateKeyboard(BotLanguage lang) {
+    private InlineKeyboardMarkup buildToDate(BotLanguage lang) {
         return InlineKeyboardMarkup.builder()
                 .keyboardRow(new InlineKeyboardRow(button(lang, "bot.button.to_today", ExportBot.CB_TO_TODAY)))
                 .keyboardRow(new InlineKeyboardRow(button(lang, "bot.button.back", ExportBot.CB_BACK_TO_FROM_DATE)))
                 .build();
     }
 
-    public InlineKeyboardMarkup settingsKeyboard(BotLanguage lang) {
+    private InlineKeyboardMarkup buildSettings(BotLanguage lang) {
         return InlineKeyboardMarkup.builder()
                 .keyboardRow(new InlineKeyboardRow(
                         button(lang, "bot.settings.change_language", ExportBot.CB_SETTINGS_LANGUAGE)))
                 .build();
     }
 
-    public InlineKeyboardMarkup mainMenuKeyboard(BotLanguage lang) {
+    private InlineKeyboardMarkup buildMainMenu(BotLanguage lang) {
         return InlineKeyboardMarkup.builder()
                 .keyboardRow(new InlineKeyboardRow(
                         button(lang, "bot.settings.title", ExportBot.CB_SETTINGS_OPEN)))
                 .build();
     }
 
-    /**
-     * Клавиатура с одной кнопкой "Подтвердить подписку" для confirmation-flow.
-     * Callback data: "sub_confirm:{subscriptionId}".
-     */
-    public InlineKeyboardMarkup subConfirmKeyboard(BotLanguage lang, long subscriptionId) {
+    private InlineKeyboardMarkup buildCancelExport(BotLanguage lang) {
         return InlineKeyboardMarkup.builder()
                 .keyboardRow(new InlineKeyboardRow(
-                        InlineKeyboardButton.builder()
-                                .text(i18n.msg(lang, "bot.button.sub_confirm"))
-                                .callbackData(ExportBot.CB_SUB_CONFIRM_PREFIX + subscriptionId)
-                                .build()))
+                        button(lang, "bot.button.cancel_export", ExportBot.CB_CANCEL_EXPORT)))
                 .build();
     }
 
-    /** Клавиатура выбора языка — 2 кнопки в ряд. Callback {@code lang:<code>}. */
-    public InlineKeyboardMarkup languageChoiceKeyboard() {
+    private static InlineKeyboardMarkup buildLanguageChoice() {
         InlineKeyboardMarkup.InlineKeyboardMarkupBuilder markup = InlineKeyboardMarkup.builder();
         List<InlineKeyboardButton> row = new ArrayList<>(2);
         for (BotLanguage lang : BotLanguage.allActive()) {
@@ -105,4 +162,9 @@ public class BotKeyboards {
                 .callbackData(callbackData)
                 .build();
     }
+
+    private record Menus(InlineKeyboardMarkup dateChoice, InlineKeyboardMarkup fromDate,
+                         InlineKeyboardMarkup toDate, InlineKeyboardMarkup settings,
+                         InlineKeyboardMarkup mainMenu, InlineKeyboardMarkup cancelExport) {
+    }
 }
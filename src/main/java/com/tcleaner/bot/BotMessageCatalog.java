@@ -0,0 +1,233 @@
+package com.tcleaner.bot;
+
+import com.tcleaner.core.BotLanguage;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.text.DateFormat;
+import java.text.MessageFormat;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Тексты бота, разобранные один раз при старте: для каждого {@link BotLanguage} —
+ * готовая карта ключ → шаблон с учётом fallback-цепочки {@code botMessageSource}
+ * ({@code bot_messages_pt_BR} → {@code _pt} → {@code _en} → базовый файл).
+ *
+ * <p>Шаблон хранится уже разрезанным на литералы и номера аргументов: ответ на update
+ * не ищет ключ по bundle-ам и не парсит {@link MessageFormat}, а склеивает куски.
+ * Результат совпадает с {@code MessageSource.getMessage}: без аргументов возвращается
+ * исходная строка, числа форматируются {@link NumberFormat} локали, даты —
+ * {@code SHORT}-форматом. Шаблоны со сложными аргументами ({@code {0,number,#}},
+ * {@code choice}) форматируются {@link MessageFormat}, как и раньше.
+ *
+ * <p>Catalog неизменяем и потокобезопасен. Hot-reload ({@code cacheSeconds}) на него не
+ * распространяется: bundle-ы лежат в jar и меняются только вместе с релизом.
+ */
+public final class BotMessageCatalog {
+
+    private final Map<BotLanguage, Map<String, Template>> templates;
+
+    private BotMessageCatalog(Map<BotLanguage, Map<String, Template>> templates) {
+        this.templates = templates;
+    }
+
+    /**
+     * Читает {@code classpath:<basename>[_<suffix>].properties} (UTF-8) для всех языков
+     * и компилирует шаблоны.
+     */
+    public static BotMessageCatalog load(String basename) {
+        Map<String, Properties> files = new HashMap<>();
+        Map<BotLanguage, Map<String, Template>> byLanguage = new EnumMap<>(BotLanguage.class);
+        for (BotLanguage lang : BotLanguage.values()) {
+            Map<String, String> merged = new HashMap<>();
+            // От низшего приоритета к высшему: ключи конкретной локали перекрывают fallback.
+            for (String suffix : fallbackChain(lang.getLocale())) {
+                Properties props = files.computeIfAbsent(suffix, s -> read(basename, s));
+                props.stringPropertyNames().forEach(key -> merged.put(key, props.getProperty(key)));
+            }
+            Locale locale = lang.getLocale();
+            // NumberFormat не потокобезопасен — по экземпляру на поток, общий для всех шаблонов языка.
+            ThreadLocal<NumberFormat> numbers = ThreadLocal.withInitial(() -> NumberFormat.getInstance(locale));
+            Map<String, Template> compiled = new HashMap<>(merged.size() * 2);
+            merged.forEach((key, text) -> compiled.put(key, Template.compile(text, locale, numbers)));
+            byLanguage.put(lang, Map.copyOf(compiled));
+        }
+        return new BotMessageCatalog(byLanguage);
+    }
+
+    /**
+     * Текст ключа на языке {@code lang} с подставленными {@code args}.
+     *
+     * @return {@code null} — ключа нет ни в локали, ни в fallback
+     */
+    public String format(BotLanguage lang, String key, Object... args) {
+        Template template = templates.get(lang).get(key);
+        if (template == null) {
+            return null;
+        }
+        return args == null || args.length == 0 ? template.raw : template.format(args);
+    }
+
+    public Set<String> keys(BotLanguage lang) {
+        return templates.get(lang).keySet();
+    }
+
+    private static List<String> fallbackChain(Locale locale) {
+        Set<String> chain = new LinkedHashSet<>();
+        chain.add("");
+        chain.add(Locale.ENGLISH.getLanguage());
+        chain.add(locale.getLanguage());
+        chain.add(locale.toString());
+        return new ArrayList<>(chain);
+    }
+
+    private static Properties read(String basename, String suffix) {
+        Properties props = new Properties();
+        ClassPathResource resource = new ClassPathResource(
+                basename + (suffix.isEmpty() ? "" : "_" + suffix) + ".properties");
+        if (!resource.exists()) {
+            return props;
+        }
+        try (Reader reader = new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8)) {
+            props.load(reader);
+        } catch (IOException e) {
+            throw new IllegalStateException("Не удалось прочитать " + resource.getPath(), e);
+        }
+        return props;
+    }
+
+    /**
+     * Разобранный шаблон: {@code parts} — литералы ({@link String}) и номера аргументов
+     * ({@link Integer}). {@code complex != null} — в шаблоне есть форматы, которые
+     * быстрый путь не поддерживает.
+     */
+    private static final class Template {
+
+        final String raw;
+        final Object[] parts;
+        final Locale locale;
+        final ThreadLocal<NumberFormat> numbers;
+        final MessageFormat complex;
+        final int estimatedLength;
+
+        private Template(String raw, Object[] parts, Locale locale, ThreadLocal<NumberFormat> numbers,
+                         MessageFormat complex) {
+            this.raw = raw;
+            this.parts = parts;
+            this.locale = locale;
+            this.numbers = numbers;
+            this.complex = complex;
+            this.estimatedLength = raw.length() + 16;
+        }
+
+        static Template compile(String raw, Locale locale, ThreadLocal<NumberFormat> numbers) {
+            List<Object> parts = new ArrayList<>();
+            StringBuilder literal = new StringBuilder();
+            int i = 0;
+            while (i < raw.length()) {
+                char c = raw.charAt(i);
+                if (c == '\'') {
+                    // MessageFormat: '' — апостроф, '...' — экранированный текст.
+                    int end = raw.indexOf('\'', i + 1);
+                    if (end == i + 1) {
+                        literal.append('\'');
+                    } else {
+                        literal.append(raw, i + 1, end < 0 ? raw.length() : end);
+                    }
+                    i = end < 0 ? raw.length() : end + 1;
+                } else if (c == '{') {
+                    int end = raw.indexOf('}', i + 1);
+                    Integer index = end < 0 ? null : parseIndex(raw.substring(i + 1, end));
+                    if (index == null) {
+                        return complex(raw, locale, numbers);
+                    }
+                    if (!literal.isEmpty()) {
+                        parts.add(literal.toString());
+                        literal.setLength(0);
+                    }
+                    parts.add(index);
+                    i = end + 1;
+                } else {
+                    literal.append(c);
+                    i++;
+                }
+            }
+            if (!literal.isEmpty()) {
+                parts.add(literal.toString());
+            }
+            return new Template(raw, parts.toArray(), locale, numbers, null);
+        }
+
+        private static Template complex(String raw, Locale locale, ThreadLocal<NumberFormat> numbers) {
+            try {
+                return new Template(raw, new Object[0], locale, numbers, new MessageFormat(raw, locale));
+            } catch (IllegalArgumentException e) {
+                // Битый шаблон не должен ронять старт бота — показываем его как есть.
+                return new Template(raw, new Object[] {raw}, locale, numbers, null);
+            }
+        }
+
+        // Как в MessageFormat: номер аргумента — только цифры, без пробелов.
+        private static Integer parseIndex(String arg) {
+            if (arg.isEmpty() || arg.length() > 9) {
+                return null;
+            }
+            for (int i = 0; i < arg.length(); i++) {
+                if (arg.charAt(i) < '0' || arg.charAt(i) > '9') {
+                    return null;
+                }
+            }
+            return Integer.valueOf(arg);
+        }
+
+        String format(Object[] args) {
+            if (complex != null) {
+                synchronized (complex) {
+                    return complex.format(args);
+                }
+            }
+            StringBuilder sb = new StringBuilder(estimatedLength);
+            for (Object part : parts) {
+                if (part instanceof Integer index) {
+                    appendArg(sb, index, args);
+                } else {
+                    sb.append((String) part);
+                }
+            }
+            return sb.toString();
+        }
+
+        // Те же правила, что у MessageFormat для аргумента без формата.
+        private void appendArg(StringBuilder sb, int index, Object[] args) {
+            if (index >= args.length) {
+                sb.append('{').append(index).append('}');
+                return;
+            }
+            Object arg = args[index];
+            if (arg == null) {
+                sb.append("null");
+            } else if (arg instanceof String s) {
+                sb.append(s);
+            } else if (arg instanceof Number) {
+                sb.append(numbers.get().format(arg));
+            } else if (arg instanceof Date) {
+                sb.append(DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT, locale).format(arg));
+            } else {
+                sb.append(arg);
+            }
+        }
+    }
+}
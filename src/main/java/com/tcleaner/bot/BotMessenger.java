@@ -9,6 +9,7 @@ import org.telegram.telegrambots.meta.api.methods.botapimethods.BotApiMethod;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.methods.commands.SetMyCommands;
 import org.telegram.telegrambots.meta.api.methods.groupadministration.GetChat;
+import org.telegram.telegrambots.meta.api.methods.updates.SetWebhook;
 import org.telegram.telegrambots.meta.api.methods.updatingmessages.EditMessageText;
 import org.telegram.telegrambots.meta.api.objects.chat.ChatFullInfo;
 import org.telegram.telegrambots.meta.api.objects.commands.BotCommand;
@@ -160,4 +161,26 @@ public class BotMessenger {
             log.info("Кнопка меню установлена: {}", url);
         }
     }
+
+    /**
+     * Регистрирует webhook: Telegram начинает слать update'ы POST'ом на {@code url} с заголовком
+     * {@code X-Telegram-Bot-Api-Secret-Token}. {@code SetWebhook} — не {@link BotApiMethod}
+     * (может нести сертификат multipart'ом), поэтому отдельный вызов мимо executeQuietly.
+     */
+    public boolean setWebhook(String url, String secretToken, int maxConnections) {
+        SetWebhook method = SetWebhook.builder()
+                .url(url)
+                .secretToken(secretToken)
+                .maxConnections(maxConnections)
+                .build();
+        try {
+            if (Boolean.TRUE.equals(telegramClient.execute(method))) {
+                log.info("Webhook зарегистрирован: {}", url);
+                return true;
+            }
+        } catch (TelegramApiException e) {
+            log.error("Не удалось зарегистрировать webhook {}: {}", url, e.getMessage());
+        }
+        return false;
+    }
 }
@@ -1,49 +1,329 @@
 package com.tcleaner.bot;
 
-import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import java.time.Clock;
 import java.time.Duration;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Проверки до обработки update: blacklist и flood-лимит. Обе отвечают из памяти —
+ * на горячем пути нет ни одного запроса к Redis.
+ *
+ * <p>Blacklist — локальный снимок ключей {@code bot:blocked:*}: полный {@code SCAN} по
+ * расписанию плюс keyspace notifications ({@link BotBlacklistKeyspaceConfig}), которые
+ * применяются сразу — и между снимками, и во время {@code SCAN}. Blacklist — десятки id,
+ * поэтому хватает обычного множества.
+ *
+ * <p>Flood — sliding window (взвешенная сумма счётчиков текущего и предыдущего окна), общий
+ * для всех инстансов: решение принимается по локальной оценке, а локально накопленные
+ * сообщения раз в {@code sync-interval} одним Lua-скриптом сливаются в Redis, откуда
+ * возвращаются общие счётчики. Сообщения с других инстансов учитываются с задержкой
+ * не больше интервала синхронизации.
+ */
 @Component
 public class BotSecurityGate {
 
     private static final Logger log = LoggerFactory.getLogger(BotSecurityGate.class);
 
-    private static final String BLOCKED_KEY_PREFIX = "bot:blocked:";
-    private static final int FLOOD_LIMIT = 3;
-    private static final Duration FLOOD_WINDOW = Duration.ofSeconds(5);
+    static final String BLOCKED_KEY_PREFIX = "bot:blocked:";
+    private static final String FLOOD_KEY_PREFIX = "bot:flood:";
+    private static final int SCAN_BATCH = 1_000;
+
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> FLOOD_WINDOW_SCRIPT =
+            RedisScript.of(new ClassPathResource("redis/flood_window.lua"), List.class);
 
     private final StringRedisTemplate redis;
+    private final Clock clock;
+    private final int floodLimit;
+    private final long windowMs;
+
+    private final Set<Long> blocked = ConcurrentHashMap.newKeySet();
+    // События во время SCAN: userId → ключ есть после события. null — refresh не идёт.
+    // Доступ, как и к слиянию снимка с blocked, — под blacklistLock.
+    private final Object blacklistLock = new Object();
+    private Map<Long, Boolean> scanEvents;
+    private final Map<Long, FloodWindow> floodWindows = new ConcurrentHashMap<>();
 
-    private final Cache<Long, AtomicInteger> floodCounters = Caffeine.newBuilder()
-            .expireAfterWrite(FLOOD_WINDOW)
-            .build();
+    private final Counter blockedCounter;
+    private final Counter floodedCounter;
+    private final Counter syncErrorsCounter;
 
     public BotSecurityGate(StringRedisTemplate redis) {
+        this(redis, new SimpleMeterRegistry(), Clock.systemUTC(), 3, Duration.ofSeconds(5));
+    }
+
+    @Autowired
+    public BotSecurityGate(
+            StringRedisTemplate redis,
+            MeterRegistry meterRegistry,
+            Clock clock,
+            @Value("${telegram.security.flood.limit:3}") int floodLimit,
+            @Value("${telegram.security.flood.window:PT5S}") Duration floodWindow
+    ) {
         this.redis = redis;
+        this.clock = clock;
+        this.floodLimit = floodLimit;
+        this.windowMs = floodWindow.toMillis();
+        this.blockedCounter = Counter.builder("bot.security.rejected")
+                .tag("reason", "blocked")
+                .description("Update отброшен: пользователь в blacklist")
+                .register(meterRegistry);
+        this.floodedCounter = Counter.builder("bot.security.rejected")
+                .tag("reason", "flood")
+                .description("Update отброшен: превышен flood-лимит")
+                .register(meterRegistry);
+        this.syncErrorsCounter = Counter.builder("bot.security.flood.sync.errors")
+                .register(meterRegistry);
+        Gauge.builder("bot.security.blacklist.size", blocked, Set::size)
+                .register(meterRegistry);
     }
 
     public boolean isBlocked(long userId) {
+        if (blocked.contains(userId)) {
+            blockedCounter.increment();
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isFlooded(long userId) {
+        long now = clock.millis();
+        FloodWindow window = floodWindows.computeIfAbsent(userId, k -> new FloodWindow());
+        double estimate;
+        synchronized (window) {
+            window.rollTo(now / windowMs);
+            window.pending++;
+            estimate = window.estimate(now % windowMs / (double) windowMs);
+        }
+        if (estimate <= floodLimit) {
+            return false;
+        }
+        floodedCounter.increment();
+        if (estimate - 1 <= floodLimit) {
+            log.warn("Flood from userId={}: ~{} messages in {}s sliding window",
+                    userId, Math.round(estimate), windowMs / 1000);
+        }
+        return true;
+    }
+
+    /**
+     * Перечитывает blacklist целиком. {@code SCAN} не атомарен: ключ, удалённый после того, как
+     * курсор его прошёл, или созданный позади курсора, дал бы устаревший снимок. Поэтому
+     * keyspace-события на время {@code SCAN} запоминаются и накладываются поверх снимка — они
+     * новее. Ошибка Redis оставляет прежний снимок (до первого успешного — пустой, fail-open).
+     */
+    @Scheduled(initialDelayString = "PT0S", fixedDelayString = "${telegram.security.blacklist.refresh:PT30S}")
+    public void refreshBlacklist() {
+        synchronized (blacklistLock) {
+            scanEvents = new HashMap<>();
+        }
+        Set<Long> snapshot = new HashSet<>();
+        try (Cursor<String> cursor = redis.scan(ScanOptions.scanOptions()
+                .match(BLOCKED_KEY_PREFIX + "*").count(SCAN_BATCH).build())) {
+            while (cursor.hasNext()) {
+                Long userId = parseUserId(cursor.next());
+                if (userId != null) {
+                    snapshot.add(userId);
+                }
+            }
+        } catch (Exception e) {
+            synchronized (blacklistLock) {
+                scanEvents = null;
+            }
+            log.warn("Redis unavailable for blacklist refresh: keeping {} cached entries ({})",
+                    blocked.size(), e.getMessage());
+            return;
+        }
+        synchronized (blacklistLock) {
+            scanEvents.forEach((userId, present) -> {
+                if (present) {
+                    snapshot.add(userId);
+                } else {
+                    snapshot.remove(userId);
+                }
+            });
+            scanEvents = null;
+            blocked.retainAll(snapshot);
+            blocked.addAll(snapshot);
+        }
+    }
+
+    /**
+     * Keyspace-событие по ключу {@code bot:blocked:{userId}}: {@code set} добавляет
+     * пользователя в снимок, удаление, истечение TTL и вытеснение — убирают. Во время
+     * {@link #refreshBlacklist()} событие ещё и запоминается для наложения на результат {@code SCAN}.
+     */
+    public void onBlacklistEvent(String key, String event) {
+        Long userId = parseUserId(key);
+        if (userId == null) {
+            return;
+        }
+        boolean present;
+        switch (event) {
+            case "set", "rename_to" -> present = true;
+            case "del", "expired", "evicted", "rename_from" -> present = false;
+            default -> {
+                // expire, persist и прочие на наличие ключа не влияют
+                return;
+            }
+        }
+        synchronized (blacklistLock) {
+            if (present) {
+                blocked.add(userId);
+            } else {
+                blocked.remove(userId);
+            }
+            if (scanEvents != null) {
+                scanEvents.put(userId, present);
+            }
+        }
+    }
+
+    /**
+     * Сливает локально накопленные счётчики в Redis и забирает общие. Пользователи без
+     * новых сообщений в запрос не попадают; записи старше предыдущего окна удаляются.
+     */
+    @Scheduled(fixedDelayString = "${telegram.security.flood.sync-interval:PT0.25S}")
+    public void syncFloodWindows() {
+        long currentWindow = clock.millis() / windowMs;
+        List<Long> userIds = new ArrayList<>();
+        List<FloodWindow> windows = new ArrayList<>();
+        List<long[]> drained = new ArrayList<>();
+        for (Map.Entry<Long, FloodWindow> entry : floodWindows.entrySet()) {
+            FloodWindow window = entry.getValue();
+            synchronized (window) {
+                if (window.pending > 0) {
+                    drained.add(new long[] {window.index, window.pending});
+                    window.inFlight += window.pending;
+                    window.pending = 0;
+                    userIds.add(entry.getKey());
+                    windows.add(window);
+                } else if (window.inFlight == 0 && window.index < currentWindow - 1) {
+                    floodWindows.remove(entry.getKey(), window);
+                }
+            }
+        }
+        if (userIds.isEmpty()) {
+            return;
+        }
+
+        List<String> keys = new ArrayList<>(userIds.size() * 2);
+        Object[] args = new Object[userIds.size() + 1];
+        args[0] = String.valueOf(Math.max(1, windowMs * 2 / 1000));
+        for (int i = 0; i < userIds.size(); i++) {
+            long index = drained.get(i)[0];
+            keys.add(FLOOD_KEY_PREFIX + userIds.get(i) + ":" + index);
+            keys.add(FLOOD_KEY_PREFIX + userIds.get(i) + ":" + (index - 1));
+            args[i + 1] = String.valueOf(drained.get(i)[1]);
+        }
+
+        List<?> reply;
         try {
-            return Boolean.TRUE.equals(redis.hasKey(BLOCKED_KEY_PREFIX + userId));
+            reply = redis.execute(FLOOD_WINDOW_SCRIPT, keys, args);
         } catch (Exception e) {
-            log.warn("Redis unavailable for blacklist check userId={}: fail-open", userId);
-            return false;
+            syncErrorsCounter.increment();
+            log.debug("Flood sync failed, counting locally: {}", e.getMessage());
+            reply = null;
+        }
+        for (int i = 0; i < windows.size(); i++) {
+            FloodWindow window = windows.get(i);
+            long index = drained.get(i)[0];
+            long count = drained.get(i)[1];
+            synchronized (window) {
+                if (reply == null || reply.size() < 2 * (i + 1)) {
+                    window.unsynced(index, count);
+                } else {
+                    window.synced(index, count, toLong(reply.get(2 * i)), toLong(reply.get(2 * i + 1)));
+                }
+            }
         }
     }
 
-    public boolean isFlooded(long userId) {
-        AtomicInteger counter = floodCounters.get(userId, k -> new AtomicInteger(0));
-        int count = counter.incrementAndGet();
-        if (count == FLOOD_LIMIT + 1) {
-            log.warn("Flood from userId={}: {} messages in {}s window", userId, count, FLOOD_WINDOW.getSeconds());
+    private static Long parseUserId(String key) {
+        if (key == null) {
+            return null;
+        }
+        int at = key.lastIndexOf(BLOCKED_KEY_PREFIX);
+        if (at < 0) {
+            return null;
+        }
+        try {
+            return Long.parseLong(key.substring(at + BLOCKED_KEY_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static long toLong(Object value) {
+        return value instanceof Number number ? number.longValue() : 0L;
+    }
+
+    /**
+     * Счётчики пользователя: общие (по последней синхронизации) и локальные сверх них.
+     * Доступ — под монитором самого объекта.
+     */
+    static final class FloodWindow {
+        private long index = Long.MIN_VALUE;
+        private long previous;
+        private long remote;
+        private long pending;
+        private long inFlight;
+
+        void rollTo(long newIndex) {
+            if (newIndex == index) {
+                return;
+            }
+            previous = newIndex == index + 1 ? remote + pending + inFlight : 0;
+            remote = 0;
+            pending = 0;
+            inFlight = 0;
+            index = newIndex;
+        }
+
+        double estimate(double elapsedFraction) {
+            return previous * (1 - elapsedFraction) + remote + inFlight + pending;
+        }
+
+        // Ответ Redis: current уже включает отправленные сообщения, поэтому они уходят из
+        // inFlight. Если окно успело смениться, ответ относится к предыдущему окну.
+        void synced(long sentIndex, long sent, long current, long before) {
+            if (sentIndex == index) {
+                inFlight -= sent;
+                remote = Math.max(remote, current);
+                previous = Math.max(previous, before);
+            } else if (sentIndex == index - 1) {
+                previous = Math.max(previous, current);
+            }
+        }
+
+        // Redis недоступен: сообщения остаются в локальной оценке и уйдут следующей попыткой.
+        void unsynced(long sentIndex, long sent) {
+            if (sentIndex == index) {
+                inFlight -= sent;
+                pending += sent;
+            }
         }
-        return count > FLOOD_LIMIT;
     }
 }
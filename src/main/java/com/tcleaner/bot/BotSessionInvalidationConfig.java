@@ -0,0 +1,52 @@
+package com.tcleaner.bot;
+
+import com.tcleaner.RedisListenerConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Подписка на {@link RedisSessionStore#CHANGES_CHANNEL}: запись сессии на другом инстансе
+ * сбрасывает устаревшую копию в near-cache {@link BotSessionRegistry}. Свои сообщения
+ * пропускаются по {@code instanceId}.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "telegram.session", name = "store", havingValue = "redis")
+public class BotSessionInvalidationConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(BotSessionInvalidationConfig.class);
+
+    @Bean
+    public RedisListenerConfig.Subscription botSessionInvalidationSubscription(
+            RedisSessionStore store, BotSessionRegistry registry) {
+        return new RedisListenerConfig.Subscription(changesListener(store.instanceId(), registry),
+                new ChannelTopic(RedisSessionStore.CHANGES_CHANNEL));
+    }
+
+    // Тело — "{instanceId}:{userId}:{version}".
+    static MessageListener changesListener(String ownInstanceId, BotSessionRegistry registry) {
+        return (Message message, byte[] pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            String[] parts = body.split(":");
+            if (parts.length != 3) {
+                log.warn("Невалидное уведомление в {}: {}", RedisSessionStore.CHANGES_CHANNEL, body);
+                return;
+            }
+            if (parts[0].equals(ownInstanceId)) {
+                return;
+            }
+            try {
+                registry.evictIfStale(Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+            } catch (NumberFormatException ex) {
+                log.warn("Невалидное уведомление в {}: {}", RedisSessionStore.CHANGES_CHANNEL, body);
+            }
+        };
+    }
+}
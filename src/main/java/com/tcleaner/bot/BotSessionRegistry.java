@@ -1,48 +1,123 @@
 package com.tcleaner.bot;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
 
 import java.time.Duration;
-import java.time.Instant;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Map;
 
 /**
- * Реестр {@link UserSession} с автоэвикцией. Выделено из ExportBot
- * (God class). ConcurrentHashMap безопасен для concurrent {@code consume}
- * и {@code @Scheduled} eviction.
+ * Реестр {@link UserSession}. Выделено из ExportBot (God class).
+ *
+ * <p>Сессии живут в near-cache процесса (Caffeine, {@code expireAfterAccess} = TTL сессии —
+ * истечение без периодической чистки). С {@link SessionStore} (Redis, несколько инстансов)
+ * near-cache — read-through: промах читает хранилище, а изменения за update записываются
+ * одним вызовом {@link #save(long)} после его обработки. Горячий путь остаётся локальным:
+ * копия сбрасывается только по уведомлению о более новой версии с другого инстанса.
+ * Без хранилища — прежний режим single-node.
  */
 @Component
 public class BotSessionRegistry {
 
     private static final Logger log = LoggerFactory.getLogger(BotSessionRegistry.class);
 
-    private static final long SESSION_EVICT_DELAY_MS = 30 * 60 * 1000L;
-    private static final Duration STALE_AFTER = Duration.ofHours(2);
+    static final String CACHE_NAME = "bot_session";
+    private static final Duration DEFAULT_TTL = Duration.ofHours(2);
 
-    private final ConcurrentHashMap<Long, UserSession> sessions = new ConcurrentHashMap<>();
+    private final SessionStore store;
+    private final Cache<Long, UserSession> sessions;
+
+    public BotSessionRegistry() {
+        this(null, DEFAULT_TTL, Ticker.systemTicker(), null);
+    }
+
+    @Autowired
+    public BotSessionRegistry(
+            @Nullable SessionStore store,
+            @Value("${telegram.session.ttl:PT2H}") Duration ttl,
+            @Nullable MeterRegistry meterRegistry
+    ) {
+        this(store, ttl, Ticker.systemTicker(), meterRegistry);
+    }
+
+    BotSessionRegistry(SessionStore store, Duration ttl, Ticker ticker, MeterRegistry meterRegistry) {
+        this.store = store;
+        this.sessions = Caffeine.newBuilder()
+                .expireAfterAccess(ttl)
+                .ticker(ticker)
+                .recordStats()
+                .build();
+        if (meterRegistry != null) {
+            CaffeineCacheMetrics.monitor(meterRegistry, sessions, CACHE_NAME);
+        }
+    }
 
     /**
      * Возвращает сессию пользователя, создавая при отсутствии. Обновляет
-     * {@code lastAccess} для антиэвикции.
+     * {@code lastAccess}.
      */
     public UserSession get(long userId) {
-        UserSession session = sessions.computeIfAbsent(userId, k -> new UserSession());
+        UserSession session = sessions.get(userId, this::loadOrCreate);
         session.touch();
         return session;
     }
 
-    @Scheduled(fixedDelay = SESSION_EVICT_DELAY_MS)
-    public void evictStaleSessions() {
-        if (sessions.isEmpty()) return;
-        Instant cutoff = Instant.now().minus(STALE_AFTER);
-        int beforeSize = sessions.size();
-        sessions.entrySet().removeIf(entry -> entry.getValue().getLastAccess().isBefore(cutoff));
-        int removed = beforeSize - sessions.size();
-        if (removed > 0) {
-            log.info("Evicted {} stale sessions. Current count: {}", removed, sessions.size());
+    /**
+     * Записывает изменения сессии в {@link SessionStore}, если они были. Вызывается один раз
+     * после обработки update — несколько setter'ов одного шага мастера дают одну запись.
+     * Ошибка хранилища не ломает ответ пользователю: изменения остаются в near-cache и
+     * уйдут со следующей записью.
+     */
+    public void save(long userId) {
+        if (store == null) {
+            return;
+        }
+        UserSession session = sessions.getIfPresent(userId);
+        if (session == null) {
+            return;
+        }
+        Map<String, String> changes = session.drainChanges();
+        if (changes == null) {
+            return;
+        }
+        try {
+            session.setVersion(store.save(userId, changes));
+        } catch (RuntimeException ex) {
+            session.markDirty();
+            log.warn("Не удалось сохранить сессию userId={}: {}", userId, ex.getMessage());
+        }
+    }
+
+    /**
+     * Уведомление о записи сессии другим инстансом: локальная копия старее — сбрасывается,
+     * следующий {@link #get} прочитает хранилище. Несохранённые изменения не сбрасываются.
+     */
+    public void evictIfStale(long userId, long version) {
+        sessions.asMap().computeIfPresent(userId, (id, session) ->
+                session.getVersion() < version && !session.isDirty() ? null : session);
+    }
+
+    private UserSession loadOrCreate(long userId) {
+        if (store != null) {
+            try {
+                UserSession loaded = store.load(userId);
+                if (loaded != null) {
+                    return loaded;
+                }
+            } catch (RuntimeException ex) {
+                log.warn("Хранилище сессий недоступно userId={}: начинаем с пустой ({})",
+                        userId, ex.getMessage());
+            }
         }
+        return new UserSession();
     }
 }
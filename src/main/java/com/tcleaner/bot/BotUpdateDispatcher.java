@@ -0,0 +1,183 @@
+package com.tcleaner.bot;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Очередь update'ов режима webhook: HTTP-поток только кладёт update и сразу отвечает
+ * Telegram, обработка — в фоновых потоках тем же {@link ExportBot#consume(Update)}.
+ *
+ * <p>Очередь разбита на {@code workers} партиций по userId: update'ы одного пользователя
+ * обрабатываются строго по порядку одним потоком (сессия мастера не рассчитана на
+ * параллельные шаги), разные пользователи — параллельно. Поток забирает накопившееся
+ * пачкой до {@code max-batch} ({@code drainTo}) вместо пробуждения на каждый update.
+ *
+ * <p>Ёмкость партиции ограничена; переполненная отклоняет update ({@link #offer} →
+ * {@code false}, контроллер отвечает 503) — Telegram повторит доставку позже, память
+ * процесса не растёт. Метрики: {@code bot.webhook.received}, {@code bot.webhook.shed},
+ * {@code bot.webhook.backlog}, {@code bot.webhook.queue.wait}.
+ */
+@Component
+@ConditionalOnExpression(BotUpdateDispatcher.WEBHOOK_MODE)
+public class BotUpdateDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(BotUpdateDispatcher.class);
+
+    public static final String WEBHOOK_MODE =
+            "'${telegram.bot.token:}' != '' and '${telegram.bot.mode:polling}' == 'webhook'";
+
+    private static final long POLL_TIMEOUT_MS = 500;
+    private static final long SHUTDOWN_TIMEOUT_MS = 5_000;
+
+    private final Consumer<Update> handler;
+    private final List<BlockingQueue<Enqueued>> partitions;
+    private final int maxBatch;
+    private final Counter received;
+    private final Counter shed;
+    private final Timer queueWait;
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running;
+
+    @Autowired
+    public BotUpdateDispatcher(
+            ExportBot bot,
+            MeterRegistry meterRegistry,
+            @Value("${telegram.webhook.workers:4}") int workers,
+            @Value("${telegram.webhook.queue-capacity:1000}") int queueCapacity,
+            @Value("${telegram.webhook.max-batch:50}") int maxBatch
+    ) {
+        this(bot::consume, meterRegistry, workers, queueCapacity, maxBatch);
+    }
+
+    BotUpdateDispatcher(Consumer<Update> handler, MeterRegistry meterRegistry,
+                        int workers, int queueCapacity, int maxBatch) {
+        this.handler = handler;
+        this.maxBatch = Math.max(1, maxBatch);
+        int partitionCapacity = Math.max(1, queueCapacity / Math.max(1, workers));
+        this.partitions = new ArrayList<>(workers);
+        for (int i = 0; i < Math.max(1, workers); i++) {
+            partitions.add(new ArrayBlockingQueue<>(partitionCapacity));
+        }
+        this.received = Counter.builder("bot.webhook.received").register(meterRegistry);
+        this.shed = Counter.builder("bot.webhook.shed")
+                .description("Update'ы, отклонённые 503 из-за переполненной очереди")
+                .register(meterRegistry);
+        this.queueWait = Timer.builder("bot.webhook.queue.wait")
+                .description("Время update'а в очереди до обработки")
+                .register(meterRegistry);
+        Gauge.builder("bot.webhook.backlog", this, BotUpdateDispatcher::backlog)
+                .description("Update'ы в очереди webhook")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        for (int i = 0; i < partitions.size(); i++) {
+            BlockingQueue<Enqueued> partition = partitions.get(i);
+            Thread thread = new Thread(() -> drain(partition), "bot-webhook-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            workers.add(thread);
+        }
+        log.info("Webhook-очередь запущена: {} партиций по {} update'ов",
+                partitions.size(), partitions.get(0).remainingCapacity());
+    }
+
+    /**
+     * Ставит update в партицию его пользователя.
+     *
+     * @return {@code false} — партиция переполнена, update не принят
+     */
+    public boolean offer(Update update) {
+        received.increment();
+        long userId = ExportBot.extractUserId(update);
+        BlockingQueue<Enqueued> partition =
+                partitions.get(Math.floorMod(Long.hashCode(userId), partitions.size()));
+        if (partition.offer(new Enqueued(update, System.nanoTime()))) {
+            return true;
+        }
+        shed.increment();
+        log.warn("Webhook-очередь переполнена, update {} отклонён", update.getUpdateId());
+        return false;
+    }
+
+    int backlog() {
+        int total = 0;
+        for (BlockingQueue<Enqueued> partition : partitions) {
+            total += partition.size();
+        }
+        return total;
+    }
+
+    private void drain(BlockingQueue<Enqueued> partition) {
+        List<Enqueued> batch = new ArrayList<>(maxBatch);
+        // После stop() поток дорабатывает уже принятое: Telegram считает эти update'ы доставленными.
+        while (running || !partition.isEmpty()) {
+            try {
+                Enqueued first = partition.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                partition.drainTo(batch, maxBatch - 1);
+                for (Enqueued enqueued : batch) {
+                    queueWait.record(System.nanoTime() - enqueued.enqueuedAtNanos(), TimeUnit.NANOSECONDS);
+                    process(enqueued.update());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void process(Update update) {
+        try {
+            handler.accept(update);
+        } catch (RuntimeException ex) {
+            // ExportBot.consume сам ловит ошибки обработки; сюда доходит только неожиданное.
+            log.error("Webhook update {} не обработан: {}", update.getUpdateId(), ex.getMessage(), ex);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        long deadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT_MS;
+        for (Thread worker : workers) {
+            try {
+                worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (backlog() > 0) {
+            log.warn("Webhook-очередь остановлена, не обработано update'ов: {}", backlog());
+        }
+    }
+
+    private record Enqueued(Update update, long enqueuedAtNanos) {
+    }
+}
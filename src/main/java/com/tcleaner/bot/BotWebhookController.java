@@ -0,0 +1,74 @@
+package com.tcleaner.bot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+/**
+ * Приём update'ов в режиме {@code telegram.bot.mode=webhook}. Секрет проверяет
+ * {@link com.tcleaner.api.TelegramWebhookSecretFilter} до контроллера; здесь update только
+ * ставится в {@link BotUpdateDispatcher} — ответ Telegram не ждёт обработки.
+ */
+@RestController
+@ConditionalOnExpression(BotUpdateDispatcher.WEBHOOK_MODE)
+public class BotWebhookController {
+
+    private static final Logger log = LoggerFactory.getLogger(BotWebhookController.class);
+
+    public static final String PATH = "/telegram/webhook";
+    // Telegram повторяет недоставленный update с backoff; подсказка на случай ретраев от прокси.
+    private static final String RETRY_AFTER_SECONDS = "5";
+
+    private final BotUpdateDispatcher dispatcher;
+    private final BotMessenger messenger;
+    private final String webhookUrl;
+    private final String secretToken;
+    private final int maxConnections;
+
+    public BotWebhookController(
+            BotUpdateDispatcher dispatcher,
+            BotMessenger messenger,
+            @Value("${telegram.webhook.url:}") String webhookUrl,
+            @Value("${telegram.webhook.secret:}") String secretToken,
+            @Value("${telegram.webhook.max-connections:40}") int maxConnections
+    ) {
+        this.dispatcher = dispatcher;
+        this.messenger = messenger;
+        this.webhookUrl = webhookUrl;
+        this.secretToken = secretToken;
+        this.maxConnections = maxConnections;
+    }
+
+    @PostMapping(PATH)
+    public ResponseEntity<Void> receive(@RequestBody Update update) {
+        if (dispatcher.offer(update)) {
+            return ResponseEntity.ok().build();
+        }
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                .build();
+    }
+
+    /**
+     * Регистрирует webhook при старте. Пустой {@code telegram.webhook.url} — webhook ставится
+     * вручную (или локальной заглушкой {@code ops/webhook-replay.sh}), бот только принимает.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    void registerWebhook() {
+        if (webhookUrl == null || webhookUrl.isBlank()) {
+            log.warn("telegram.webhook.url не задан: webhook не регистрируется, update'ы ждём на {}", PATH);
+            return;
+        }
+        messenger.setWebhook(webhookUrl, secretToken, maxConnections);
+    }
+}
@@ -15,7 +15,6 @@ import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 import org.telegram.telegrambots.longpolling.interfaces.LongPollingUpdateConsumer;
-import org.telegram.telegrambots.longpolling.starter.SpringLongPollingBot;
 import org.telegram.telegrambots.longpolling.util.LongPollingSingleThreadUpdateConsumer;
 import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
 import org.telegram.telegrambots.meta.api.objects.Update;
@@ -28,7 +27,7 @@ import java.util.List;
 
 @Component
 @ConditionalOnExpression("'${telegram.bot.token:}' != ''")
-public class ExportBot implements SpringLongPollingBot, LongPollingSingleThreadUpdateConsumer {
+public class ExportBot implements LongPollingSingleThreadUpdateConsumer {
 
     private static final Logger log = LoggerFactory.getLogger(ExportBot.class);
 
@@ -62,6 +61,7 @@ public class ExportBot implements SpringLongPollingBot, LongPollingSingleThreadU
     private final BotSecurityGate securityGate;
     private final ExportBotCommandHandler commandHandler;
     private final ExportBotCallbackHandler callbackHandler;
+    private final BotSessionRegistry sessionRegistry;
 
     public ExportBot(
             @Value("${telegram.bot.token}") String botToken,
@@ -72,7 +72,8 @@ public class ExportBot implements SpringLongPollingBot, LongPollingSingleThreadU
             MeterRegistry meterRegistry,
             BotSecurityGate securityGate,
             ExportBotCommandHandler commandHandler,
-            ExportBotCallbackHandler callbackHandler
+            ExportBotCallbackHandler callbackHandler,
+            BotSessionRegistry sessionRegistry
     ) {
         java.net.URI parsed;
         try {
@@ -99,6 +100,7 @@ public class ExportBot implements SpringLongPollingBot, LongPollingSingleThreadU
         this.securityGate = securityGate;
         this.commandHandler = commandHandler;
         this.callbackHandler = callbackHandler;
+        this.sessionRegistry = sessionRegistry;
         log.info("Telegram-бот инициализирован");
     }
 
@@ -120,12 +122,12 @@ public class ExportBot implements SpringLongPollingBot, LongPollingSingleThreadU
         );
     }
 
-    @Override
+    // Регистрация в long polling — ExportBotLongPolling (только в режиме polling);
+    // в режиме webhook update'ы приходят через BotUpdateDispatcher в тот же consume().
     public String getBotToken() {
         return botToken;
     }
 
-    @Override
     public LongPollingUpdateConsumer getUpdatesConsumer() {
         return this;
     }
@@ -141,10 +143,15 @@ public class ExportBot implements SpringLongPollingBot, LongPollingSingleThreadU
         } catch (Exception ex) {
             consumeErrorsCounter.increment();
             log.error("Update processing fail: {}", ex.getMessage(), ex);
+        } finally {
+            // Все изменения сессии за update — одной записью во внешнее хранилище.
+            if (userId > 0) {
+                sessionRegistry.save(userId);
+            }
         }
     }
 
-    private static long extractUserId(Update update) {
+    static long extractUserId(Update update) {
         if (update.hasCallbackQuery() && update.getCallbackQuery().getFrom() != null) {
             return update.getCallbackQuery().getFrom().getId();
         }
@@ -6,11 +6,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
 import org.telegram.telegrambots.meta.api.objects.chat.ChatFullInfo;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
-import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
-import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardRow;
 
 import java.time.LocalDate;
 import java.time.LocalTime;
@@ -35,6 +34,7 @@ public class ExportBotCommandHandler {
     private final BotUserUpserter userUpserter;
     private final QueueDisplayBuilder queueDisplayBuilder;
     private final ChatEligibilityService chatEligibilityService;
+    private final ExportProgressNotifier progressNotifier;
 
     public ExportBotCommandHandler(
             ExportJobProducer jobProducer,
@@ -49,7 +49,6 @@ public class ExportBotCommandHandler {
                 queueDisplayBuilder, new ChatEligibilityService());
     }
 
-    @Autowired
     public ExportBotCommandHandler(
             ExportJobProducer jobProducer,
             BotMessenger messenger,
@@ -59,6 +58,22 @@ public class ExportBotCommandHandler {
             BotUserUpserter userUpserter,
             QueueDisplayBuilder queueDisplayBuilder,
             ChatEligibilityService chatEligibilityService
+    ) {
+        this(jobProducer, messenger, i18n, keyboards, sessionRegistry, userUpserter,
+                queueDisplayBuilder, chatEligibilityService, null);
+    }
+
+    @Autowired
+    public ExportBotCommandHandler(
+            ExportJobProducer jobProducer,
+            BotMessenger messenger,
+            BotI18n i18n,
+            BotKeyboards keyboards,
+            BotSessionRegistry sessionRegistry,
+            BotUserUpserter userUpserter,
+            QueueDisplayBuilder queueDisplayBuilder,
+            ChatEligibilityService chatEligibilityService,
+            @Nullable ExportProgressNotifier progressNotifier
     ) {
         this.jobProducer = jobProducer;
         this.messenger = messenger;
@@ -68,6 +83,7 @@ public class ExportBotCommandHandler {
         this.userUpserter = userUpserter;
         this.queueDisplayBuilder = queueDisplayBuilder;
         this.chatEligibilityService = chatEligibilityService;
+        this.progressNotifier = progressNotifier;
     }
 
     public void handleMessageText(long chatId, long userId, String text) {
@@ -99,9 +115,9 @@ public class ExportBotCommandHandler {
             return;
         }
 
-        String taskId;
+        ExportJobProducer.EnqueueResult enqueued;
         try {
-            taskId = jobProducer.enqueue(userId, chatId, targetIdentifier,
+            enqueued = jobProducer.enqueueExport(userId, chatId, targetIdentifier,
                     session.getTopicId(), session.getFromDate(), session.getToDate());
         } catch (IllegalStateException ex) {
             log.warn("Попытка дублирующего экспорта от пользователя {}: {}", userId, ex.getMessage());
@@ -115,24 +131,17 @@ public class ExportBotCommandHandler {
             return;
         }
 
+        String taskId = enqueued.taskId();
         String chatDisplay = session.getChatDisplay();
         String dateInfo = queueDisplayBuilder.dateInfo(lang, session);
 
-        boolean fromCache = jobProducer.isLikelyCached(targetIdentifier);
-        long pendingInQueue = jobProducer.getQueueLength();
-        boolean hasActiveJob = jobProducer.hasActiveProcessingJob();
-        String queueInfo = queueDisplayBuilder.build(lang, fromCache, pendingInQueue, hasActiveJob);
+        // cached/позиция/hasActive посчитаны тем же скриптом, что поставил задачу, — без лишних RTT
+        String queueInfo = queueDisplayBuilder.build(lang, enqueued);
 
         String resultText = i18n.msg(lang, "bot.task.accepted",
                 taskId, chatDisplay, dateInfo, queueInfo);
 
-        InlineKeyboardMarkup cancelKeyboard = InlineKeyboardMarkup.builder()
-                .keyboardRow(new InlineKeyboardRow(
-                        InlineKeyboardButton.builder()
-                                .text(i18n.msg(lang, "bot.button.cancel_export"))
-                                .callbackData(ExportBot.CB_CANCEL_EXPORT)
-                                .build()))
-                .build();
+        InlineKeyboardMarkup cancelKeyboard = keyboards.cancelExportKeyboard(lang);
 
         int sentMsgId;
         if (editMessageId > 0) {
@@ -143,6 +152,11 @@ public class ExportBotCommandHandler {
         }
         if (sentMsgId > 0) {
             jobProducer.storeQueueMsgId(taskId, chatId, sentMsgId);
+            if (progressNotifier != null && !enqueued.cached()) {
+                // Заголовок без строки очереди: её дальше подменяет live-прогресс.
+                progressNotifier.track(taskId, chatId, sentMsgId, lang,
+                        i18n.msg(lang, "bot.task.accepted", taskId, chatDisplay, dateInfo, ""), resultText);
+            }
         }
 
         log.info("Пользователь {} запросил экспорт чата {}, taskId={}, from={}, to={}",
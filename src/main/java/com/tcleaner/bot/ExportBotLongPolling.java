@@ -0,0 +1,32 @@
+package com.tcleaner.bot;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.longpolling.interfaces.LongPollingUpdateConsumer;
+import org.telegram.telegrambots.longpolling.starter.SpringLongPollingBot;
+
+/**
+ * Регистрация {@link ExportBot} в long polling starter'е. Отдельный бин, чтобы в режиме
+ * {@code telegram.bot.mode=webhook} starter не запускал getUpdates: Telegram отвечает на
+ * него 409, пока установлен webhook.
+ */
+@Component
+@ConditionalOnExpression("'${telegram.bot.token:}' != '' and '${telegram.bot.mode:polling}' != 'webhook'")
+public class ExportBotLongPolling implements SpringLongPollingBot {
+
+    private final ExportBot bot;
+
+    public ExportBotLongPolling(ExportBot bot) {
+        this.bot = bot;
+    }
+
+    @Override
+    public String getBotToken() {
+        return bot.getBotToken();
+    }
+
+    @Override
+    public LongPollingUpdateConsumer getUpdatesConsumer() {
+        return bot.getUpdatesConsumer();
+    }
+}
@@ -19,6 +19,10 @@ import lombok.Builder;
  *
  * <p>Раньше тут был {@code Map<String,Object>} — schema-drift между Java и Python
  * порождал инциденты (см. CLAUDE.md feedback_verify_protocol_data_format).
+ *
+ * <p><b>enqueuedAt</b> — epoch ms постановки ручного экспорта: по нему {@code enqueue_export.lua}
+ * в режиме list переводит давно ждущие main-задачи в express (aging между уровнями).
+ * Воркер поле не использует.
  */
 @JsonInclude(JsonInclude.Include.NON_NULL)
 @Builder
@@ -35,6 +39,7 @@ public record ExportJobPayload(
         @JsonProperty("keywords") String keywords,
         @JsonProperty("exclude_keywords") String excludeKeywords,
         @JsonProperty("source") String source,
-        @JsonProperty("subscription_id") Long subscriptionId
+        @JsonProperty("subscription_id") Long subscriptionId,
+        @JsonProperty("enqueued_at") Long enqueuedAt
 ) {
 }
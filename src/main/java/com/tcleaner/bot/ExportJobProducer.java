@@ -5,11 +5,16 @@ import com.tcleaner.dashboard.domain.ExportSource;
 import com.tcleaner.dashboard.events.StatsEventPayload;
 import com.tcleaner.dashboard.events.StatsEventType;
 import com.tcleaner.dashboard.events.StatsStreamPublisher;
+import com.tcleaner.dashboard.service.queue.ExportCostEstimator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
@@ -29,53 +34,93 @@ public class ExportJobProducer {
     private final ObjectMapper objectMapper;
     private final String queueName;
     private final ObjectProvider<StatsStreamPublisher> statsPublisherProvider;
+    private final boolean priorityQueue;
+    private final String priorityQueueKey;
+    private final String priorityPayloadsKey;
+    @Nullable
+    private final ExportCostEstimator costEstimator;
 
+    /**
+     * @param queueBackend {@code list} — три Redis-списка; {@code zset} — приоритетная
+     *                     очередь {@code {queue}:pq} (score = priority * 1e13 + epoch_ms, member = taskId)
+     *                     с payload'ами в hash {@code {queue}:pq:payloads}. Воркер в режиме zset
+     *                     досасывает и legacy-списки, поэтому его переключают первым.
+     * @param costEstimator оценка стоимости для shortest-job-first; нет бина — бинарная
+     *                      маршрутизация по кэшу
+     */
+    @Autowired
     public ExportJobProducer(
             StringRedisTemplate redis,
             ObjectMapper objectMapper,
             @Value("${telegram.queue.name}") String queueName,
-            ObjectProvider<StatsStreamPublisher> statsPublisherProvider
+            ObjectProvider<StatsStreamPublisher> statsPublisherProvider,
+            @Value("${telegram.queue.backend:list}") String queueBackend,
+            ObjectProvider<ExportCostEstimator> costEstimator
     ) {
         this.redis = redis;
         this.objectMapper = objectMapper;
         this.queueName = queueName;
         this.statsPublisherProvider = statsPublisherProvider;
+        if (!BACKEND_LIST.equals(queueBackend) && !BACKEND_ZSET.equals(queueBackend)) {
+            throw new IllegalArgumentException("telegram.queue.backend должен быть list или zset: " + queueBackend);
+        }
+        this.priorityQueue = BACKEND_ZSET.equals(queueBackend);
+        this.priorityQueueKey = queueName + PRIORITY_QUEUE_SUFFIX;
+        this.priorityPayloadsKey = priorityQueueKey + PRIORITY_PAYLOADS_SUFFIX;
+        this.costEstimator = costEstimator.getIfAvailable();
     }
 
     public String enqueue(long userId, long userChatId, long chatId) {
-        return enqueue(userId, userChatId, (Object) chatId, null, null, null, null, null);
+        return enqueue(userId, userChatId, (Object) chatId, null, null, null, null, null).taskId();
     }
 
     public String enqueue(long userId, long userChatId, long chatId, String fromDate, String toDate) {
-        return enqueue(userId, userChatId, (Object) chatId, null, fromDate, toDate, null, null);
+        return enqueue(userId, userChatId, (Object) chatId, null, fromDate, toDate, null, null).taskId();
     }
 
     public String enqueue(long userId, long userChatId, String chatIdentifier) {
-        return enqueue(userId, userChatId, (Object) chatIdentifier, null, null, null, null, null);
+        return enqueue(userId, userChatId, (Object) chatIdentifier, null, null, null, null, null).taskId();
     }
 
     public String enqueue(long userId, long userChatId, String chatIdentifier,
                           String fromDate, String toDate) {
-        return enqueue(userId, userChatId, (Object) chatIdentifier, null, fromDate, toDate, null, null);
+        return enqueue(userId, userChatId, (Object) chatIdentifier, null, fromDate, toDate, null, null).taskId();
     }
 
     public String enqueue(long userId, long userChatId, String chatIdentifier,
                           Integer topicId, String fromDate, String toDate) {
-        return enqueue(userId, userChatId, (Object) chatIdentifier, topicId, fromDate, toDate, null, null);
+        return enqueueExport(userId, userChatId, chatIdentifier, topicId, fromDate, toDate).taskId();
     }
 
     private static final String ACTIVE_EXPORT_PREFIX = "active_export:";
     private static final String CANCEL_EXPORT_PREFIX = "cancel_export:";
     private static final String JOB_JSON_PREFIX = "job_json:";
+    private static final String JOB_QUEUE_PREFIX = "job_queue:";
     private static final String ACTIVE_PROCESSING_JOB_KEY = "active_processing_job";
     private static final long ACTIVE_EXPORT_TTL_MINUTES = 60;
+    private static final long ACTIVE_EXPORT_TTL_SECONDS = TimeUnit.MINUTES.toSeconds(ACTIVE_EXPORT_TTL_MINUTES);
     private static final long QUEUE_MSG_TTL_HOURS = 2;
     private static final int TASK_ID_LENGTH = 16;
     private static final String EXPRESS_QUEUE_SUFFIX = "_express";
     private static final String SUBSCRIPTION_QUEUE_SUFFIX = "_subscription";
-
-    private String enqueue(long userId, long userChatId, Object chatId, Integer topicId,
-                           String fromDate, String toDate, String keywords, String excludeKeywords) {
+    private static final String PRIORITY_QUEUE_SUFFIX = ":pq";
+    private static final String PRIORITY_PAYLOADS_SUFFIX = ":payloads";
+    private static final String BACKEND_LIST = "list";
+    private static final String BACKEND_ZSET = "zset";
+    /** score = priority * base + epoch_ms; epoch_ms < 1e13 до 2286 года, double точен до 2^53. */
+    private static final long PRIORITY_SCORE_BASE = 10_000_000_000_000L;
+    private static final int PRIORITY_SUBSCRIPTION = 2;
+
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> ENQUEUE_SCRIPT =
+            RedisScript.of(new ClassPathResource("redis/enqueue_export.lua"), List.class);
+    private static final RedisScript<Long> ENQUEUE_PRIORITY_SCRIPT =
+            RedisScript.of(new ClassPathResource("redis/enqueue_priority_job.lua"), Long.class);
+    private static final RedisScript<Long> RESCORE_PRIORITY_SCRIPT =
+            RedisScript.of(new ClassPathResource("redis/rescore_priority_job.lua"), Long.class);
+
+    private EnqueueResult enqueue(long userId, long userChatId, Object chatId, Integer topicId,
+                                  String fromDate, String toDate, String keywords, String excludeKeywords) {
         String taskId = "export_" + UUID.randomUUID().toString().replace("-", "").substring(0, TASK_ID_LENGTH);
 
         ExportJobPayload payload = ExportJobPayload.builder()
@@ -88,6 +133,7 @@ public class ExportJobProducer {
                 .toDate(toDate)
                 .keywords(keywords)
                 .excludeKeywords(excludeKeywords)
+                .enqueuedAt(System.currentTimeMillis())
                 .build();
 
         String json;
@@ -97,39 +143,114 @@ public class ExportJobProducer {
             throw new RuntimeException("Ошибка сериализации задачи", e);
         }
 
-        // Атомарно помечаем экспорт активным (SET NX EX). Дубликат → IllegalStateException БЕЗ cleanup.
-        Boolean reserved = redis.opsForValue().setIfAbsent(
-                ACTIVE_EXPORT_PREFIX + userId, taskId,
-                ACTIVE_EXPORT_TTL_MINUTES, TimeUnit.MINUTES
-        );
-        if (!Boolean.TRUE.equals(reserved)) {
-            String existing = redis.opsForValue().get(ACTIVE_EXPORT_PREFIX + userId);
-            throw new IllegalStateException("Экспорт уже активен: " + existing);
-        }
+        // Только кэш истории: SQLite на пути постановки не читается (см. refineCost).
+        ExportCostEstimator.Estimate cost = estimateCost(chatId, topicId, fromDate, toDate);
 
+        // Бронь active_export, выбор express/main, метаданные, RPUSH и размеры очередей —
+        // одним Lua-скриптом (один RTT). Скрипт атомарен: частичного состояния, которое
+        // пришлось бы откатывать, не бывает.
+        List<?> reply;
         try {
-            // Если данные чата уже в кэше — задача идёт в приоритетную очередь
-            boolean cached = isLikelyCached(chatId);
-            String targetQueue = cached ? queueName + EXPRESS_QUEUE_SUFFIX : queueName;
-            // Сохраняем метаданные ДО LPUSH: если LPUSH упадёт — откат удалит бронь,
-            // а эти ключи протухнут по TTL без последствий.
-            // Если же SET упадёт до LPUSH — задача не попадёт в очередь (безопасно).
-            redis.opsForValue().set(JOB_JSON_PREFIX + taskId, json, ACTIVE_EXPORT_TTL_MINUTES, TimeUnit.MINUTES);
-            redis.opsForValue().set("job_queue:" + taskId, targetQueue, ACTIVE_EXPORT_TTL_MINUTES, TimeUnit.MINUTES);
-            redis.opsForList().rightPush(targetQueue, json);
-            log.info("Задача {} добавлена в очередь {} (chat_id={}, cached={})", taskId, targetQueue, chatId, cached);
-            publishExportStarted(taskId, userId, chatId, topicId, fromDate, toDate, keywords, excludeKeywords);
-            return taskId;
+            reply = redis.execute(ENQUEUE_SCRIPT,
+                    List.of(ACTIVE_EXPORT_PREFIX + userId,
+                            JOB_JSON_PREFIX + taskId,
+                            JOB_QUEUE_PREFIX + taskId,
+                            queueName,
+                            queueName + EXPRESS_QUEUE_SUFFIX,
+                            queueName + SUBSCRIPTION_QUEUE_SUFFIX,
+                            ACTIVE_PROCESSING_JOB_KEY,
+                            priorityQueueKey,
+                            priorityPayloadsKey),
+                    taskId, json, String.valueOf(ACTIVE_EXPORT_TTL_SECONDS), String.valueOf(chatId),
+                    priorityQueue ? BACKEND_ZSET : BACKEND_LIST, String.valueOf(PRIORITY_SCORE_BASE),
+                    String.valueOf(cost.cachedPenaltyMs()), String.valueOf(cost.uncachedPenaltyMs()),
+                    cost.cheap() ? "1" : "0",
+                    String.valueOf(costEstimator != null ? costEstimator.maxPenaltyMs() : 0));
         } catch (Exception e) {
             log.error("Не удалось добавить задачу в очередь: {}", e.getMessage(), e);
+            throw new RuntimeException("Ошибка добавления задачи в очередь", e);
+        }
+        if (reply == null || reply.isEmpty()) {
+            throw new RuntimeException("Ошибка добавления задачи в очередь: пустой ответ скрипта");
+        }
+        if (asLong(reply.get(0)) != 1L) {
+            // Дубликат → IllegalStateException; бронь чужая, трогать её нельзя.
+            Object existing = reply.size() > 1 ? reply.get(1) : null;
+            throw new IllegalStateException("Экспорт уже активен: " + existing);
+        }
+
+        EnqueueResult result = new EnqueueResult(
+                taskId,
+                asLong(reply.get(2)) == 1L,
+                asLong(reply.get(3)),
+                asLong(reply.get(4)) == 1L,
+                asLong(reply.get(5)));
+        log.info("Задача {} добавлена в очередь (chat_id={}, cached={}, pending={}, cost≈{})",
+                taskId, chatId, result.cached(), result.pendingInQueue(),
+                result.cached() ? cost.cachedMessages() : cost.uncachedMessages());
+        if (costEstimator != null) {
+            costEstimator.remember(taskId, result.cached() ? cost.cachedMessages() : cost.uncachedMessages(),
+                    result.cached());
+            if (cost.provisional()) {
+                refineCost(taskId, chatId, topicId, fromDate, toDate, cost, result.cached());
+            }
+        }
+        publishExportStarted(taskId, userId, chatId, topicId, fromDate, toDate, keywords, excludeKeywords);
+        return result;
+    }
+
+    /**
+     * То же, что {@link #enqueue(long, long, String, Integer, String, String)}, но вместе с
+     * taskId возвращает то, что бот показывает в "задача принята": попала ли задача в
+     * express-очередь и сколько задач сейчас в очередях. Всё считается тем же Lua-скриптом,
+     * поэтому вызывающему не нужны отдельные {@link #isLikelyCached}/{@link #getQueueLength}.
+     *
+     * @throws IllegalStateException у пользователя уже есть активный экспорт
+     */
+    public EnqueueResult enqueueExport(long userId, long userChatId, String chatIdentifier,
+                                       Integer topicId, String fromDate, String toDate) {
+        return enqueue(userId, userChatId, (Object) chatIdentifier, topicId, fromDate, toDate, null, null);
+    }
+
+    // Оценка не должна ломать постановку: при любой ошибке — нулевой штраф (поведение до SJF).
+    private ExportCostEstimator.Estimate estimateCost(Object chatId, Integer topicId, String fromDate, String toDate) {
+        if (costEstimator == null) {
+            return ExportCostEstimator.Estimate.NONE;
+        }
+        try {
+            return costEstimator.estimate(String.valueOf(chatId), topicId, fromDate, toDate);
+        } catch (RuntimeException ex) {
+            log.debug("Оценка стоимости для {} не удалась: {}", chatId, ex.getMessage());
+            return ExportCostEstimator.Estimate.NONE;
+        }
+    }
+
+    // Задача встала с оценкой без истории чата. Когда история загрузится, предсказание для ETA
+    // и сверки уточняется, а в zset score сдвигается на разницу штрафов. Уровень express/main
+    // не пересматривается; в list позицию не поменять — там уточняется только предсказание.
+    private void refineCost(String taskId, Object chatId, Integer topicId, String fromDate, String toDate,
+                            ExportCostEstimator.Estimate used, boolean cached) {
+        costEstimator.estimateLoaded(String.valueOf(chatId), topicId, fromDate, toDate).thenAccept(refined -> {
+            costEstimator.revise(taskId, cached ? refined.cachedMessages() : refined.uncachedMessages());
+            long delta = cached
+                    ? refined.cachedPenaltyMs() - used.cachedPenaltyMs()
+                    : refined.uncachedPenaltyMs() - used.uncachedPenaltyMs();
+            if (!priorityQueue || delta == 0) {
+                return;
+            }
             try {
-                redis.delete(ACTIVE_EXPORT_PREFIX + userId);
-                log.info("Бронь экспорта для пользователя {} отозвана из-за ошибки", userId);
-            } catch (Exception ex) {
-                log.error("Критическая ошибка: не удалось отозвать бронь для {}: {}", userId, ex.getMessage());
+                redis.execute(RESCORE_PRIORITY_SCRIPT, List.of(priorityQueueKey), taskId, String.valueOf(delta));
+            } catch (Exception e) {
+                log.debug("Не удалось уточнить score задачи {}: {}", taskId, e.getMessage());
             }
-            throw new RuntimeException("Ошибка добавления задачи в очередь", e);
+        });
+    }
+
+    private static long asLong(Object value) {
+        if (value instanceof Number n) {
+            return n.longValue();
         }
+        return value != null ? Long.parseLong(value.toString()) : 0L;
     }
 
     public boolean isLikelyCached(Object chatId) {
@@ -153,7 +274,25 @@ public class ExportJobProducer {
         Long main = redis.opsForList().size(queueName);
         Long express = redis.opsForList().size(queueName + EXPRESS_QUEUE_SUFFIX);
         Long subscription = redis.opsForList().size(queueName + SUBSCRIPTION_QUEUE_SUFFIX);
-        return (main != null ? main : 0L) + (express != null ? express : 0L) + (subscription != null ? subscription : 0L);
+        long total = (main != null ? main : 0L) + (express != null ? express : 0L)
+                + (subscription != null ? subscription : 0L);
+        if (priorityQueue) {
+            Long queued = redis.opsForZSet().zCard(priorityQueueKey);
+            total += queued != null ? queued : 0L;
+        }
+        return total;
+    }
+
+    /**
+     * Точное число задач перед {@code taskId} в приоритетной очереди (ZRANK, O(log N)).
+     * {@code null} — задача не в zset: уже взята воркером, отменена, или backend=list
+     * (по спискам точную позицию без O(N) не получить).
+     */
+    public Long getQueuePosition(String taskId) {
+        if (!priorityQueue) {
+            return null;
+        }
+        return redis.opsForZSet().rank(priorityQueueKey, taskId);
     }
 
     public boolean hasActiveProcessingJob() {
@@ -188,6 +327,9 @@ public class ExportJobProducer {
                 ops.opsForList().size(queueName);
                 ops.opsForList().size(queueName + EXPRESS_QUEUE_SUFFIX);
                 ops.hasKey(JOB_JSON_PREFIX + taskId);
+                if (priorityQueue) {
+                    ops.opsForZSet().score(priorityQueueKey, taskId);
+                }
                 return null;
             }
         });
@@ -197,6 +339,7 @@ public class ExportJobProducer {
         long queueSize = results.get(3) instanceof Number n3 ? n3.longValue() : 0L;
         long expressSize = results.get(4) instanceof Number n4 ? n4.longValue() : 0L;
         boolean jobPayloadExists = Boolean.TRUE.equals(results.get(5));
+        boolean inPriorityQueue = priorityQueue && results.size() > 6 && results.get(6) != null;
 
         if (isCompleted || isFailed) {
             // Задача завершена, но ключ не был очищен — чистим
@@ -210,8 +353,8 @@ public class ExportJobProducer {
             return taskId;
         }
 
-        if (queueSize + expressSize > 0 && jobPayloadExists) {
-            // Очередь не пуста И наш payload жив — наша задача там
+        if (inPriorityQueue || queueSize + expressSize > 0 && jobPayloadExists) {
+            // Есть ZSCORE в приоритетной очереди, либо список не пуст И наш payload жив — задача там
             return taskId;
         }
 
@@ -238,8 +381,15 @@ public class ExportJobProducer {
         // 2. Затем удаляем из очереди (если ещё не взята воркером).
         String json = redis.opsForValue().get(JOB_JSON_PREFIX + taskId);
         if (json != null) {
-            String targetQueue = redis.opsForValue().get("job_queue:" + taskId);
-            if (targetQueue != null) {
+            String targetQueue = redis.opsForValue().get(JOB_QUEUE_PREFIX + taskId);
+            if (priorityQueueKey.equals(targetQueue)) {
+                // O(log N) по taskId вместо O(N) LREM по полному JSON
+                Long removed = redis.opsForZSet().remove(priorityQueueKey, taskId);
+                redis.opsForHash().delete(priorityPayloadsKey, taskId);
+                if (removed != null && removed > 0) {
+                    log.info("Задача {} удалена из приоритетной очереди (не успела начаться)", taskId);
+                }
+            } else if (targetQueue != null) {
                 Long removed = redis.opsForList().remove(targetQueue, 1, json);
                 if (removed != null && removed > 0) {
                     log.info("Задача {} удалена из очереди {} (не успела начаться)", taskId, targetQueue);
@@ -250,7 +400,7 @@ public class ExportJobProducer {
                 redis.opsForList().remove(queueName + EXPRESS_QUEUE_SUFFIX, 1, json);
             }
             redis.delete(JOB_JSON_PREFIX + taskId);
-            redis.delete("job_queue:" + taskId);
+            redis.delete(JOB_QUEUE_PREFIX + taskId);
         }
 
         redis.delete(ACTIVE_EXPORT_PREFIX + userId);
@@ -303,10 +453,19 @@ public class ExportJobProducer {
             throw new RuntimeException("Ошибка сериализации subscription-задачи", e);
         }
 
-        String targetQueue = queueName + SUBSCRIPTION_QUEUE_SUFFIX;
-        redis.opsForValue().set(JOB_JSON_PREFIX + taskId, json, ACTIVE_EXPORT_TTL_MINUTES, TimeUnit.MINUTES);
-        redis.opsForValue().set("job_queue:" + taskId, targetQueue, ACTIVE_EXPORT_TTL_MINUTES, TimeUnit.MINUTES);
-        redis.opsForList().rightPush(targetQueue, json);
+        String targetQueue = priorityQueue ? priorityQueueKey : queueName + SUBSCRIPTION_QUEUE_SUFFIX;
+        if (priorityQueue) {
+            // Метаданные и ZADD — одним скриптом, как в enqueue_export.lua.
+            redis.execute(ENQUEUE_PRIORITY_SCRIPT,
+                    List.of(priorityQueueKey, priorityPayloadsKey, JOB_JSON_PREFIX + taskId, JOB_QUEUE_PREFIX + taskId),
+                    taskId, json, String.valueOf(PRIORITY_SUBSCRIPTION), String.valueOf(PRIORITY_SCORE_BASE),
+                    String.valueOf(ACTIVE_EXPORT_TTL_SECONDS));
+        } else {
+            redis.opsForValue().set(JOB_JSON_PREFIX + taskId, json, ACTIVE_EXPORT_TTL_MINUTES, TimeUnit.MINUTES);
+            redis.opsForValue().set(JOB_QUEUE_PREFIX + taskId, targetQueue, ACTIVE_EXPORT_TTL_MINUTES,
+                    TimeUnit.MINUTES);
+            redis.opsForList().rightPush(targetQueue, json);
+        }
         log.info("Subscription task {} enqueued to {}", taskId, targetQueue);
 
         StatsStreamPublisher publisher = statsPublisherProvider.getIfAvailable();
@@ -361,4 +520,18 @@ public class ExportJobProducer {
             log.debug("Публикация события статистики не удалась: {}", ex.getMessage());
         }
     }
+
+    /**
+     * Результат атомарной постановки задачи.
+     *
+     * @param taskId         id задачи
+     * @param cached         задача ушла в express-очередь (данные чата уже в кэше)
+     * @param pendingInQueue суммарная длина трёх очередей сразу после RPUSH (включая эту задачу)
+     * @param hasActiveJob   воркер сейчас обрабатывает какую-то задачу
+     * @param aheadInQueue   задач в очереди перед этой; при backend=zset точный ZRANK,
+     *                       при list — оценка {@code pendingInQueue - 1}
+     */
+    public record EnqueueResult(String taskId, boolean cached, long pendingInQueue, boolean hasActiveJob,
+                                long aheadInQueue) {
+    }
 }
@@ -0,0 +1,41 @@
+package com.tcleaner.bot;
+
+import com.tcleaner.RedisListenerConfig;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.PatternTopic;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Подписка на keyspace notifications по {@code worker:heartbeat:*}: прогресс в сообщении
+ * "задача принята" обновляется вслед за воркером, а не только по опросу
+ * {@link ExportProgressNotifier#markAllDirty()}.
+ *
+ * <p>Те же {@code notify-keyspace-events} ({@code Kg$x}), что и для blacklist
+ * ({@link BotBlacklistKeyspaceConfig}).
+ */
+@Configuration
+@ConditionalOnExpression("'${telegram.bot.token:}' != '' and '${telegram.progress.enabled:true}' == 'true'"
+        + " and '${telegram.progress.keyspace-events.enabled:true}' == 'true'")
+public class ExportProgressKeyspaceConfig {
+
+    static final String KEYSPACE_PATTERN = "__keyspace@*__:" + ExportProgressNotifier.HEARTBEAT_PREFIX + "*";
+
+    @Bean
+    public RedisListenerConfig.Subscription exportProgressKeyspaceSubscription(
+            ExportProgressNotifier progressNotifier) {
+        return new RedisListenerConfig.Subscription(keyspaceListener(progressNotifier),
+                new PatternTopic(KEYSPACE_PATTERN));
+    }
+
+    // Канал — "__keyspace@0__:worker:heartbeat:export_abc", тело — "set" / "del" / "expired".
+    static MessageListener keyspaceListener(ExportProgressNotifier progressNotifier) {
+        return (Message message, byte[] pattern) -> progressNotifier.onHeartbeatEvent(
+                new String(message.getChannel(), StandardCharsets.UTF_8),
+                new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+}
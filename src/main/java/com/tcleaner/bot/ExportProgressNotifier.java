@@ -0,0 +1,276 @@
+package com.tcleaner.bot;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tcleaner.core.BotLanguage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Live-прогресс в сообщении "задача принята": воркер пишет {@code worker:heartbeat:{taskId}}
+ * ({@code {ts, stage, fetched}}), бот подменяет строку очереди в сохранённом сообщении
+ * на этап и число скачанных сообщений, а ожидающим — на текущую позицию в очереди.
+ *
+ * <p>Изменения только помечают задачу: heartbeat приходит каждые 200 сообщений и каждую
+ * секунду FloodWait, а edit одного сообщения — не чаще {@code min-edit-interval}.
+ * {@link #flush()} обходит помеченные задачи по очереди (без голодания) и делает не больше
+ * {@code max-edits-per-flush} edit'ов за проход — суммарно ниже лимитов Bot API.
+ * Неизменившийся текст не отправляется.
+ *
+ * <p>Источники пометок: keyspace notifications по heartbeat (смена активной задачи или её
+ * завершение двигает очередь — помечаются все) и опрос раз в {@code poll-interval}, если
+ * notifications на Redis выключены. Отслеживаются задачи, принятые этим инстансом; после
+ * рестарта прогресс в старых сообщениях не обновляется.
+ */
+@Component
+@ConditionalOnExpression("'${telegram.bot.token:}' != '' and '${telegram.progress.enabled:true}' == 'true'")
+public class ExportProgressNotifier {
+
+    private static final Logger log = LoggerFactory.getLogger(ExportProgressNotifier.class);
+
+    static final String HEARTBEAT_PREFIX = "worker:heartbeat:";
+
+    private final StringRedisTemplate redis;
+    private final ObjectMapper objectMapper;
+    private final ExportJobProducer jobProducer;
+    private final BotMessenger messenger;
+    private final BotI18n i18n;
+    private final BotKeyboards keyboards;
+    private final QueueDisplayBuilder queueDisplayBuilder;
+    private final Clock clock;
+    private final long minEditIntervalMs;
+    private final int maxEditsPerFlush;
+    private final long maxAgeMs;
+    private final Counter edits;
+
+    private final Map<String, Tracked> tracked = new ConcurrentHashMap<>();
+    private final Queue<String> dirty = new ConcurrentLinkedQueue<>();
+    private volatile String lastActiveTaskId;
+
+    public ExportProgressNotifier(
+            StringRedisTemplate redis,
+            ObjectMapper objectMapper,
+            ExportJobProducer jobProducer,
+            BotMessenger messenger,
+            BotI18n i18n,
+            BotKeyboards keyboards,
+            QueueDisplayBuilder queueDisplayBuilder,
+            MeterRegistry meterRegistry,
+            Clock clock,
+            @Value("${telegram.progress.min-edit-interval:PT5S}") Duration minEditInterval,
+            @Value("${telegram.progress.max-edits-per-flush:20}") int maxEditsPerFlush,
+            @Value("${telegram.progress.max-age:PT2H}") Duration maxAge
+    ) {
+        this.redis = redis;
+        this.objectMapper = objectMapper;
+        this.jobProducer = jobProducer;
+        this.messenger = messenger;
+        this.i18n = i18n;
+        this.keyboards = keyboards;
+        this.queueDisplayBuilder = queueDisplayBuilder;
+        this.clock = clock;
+        this.minEditIntervalMs = minEditInterval.toMillis();
+        this.maxEditsPerFlush = maxEditsPerFlush;
+        this.maxAgeMs = maxAge.toMillis();
+        this.edits = Counter.builder("bot.progress.edits")
+                .description("Edit'ы сообщений с live-прогрессом экспорта")
+                .register(meterRegistry);
+        Gauge.builder("bot.progress.tracked", tracked, Map::size)
+                .description("Сообщения \"задача принята\", которые обновляются прогрессом")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Начинает обновлять сообщение {@code messageId}. {@code header} — текст "задача принята"
+     * без строки очереди, к нему дописывается текущий статус; {@code sentText} — уже
+     * отправленный текст: пока статус не изменился, edit'а не будет.
+     */
+    public void track(String taskId, long chatId, int messageId, BotLanguage lang, String header, String sentText) {
+        Tracked t = new Tracked(chatId, messageId, lang, header, clock.millis());
+        t.lastText = sentText;
+        t.lastEditAt = t.createdAt;
+        tracked.put(taskId, t);
+    }
+
+    /**
+     * Keyspace notification по {@code worker:heartbeat:{taskId}}. Новая активная задача
+     * или удалённый heartbeat (задача завершена) сдвигают очередь — помечаются все.
+     */
+    public void onHeartbeatEvent(String channel, String event) {
+        int idx = channel.indexOf(HEARTBEAT_PREFIX);
+        if (idx < 0) {
+            return;
+        }
+        String taskId = channel.substring(idx + HEARTBEAT_PREFIX.length());
+        if ("set".equals(event) && taskId.equals(lastActiveTaskId)) {
+            markDirty(taskId);
+            return;
+        }
+        lastActiveTaskId = "set".equals(event) ? taskId : null;
+        markAllDirty();
+    }
+
+    /** Fallback без keyspace notifications: позиции и этапы перечитываются по расписанию. */
+    @Scheduled(fixedDelayString = "${telegram.progress.poll-interval:PT30S}")
+    public void markAllDirty() {
+        tracked.keySet().forEach(this::markDirty);
+    }
+
+    @Scheduled(fixedDelayString = "${telegram.progress.flush-interval:PT1S}")
+    public void flush() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        long now = clock.millis();
+        List<String> batch = new ArrayList<>(maxEditsPerFlush);
+        List<String> throttled = new ArrayList<>();
+        for (int remaining = dirty.size(); remaining > 0 && batch.size() < maxEditsPerFlush; remaining--) {
+            String taskId = dirty.poll();
+            if (taskId == null) {
+                break;
+            }
+            Tracked t = tracked.get(taskId);
+            if (t == null) {
+                continue;
+            }
+            if (now - t.createdAt > maxAgeMs) {
+                tracked.remove(taskId);
+                continue;
+            }
+            if (now - t.lastEditAt < minEditIntervalMs) {
+                throttled.add(taskId);
+                continue;
+            }
+            t.queued.set(false);
+            batch.add(taskId);
+        }
+        // Не дошедшие до edit'а из-за min-interval остаются в хвосте очереди.
+        dirty.addAll(throttled);
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            render(batch, now);
+        } catch (RuntimeException ex) {
+            log.warn("Не удалось обновить прогресс экспорта: {}", ex.getMessage());
+        }
+    }
+
+    private void render(List<String> batch, long now) {
+        List<String> heartbeats = redis.opsForValue().multiGet(
+                batch.stream().map(taskId -> HEARTBEAT_PREFIX + taskId).toList());
+        boolean hasActiveJob = jobProducer.hasActiveProcessingJob();
+        for (int i = 0; i < batch.size(); i++) {
+            String taskId = batch.get(i);
+            Tracked t = tracked.get(taskId);
+            if (t == null) {
+                continue;
+            }
+            String heartbeat = heartbeats != null && i < heartbeats.size() ? heartbeats.get(i) : null;
+            String status;
+            boolean finished = false;
+            if (heartbeat != null) {
+                t.started = true;
+                status = stageLine(t, heartbeat);
+            } else if (t.started) {
+                status = i18n.msg(t.lang, "bot.progress.finished");
+                finished = true;
+            } else {
+                status = positionLine(t, taskId, hasActiveJob);
+            }
+            if (finished) {
+                tracked.remove(taskId);
+            }
+            if (status == null) {
+                continue;
+            }
+            String text = t.header + status;
+            if (text.equals(t.lastText)) {
+                continue;
+            }
+            // Завершённой задаче кнопка отмены больше не нужна — edit без клавиатуры её снимает.
+            messenger.editMessage(t.chatId, t.messageId, text,
+                    finished ? null : keyboards.cancelExportKeyboard(t.lang));
+            t.lastText = text;
+            t.lastEditAt = now;
+            edits.increment();
+        }
+    }
+
+    private String stageLine(Tracked t, String heartbeat) {
+        String stage = "";
+        try {
+            JsonNode node = objectMapper.readTree(heartbeat);
+            stage = node.path("stage").asText("");
+            // fetched есть не в каждом heartbeat (cancel-poll пишет только stage) — держим максимум.
+            t.fetched = Math.max(t.fetched, node.path("fetched").asLong(0));
+        } catch (Exception ex) {
+            log.debug("Некорректный heartbeat: {}", ex.getMessage());
+        }
+        return switch (stage) {
+            case "fetch" -> t.fetched > 0
+                    ? i18n.msg(t.lang, "bot.progress.fetched", t.fetched)
+                    : i18n.msg(t.lang, "bot.progress.fetch");
+            case "convert" -> i18n.msg(t.lang, "bot.progress.convert");
+            default -> i18n.msg(t.lang, "bot.queue.starting");
+        };
+    }
+
+    // Позиция известна только при backend=zset (ZRANK); для list строка остаётся прежней.
+    // Формат (позиция + ETA) — тот же, что при постановке задачи.
+    private String positionLine(Tracked t, String taskId, boolean hasActiveJob) {
+        Long rank = jobProducer.getQueuePosition(taskId);
+        if (rank == null) {
+            return null;
+        }
+        return queueDisplayBuilder.build(t.lang,
+                new ExportJobProducer.EnqueueResult(taskId, false, rank + 1, hasActiveJob, rank));
+    }
+
+    private void markDirty(String taskId) {
+        Tracked t = tracked.get(taskId);
+        if (t != null && t.queued.compareAndSet(false, true)) {
+            dirty.add(taskId);
+        }
+    }
+
+    private static final class Tracked {
+
+        final long chatId;
+        final int messageId;
+        final BotLanguage lang;
+        final String header;
+        final long createdAt;
+        final AtomicBoolean queued = new AtomicBoolean();
+        volatile String lastText;
+        volatile long lastEditAt;
+        volatile long fetched;
+        volatile boolean started;
+
+        Tracked(long chatId, int messageId, BotLanguage lang, String header, long createdAt) {
+            this.chatId = chatId;
+            this.messageId = messageId;
+            this.lang = lang;
+            this.header = header;
+            this.createdAt = createdAt;
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package com.tcleaner.bot;
 
 import com.tcleaner.core.BotLanguage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
 import org.telegram.telegrambots.meta.api.objects.User;
 
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 
@@ -11,9 +14,16 @@ import java.time.LocalDateTime;
 public class QueueDisplayBuilder {
 
     private final BotI18n i18n;
+    private final QueueEtaEstimator etaEstimator;
 
     public QueueDisplayBuilder(BotI18n i18n) {
+        this(i18n, null);
+    }
+
+    @Autowired
+    public QueueDisplayBuilder(BotI18n i18n, @Nullable QueueEtaEstimator etaEstimator) {
         this.i18n = i18n;
+        this.etaEstimator = etaEstimator;
     }
 
     public String build(BotLanguage lang, boolean fromCache, long pendingInQueue, boolean hasActiveJob) {
@@ -29,6 +39,40 @@ public class QueueDisplayBuilder {
         return i18n.msg(lang, "bot.queue.position", myPosition, aheadCount);
     }
 
+    /**
+     * Вариант по результату постановки: {@code aheadInQueue} из скрипта (при backend=zset —
+     * точный ZRANK, при list — та же оценка {@code pendingInQueue - 1}, что и выше).
+     * Если накоплена статистика throughput — добавляется строка с ETA и диапазоном.
+     */
+    public String build(BotLanguage lang, ExportJobProducer.EnqueueResult enqueued) {
+        if (enqueued.cached()) {
+            return i18n.msg(lang, "bot.queue.cached");
+        }
+        long aheadCount = enqueued.aheadInQueue() + (enqueued.hasActiveJob() ? 1 : 0);
+        String position = aheadCount <= 0
+                ? i18n.msg(lang, "bot.queue.starting")
+                : i18n.msg(lang, "bot.queue.position", aheadCount + 1, aheadCount);
+        return position + etaLine(lang, enqueued);
+    }
+
+    private String etaLine(BotLanguage lang, ExportJobProducer.EnqueueResult enqueued) {
+        if (etaEstimator == null) {
+            return "";
+        }
+        QueueEtaEstimator.Eta eta = etaEstimator.estimate(
+                enqueued.aheadInQueue(), enqueued.hasActiveJob(), enqueued.taskId());
+        if (eta == null) {
+            return "";
+        }
+        return i18n.msg(lang, "bot.queue.eta",
+                minutes(eta.expected()), minutes(eta.low()), minutes(eta.high()));
+    }
+
+    // Округление вверх, минимум минута: "~0 мин" пользователю ничего не говорит.
+    private static long minutes(Duration duration) {
+        return Math.max(1, (duration.toSeconds() + 59) / 60);
+    }
+
     /**
      * Информация о выбранном диапазоне дат в сессии. Пустая строка если оба null.
      * Pure-функция: дата + i18n, никаких побочек.
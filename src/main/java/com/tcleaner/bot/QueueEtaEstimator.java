@@ -0,0 +1,314 @@
+package com.tcleaner.bot;
+
+import com.tcleaner.dashboard.service.queue.ExportCostEstimator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * ETA задачи в очереди по историческому throughput воркера.
+ *
+ * <p>Статистика копится в памяти из terminal-событий, которые проходят через ingestion,
+ * и затухает экспоненциально (half-life по времени завершения задач) — оценка следует за
+ * текущей нагрузкой Telegram API, а расчёт ETA не делает запросов к БД.
+ *
+ * <p>Время обслуживания задачи = {@code finished_at − processing_started_at}: воркер сообщает
+ * начало обработки в terminal-событии, поэтому оценка не зависит ни от числа воркеров, ни от
+ * порядка, в котором события доходят из партиций. У событий без {@code processing_started_at}
+ * (воркер старой версии, задача поднята из staging после рестарта) — запасной вариант
+ * {@code finished_at − max(started_at, finished_at предыдущей)}: {@code started_at} — момент
+ * постановки, ожидание в очереди вычитается по моменту, когда воркер освободился. Он верен только
+ * для одного воркера, обрабатывающего задачи по одной ({@code active_processing_job}), и только
+ * для событий в порядке завершения: задача, завершившаяся раньше уже учтённой, в статистику по
+ * нему не попадает — предыдущее завершение для неё неизвестно.
+ *
+ * <p>Модели:
+ * <ul>
+ *   <li>по задаче — затухающие среднее и дисперсия времени обслуживания, для задач впереди
+ *       (их состав боту неизвестен — только количество);</li>
+ *   <li>по источнику ({@link Source#CACHE} / {@link Source#TELEGRAM}) — затухающая линейная
+ *       регрессия {@code время = overhead + сообщения / throughput}, для собственной задачи
+ *       по предсказанию {@link ExportCostEstimator}.</li>
+ * </ul>
+ */
+@Component
+public class QueueEtaEstimator {
+
+    static final int MIN_SAMPLES = 5;
+    // z для двустороннего 80%-интервала нормального распределения.
+    private static final double Z_80 = 1.2816;
+    // Выбросы (зависший воркер, рестарт между задачами) не должны утаскивать среднее.
+    private static final long MAX_SERVICE_MS = Duration.ofHours(6).toMillis();
+
+    private final ExportCostEstimator costEstimator;
+    private final double halfLifeMs;
+
+    private final Series jobs = new Series();
+    private final Map<Source, Series> sources = new EnumMap<>(Source.class);
+    private Instant lastFinishedAt;
+    private double lastObservedMs = Double.NaN;
+
+    public QueueEtaEstimator(Duration halfLife) {
+        this(halfLife, null);
+    }
+
+    @Autowired
+    public QueueEtaEstimator(
+            @Value("${telegram.queue.eta.half-life:PT6H}") Duration halfLife,
+            @Nullable ExportCostEstimator costEstimator
+    ) {
+        this.halfLifeMs = halfLife.toMillis();
+        this.costEstimator = costEstimator;
+        for (Source source : Source.values()) {
+            sources.put(source, new Series());
+        }
+    }
+
+    /** Задача без момента начала обработки — время обслуживания по освобождению воркера. */
+    public void recordFinished(String taskId, Instant startedAt, Instant finishedAt,
+                               Long messagesCount, boolean completed) {
+        recordFinished(taskId, startedAt, finishedAt, messagesCount, completed, null);
+    }
+
+    /**
+     * Учитывает задачу, перешедшую в terminal-статус. Неуспешные задачи только сдвигают
+     * момент освобождения воркера: они занимали его, но по времени до ошибки нельзя судить
+     * о throughput. Должно вызываться до {@link ExportCostEstimator#recordActual} — после
+     * сверки предсказание (и вместе с ним источник задачи) удаляется.
+     *
+     * @param processingStartedAt начало обработки воркером; {@code null} — неизвестно
+     */
+    public synchronized void recordFinished(String taskId, Instant startedAt, Instant finishedAt,
+                                            Long messagesCount, boolean completed,
+                                            @Nullable Instant processingStartedAt) {
+        if (finishedAt == null) {
+            return;
+        }
+        boolean inOrder = lastFinishedAt == null || finishedAt.isAfter(lastFinishedAt);
+        Instant busyFrom = processingStartedAt;
+        if (busyFrom == null && startedAt != null && inOrder) {
+            busyFrom = lastFinishedAt != null && lastFinishedAt.isAfter(startedAt) ? lastFinishedAt : startedAt;
+        }
+        if (inOrder) {
+            lastFinishedAt = finishedAt;
+        }
+        if (!completed || busyFrom == null) {
+            return;
+        }
+        long serviceMs = Duration.between(busyFrom, finishedAt).toMillis();
+        if (serviceMs <= 0 || serviceMs > MAX_SERVICE_MS) {
+            return;
+        }
+        decayTo(finishedAt.toEpochMilli());
+        double seconds = serviceMs / 1000.0;
+        jobs.add(0, seconds);
+        Source source = sourceOf(taskId);
+        if (source != null && messagesCount != null) {
+            sources.get(source).add(messagesCount, seconds);
+        }
+    }
+
+    /**
+     * ETA до завершения задачи: остаток активной задачи + задачи впереди + сама задача.
+     * {@code null}, пока набрано меньше {@link #MIN_SAMPLES} наблюдений.
+     *
+     * @param aheadInQueue задачи в очереди перед этой, без активной
+     * @param hasActiveJob воркер сейчас занят
+     * @param taskId       задача, для которой считаем; {@code null} — гипотетическая новая
+     */
+    public synchronized Eta estimate(long aheadInQueue, boolean hasActiveJob, String taskId) {
+        if (!jobs.ready()) {
+            return null;
+        }
+        double mean = jobs.meanY();
+        double variance = jobs.varianceY();
+
+        double expected = aheadInQueue * mean;
+        double totalVariance = aheadInQueue * variance;
+        if (hasActiveJob) {
+            // Остаток задачи, пойманной в случайный момент, — E[S²] / 2E[S], а не E[S]/2:
+            // длинные задачи чаще оказываются "текущими" (inspection paradox).
+            expected += (variance + mean * mean) / (2 * mean);
+            totalVariance += variance;
+        }
+
+        ExportCostEstimator.Prediction own = taskId != null && costEstimator != null
+                ? costEstimator.prediction(taskId) : null;
+        Series model = own != null ? sources.get(own.cached() ? Source.CACHE : Source.TELEGRAM) : null;
+        if (model != null && model.ready()) {
+            expected += model.predict(own.messages());
+            totalVariance += model.residualVariance();
+        } else {
+            expected += mean;
+            totalVariance += variance;
+        }
+
+        double margin = Z_80 * Math.sqrt(totalVariance);
+        return new Eta(seconds(expected), seconds(Math.max(0, expected - margin)),
+                seconds(expected + margin), jobs.count);
+    }
+
+    /**
+     * Текущие оценки throughput по источникам — для дашборда.
+     */
+    public synchronized Map<Source, Throughput> throughput() {
+        Map<Source, Throughput> result = new EnumMap<>(Source.class);
+        for (Map.Entry<Source, Series> entry : sources.entrySet()) {
+            Series series = entry.getValue();
+            if (series.count > 0 && series.w > 0) {
+                double slope = series.slope();
+                result.put(entry.getKey(), new Throughput(
+                        slope > 0 ? 1.0 / slope : 0.0, series.intercept(), series.count));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Среднее время обслуживания одной задачи, секунды; {@code null} без наблюдений.
+     */
+    public synchronized Double meanJobSeconds() {
+        return jobs.count > 0 ? jobs.meanY() : null;
+    }
+
+    private Source sourceOf(String taskId) {
+        if (costEstimator == null || taskId == null) {
+            return null;
+        }
+        ExportCostEstimator.Prediction prediction = costEstimator.prediction(taskId);
+        if (prediction == null) {
+            return null;
+        }
+        return prediction.cached() ? Source.CACHE : Source.TELEGRAM;
+    }
+
+    // Затухание масштабирует все суммы одинаково, поэтому средние/регрессию не смещает —
+    // только уменьшает вес старых наблюдений относительно новых. Событие из прошлого
+    // (переупорядочивание стрима) не "откатывает" время назад.
+    private void decayTo(double nowMs) {
+        if (!Double.isNaN(lastObservedMs) && nowMs > lastObservedMs) {
+            double factor = Math.pow(0.5, (nowMs - lastObservedMs) / halfLifeMs);
+            jobs.scale(factor);
+            for (Series series : sources.values()) {
+                series.scale(factor);
+            }
+        }
+        if (Double.isNaN(lastObservedMs) || nowMs > lastObservedMs) {
+            lastObservedMs = nowMs;
+        }
+    }
+
+    private static Duration seconds(double value) {
+        return Duration.ofMillis(Math.round(value * 1000));
+    }
+
+    /**
+     * Источник данных задачи: кэш воркера (SQLite) или выгрузка из Telegram API.
+     */
+    public enum Source {
+        CACHE,
+        TELEGRAM
+    }
+
+    /**
+     * Оценка времени до готовности.
+     *
+     * @param expected ожидаемое время
+     * @param low      нижняя граница ~80%-интервала
+     * @param high     верхняя граница ~80%-интервала
+     * @param samples  число наблюдений, на которых построена оценка
+     */
+    public record Eta(Duration expected, Duration low, Duration high, long samples) {
+    }
+
+    /**
+     * Throughput источника.
+     *
+     * @param messagesPerSecond сообщений в секунду сверх накладных расходов
+     * @param overheadSeconds   накладные расходы на задачу (подключение, резолв чата, отправка файла)
+     * @param samples           число наблюдений
+     */
+    public record Throughput(double messagesPerSecond, double overheadSeconds, long samples) {
+    }
+
+    /**
+     * Затухающие взвешенные суммы для среднего/дисперсии y и регрессии y по x.
+     */
+    static final class Series {
+        private double w;
+        private double sx;
+        private double sy;
+        private double sxx;
+        private double sxy;
+        private double syy;
+        private long count;
+
+        void add(double x, double y) {
+            w += 1;
+            sx += x;
+            sy += y;
+            sxx += x * x;
+            sxy += x * y;
+            syy += y * y;
+            count++;
+        }
+
+        void scale(double factor) {
+            w *= factor;
+            sx *= factor;
+            sy *= factor;
+            sxx *= factor;
+            sxy *= factor;
+            syy *= factor;
+        }
+
+        // Суммарный вес ≥ 1 — хотя бы одно "свежее" наблюдение: источник, не встречавшийся
+        // много half-life, не должен давать оценку по давно устаревшим задачам.
+        boolean ready() {
+            return count >= MIN_SAMPLES && w >= 1.0;
+        }
+
+        double meanY() {
+            return sy / w;
+        }
+
+        double varianceY() {
+            double mean = meanY();
+            return Math.max(0, syy / w - mean * mean);
+        }
+
+        // Наклон МНК; если x почти не различаются (все задачи одного размера) или наклон
+        // вырождается в неположительный — чистая пропорция y/x без overhead.
+        double slope() {
+            double denominator = w * sxx - sx * sx;
+            if (denominator > 1e-9 * w * sxx) {
+                double slope = (w * sxy - sx * sy) / denominator;
+                if (slope > 0) {
+                    return slope;
+                }
+            }
+            return sx > 0 ? sy / sx : 0;
+        }
+
+        double intercept() {
+            return Math.max(0, (sy - slope() * sx) / w);
+        }
+
+        double predict(double x) {
+            return intercept() + slope() * x;
+        }
+
+        double residualVariance() {
+            double a = intercept();
+            double b = slope();
+            double sse = syy - 2 * a * sy - 2 * b * sxy + a * a * w + 2 * a * b * sx + b * b * sxx;
+            return Math.max(0, sse / w);
+        }
+    }
+}
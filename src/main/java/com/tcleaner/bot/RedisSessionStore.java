@@ -0,0 +1,80 @@
+package com.tcleaner.bot;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * {@link SessionStore} в Redis-хэше {@code bot:session:{userId}}: сессия переживает рестарт
+ * и доступна любому инстансу. Истечение — TTL ключа, продлеваемый на каждой записи, вместо
+ * периодической чистки.
+ *
+ * <p>Каждая запись увеличивает поле {@code version} и публикует
+ * {@code {instanceId}:{userId}:{version}} в {@link #CHANGES_CHANNEL}; инстансы со старой
+ * копией в near-cache сбрасывают её ({@link BotSessionInvalidationConfig}).
+ */
+@Component
+@ConditionalOnProperty(prefix = "telegram.session", name = "store", havingValue = "redis")
+public class RedisSessionStore implements SessionStore {
+
+    public static final String CHANGES_CHANNEL = "bot:session:changed";
+    static final String KEY_PREFIX = "bot:session:";
+    private static final String FIELD_VERSION = "version";
+
+    private static final RedisScript<Long> SAVE_SCRIPT =
+            RedisScript.of(new ClassPathResource("redis/session_save.lua"), Long.class);
+
+    private final StringRedisTemplate redis;
+    private final long ttlSeconds;
+    private final String instanceId = UUID.randomUUID().toString().substring(0, 8);
+
+    public RedisSessionStore(
+            StringRedisTemplate redis,
+            @Value("${telegram.session.ttl:PT2H}") Duration ttl
+    ) {
+        this.redis = redis;
+        this.ttlSeconds = Math.max(1, ttl.toSeconds());
+    }
+
+    @Override
+    public UserSession load(long userId) {
+        HashOperations<String, String, String> hash = redis.opsForHash();
+        Map<String, String> fields = hash.entries(KEY_PREFIX + userId);
+        if (fields == null || fields.isEmpty()) {
+            return null;
+        }
+        String version = fields.get(FIELD_VERSION);
+        return UserSession.fromFields(fields, version != null ? Long.parseLong(version) : 0L);
+    }
+
+    @Override
+    public long save(long userId, Map<String, String> fields) {
+        List<String> args = new ArrayList<>(fields.size() * 2 + 3);
+        args.add(String.valueOf(ttlSeconds));
+        args.add(CHANGES_CHANNEL);
+        args.add(instanceId + ":" + userId);
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            args.add(field.getKey());
+            args.add(field.getValue());
+        }
+        Long version = redis.execute(SAVE_SCRIPT, List.of(KEY_PREFIX + userId), args.toArray());
+        return version != null ? version : 0L;
+    }
+
+    /**
+     * Идентификатор процесса в уведомлениях: свои же сообщения подписчик пропускает.
+     */
+    public String instanceId() {
+        return instanceId;
+    }
+}
@@ -0,0 +1,22 @@
+package com.tcleaner.bot;
+
+import java.util.Map;
+
+/**
+ * Внешнее хранилище {@link UserSession} для нескольких инстансов бота. Без него
+ * {@link BotSessionRegistry} держит сессии только в памяти процесса (single-node).
+ */
+public interface SessionStore {
+
+    /**
+     * Сессия пользователя или {@code null}, если её нет (истёк TTL, ни разу не сохранялась).
+     */
+    UserSession load(long userId);
+
+    /**
+     * Сохраняет снимок {@link UserSession#drainChanges()} и продлевает TTL.
+     *
+     * @return новая версия сессии
+     */
+    long save(long userId, Map<String, String> fields);
+}
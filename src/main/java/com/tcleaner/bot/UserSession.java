@@ -1,9 +1,19 @@
 package com.tcleaner.bot;
 
 import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class UserSession {
 
+    // Поля снимка для внешнего SessionStore; отсутствующее значение — пустая строка.
+    static final String FIELD_STATE = "state";
+    static final String FIELD_CHAT_ID = "chat_id";
+    static final String FIELD_CHAT_DISPLAY = "chat_display";
+    static final String FIELD_TOPIC_ID = "topic_id";
+    static final String FIELD_FROM_DATE = "from_date";
+    static final String FIELD_TO_DATE = "to_date";
+
     public enum State {
         IDLE,
         AWAITING_DATE_CHOICE,
@@ -18,6 +28,8 @@ public class UserSession {
     private String fromDate;
     private String toDate;
     private Instant lastAccess = Instant.now();
+    private long version;
+    private boolean dirty;
 
     public synchronized State getState() {
         return state;
@@ -25,6 +37,7 @@ public class UserSession {
 
     public synchronized void setState(State state) {
         this.state = state;
+        this.dirty = true;
         touch();
     }
 
@@ -34,6 +47,7 @@ public class UserSession {
 
     public synchronized void setChatId(String chatId) {
         this.chatId = chatId;
+        this.dirty = true;
         touch();
     }
 
@@ -43,6 +57,7 @@ public class UserSession {
 
     public synchronized void setChatDisplay(String chatDisplay) {
         this.chatDisplay = chatDisplay;
+        this.dirty = true;
         touch();
     }
 
@@ -52,6 +67,7 @@ public class UserSession {
 
     public synchronized void setTopicId(Integer topicId) {
         this.topicId = topicId;
+        this.dirty = true;
         touch();
     }
 
@@ -61,6 +77,7 @@ public class UserSession {
 
     public synchronized void setFromDate(String fromDate) {
         this.fromDate = fromDate;
+        this.dirty = true;
         touch();
     }
 
@@ -70,6 +87,7 @@ public class UserSession {
 
     public synchronized void setToDate(String toDate) {
         this.toDate = toDate;
+        this.dirty = true;
         touch();
     }
 
@@ -82,6 +100,10 @@ public class UserSession {
     }
 
     public synchronized void reset() {
+        if (state != State.IDLE || chatId != null || chatDisplay != null || topicId != null
+                || fromDate != null || toDate != null) {
+            this.dirty = true;
+        }
         this.state = State.IDLE;
         this.chatId = null;
         this.chatDisplay = null;
@@ -90,4 +112,68 @@ public class UserSession {
         this.toDate = null;
         this.lastAccess = Instant.now();
     }
+
+    synchronized long getVersion() {
+        return version;
+    }
+
+    synchronized void setVersion(long version) {
+        this.version = version;
+    }
+
+    /**
+     * Снимок полей, изменившихся с прошлого вызова, или {@code null}, если изменений нет.
+     * Сбрасывает признак изменений — при ошибке записи вызывающий возвращает его через
+     * {@link #markDirty()}.
+     */
+    synchronized Map<String, String> drainChanges() {
+        if (!dirty) {
+            return null;
+        }
+        dirty = false;
+        Map<String, String> fields = new LinkedHashMap<>();
+        fields.put(FIELD_STATE, state.name());
+        fields.put(FIELD_CHAT_ID, orEmpty(chatId));
+        fields.put(FIELD_CHAT_DISPLAY, orEmpty(chatDisplay));
+        fields.put(FIELD_TOPIC_ID, topicId != null ? topicId.toString() : "");
+        fields.put(FIELD_FROM_DATE, orEmpty(fromDate));
+        fields.put(FIELD_TO_DATE, orEmpty(toDate));
+        return fields;
+    }
+
+    synchronized void markDirty() {
+        this.dirty = true;
+    }
+
+    synchronized boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Сессия из снимка {@link #drainChanges()}; неизвестное состояние — {@link State#IDLE}.
+     */
+    static UserSession fromFields(Map<String, String> fields, long version) {
+        UserSession session = new UserSession();
+        try {
+            session.state = State.valueOf(fields.getOrDefault(FIELD_STATE, State.IDLE.name()));
+        } catch (IllegalArgumentException ex) {
+            session.state = State.IDLE;
+        }
+        session.chatId = emptyToNull(fields.get(FIELD_CHAT_ID));
+        session.chatDisplay = emptyToNull(fields.get(FIELD_CHAT_DISPLAY));
+        String topic = emptyToNull(fields.get(FIELD_TOPIC_ID));
+        session.topicId = topic != null ? Integer.valueOf(topic) : null;
+        session.fromDate = emptyToNull(fields.get(FIELD_FROM_DATE));
+        session.toDate = emptyToNull(fields.get(FIELD_TO_DATE));
+        session.version = version;
+        return session;
+    }
+
+    private static String orEmpty(String value) {
+        return value != null ? value : "";
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
 }
@@ -0,0 +1,44 @@
+package com.tcleaner.dashboard.config;
+
+import com.tcleaner.RedisListenerConfig;
+import com.tcleaner.dashboard.service.ingestion.BotUserUpserter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Подписка на {@link BotUserUpserter#INVALIDATION_CHANNEL}: смена языка на одном инстансе
+ * сбрасывает near-cache профиля на всех. Своё же сообщение приходит и автору — лишний
+ * invalidate безвреден (следующее чтение — один {@code findById}).
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "dashboard.bot-user-cache.invalidation", name = "enabled", havingValue = "true",
+        matchIfMissing = true)
+public class BotUserCacheInvalidationConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(BotUserCacheInvalidationConfig.class);
+
+    @Bean
+    public RedisListenerConfig.Subscription botUserCacheInvalidationSubscription(BotUserUpserter upserter) {
+        return new RedisListenerConfig.Subscription(invalidationListener(upserter),
+                new ChannelTopic(BotUserUpserter.INVALIDATION_CHANNEL));
+    }
+
+    static MessageListener invalidationListener(BotUserUpserter upserter) {
+        return (Message message, byte[] pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            try {
+                upserter.evictLocal(Long.parseLong(body.trim()));
+            } catch (NumberFormatException ex) {
+                log.warn("Невалидный botUserId в {}: {}", BotUserUpserter.INVALIDATION_CHANNEL, body);
+            }
+        };
+    }
+}
@@ -1,21 +1,58 @@
 package com.tcleaner.dashboard.config;
 
+import com.github.benmanes.caffeine.cache.CacheLoader;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.tcleaner.dashboard.service.stats.StatsCacheKey;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.cache.interceptor.KeyGenerator;
+import org.springframework.cache.support.NullValue;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.lang.Nullable;
+import org.springframework.util.ObjectUtils;
 
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Caffeine in-memory cache для dashboard stats.
  *
- * Три тира по freshness:
- *   stats-live       (30s)  — overview, recentEvents: юзер видит свежий результат после экспорта
- *   stats-historical (300s) — timeSeries, topChats, topUsers, statusBreakdown: агрегаты меняются медленно
- *   stats-profile    (600s) — userDetail: профиль почти статичен
+ * Три тира:
+ *   stats-live       (5m)  — overview, recentEvents
+ *   stats-historical (6h)  — timeSeries, topChats, topUsers, statusBreakdown
+ *   stats-profile    (1h)  — userDetail
+ *
+ * Свежесть обеспечивает не TTL, а инвалидация: ingestion после коммита снимает ключи,
+ * задетые изменёнными событиями ({@code StatsCacheInvalidator}, ключи — {@link StatsCacheKey}
+ * из keyGenerator {@value #STATS_KEYS}). TTL — страховка на потерянное pub/sub-сообщение
+ * между инстансами; настраивается {@code dashboard.cache.*-ttl}.
+ *
+ * Против stampede: методы {@code StatsQueryService} — {@code @Cacheable(sync = true)}, промах
+ * по ключу считает один поток, остальные ждут его результат (single-flight Caffeine).
+ * Stats-кеши — LoadingCache с {@code refreshAfterWrite} = доля {@code dashboard.cache.refresh-after}
+ * от TTL: первое чтение «постаревшей» записи отдаёт её и ставит пересчёт
+ * ({@link StatsCacheKey#reload()}) в ограниченный пул {@value #REFRESH_EXECUTOR} — горячий ключ
+ * не доживает до expire, и волны промахов по истечении TTL нет. Переполненная очередь пула
+ * отклоняет обновление — запись остаётся старой до следующего чтения или TTL.
+ * recordStats: hit/miss/eviction и время загрузки — метрики {@code cache.*{cache}}
+ * (в т.ч. {@code cache.load.duration}), {@code stats.cache.hit.ratio{cache}} и /admin/stats/caches.
  *
  * Память при 1000 юзерах: ~35 MB суммарно (безопасно для 3.3 GB сервера).
  *
@@ -29,30 +66,25 @@ public class CacheConfig {
     public static final String LIVE       = "stats-live";
     public static final String HISTORICAL = "stats-historical";
     public static final String PROFILE    = "stats-profile";
+    /** keyGenerator для {@code @Cacheable} в {@code StatsQueryService}. */
+    public static final String STATS_KEYS = "statsCacheKeys";
     /** Rate-limit для feedback-формы: 1 сообщение / 60s на botUserId. */
     public static final String FEEDBACK_RATE_LIMIT = "feedback-rate-limit";
+    /** Пул фонового обновления stats-кешей. */
+    public static final String REFRESH_EXECUTOR = "statsCacheRefreshExecutor";
 
     @Bean
-    public CacheManager cacheManager() {
+    public CacheManager cacheManager(
+            @Value("${dashboard.cache.live-ttl:PT5M}") Duration liveTtl,
+            @Value("${dashboard.cache.historical-ttl:PT6H}") Duration historicalTtl,
+            @Value("${dashboard.cache.profile-ttl:PT1H}") Duration profileTtl,
+            @Value("${dashboard.cache.refresh-after:0.8}") double refreshAfter,
+            @Qualifier(REFRESH_EXECUTOR) Executor refreshExecutor) {
         CaffeineCacheManager manager = new CaffeineCacheManager();
 
-        manager.registerCustomCache(LIVE,
-                Caffeine.newBuilder()
-                        .expireAfterWrite(30, TimeUnit.SECONDS)
-                        .maximumSize(500)
-                        .build());
-
-        manager.registerCustomCache(HISTORICAL,
-                Caffeine.newBuilder()
-                        .expireAfterWrite(300, TimeUnit.SECONDS)
-                        .maximumSize(1000)
-                        .build());
-
-        manager.registerCustomCache(PROFILE,
-                Caffeine.newBuilder()
-                        .expireAfterWrite(600, TimeUnit.SECONDS)
-                        .maximumSize(200)
-                        .build());
+        manager.registerCustomCache(LIVE, statsCache(liveTtl, refreshAfter, 500, refreshExecutor));
+        manager.registerCustomCache(HISTORICAL, statsCache(historicalTtl, refreshAfter, 1000, refreshExecutor));
+        manager.registerCustomCache(PROFILE, statsCache(profileTtl, refreshAfter, 200, refreshExecutor));
 
         // Rate-limit присутствия: ключ = botUserId, значение — dummy. TTL=60s
         // автоматически сбрасывает окно; maximumSize защищает от memory pressure
@@ -65,4 +97,79 @@ public class CacheConfig {
 
         return manager;
     }
+
+    /**
+     * Пул пересчёта записей по {@code refreshAfterWrite}: потоков и очередь ограничены — фоновые
+     * обновления не отнимают больше {@code threads} соединений read-пула у запросов дашборда.
+     * Метрики — {@code executor.*{name=stats-cache-refresh}} и {@code stats.cache.refresh.rejected}.
+     */
+    @Bean(name = REFRESH_EXECUTOR, destroyMethod = "shutdownNow")
+    public ThreadPoolExecutor statsCacheRefreshExecutor(
+            @Value("${dashboard.cache.refresh.threads:2}") int threads,
+            @Value("${dashboard.cache.refresh.queue-capacity:64}") int queueCapacity,
+            @Nullable MeterRegistry meterRegistry) {
+        MeterRegistry registry = meterRegistry != null ? meterRegistry : new SimpleMeterRegistry();
+        Counter rejected = Counter.builder("stats.cache.refresh.rejected")
+                .description("Фоновые обновления stats-кеша, отклонённые переполненной очередью")
+                .register(registry);
+        AtomicInteger seq = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread thread = new Thread(r, "stats-cache-refresh-" + seq.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, (r, pool) -> {
+                    rejected.increment();
+                    // Caffeine снимает отметку об обновлении: следующее чтение попробует снова.
+                    throw new RejectedExecutionException("Очередь обновления stats-кеша заполнена");
+                });
+        new ExecutorServiceMetrics(executor, "stats-cache-refresh", Tags.empty()).bindTo(registry);
+        return executor;
+    }
+
+    @Bean(STATS_KEYS)
+    public KeyGenerator statsCacheKeys() {
+        return (target, method, params) -> StatsCacheKey.of(target, method, params);
+    }
+
+    private static LoadingCache<Object, Object> statsCache(
+            Duration ttl, double refreshAfter, long maximumSize, Executor refreshExecutor) {
+        return Caffeine.newBuilder()
+                .expireAfterWrite(ttl)
+                .refreshAfterWrite(Duration.ofMillis(Math.max(1, (long) (ttl.toMillis() * refreshAfter))))
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build(new StatsCacheLoader(refreshExecutor));
+    }
+
+    /**
+     * Загрузка по ключу — только для обновления: промахи считает valueLoader {@code @Cacheable(sync = true)}.
+     * Значение хранится как у Spring {@code CaffeineCache}: Optional развёрнут, null — {@link NullValue}.
+     * Пересчёт идёт в {@code refreshExecutor}, а не в executor кеша — тот занят и обслуживанием
+     * Caffeine (чистка буферов), которое не должно стоять в очереди за SQL.
+     */
+    private static final class StatsCacheLoader implements CacheLoader<Object, Object> {
+
+        private final Executor refreshExecutor;
+
+        StatsCacheLoader(Executor refreshExecutor) {
+            this.refreshExecutor = refreshExecutor;
+        }
+
+        @Override
+        public Object load(Object key) throws Exception {
+            Callable<Object> reload = key instanceof StatsCacheKey k ? k.reload() : null;
+            if (reload == null) {
+                return null;
+            }
+            Object value = ObjectUtils.unwrapOptional(reload.call());
+            return value != null ? value : NullValue.INSTANCE;
+        }
+
+        @Override
+        public CompletableFuture<?> asyncReload(Object key, Object oldValue, Executor executor)
+                throws Exception {
+            return CacheLoader.super.asyncReload(key, oldValue, refreshExecutor);
+        }
+    }
 }
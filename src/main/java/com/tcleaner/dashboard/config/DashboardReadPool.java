@@ -0,0 +1,94 @@
+package com.tcleaner.dashboard.config;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.lang.Nullable;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Отдельный пул read-only соединений SQLite для аналитики дашборда ({@code StatsQueryService}).
+ *
+ * <p>Основной {@code spring.datasource} — небольшой пул JPA, ingestion-а, подписок и настроек;
+ * записи из него выполняет один поток {@link DashboardWriter}. Чтения аналитики сюда не
+ * попадают: в WAL читатель видит последний закоммиченный снапшот и не ждёт writer-а, поэтому
+ * тяжёлый overview или стрим истории не занимают соединения, нужные ingestion-у и боту, и
+ * наоборот.
+ *
+ * <p>Соединения открываются с {@code open_mode=1} (SQLITE_OPEN_READONLY) — запись из этого пула
+ * падает с {@code SQLITE_READONLY}. {@code cache_size}/{@code mmap_size} задаются параметрами
+ * URL: sqlite-jdbc применяет их при открытии, а {@code connection-init-sql} Hikari выполняет
+ * только первый оператор строки. Не наш DataSource-бин — автоконфигурация основного пула,
+ * JPA и Liquibase его не видят. Метрики — {@code hikaricp.connections.*{pool=sqlite-read}},
+ * у основного пула те же с {@code pool=sqlite-main}.
+ *
+ * <p>Чтение из нескольких statement-ов, которым нужен один снапшот, идёт через
+ * {@link #snapshot()}: read-only транзакция на одном соединении пула. Её менеджер —
+ * собственный {@link DataSourceTransactionManager} этого пула, не бин: основной
+ * {@code transactionManager} (JPA) остаётся единственным для {@code @Transactional}.
+ */
+@Component
+@ConditionalOnProperty(prefix = "dashboard.datasource.read", name = "enabled", havingValue = "true",
+        matchIfMissing = true)
+public class DashboardReadPool {
+
+    public static final String POOL_NAME = "sqlite-read";
+
+    private final HikariDataSource dataSource;
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate snapshot;
+
+    public DashboardReadPool(
+            @Value("${spring.datasource.url}") String writerUrl,
+            @Value("${dashboard.datasource.read.params:date_class=text&open_mode=1}") String params,
+            @Value("${dashboard.datasource.read.pool-size:4}") int poolSize,
+            @Nullable MeterRegistry meterRegistry
+    ) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName(POOL_NAME);
+        config.setJdbcUrl(readUrl(writerUrl, params));
+        config.setMaximumPoolSize(poolSize);
+        // sqlite-jdbc запрещает менять read-only после открытия: флаг Hikari должен совпадать с open_mode.
+        config.setReadOnly(true);
+        // Файл БД создаёт Liquibase на writer-е — соединения открываются при первом запросе.
+        config.setInitializationFailTimeout(-1);
+        if (meterRegistry != null) {
+            config.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+        }
+        this.dataSource = new HikariDataSource(config);
+        this.jdbc = new JdbcTemplate(dataSource);
+        this.snapshot = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        this.snapshot.setReadOnly(true);
+    }
+
+    // Путь к файлу — из writer-URL (его переопределяют профили), параметры writer-а не наследуются.
+    static String readUrl(String writerUrl, String params) {
+        int query = writerUrl.indexOf('?');
+        String base = query >= 0 ? writerUrl.substring(0, query) : writerUrl;
+        return params.isBlank() ? base : base + "?" + params;
+    }
+
+    public JdbcTemplate jdbc() {
+        return jdbc;
+    }
+
+    /**
+     * Read-only транзакция пула: {@link #jdbc()} внутри неё берёт одно соединение, и все
+     * statement-ы видят один WAL-снапшот (SQLite фиксирует его первым чтением после BEGIN).
+     */
+    public TransactionTemplate snapshot() {
+        return snapshot;
+    }
+
+    @PreDestroy
+    void close() {
+        dataSource.close();
+    }
+}
@@ -64,7 +64,10 @@ public class DashboardSecurityConfig {
                 .requestMatchers(
                     "/dashboard/api/stats/overview",
                     "/dashboard/api/stats/user/**",
-                    "/dashboard/api/stats/recent").authenticated()
+                    "/dashboard/api/stats/recent",
+                    "/dashboard/api/stats/history",
+                    "/dashboard/api/stats/live",
+                    "/dashboard/api/stats/queue-eta").authenticated()
                 // Подписки: RBAC внутри SubscriptionController через BotUserAccessPolicy
                 .requestMatchers(
                     "/dashboard/api/subscriptions",
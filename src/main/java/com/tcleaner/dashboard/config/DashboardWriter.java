@@ -0,0 +1,241 @@
+package com.tcleaner.dashboard.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Единственный writer SQLite: все пишущие транзакции дашборда выполняются по очереди одним
+ * потоком {@code sqlite-writer}.
+ *
+ * <p>Аспект перехватывает методы {@code @Transactional} без {@code readOnly} в
+ * {@code com.tcleaner.dashboard..} (ingestion, подписки, логин, настройки, rollup-ы) раньше
+ * транзакционного interceptor-а и ставит вызов в очередь; вызывающий поток ждёт результат или
+ * исключение метода. Поэтому запись держит не больше одного соединения {@code sqlite-main},
+ * писатели не сталкиваются на lock файла ({@code busy_timeout} остаётся страховкой для
+ * внешних процессов), а остальные соединения пула свободны для чтений — в WAL они writer-а не
+ * ждут.
+ *
+ * <p>Group commit: поток забирает накопившиеся записи пачкой до {@code group-max}
+ * ({@code drainTo}) и выполняет их в одной транзакции — {@code @Transactional} методов к ней
+ * присоединяются, fsync WAL один на пачку. Если любая запись пачки падает или пачка не
+ * коммитится, транзакция откатывается целиком и каждая запись повторяется своей транзакцией:
+ * вызывающий получает ровно тот результат, что и без группировки. Ожидания не добавляется —
+ * пачка собирается только из уже стоящих в очереди записей.
+ *
+ * <p>Вызов выполняется на месте, без очереди, если поток уже в транзакции (вложенные вызовы,
+ * тесты с {@code @Transactional}), если это сам writer, и до старта/после остановки. Метрики:
+ * {@code dashboard.write.queue.wait}, {@code dashboard.write.group.size},
+ * {@code dashboard.write.group.retries}, {@code dashboard.write.backlog}.
+ */
+@Aspect
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE - 1)
+@ConditionalOnProperty(prefix = "dashboard.datasource.write", name = "enabled", havingValue = "true",
+        matchIfMissing = true)
+public class DashboardWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(DashboardWriter.class);
+
+    private static final long POLL_TIMEOUT_MS = 500;
+    private static final long SHUTDOWN_TIMEOUT_MS = 10_000;
+
+    private final BlockingQueue<Write> queue = new LinkedBlockingQueue<>();
+    private final TransactionTemplate transaction;
+    private final int groupMax;
+    private final Timer queueWait;
+    private final DistributionSummary groupSize;
+    private final Counter groupRetries;
+    private volatile Thread writer;
+    private volatile boolean running;
+
+    public DashboardWriter(
+            PlatformTransactionManager transactionManager,
+            MeterRegistry meterRegistry,
+            @Value("${dashboard.datasource.write.group-max:32}") int groupMax
+    ) {
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.groupMax = Math.max(1, groupMax);
+        this.queueWait = Timer.builder("dashboard.write.queue.wait")
+                .description("Время пишущей транзакции в очереди writer-а SQLite")
+                .register(meterRegistry);
+        this.groupSize = DistributionSummary.builder("dashboard.write.group.size")
+                .description("Записей в одной транзакции group commit")
+                .register(meterRegistry);
+        this.groupRetries = Counter.builder("dashboard.write.group.retries")
+                .description("Пачки, откатившиеся и повторённые по одной записи")
+                .register(meterRegistry);
+        Gauge.builder("dashboard.write.backlog", queue, BlockingQueue::size)
+                .description("Пишущие транзакции в очереди writer-а SQLite")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        Thread thread = new Thread(this::drain, "sqlite-writer");
+        thread.setDaemon(true);
+        writer = thread;
+        thread.start();
+        log.info("SQLite writer запущен: group commit до {} записей", groupMax);
+    }
+
+    @Around("within(com.tcleaner.dashboard..*) && @annotation(transactional)")
+    public Object route(ProceedingJoinPoint call, Transactional transactional) throws Throwable {
+        if (transactional.readOnly()
+                || Thread.currentThread() == writer
+                || TransactionSynchronizationManager.isActualTransactionActive()) {
+            return call.proceed();
+        }
+        return submit(call::proceed);
+    }
+
+    /** Выполняет запись потоком writer-а и возвращает её результат; исключение записи пробрасывается. */
+    Object submit(WriteBody body) throws Throwable {
+        if (!running) {
+            return body.run();
+        }
+        Write write = new Write(body, System.nanoTime());
+        queue.add(write);
+        // stop() мог разобрать очередь до add — тогда запись никто не возьмёт, выполняем сами.
+        if (!running && queue.remove(write)) {
+            return body.run();
+        }
+        try {
+            return write.result.join();
+        } catch (CompletionException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    private void drain() {
+        List<Write> group = new ArrayList<>(groupMax);
+        // После stop() поток дописывает уже принятое: вызывающие ждут результат.
+        while (running || !queue.isEmpty()) {
+            try {
+                Write first = queue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+                queue.drainTo(group, groupMax - 1);
+                commit(group);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                group.clear();
+            }
+        }
+    }
+
+    private void commit(List<Write> group) {
+        long now = System.nanoTime();
+        for (Write write : group) {
+            queueWait.record(now - write.enqueuedAtNanos, TimeUnit.NANOSECONDS);
+        }
+        groupSize.record(group.size());
+        if (group.size() == 1) {
+            runAlone(group.get(0));
+            return;
+        }
+        List<Object> results = new ArrayList<>(group.size());
+        try {
+            transaction.executeWithoutResult(status -> {
+                for (Write write : group) {
+                    try {
+                        results.add(write.body.run());
+                    } catch (Throwable ex) {
+                        throw new GroupAborted(ex);
+                    }
+                }
+            });
+        } catch (RuntimeException | Error ex) {
+            // Пачка откатилась целиком: своей транзакцией каждая запись получит свой результат.
+            groupRetries.increment();
+            log.debug("Group commit из {} записей откатился ({}), повтор по одной",
+                    group.size(), ex.toString());
+            for (Write write : group) {
+                runAlone(write);
+            }
+            return;
+        }
+        for (int i = 0; i < group.size(); i++) {
+            group.get(i).result.complete(results.get(i));
+        }
+    }
+
+    private static void runAlone(Write write) {
+        try {
+            write.result.complete(write.body.run());
+        } catch (Throwable ex) {
+            write.result.completeExceptionally(ex);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        Thread thread = writer;
+        if (thread != null) {
+            try {
+                thread.join(SHUTDOWN_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // Не успевшие за таймаут записи выполняются здесь, а не теряются у ждущих потоков.
+        for (Write write; (write = queue.poll()) != null; ) {
+            runAlone(write);
+        }
+    }
+
+    /** Тело пишущего вызова — {@code proceed()} перехваченного метода. */
+    @FunctionalInterface
+    interface WriteBody {
+        Object run() throws Throwable;
+    }
+
+    private static final class Write {
+        private final WriteBody body;
+        private final long enqueuedAtNanos;
+        private final CompletableFuture<Object> result = new CompletableFuture<>();
+
+        private Write(WriteBody body, long enqueuedAtNanos) {
+            this.body = body;
+            this.enqueuedAtNanos = enqueuedAtNanos;
+        }
+    }
+
+    private static final class GroupAborted extends RuntimeException {
+        private GroupAborted(Throwable cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.tcleaner.dashboard.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Проверка ссылочной целостности SQLite на старте.
+ *
+ * <p>До {@code foreign_keys=true} в {@code spring.datasource.url} ограничения FOREIGN KEY в
+ * проде не действовали: {@code connection-init-sql} Hikari выполнял только первый PRAGMA
+ * строки. Строки, записанные тогда, могли ссылаться на несуществующих {@code bot_users}/
+ * {@code chats}; changeset 020 восстанавливает таких родителей заглушками до старта. Проверка
+ * подтверждает, что нарушений не осталось: иначе UPDATE по такой строке упадёт с
+ * {@code FOREIGN KEY constraint failed}, — ERROR с числом нарушений по таблицам и ссылкам и
+ * запросом {@code PRAGMA foreign_key_check} для разбора. Данные проверка не меняет.
+ */
+@Component
+public class ForeignKeyCheck {
+
+    private static final Logger log = LoggerFactory.getLogger(ForeignKeyCheck.class);
+
+    private final JdbcTemplate jdbc;
+
+    public ForeignKeyCheck(JdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void check() {
+        Integer enabled = jdbc.queryForObject("PRAGMA foreign_keys", Integer.class);
+        if (enabled == null || enabled == 0) {
+            log.warn("SQLite: foreign_keys выключен — ограничения FOREIGN KEY не проверяются");
+        }
+        Map<String, Long> violations = violations();
+        if (violations.isEmpty()) {
+            log.debug("SQLite: нарушений FOREIGN KEY нет");
+            return;
+        }
+        log.error("SQLite: строки с нарушением FOREIGN KEY {} — UPDATE по ним упадёт; "
+                + "список строк: PRAGMA foreign_key_check", violations);
+    }
+
+    /** Нарушения по «таблица → родитель»: {@code PRAGMA foreign_key_check} без разбора по строкам. */
+    Map<String, Long> violations() {
+        Map<String, Long> violations = new TreeMap<>();
+        jdbc.query("PRAGMA foreign_key_check", (RowCallbackHandler) rs ->
+                violations.merge(rs.getString("table") + " → " + rs.getString("parent"), 1L, Long::sum));
+        return violations;
+    }
+}
@@ -0,0 +1,43 @@
+package com.tcleaner.dashboard.config;
+
+import com.tcleaner.RedisListenerConfig;
+import com.tcleaner.dashboard.service.live.LiveFeedBroadcaster;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Подписка на {@link LiveFeedBroadcaster#RELAY_CHANNEL}: изменения, закоммиченные
+ * ingestion-ом на одном инстансе, раздаются SSE-сессиям дашборда на всех.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "dashboard.live.relay", name = "enabled", havingValue = "true",
+        matchIfMissing = true)
+public class LiveFeedRelayConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(LiveFeedRelayConfig.class);
+
+    @Bean
+    public RedisListenerConfig.Subscription liveFeedRelaySubscription(LiveFeedBroadcaster broadcaster) {
+        return new RedisListenerConfig.Subscription(relayListener(broadcaster),
+                new ChannelTopic(LiveFeedBroadcaster.RELAY_CHANNEL));
+    }
+
+    static MessageListener relayListener(LiveFeedBroadcaster broadcaster) {
+        return (Message message, byte[] pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            try {
+                broadcaster.deliverLocal(broadcaster.parse(body));
+            } catch (Exception ex) {
+                log.warn("Невалидное сообщение в {}: {}", LiveFeedBroadcaster.RELAY_CHANNEL, ex.getMessage());
+            }
+        };
+    }
+}
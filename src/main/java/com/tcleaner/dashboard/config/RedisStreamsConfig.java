@@ -1,11 +1,13 @@
 package com.tcleaner.dashboard.config;
 
 import com.tcleaner.dashboard.events.StatsStreamConsumer;
+import com.tcleaner.dashboard.events.StatsStreamDrain;
 import com.tcleaner.dashboard.events.StatsStreamProperties;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -16,10 +18,16 @@ import org.springframework.data.redis.connection.stream.ReadOffset;
 import org.springframework.data.redis.connection.stream.StreamOffset;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.stream.StreamMessageListenerContainer;
+import org.springframework.lang.Nullable;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 
 // ReadOffset.lastConsumed() — back-fill не делаем: события до старта consumer-group не нужны.
+// Партиции: group и подписка на каждый стрим <key>:<n>; контейнер читает каждую подписку своим
+// потоком (SimpleAsyncTaskExecutor), запись в SQLite сводится в один буфер StatsStreamConsumer.
+// Стримы прежнего числа партиций (StatsStreamDrain) читаются той же подпиской, пока не опустеют.
 @Configuration
 @ConditionalOnProperty(prefix = "dashboard.stats.stream", name = "enabled", havingValue = "true",
         matchIfMissing = true)
@@ -29,26 +37,37 @@ public class RedisStreamsConfig {
 
     private final StringRedisTemplate redis;
     private final StatsStreamProperties props;
+    @Nullable
+    private final StatsStreamDrain drain;
     private StreamMessageListenerContainer<String, MapRecord<String, String, String>> container;
 
     public RedisStreamsConfig(StringRedisTemplate redis, StatsStreamProperties props) {
+        this(redis, props, null);
+    }
+
+    @Autowired
+    public RedisStreamsConfig(StringRedisTemplate redis, StatsStreamProperties props,
+                              @Nullable StatsStreamDrain drain) {
         this.redis = redis;
         this.props = props;
+        this.drain = drain;
     }
 
     // BUSYGROUP = already exists → ok. Spring Data Redis оборачивает в generic Error, поэтому
     // идём по всей цепочке causes, не ловим по типу.
     @PostConstruct
     void ensureConsumerGroup() {
-        try {
-            redis.opsForStream().createGroup(props.key(), ReadOffset.from("0"), props.group());
-            log.info("Создана consumer group {}:{}", props.key(), props.group());
-        } catch (Exception ex) {
-            if (isBusyGroup(ex)) {
-                log.debug("Consumer group {}:{} уже существует", props.key(), props.group());
-            } else {
-                log.warn("Не удалось создать consumer group {}:{}: {}",
-                        props.key(), props.group(), ex.getMessage());
+        for (String stream : props.streamKeys()) {
+            try {
+                redis.opsForStream().createGroup(stream, ReadOffset.from("0"), props.group());
+                log.info("Создана consumer group {}:{}", stream, props.group());
+            } catch (Exception ex) {
+                if (isBusyGroup(ex)) {
+                    log.debug("Consumer group {}:{} уже существует", stream, props.group());
+                } else {
+                    log.warn("Не удалось создать consumer group {}:{}: {}",
+                            stream, props.group(), ex.getMessage());
+                }
             }
         }
     }
@@ -69,26 +88,32 @@ public class RedisStreamsConfig {
         StreamMessageListenerContainer.StreamMessageListenerContainerOptions<String,
                 MapRecord<String, String, String>> options =
                 StreamMessageListenerContainer.StreamMessageListenerContainerOptions.builder()
-                        .batchSize(10)
+                        // XREADGROUP COUNT: не меньше пачки ingestion, чтобы она собиралась за одно чтение.
+                        .batchSize(Math.max(10, props.batchSize()))
                         .pollTimeout(Duration.ofSeconds(2))
                         .build();
 
         this.container = StreamMessageListenerContainer.create(connectionFactory, options);
 
-        StreamMessageListenerContainer.StreamReadRequest<String> request =
-                StreamMessageListenerContainer.StreamReadRequest
-                        .builder(StreamOffset.create(props.key(), ReadOffset.lastConsumed()))
-                        .consumer(Consumer.from(props.group(), props.consumer()))
-                        .autoAcknowledge(false)
-                        .errorHandler(ex -> {
-                            if (container != null && container.isRunning()) {
-                                log.warn("StreamMessageListener error: {}", ex.getMessage());
-                            }
-                        })
-                        .build();
-
-        container.register(request, consumer);
-        log.info("Подписан consumer {}:{}:{}", props.key(), props.group(), props.consumer());
+        List<String> streams = new ArrayList<>(props.streamKeys());
+        if (drain != null) {
+            streams.addAll(drain.draining());
+        }
+        for (String stream : streams) {
+            StreamMessageListenerContainer.StreamReadRequest<String> request =
+                    StreamMessageListenerContainer.StreamReadRequest
+                            .builder(StreamOffset.create(stream, ReadOffset.lastConsumed()))
+                            .consumer(Consumer.from(props.group(), props.consumer()))
+                            .autoAcknowledge(false)
+                            .errorHandler(ex -> {
+                                if (container != null && container.isRunning()) {
+                                    log.warn("StreamMessageListener error в {}: {}", stream, ex.getMessage());
+                                }
+                            })
+                            .build();
+            container.register(request, consumer);
+            log.info("Подписан consumer {}:{}:{}", stream, props.group(), props.consumer());
+        }
         container.start();
         return container;
     }
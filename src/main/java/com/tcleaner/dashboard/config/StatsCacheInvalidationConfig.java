@@ -0,0 +1,43 @@
+package com.tcleaner.dashboard.config;
+
+import com.tcleaner.RedisListenerConfig;
+import com.tcleaner.dashboard.service.stats.StatsCacheInvalidator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Подписка на {@link StatsCacheInvalidator#INVALIDATION_CHANNEL}: изменения, применённые
+ * ingestion-ом на одном инстансе, сбрасывают затронутые ключи stats-кешей на всех.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "dashboard.stats.cache.invalidation", name = "enabled", havingValue = "true",
+        matchIfMissing = true)
+public class StatsCacheInvalidationConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(StatsCacheInvalidationConfig.class);
+
+    @Bean
+    public RedisListenerConfig.Subscription statsCacheInvalidationSubscription(StatsCacheInvalidator invalidator) {
+        return new RedisListenerConfig.Subscription(invalidationListener(invalidator),
+                new ChannelTopic(StatsCacheInvalidator.INVALIDATION_CHANNEL));
+    }
+
+    static MessageListener invalidationListener(StatsCacheInvalidator invalidator) {
+        return (Message message, byte[] pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            try {
+                invalidator.evictLocal(StatsCacheInvalidator.Touched.parse(body));
+            } catch (RuntimeException ex) {
+                log.warn("Невалидное сообщение в {}: {}", StatsCacheInvalidator.INVALIDATION_CHANNEL, body);
+            }
+        };
+    }
+}
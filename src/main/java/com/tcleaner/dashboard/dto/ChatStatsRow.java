@@ -1,10 +1,17 @@
 package com.tcleaner.dashboard.dto;
 
+/**
+ * Чат за период. {@code activeUsers} — уникальные пользователи, экспортировавшие чат;
+ * {@code activeUsersErrorBound} — относительная стандартная ошибка, если они оценены
+ * HyperLogLog-скетчами (длинный период), null — точный подсчёт.
+ */
 public record ChatStatsRow(
         long chatRefId,
         String canonicalChatId,
         String chatTitle,
         long exportCount,
         long totalMessages,
-        long totalBytes
+        long totalBytes,
+        long activeUsers,
+        Double activeUsersErrorBound
 ) {}
@@ -0,0 +1,26 @@
+package com.tcleaner.dashboard.dto;
+
+/**
+ * Статистика одного dashboard-кеша (Caffeine {@code recordStats}) с момента старта инстанса.
+ *
+ * @param cache         имя кеша ({@code stats-live}, {@code stats-historical}, {@code stats-profile})
+ * @param size          приблизительное число записей
+ * @param hits          попадания
+ * @param misses        промахи (запрос ушёл в SQLite)
+ * @param hitRate       доля попаданий, 1.0 при отсутствии запросов
+ * @param evictions     вытеснения по размеру и TTL
+ * @param invalidations ключи, снятые инвалидацией из ingestion
+ * @param loads         загрузки значений: промахи и фоновые обновления
+ * @param avgLoadMillis среднее время загрузки, мс
+ */
+public record DashboardCacheStatsDto(
+        String cache,
+        long size,
+        long hits,
+        long misses,
+        double hitRate,
+        long evictions,
+        long invalidations,
+        long loads,
+        double avgLoadMillis) {
+}
@@ -0,0 +1,22 @@
+package com.tcleaner.dashboard.dto;
+
+/**
+ * Инкремент живой ленты дашборда (SSE {@code /dashboard/api/stats/live}) — одно событие
+ * экспорта после коммита ingestion. {@code kind}: {@code created} — новая строка
+ * export_events, {@code updated} — смена статуса или метрик существующей.
+ * {@code exports}/{@code messages}/{@code bytes} — дельты счётчиков overview,
+ * {@code previousStatus} — статус до изменения (null у created). Даты — ISO-строки.
+ */
+public record LiveUpdateDto(
+        String kind,
+        String taskId,
+        long botUserId,
+        String username,
+        Long chatRefId,
+        String chatTitle,
+        String status,
+        String previousStatus,
+        long exports,
+        long messages,
+        long bytes,
+        String startedAt) {}
@@ -23,11 +23,16 @@ public record OverviewDto(
         /** Изменение totalBytes, %. null если нет данных. */
         Double deltaBytes,
         /** Изменение totalUsers vs предыдущий период той же длины, %. null если нет данных. */
-        Double deltaUsers
+        Double deltaUsers,
+        /**
+         * Относительная стандартная ошибка totalUsers/deltaUsers и activeUsers топ-чатов, если они
+         * оценены HyperLogLog-скетчами (длинный период); null — точный подсчёт.
+         */
+        Double usersErrorBound
 ) {
     /** Пустой DTO — для /api/me/overview когда у пользователя ещё нет данных. */
     public static OverviewDto empty() {
         return new OverviewDto(0L, 0L, 0L, 0L, List.of(), List.of(), Map.of(),
-                null, null, null, null);
+                null, null, null, null, null);
     }
 }
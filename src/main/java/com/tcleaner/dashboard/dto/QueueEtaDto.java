@@ -0,0 +1,35 @@
+package com.tcleaner.dashboard.dto;
+
+import java.util.Map;
+
+/**
+ * Текущее состояние очереди экспортов и ETA для задачи, поставленной прямо сейчас.
+ * Считается в памяти по статистике {@code QueueEtaEstimator} — без запросов к БД.
+ *
+ * @param available       {@code false}, пока не накоплено достаточно завершённых задач
+ *                        (после рестарта) или Redis недоступен — ETA-поля {@code null}
+ * @param pendingInQueue  задач в очередях
+ * @param hasActiveJob    воркер сейчас занят
+ * @param etaSeconds      ожидаемое время до готовности новой задачи
+ * @param lowSeconds      нижняя граница ~80%-интервала
+ * @param highSeconds     верхняя граница ~80%-интервала
+ * @param meanJobSeconds  среднее время обслуживания одной задачи
+ * @param samples         число наблюдений
+ * @param sources         throughput по источнику ({@code cache}/{@code telegram})
+ */
+public record QueueEtaDto(
+        boolean available,
+        long pendingInQueue,
+        boolean hasActiveJob,
+        Long etaSeconds,
+        Long lowSeconds,
+        Long highSeconds,
+        Double meanJobSeconds,
+        long samples,
+        Map<String, SourceThroughput> sources) {
+
+    public record SourceThroughput(
+            double messagesPerSecond,
+            double overheadSeconds,
+            long samples) {}
+}
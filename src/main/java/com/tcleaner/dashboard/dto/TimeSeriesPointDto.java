@@ -3,6 +3,13 @@ package com.tcleaner.dashboard.dto;
 /**
  * Точка временного ряда для графиков Chart.js.
  * {@code period} — строка-bucket ({@code "2026-04-15"} / {@code "2026-04"} / {@code "2026-W15"}),
- * {@code value} — агрегированное значение (число экспортов, сообщений или байт).
+ * {@code value} — агрегированное значение (число экспортов, сообщений, байт или уникальных юзеров).
+ * {@code errorBound} — относительная стандартная ошибка, если {@code value} оценён
+ * HyperLogLog-скетчами (metric=users за длинный период); null — точное значение.
  */
-public record TimeSeriesPointDto(String period, long value) {}
+public record TimeSeriesPointDto(String period, long value, Double errorBound) {
+
+    public TimeSeriesPointDto(String period, long value) {
+        this(period, value, null);
+    }
+}
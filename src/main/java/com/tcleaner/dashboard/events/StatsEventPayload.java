@@ -85,4 +85,8 @@ public class StatsEventPayload {
 
     @JsonProperty("ts")
     private Instant ts;
+
+    // Начало обработки задачи воркером (export.completed/failed); нет у событий старых воркеров.
+    @JsonProperty("processing_started_at")
+    private Instant processingStartedAt;
 }
@@ -3,17 +3,46 @@ package com.tcleaner.dashboard.events;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.tcleaner.dashboard.service.ingestion.ExportEventIngestionService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.StreamInfo.XInfoGroup;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.stream.StreamListener;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
 // ACK-стратегия: poison (JsonProcessingException, пустой payload) → ACK, иначе PEL блокируется навсегда.
 // Transient (DB/Redis/downstream) → no ACK → at-least-once retry (idempotent по task_id).
-// ObjectProvider: ingestion bean может отсутствовать в unit-тестах без Spring-контекста.
+// ObjectProvider: ingestion и MeterRegistry может не быть в unit-тестах без Spring-контекста.
+//
+// Batch-режим (batch-size > 1): записи копятся до batch-size или linger, пачка идёт в
+// ExportEventIngestionService.ingestBatch одной транзакцией и подтверждается одним XACK.
+// Упавшая пачка делится пополам и повторяется — битое событие остаётся одно без ACK,
+// остальные коммитятся. Метрики: stats.ingest.events{outcome}, stats.ingest.batch,
+// stats.ingest.batch.size.
+//
+// Партиции (partitions > 1): каждый стрим <key>:<n> читается своим потоком контейнера, JSON
+// разбирается в этом же потоке, а в SQLite пишет один writer — общий буфер под одним локом:
+// параллельные consumer-ы не дерутся за lock базы, пачки копятся со всех партиций. Записи одной
+// партиции попадают в буфер в порядке стрима, поэтому события одной задачи применяются по порядку.
+// Лаг партиции — stats.ingest.lag{partition} (ещё не выданные группе) и stats.ingest.pending{partition}.
 @Component
 public class StatsStreamConsumer implements StreamListener<String, MapRecord<String, String, String>> {
 
@@ -24,49 +53,196 @@ public class StatsStreamConsumer implements StreamListener<String, MapRecord<Str
     private final StringRedisTemplate redis;
     private final StatsStreamProperties props;
     private final ObjectProvider<ExportEventIngestionService> ingestionServiceProvider;
+    private final Counter ingested;
+    private final Counter poison;
+    private final Counter failed;
+    private final Timer batchTimer;
+    private final DistributionSummary batchSize;
+    private final List<AtomicLong> lag = new ArrayList<>();
+    private final List<AtomicLong> pending = new ArrayList<>();
+
+    // Guarded by buffer: пачки обрабатываются строго по одной — из потоков всех партиций и по linger.
+    private final List<Parsed> buffer = new ArrayList<>();
+    private long firstBufferedAtMs;
 
+    @Autowired
     public StatsStreamConsumer(
             ObjectMapper objectMapper,
             StringRedisTemplate redis,
             StatsStreamProperties props,
-            ObjectProvider<ExportEventIngestionService> ingestionServiceProvider
+            ObjectProvider<ExportEventIngestionService> ingestionServiceProvider,
+            ObjectProvider<MeterRegistry> meterRegistry
     ) {
         this.objectMapper = objectMapper;
         this.redis = redis;
         this.props = props;
         this.ingestionServiceProvider = ingestionServiceProvider;
+        MeterRegistry registry = Objects.requireNonNullElseGet(meterRegistry.getIfAvailable(),
+                SimpleMeterRegistry::new);
+        this.ingested = outcome(registry, "ingested");
+        this.poison = outcome(registry, "poison");
+        this.failed = outcome(registry, "failed");
+        this.batchTimer = Timer.builder("stats.ingest.batch")
+                .description("Обработка пачки stats:events: ingest-транзакция + XACK")
+                .register(registry);
+        this.batchSize = DistributionSummary.builder("stats.ingest.batch.size")
+                .description("Записей stats:events в одной пачке")
+                .register(registry);
+        for (int p = 0; p < props.partitions(); p++) {
+            lag.add(partitionGauge(registry, "stats.ingest.lag", "Записи партиции, ещё не выданные группе", p));
+            pending.add(partitionGauge(registry, "stats.ingest.pending", "Выданные, но не подтверждённые", p));
+        }
+    }
+
+    private static AtomicLong partitionGauge(MeterRegistry registry, String name, String description, int p) {
+        AtomicLong value = new AtomicLong();
+        Gauge.builder(name, value, AtomicLong::get)
+                .description(description)
+                .tag("partition", String.valueOf(p))
+                .register(registry);
+        return value;
+    }
+
+    private static Counter outcome(MeterRegistry registry, String outcome) {
+        return Counter.builder("stats.ingest.events").tag("outcome", outcome).register(registry);
     }
 
     @Override
     public void onMessage(MapRecord<String, String, String> message) {
+        // Разбор — в потоке партиции, до single-writer лока.
+        Parsed parsed = parse(message);
+        synchronized (buffer) {
+            if (buffer.isEmpty()) {
+                firstBufferedAtMs = System.currentTimeMillis();
+            }
+            buffer.add(parsed);
+            if (buffer.size() >= props.batchSize()) {
+                processBuffer();
+            }
+        }
+    }
+
+    /** Неполная пачка уходит, когда самая старая запись в ней ждёт дольше linger. */
+    @Scheduled(fixedDelayString = "${dashboard.stats.stream.linger:PT0.2S}")
+    public void flushLingering() {
+        synchronized (buffer) {
+            if (!buffer.isEmpty()
+                    && System.currentTimeMillis() - firstBufferedAtMs >= props.linger().toMillis()) {
+                processBuffer();
+            }
+        }
+    }
+
+    // Контейнер остановлен раньше (RedisStreamsConfig зависит от consumer) — новых записей нет.
+    // Не успевшие записи остаются в PEL без ACK.
+    @PreDestroy
+    void flushOnShutdown() {
+        synchronized (buffer) {
+            if (!buffer.isEmpty()) {
+                processBuffer();
+            }
+        }
+    }
+
+    /** Лаг партиций для gauge-ей: XINFO GROUPS по каждому стриму. */
+    @Scheduled(fixedDelayString = "${dashboard.stats.stream.lag-interval:PT15S}")
+    public void refreshLag() {
+        for (int p = 0; p < props.partitions(); p++) {
+            String stream = props.streamKey(p);
+            try {
+                for (XInfoGroup group : redis.opsForStream().groups(stream)) {
+                    if (props.group().equals(group.groupName())) {
+                        // lag есть в XINFO GROUPS с Redis 7; на старых версиях остаётся 0.
+                        Object value = group.getRaw().get("lag");
+                        lag.get(p).set(value instanceof Number n ? n.longValue() : 0L);
+                        pending.get(p).set(group.pendingCount() != null ? group.pendingCount() : 0L);
+                    }
+                }
+            } catch (Exception ex) {
+                log.debug("XINFO GROUPS {} не удался: {}", stream, ex.getMessage());
+            }
+        }
+    }
+
+    private void processBuffer() {
+        List<Parsed> records = new ArrayList<>(buffer);
+        buffer.clear();
+        batchSize.record(records.size());
+        batchTimer.record(() -> process(records));
+    }
+
+    // payload == null — poison: повтор не исправит запись, поэтому сразу ACK.
+    private Parsed parse(MapRecord<String, String, String> message) {
+        String stream = message.getStream();
         String id = message.getId().getValue();
-        boolean ack = false;
+        String json = message.getValue().get(PAYLOAD_FIELD);
+        if (json == null || json.isBlank()) {
+            log.warn("Пустой payload в {}: {} — ACK для выхода из PEL", stream, id);
+            return new Parsed(stream, id, null);
+        }
         try {
-            String json = message.getValue().get(PAYLOAD_FIELD);
-            if (json == null || json.isBlank()) {
-                log.warn("Пустой payload в {}: {} — ACK для выхода из PEL", props.key(), id);
-                ack = true; // poison: повтор не вернёт payload
-            } else {
-                StatsEventPayload payload = objectMapper.readValue(json, StatsEventPayload.class);
-                handle(payload);
-                ack = true;
-            }
+            return new Parsed(stream, id, objectMapper.readValue(json, StatsEventPayload.class));
         } catch (JsonProcessingException ex) {
             // Poison: парсинг никогда не пройдёт → ACK, иначе событие блокирует PEL навсегда.
-            log.error("Битый JSON в {} id={}: {} — ACK (poison)", props.key(), id, ex.getMessage());
-            ack = true;
-        } catch (Exception ex) {
-            // Transient (Redis/DB/downstream): не ACK → повтор. Ingestion идемпотентен по task_id.
-            log.error("Ошибка обработки события {} в {}: {} — XACK пропущен, будет retry",
-                    id, props.key(), ex.getMessage());
+            log.error("Битый JSON в {} id={}: {} — ACK (poison)", stream, id, ex.getMessage());
+            return new Parsed(stream, id, null);
         }
-        if (ack) {
-            try {
-                redis.opsForStream().acknowledge(props.key(), props.group(), id);
-            } catch (Exception ex) {
-                log.warn("Не удалось XACK {}:{}:{}: {}", props.key(), props.group(), id, ex.getMessage());
+    }
+
+    private void process(List<Parsed> records) {
+        Map<String, List<String>> ackIds = new LinkedHashMap<>();
+        List<Parsed> valid = new ArrayList<>(records.size());
+        for (Parsed parsed : records) {
+            if (parsed.payload() == null) {
+                poison.increment();
+                ack(ackIds, parsed);
+            } else {
+                valid.add(parsed);
             }
         }
+        ingest(valid, ackIds);
+        ackIds.forEach(this::acknowledge);
+    }
+
+    private static void ack(Map<String, List<String>> ackIds, Parsed parsed) {
+        ackIds.computeIfAbsent(parsed.stream(), s -> new ArrayList<>()).add(parsed.id());
+    }
+
+    private void ingest(List<Parsed> batch, Map<String, List<String>> ackIds) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            if (batch.size() == 1) {
+                handle(batch.get(0).payload());
+            } else {
+                handleBatch(batch.stream().map(Parsed::payload).toList());
+            }
+            batch.forEach(parsed -> ack(ackIds, parsed));
+            ingested.increment(batch.size());
+        } catch (Exception ex) {
+            if (batch.size() == 1) {
+                // Transient (Redis/DB/downstream): не ACK → повтор. Ingestion идемпотентен по task_id.
+                failed.increment();
+                log.error("Ошибка обработки события {} в {}: {} — XACK пропущен, будет retry",
+                        batch.get(0).id(), batch.get(0).stream(), ex.getMessage());
+                return;
+            }
+            // Вся пачка откатилась: делим пополам, порядок событий внутри сохраняется.
+            log.warn("Пачка из {} событий откатилась ({}), повтор половинами",
+                    batch.size(), ex.getMessage());
+            int mid = batch.size() / 2;
+            ingest(batch.subList(0, mid), ackIds);
+            ingest(batch.subList(mid, batch.size()), ackIds);
+        }
+    }
+
+    private void acknowledge(String stream, List<String> ids) {
+        try {
+            redis.opsForStream().acknowledge(stream, props.group(), ids.toArray(String[]::new));
+        } catch (Exception ex) {
+            log.warn("Не удалось XACK {}:{}:{}: {}", stream, props.group(), ids, ex.getMessage());
+        }
     }
 
     void handle(StatsEventPayload payload) {
@@ -78,4 +254,16 @@ public class StatsStreamConsumer implements StreamListener<String, MapRecord<Str
         log.debug("Ingestion service отсутствует — событие {} (task_id={}) проигнорировано",
                 payload.getType(), payload.getTaskId());
     }
+
+    void handleBatch(List<StatsEventPayload> payloads) {
+        ExportEventIngestionService service = ingestionServiceProvider.getIfAvailable();
+        if (service != null) {
+            service.ingestBatch(payloads);
+            return;
+        }
+        log.debug("Ingestion service отсутствует — {} событий проигнорировано", payloads.size());
+    }
+
+    private record Parsed(String stream, String id, StatsEventPayload payload) {
+    }
 }
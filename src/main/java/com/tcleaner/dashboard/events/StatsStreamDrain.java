@@ -0,0 +1,116 @@
+package com.tcleaner.dashboard.events;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.connection.stream.StreamInfo.XInfoGroup;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Стримы статистики от прежнего числа партиций. После смены {@code STATS_STREAM_PARTITIONS}
+ * publisher-ы пишут уже в новые {@code <key>:<n>}, а в старых — сам {@code key} до
+ * партиционирования или {@code <key>:<n>} прежнего набора — могут остаться невыданные группе
+ * записи и PEL. Такие стримы находятся на старте ({@code SCAN} по ключам-стримам) и читаются
+ * вместе с текущими ({@code RedisStreamsConfig}, {@link StatsStreamReclaimer}), пока у группы
+ * не останется ни невыданных, ни неподтверждённых записей; затем перестают учитываться.
+ *
+ * <p>Пока старый стрим дочитывается, события одной задачи могут лежать в двух стримах и
+ * применяться не по порядку — ingestion это переносит так же, как повторы из PEL.
+ */
+@Component
+public class StatsStreamDrain {
+
+    private static final Logger log = LoggerFactory.getLogger(StatsStreamDrain.class);
+    private static final int SCAN_BATCH = 100;
+
+    private final StringRedisTemplate redis;
+    private final StatsStreamProperties props;
+    private final List<String> draining = new CopyOnWriteArrayList<>();
+    private boolean discovered;
+
+    public StatsStreamDrain(StringRedisTemplate redis, StatsStreamProperties props) {
+        this.redis = redis;
+        this.props = props;
+    }
+
+    /** Старые стримы, которые ещё дочитываются; первый вызов ищет их в Redis. */
+    public synchronized List<String> draining() {
+        if (!discovered && props.enabled()) {
+            discovered = true;
+            for (String stream : candidates()) {
+                try {
+                    if (hasBacklog(stream)) {
+                        draining.add(stream);
+                        log.warn("Стрим {} остался от прежнего числа партиций — дочитывается группой {}",
+                                stream, props.group());
+                    }
+                } catch (Exception ex) {
+                    log.warn("XINFO {} не удался — стрим не дочитывается: {}", stream, ex.getMessage());
+                }
+            }
+        }
+        return List.copyOf(draining);
+    }
+
+    /** Дочитанные стримы больше не разбираются: ни невыданных, ни неподтверждённых записей. */
+    @Scheduled(fixedDelayString = "${dashboard.stats.stream.lag-interval:PT15S}")
+    public void refresh() {
+        for (String stream : draining) {
+            try {
+                if (!hasBacklog(stream)) {
+                    draining.remove(stream);
+                    log.info("Стрим {} дочитан — больше не читается; ключ можно удалить", stream);
+                }
+            } catch (Exception ex) {
+                // Redis недоступен — проверим в следующий раз.
+                log.debug("XINFO {} не удался: {}", stream, ex.getMessage());
+            }
+        }
+    }
+
+    // Сам key и <key>:<n> вне текущего набора партиций; <key>:dead и прочие ключи не подходят.
+    private Set<String> candidates() {
+        Set<String> streams = new TreeSet<>();
+        streams.add(props.key());
+        try (Cursor<String> cursor = redis.scan(ScanOptions.scanOptions()
+                .match(props.key() + ":*").type(DataType.STREAM).count(SCAN_BATCH).build())) {
+            while (cursor.hasNext()) {
+                String stream = cursor.next();
+                if (stream.substring(props.key().length() + 1).matches("\\d+")) {
+                    streams.add(stream);
+                }
+            }
+        } catch (Exception ex) {
+            log.warn("SCAN стримов {}:* не удался — старые партиции не дочитываются: {}",
+                    props.key(), ex.getMessage());
+        }
+        streams.removeAll(props.streamKeys());
+        return streams;
+    }
+
+    // Есть ли у группы в стриме что читать: PEL или записи после last-delivered-id. Нет группы —
+    // стрим этой группой не читался, дочитывать нечего.
+    boolean hasBacklog(String stream) {
+        if (!Boolean.TRUE.equals(redis.hasKey(stream))) {
+            return false;
+        }
+        for (XInfoGroup group : redis.opsForStream().groups(stream)) {
+            if (props.group().equals(group.groupName())) {
+                long pending = group.pendingCount() != null ? group.pendingCount() : 0L;
+                String last = redis.opsForStream().info(stream).lastGeneratedId();
+                return pending > 0 || !Objects.equals(last, group.lastDeliveredId());
+            }
+        }
+        return false;
+    }
+}
@@ -1,6 +1,13 @@
 package com.tcleaner.dashboard.events;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.ConstructorBinding;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
 
 /**
  * Настройки Redis-стрима статистики. Читаются из ENV:
@@ -9,12 +16,18 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
  *   <li>{@code STATS_STREAM_GROUP} — имя consumer group (default {@code dashboard-writer})</li>
  *   <li>{@code STATS_STREAM_CONSUMER} — имя конкретного consumer (default {@code java-bot-1})</li>
  *   <li>{@code STATS_STREAM_MAXLEN} — approximate trim (default 100000)</li>
+ *   <li>{@code STATS_STREAM_BATCH_SIZE} — событий в одной ingest-транзакции (1 — по одному)</li>
+ *   <li>{@code STATS_STREAM_LINGER} — сколько неполная пачка ждёт добора (default 200ms)</li>
+ *   <li>{@code STATS_STREAM_PARTITIONS} — число стримов {@code <key>:<n>} (default 1 — один {@code key})</li>
  * </ul>
  *
  * @param key название стрима
  * @param group имя consumer group
  * @param consumer имя consumer внутри group
  * @param maxlen approximate MAXLEN при каждом XADD
+ * @param batchSize максимум событий в одной транзакции и одном XACK
+ * @param linger максимальное ожидание добора неполной пачки
+ * @param partitions число партиций-стримов; события одной задачи всегда в одной партиции
  */
 @ConfigurationProperties(prefix = "dashboard.stats.stream")
 public record StatsStreamProperties(
@@ -22,8 +35,12 @@ public record StatsStreamProperties(
         String group,
         String consumer,
         long maxlen,
-        boolean enabled
+        boolean enabled,
+        int batchSize,
+        Duration linger,
+        int partitions
 ) {
+    @ConstructorBinding
     public StatsStreamProperties {
         if (key == null || key.isBlank()) {
             key = "stats:events";
@@ -37,5 +54,51 @@ public record StatsStreamProperties(
         if (maxlen <= 0) {
             maxlen = 100_000L;
         }
+        if (batchSize <= 0) {
+            batchSize = 1;
+        }
+        if (linger == null || linger.isNegative()) {
+            linger = Duration.ofMillis(200);
+        }
+        if (partitions <= 0) {
+            partitions = 1;
+        }
+    }
+
+    /** Без batch-режима: каждое событие — своя транзакция и свой XACK. */
+    public StatsStreamProperties(String key, String group, String consumer, long maxlen, boolean enabled) {
+        this(key, group, consumer, maxlen, enabled, 1, null, 1);
+    }
+
+    /**
+     * Ключ стрима партиции; одна партиция — сам {@code key}, как до партиционирования. После смены
+     * {@code partitions} записи остаются и в стримах прежнего набора — их дочитывает
+     * {@link StatsStreamDrain}.
+     */
+    public String streamKey(int partition) {
+        return partitions == 1 ? key : key + ":" + partition;
+    }
+
+    /** Dead-letter стрим событий, не применившихся за {@code reclaim.max-deliveries} доставок. */
+    public String deadLetterKey() {
+        return key + ":dead";
+    }
+
+    public List<String> streamKeys() {
+        return IntStream.range(0, partitions).mapToObj(this::streamKey).toList();
+    }
+
+    /**
+     * Стрим для события с ключом {@code partitionKey} ({@code task_id}, для событий без задачи —
+     * {@code bot_user_id}): {@code CRC32(utf8) % partitions}. То же правило — в export-worker
+     * ({@code stats_stream_key}), поэтому хеш не {@code String.hashCode}.
+     */
+    public String streamKeyFor(String partitionKey) {
+        if (partitions == 1 || partitionKey == null) {
+            return streamKey(0);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(partitionKey.getBytes(StandardCharsets.UTF_8));
+        return streamKey((int) (crc.getValue() % partitions));
     }
 }
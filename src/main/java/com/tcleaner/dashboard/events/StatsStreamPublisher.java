@@ -2,18 +2,28 @@ package com.tcleaner.dashboard.events;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.connection.RedisConnection;
 import org.springframework.data.redis.connection.RedisStreamCommands.XAddOptions;
 import org.springframework.data.redis.connection.stream.MapRecord;
-import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Публикация событий статистики в Redis Stream.
@@ -22,45 +32,241 @@ import java.util.Map;
  * <p>
  * Используем низкоуровневый {@code xAdd(...)} через {@link RedisConnection}:
  * {@code StreamOperations.add} не принимает {@link XAddOptions} — а нам нужен
- * approximate MAXLEN trim, иначе стрим растёт неограниченно.
+ * approximate MAXLEN trim, иначе стрим растёт неограниченно. При {@code partitions > 1}
+ * событие уходит в стрим своей партиции ({@link StatsStreamProperties#streamKeyFor}).
+ * <p>
+ * {@link #publish} только кладёт событие в буфер: {@code bot_user.seen} (приходит на каждый
+ * update) схлопывается по {@code botUserId} — до flush доживает последнее событие пользователя
+ * с самым свежим {@code ts} и username. Буфер уходит в Redis одним pipeline из XADD, когда
+ * набирается {@code batch-size} событий (пишет поток, заполнивший пачку — backpressure
+ * вместо отказа пула), либо раз в {@code linger}.
+ * <p>
+ * Пачка, чей pipeline упал, возвращается в начало буфера в прежнем порядке и уходит со
+ * следующим flush; часть XADD могла пройти, поэтому доставка — at-least-once (ingestion
+ * идемпотентен по {@code task_id}). Буфер ограничен {@code capacity} вместе с пачкой в записи,
+ * так что место для возврата есть всегда. Если буфер полон, {@link #publish} ждёт места до
+ * {@code max-block} и только потом отбрасывает новое событие.
+ * Метрики: {@code stats.publish.events{outcome=flushed|coalesced|retried|dropped}},
+ * {@code stats.publish.buffered}.
  */
 @Component
 public class StatsStreamPublisher {
 
     private static final Logger log = LoggerFactory.getLogger(StatsStreamPublisher.class);
-    private static final String PAYLOAD_FIELD = "payload";
+    private static final byte[] PAYLOAD_FIELD = "payload".getBytes(StandardCharsets.UTF_8);
 
     private final StringRedisTemplate redis;
     private final ObjectMapper objectMapper;
     private final StatsStreamProperties props;
+    private final int batchSize;
+    private final int capacity;
+    private final long maxBlockNanos;
+    private final Counter flushed;
+    private final Counter coalesced;
+    private final Counter retried;
+    private final Counter dropped;
+
+    // Guarded by buffer. Порядок событий (кроме схлопнутых seen) сохраняется.
+    private final List<StatsEventPayload> buffer = new ArrayList<>();
+    private final Map<Long, StatsEventPayload> seenByUser = new LinkedHashMap<>();
+    private int inFlight;
+    // Одна запись в Redis за раз: пачки уходят в стрим в порядке снятия с буфера.
+    private final Object writeLock = new Object();
 
     public StatsStreamPublisher(
             StringRedisTemplate redis,
             ObjectMapper objectMapper,
-            StatsStreamProperties props
+            StatsStreamProperties props,
+            MeterRegistry meterRegistry,
+            @Value("${dashboard.stats.stream.publish.batch-size:100}") int batchSize,
+            @Value("${dashboard.stats.stream.publish.capacity:10000}") int capacity,
+            @Value("${dashboard.stats.stream.publish.max-block:PT0.2S}") Duration maxBlock
     ) {
         this.redis = redis;
         this.objectMapper = objectMapper;
         this.props = props;
+        this.batchSize = Math.max(1, batchSize);
+        this.capacity = Math.max(1, capacity);
+        this.maxBlockNanos = Math.max(0, maxBlock.toNanos());
+        this.flushed = outcome(meterRegistry, "flushed");
+        this.coalesced = outcome(meterRegistry, "coalesced");
+        this.retried = outcome(meterRegistry, "retried");
+        this.dropped = outcome(meterRegistry, "dropped");
+        Gauge.builder("stats.publish.buffered", this, StatsStreamPublisher::buffered)
+                .description("События статистики, ожидающие XADD")
+                .register(meterRegistry);
+    }
+
+    private static Counter outcome(MeterRegistry registry, String outcome) {
+        return Counter.builder("stats.publish.events").tag("outcome", outcome).register(registry);
     }
 
-    @Async
     public void publish(StatsEventPayload event) {
+        boolean full;
+        synchronized (buffer) {
+            Long userId = event.getType() == StatsEventType.BOT_USER_SEEN ? event.getBotUserId() : null;
+            long deadline = System.nanoTime() + maxBlockNanos;
+            while (true) {
+                StatsEventPayload previous = userId != null ? seenByUser.get(userId) : null;
+                if (previous != null) {
+                    coalesced.increment();
+                    if (isNotOlder(event, previous)) {
+                        seenByUser.put(userId, event);
+                    }
+                    return;
+                }
+                if (bufferedLocked() < capacity) {
+                    break;
+                }
+                // Буфер полон: ждём, пока flush снимет пачку, — backpressure вместо потери события.
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !awaitSpace(remaining)) {
+                    dropped.increment();
+                    log.warn("Буфер stats-событий полон ({}), {} отброшено", capacity, event.getType());
+                    return;
+                }
+            }
+            if (userId != null) {
+                seenByUser.put(userId, event);
+            } else {
+                buffer.add(event);
+            }
+            full = queuedLocked() >= batchSize;
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    /** Неполная пачка уходит раз в linger — это же окно схлопывания {@code bot_user.seen}. */
+    @Scheduled(fixedDelayString = "${dashboard.stats.stream.publish.linger:PT0.1S}")
+    public void flush() {
+        synchronized (writeLock) {
+            List<StatsEventPayload> batch;
+            synchronized (buffer) {
+                if (buffer.isEmpty() && seenByUser.isEmpty()) {
+                    return;
+                }
+                batch = new ArrayList<>(queuedLocked());
+                batch.addAll(seenByUser.values());
+                batch.addAll(buffer);
+                seenByUser.clear();
+                buffer.clear();
+                inFlight = batch.size();
+            }
+            List<StatsEventPayload> failed = write(batch);
+            synchronized (buffer) {
+                inFlight = 0;
+                requeue(failed);
+                buffer.notifyAll();
+            }
+        }
+    }
+
+    // Guarded by buffer.
+    private boolean awaitSpace(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.timedWait(buffer, nanos);
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // Guarded by buffer. Неотправленная пачка — перед всем, что пришло за время записи, в прежнем
+    // порядке. Место под неё есть: пока пачка в записи, она занимает capacity. seen из пачки
+    // уступает более свежему seen того же пользователя.
+    private void requeue(List<StatsEventPayload> failed) {
+        if (failed.isEmpty()) {
+            return;
+        }
+        List<StatsEventPayload> events = new ArrayList<>();
+        Map<Long, StatsEventPayload> seen = new LinkedHashMap<>();
+        for (StatsEventPayload event : failed) {
+            Long userId = event.getType() == StatsEventType.BOT_USER_SEEN ? event.getBotUserId() : null;
+            StatsEventPayload newer = userId != null ? seenByUser.get(userId) : null;
+            if (newer != null && isNotOlder(newer, event)) {
+                coalesced.increment();
+            } else if (userId != null) {
+                seenByUser.remove(userId);
+                seen.put(userId, event);
+            } else {
+                events.add(event);
+            }
+        }
+        retried.increment(events.size() + seen.size());
+        buffer.addAll(0, events);
+        seen.putAll(seenByUser);
+        seenByUser.clear();
+        seenByUser.putAll(seen);
+    }
+
+    @PreDestroy
+    void flushOnShutdown() {
+        flush();
+    }
+
+    int buffered() {
+        synchronized (buffer) {
+            return bufferedLocked();
+        }
+    }
+
+    // Пришедшее позже, но со старым ts (гонка потоков) не затирает более свежее событие.
+    private static boolean isNotOlder(StatsEventPayload event, StatsEventPayload previous) {
+        return previous.getTs() == null || event.getTs() == null || !event.getTs().isBefore(previous.getTs());
+    }
+
+    // События одной задачи — в одной партиции; seen без задачи — по пользователю.
+    private static String partitionKey(StatsEventPayload event) {
+        if (event.getTaskId() != null) {
+            return event.getTaskId();
+        }
+        return event.getBotUserId() != null ? event.getBotUserId().toString() : null;
+    }
+
+    private int queuedLocked() {
+        return buffer.size() + seenByUser.size();
+    }
+
+    // Вместе с пачкой, которая сейчас пишется: при сбое она вернётся в буфер.
+    private int bufferedLocked() {
+        return queuedLocked() + inFlight;
+    }
+
+    // Возвращает события, которые не ушли в Redis; несериализуемые отбрасываются сразу.
+    private List<StatsEventPayload> write(List<StatsEventPayload> batch) {
+        List<StatsEventPayload> events = new ArrayList<>(batch.size());
+        List<MapRecord<byte[], byte[], byte[]>> records = new ArrayList<>(batch.size());
+        for (StatsEventPayload event : batch) {
+            try {
+                byte[] json = objectMapper.writeValueAsBytes(event);
+                byte[] key = props.streamKeyFor(partitionKey(event)).getBytes(StandardCharsets.UTF_8);
+                records.add(MapRecord.create(key, Map.of(PAYLOAD_FIELD, json)));
+                events.add(event);
+            } catch (JsonProcessingException ex) {
+                dropped.increment();
+                log.error("Не удалось сериализовать событие {}: {}", event.getType(), ex.getMessage());
+            }
+        }
+        if (records.isEmpty()) {
+            return List.of();
+        }
+        XAddOptions options = XAddOptions.maxlen(props.maxlen()).approximateTrimming(true);
         try {
-            String json = objectMapper.writeValueAsString(event);
-            MapRecord<byte[], byte[], byte[]> record = MapRecord.create(
-                    props.key().getBytes(StandardCharsets.UTF_8),
-                    Map.of(
-                            PAYLOAD_FIELD.getBytes(StandardCharsets.UTF_8),
-                            json.getBytes(StandardCharsets.UTF_8)
-                    ));
-            XAddOptions options = XAddOptions.maxlen(props.maxlen()).approximateTrimming(true);
-            redis.execute((RedisConnection conn) ->
-                    conn.streamCommands().xAdd(record, options));
-        } catch (JsonProcessingException ex) {
-            log.error("Не удалось сериализовать событие {}: {}", event.getType(), ex.getMessage());
+            redis.executePipelined((RedisCallback<Object>) conn -> {
+                for (MapRecord<byte[], byte[], byte[]> record : records) {
+                    conn.streamCommands().xAdd(record, options);
+                }
+                return null;
+            });
+            flushed.increment(records.size());
+            return List.of();
         } catch (Exception ex) {
-            log.warn("XADD в {} упал: {}", props.key(), ex.getMessage());
+            log.warn("XADD {} событий в {} упал, пачка вернётся в буфер: {}",
+                    records.size(), props.key(), ex.getMessage());
+            return events;
         }
     }
 }
@@ -0,0 +1,279 @@
+package com.tcleaner.dashboard.events;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.RedisStreamCommands.XAddOptions;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Разбор PEL stats-стримов: {@link StatsStreamConsumer} не ACK-ает событие при transient-ошибке,
+ * а контейнер читает только новые записи, поэтому без этого цикла такие записи висели бы в PEL вечно.
+ *
+ * <p>Раз в {@code reclaim.interval} по каждому стриму (текущие партиции и дочитываемые
+ * {@link StatsStreamDrain}) XPENDING читается страницами по {@code reclaim.batch} с места прошлой
+ * остановки, до {@value #MAX_PAGES} страниц; записи, простаивающие дольше backoff
+ * ({@code min-idle * 2^(deliveries-1)}, не больше {@code max-backoff}), забираются XCLAIM и снова
+ * идут в {@link StatsStreamConsumer#onMessage}. После {@code max-deliveries} доставок запись
+ * переносится в {@code <key>:dead} и ACK-ается; {@link #replayDeadLetters} возвращает её обратно.
+ *
+ * <p>Повтор нарушает порядок внутри задачи: более поздние её события обычно уже применены.
+ * Ingestion это переносит — merge по {@code task_id} не откатывает terminal-статус, поля сливаются
+ * через COALESCE, {@code total_*} считаются один раз, — так что запоздавший {@code export.started}
+ * или повтор terminal-события итог не меняют.
+ *
+ * <p>Метрики: {@code stats.ingest.reclaimed}, {@code stats.ingest.dead_lettered},
+ * {@code stats.ingest.pending.oldest.age{partition}}, {@code stats.ingest.dead_letters}.
+ */
+@Component
+public class StatsStreamReclaimer {
+
+    private static final Logger log = LoggerFactory.getLogger(StatsStreamReclaimer.class);
+    private static final String PAYLOAD_FIELD = "payload";
+    private static final int MAX_PAGES = 10;
+
+    private final StringRedisTemplate redis;
+    private final StatsStreamProperties props;
+    private final StatsStreamConsumer consumer;
+    @Nullable
+    private final StatsStreamDrain drain;
+    private final Duration minIdle;
+    private final Duration maxBackoff;
+    private final long maxDeliveries;
+    private final int batch;
+    private final Counter reclaimed;
+    private final Counter deadLettered;
+    private final List<AtomicLong> oldestAgeSeconds = new ArrayList<>();
+    // Откуда продолжать XPENDING по стриму; нет значения — с начала PEL.
+    private final Map<String, String> cursors = new HashMap<>();
+    private final AtomicLong deadLetters = new AtomicLong();
+
+    @Autowired
+    public StatsStreamReclaimer(
+            StringRedisTemplate redis,
+            StatsStreamProperties props,
+            StatsStreamConsumer consumer,
+            ObjectProvider<StatsStreamDrain> drain,
+            ObjectProvider<MeterRegistry> meterRegistry,
+            @Value("${dashboard.stats.stream.reclaim.min-idle:PT1M}") Duration minIdle,
+            @Value("${dashboard.stats.stream.reclaim.max-backoff:PT1H}") Duration maxBackoff,
+            @Value("${dashboard.stats.stream.reclaim.max-deliveries:10}") long maxDeliveries,
+            @Value("${dashboard.stats.stream.reclaim.batch:100}") int batch
+    ) {
+        this.redis = redis;
+        this.props = props;
+        this.consumer = consumer;
+        this.drain = drain.getIfAvailable();
+        this.minIdle = minIdle;
+        this.maxBackoff = maxBackoff;
+        this.maxDeliveries = Math.max(1, maxDeliveries);
+        this.batch = Math.max(1, batch);
+        MeterRegistry registry = Objects.requireNonNullElseGet(meterRegistry.getIfAvailable(),
+                SimpleMeterRegistry::new);
+        this.reclaimed = Counter.builder("stats.ingest.reclaimed")
+                .description("Записи PEL, повторно отданные в ingestion через XCLAIM")
+                .register(registry);
+        this.deadLettered = Counter.builder("stats.ingest.dead_lettered")
+                .description("Записи, перенесённые в dead-letter стрим после max-deliveries")
+                .register(registry);
+        for (int p = 0; p < props.partitions(); p++) {
+            AtomicLong age = new AtomicLong();
+            Gauge.builder("stats.ingest.pending.oldest.age", age, AtomicLong::get)
+                    .description("Возраст самой старой неподтверждённой записи, секунды")
+                    .tag("partition", String.valueOf(p))
+                    .baseUnit("seconds")
+                    .register(registry);
+            oldestAgeSeconds.add(age);
+        }
+        Gauge.builder("stats.ingest.dead_letters", deadLetters, AtomicLong::get)
+                .description("Записи в dead-letter стриме")
+                .register(registry);
+    }
+
+    @Scheduled(fixedDelayString = "${dashboard.stats.stream.reclaim.interval:PT30S}")
+    public void reclaim() {
+        if (!props.enabled()) {
+            return;
+        }
+        for (int p = 0; p < props.partitions(); p++) {
+            String stream = props.streamKey(p);
+            try {
+                reclaim(stream, p);
+            } catch (Exception ex) {
+                log.warn("Reclaim PEL {}:{} не удался: {}", stream, props.group(), ex.getMessage());
+            }
+        }
+        for (String stream : drain != null ? drain.draining() : List.<String>of()) {
+            try {
+                reclaim(stream, -1);
+            } catch (Exception ex) {
+                log.warn("Reclaim PEL {}:{} не удался: {}", stream, props.group(), ex.getMessage());
+            }
+        }
+        try {
+            Long size = ops().size(props.deadLetterKey());
+            deadLetters.set(size != null ? size : 0L);
+        } catch (Exception ex) {
+            log.debug("XLEN {} не удался: {}", props.deadLetterKey(), ex.getMessage());
+        }
+    }
+
+    // partition < 0 — стрим прежнего набора партиций (StatsStreamDrain): без gauge возраста.
+    private void reclaim(String stream, int partition) {
+        PendingMessagesSummary summary = ops().pending(stream, props.group());
+        if (summary == null || summary.getTotalPendingMessages() == 0) {
+            if (partition >= 0) {
+                oldestAgeSeconds.get(partition).set(0);
+            }
+            return;
+        }
+        Long oldestMs = summary.minRecordId().getTimestamp();
+        if (partition >= 0) {
+            oldestAgeSeconds.get(partition).set(
+                    oldestMs != null ? Math.max(0, (System.currentTimeMillis() - oldestMs) / 1000) : 0);
+        }
+
+        List<RecordId> retry = new ArrayList<>();
+        String from = cursors.get(stream);
+        int ready = 0;
+        for (int page = 0; page < MAX_PAGES && ready < batch; page++) {
+            Range<String> range = from != null ? Range.rightUnbounded(Range.Bound.inclusive(from)) : Range.unbounded();
+            PendingMessages pending = ops().pending(stream, props.group(), range, batch);
+            RecordId last = null;
+            for (PendingMessage message : pending) {
+                last = message.getId();
+                // Свежедоставленная запись может ещё лежать в буфере consumer-а — её не трогаем.
+                if (message.getElapsedTimeSinceLastDelivery().compareTo(backoff(message)) < 0) {
+                    continue;
+                }
+                if (message.getTotalDeliveryCount() >= maxDeliveries) {
+                    deadLetter(stream, message);
+                } else {
+                    retry.add(message.getId());
+                }
+                ready++;
+            }
+            if (pending.size() < batch || last == null) {
+                // Конец PEL: следующий запуск снова с самой старой записи.
+                from = null;
+                break;
+            }
+            from = next(last);
+        }
+        cursors.put(stream, from);
+        if (retry.isEmpty()) {
+            return;
+        }
+        // XCLAIM с min-idle: запись, которую успел забрать другой инстанс, второй раз не отдаётся.
+        List<MapRecord<String, Object, Object>> claimed = ops().claim(
+                stream, props.group(), props.consumer(), minIdle, retry.toArray(RecordId[]::new));
+        for (MapRecord<String, Object, Object> record : claimed) {
+            consumer.onMessage(asStrings(record));
+        }
+        reclaimed.increment(claimed.size());
+        log.info("Из PEL {} повторно отдано в ingestion {} записей", stream, claimed.size());
+    }
+
+    // Следующий возможный id после last: начало следующей страницы включительно, без «(id» из Redis 6.2.
+    private static String next(RecordId last) {
+        return RecordId.of(last.getTimestamp(), last.getSequence() + 1).getValue();
+    }
+
+    Duration backoff(PendingMessage message) {
+        long exponent = Math.min(30, Math.max(0, message.getTotalDeliveryCount() - 1));
+        Duration delay = minIdle.multipliedBy(1L << exponent);
+        return delay.compareTo(maxBackoff) > 0 ? maxBackoff : delay;
+    }
+
+    private void deadLetter(String stream, PendingMessage message) {
+        String id = message.getIdAsString();
+        List<MapRecord<String, Object, Object>> records = ops().range(stream, Range.just(id));
+        if (!records.isEmpty()) {
+            Object payload = records.get(0).getValue().get(PAYLOAD_FIELD);
+            Map<String, String> fields = new LinkedHashMap<>();
+            fields.put(PAYLOAD_FIELD, Objects.toString(payload, ""));
+            fields.put("stream", stream);
+            fields.put("id", id);
+            fields.put("deliveries", String.valueOf(message.getTotalDeliveryCount()));
+            ops().add(StreamRecords.newRecord().in(props.deadLetterKey()).ofMap(fields), trim());
+        }
+        // Запись уже обрезана MAXLEN — переносить нечего, но из PEL её всё равно убираем.
+        ops().acknowledge(stream, props.group(), id);
+        deadLettered.increment();
+        log.error("Событие {} в {} не применилось за {} доставок — перенесено в {}",
+                id, stream, message.getTotalDeliveryCount(), props.deadLetterKey());
+    }
+
+    /**
+     * Возвращает до {@code limit} самых старых dead letters в исходные стримы (при смене числа
+     * партиций — в партицию 0) и удаляет их из dead-letter стрима.
+     */
+    public Replay replayDeadLetters(int limit) {
+        List<MapRecord<String, Object, Object>> records = ops().range(
+                props.deadLetterKey(), Range.unbounded(), Limit.limit().count(Math.max(1, limit)));
+        List<String> streams = props.streamKeys();
+        int replayed = 0;
+        for (MapRecord<String, Object, Object> record : records) {
+            Map<Object, Object> value = record.getValue();
+            String source = Objects.toString(value.get("stream"), "");
+            String target = streams.contains(source) ? source : props.streamKey(0);
+            ops().add(StreamRecords.newRecord().in(target)
+                    .ofMap(Map.of(PAYLOAD_FIELD, Objects.toString(value.get(PAYLOAD_FIELD), ""))), trim());
+            ops().delete(props.deadLetterKey(), record.getId());
+            replayed++;
+        }
+        Long remaining = ops().size(props.deadLetterKey());
+        deadLetters.set(remaining != null ? remaining : 0L);
+        log.info("Из {} возвращено в ingestion {} событий, осталось {}",
+                props.deadLetterKey(), replayed, remaining);
+        return new Replay(replayed, remaining != null ? remaining : 0L);
+    }
+
+    private XAddOptions trim() {
+        return XAddOptions.maxlen(props.maxlen()).approximateTrimming(true);
+    }
+
+    private StreamOperations<String, Object, Object> ops() {
+        return redis.opsForStream();
+    }
+
+    private static MapRecord<String, String, String> asStrings(MapRecord<String, Object, Object> record) {
+        Map<String, String> value = new LinkedHashMap<>();
+        record.getValue().forEach((k, v) -> value.put(String.valueOf(k), Objects.toString(v, null)));
+        return StreamRecords.newRecord().in(record.getStream()).withId(record.getId()).ofMap(value);
+    }
+
+    /**
+     * @param replayed возвращено в исходные стримы
+     * @param remaining осталось в dead-letter стриме
+     */
+    public record Replay(long replayed, long remaining) {
+    }
+}
@@ -2,16 +2,70 @@ package com.tcleaner.dashboard.repository;
 
 import com.tcleaner.dashboard.domain.BotUser;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.Instant;
 import java.util.Optional;
 
 /**
  * JPA-репозиторий для {@link BotUser}. Агрегации "top users" живут в
- * {@code ExportEventRepository} — здесь только CRUD + lookup по username.
+ * {@code ExportEventRepository} — здесь CRUD, lookup по username и native-upsert'ы
+ * горячего пути ingestion (SQLite {@code ON CONFLICT}, без загрузки сущности).
+ * Пустые строки в параметрах не допускаются — вызывающий передаёт {@code null}.
  */
 @Repository
 public interface BotUserRepository extends JpaRepository<BotUser, Long> {
 
     Optional<BotUser> findByUsername(String username);
+
+    /**
+     * Создаёт пользователя с нулевыми счётчиками или обновляет {@code username}/
+     * {@code display_name} (если переданы) и {@code last_seen} (только вперёд).
+     * {@code first_seen}, {@code language} и {@code total_*} не трогает.
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(value = """
+            INSERT INTO bot_users (bot_user_id, username, display_name, first_seen, last_seen,
+                                   total_exports, total_messages, total_bytes)
+            VALUES (:botUserId, :username, :displayName, :seenAt, :seenAt, 0, 0, 0)
+            ON CONFLICT (bot_user_id) DO UPDATE SET
+                username = COALESCE(excluded.username, username),
+                display_name = COALESCE(excluded.display_name, display_name),
+                last_seen = MAX(last_seen, excluded.last_seen)
+            """, nativeQuery = true)
+    int upsertSeen(@Param("botUserId") long botUserId,
+                   @Param("username") String username,
+                   @Param("displayName") String displayName,
+                   @Param("seenAt") Instant seenAt);
+
+    /**
+     * Засчитывает terminal-событие {@code taskId} владельцу: COMPLETED/FAILED → +1 экспорт,
+     * COMPLETED ещё и messages/bytes события; CANCELLED только обновляет {@code last_seen}.
+     * Вызывать один раз — при первом переходе события в terminal. {@code seenAt} не null и
+     * связывается первым (см. {@code ExportEventRepository#INGEST_MERGE}).
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(value = """
+            UPDATE bot_users SET
+                last_seen = MAX(bot_users.last_seen, :seenAt),
+                total_exports = bot_users.total_exports
+                    + CASE WHEN e.status IN ('COMPLETED', 'FAILED') THEN 1 ELSE 0 END,
+                total_messages = bot_users.total_messages
+                    + CASE WHEN e.status = 'COMPLETED' THEN COALESCE(e.messages_count, 0) ELSE 0 END,
+                total_bytes = bot_users.total_bytes
+                    + CASE WHEN e.status = 'COMPLETED' THEN COALESCE(e.bytes_count, 0) ELSE 0 END,
+                username = COALESCE(:username, bot_users.username),
+                display_name = COALESCE(:displayName, bot_users.display_name)
+            FROM export_events e
+            WHERE e.task_id = :taskId
+              AND e.bot_user_id = bot_users.bot_user_id
+              AND e.status IN ('COMPLETED', 'FAILED', 'CANCELLED')
+            """, nativeQuery = true)
+    int applyTerminalExport(@Param("taskId") String taskId,
+                            @Param("username") String username,
+                            @Param("displayName") String displayName,
+                            @Param("seenAt") Instant seenAt);
 }
@@ -2,10 +2,12 @@ package com.tcleaner.dashboard.repository;
 
 import com.tcleaner.dashboard.domain.Chat;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.Instant;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
@@ -14,7 +16,8 @@ import java.util.Optional;
  * JPA-репозиторий для {@link Chat}.
  * {@link #findByCanonicalChatIdAndTopicId} — поиск по составному ключу,
  * совместимый с UNIQUE-индексом {@code (canonical_chat_id, COALESCE(topic_id, -1))}.
- * Ingestion вызывает его перед вставкой, чтобы не плодить дубликаты.
+ * {@link #upsertSeen} — тот же ключ одной командой SQLite {@code ON CONFLICT}
+ * (конфликт-таргет совпадает с выражением индекса), горячий путь ingestion.
  */
 @Repository
 public interface ChatRepository extends JpaRepository<Chat, Long> {
@@ -30,4 +33,22 @@ public interface ChatRepository extends JpaRepository<Chat, Long> {
             @Param("topicId") Integer topicId);
 
     List<Chat> findAllByCanonicalChatIdIn(Collection<String> canonicalChatIds);
+
+    /**
+     * Создаёт чат или обновляет {@code chat_title} (если передан) и {@code last_seen}
+     * (только вперёд). {@code chat_id_raw}, {@code first_seen} существующей строки не меняются.
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(value = """
+            INSERT INTO chats (canonical_chat_id, chat_id_raw, topic_id, chat_title, first_seen, last_seen)
+            VALUES (:canonicalChatId, :chatIdRaw, :topicId, :chatTitle, :seenAt, :seenAt)
+            ON CONFLICT (canonical_chat_id, COALESCE(topic_id, -1)) DO UPDATE SET
+                chat_title = COALESCE(excluded.chat_title, chat_title),
+                last_seen = MAX(last_seen, excluded.last_seen)
+            """, nativeQuery = true)
+    int upsertSeen(@Param("canonicalChatId") String canonicalChatId,
+                   @Param("chatIdRaw") String chatIdRaw,
+                   @Param("topicId") Integer topicId,
+                   @Param("chatTitle") String chatTitle,
+                   @Param("seenAt") Instant seenAt);
 }
@@ -1,9 +1,14 @@
 package com.tcleaner.dashboard.repository;
 
 import com.tcleaner.dashboard.domain.ExportEvent;
+import com.tcleaner.dashboard.domain.ExportStatus;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.Instant;
+import java.time.LocalDate;
 import java.util.Optional;
 
 /**
@@ -11,9 +16,150 @@ import java.util.Optional;
  * Поиск по {@code taskId} — ключ идемпотентного upsert из
  * ingestion-сервиса (см. docs/DASHBOARD.md). Агрегации overview/users/chats
  * будут добавлены отдельным PR (native SQL + strftime-buckets).
+ *
+ * <p>Запись из ingestion идёт одной native-командой SQLite без загрузки сущности:
+ * {@link #upsertForIngest} ({@code INSERT ... ON CONFLICT(task_id) DO UPDATE}) или, если
+ * события без владельца/чата не вставить, {@link #mergeForIngest} ({@code UPDATE}). Обе
+ * сливают поля COALESCE-ом, не откатывают terminal-статус и возвращают {@code RETURNING}
+ * состояние до и после записи ({@link IngestResult}). Статусы в SQL — имена
+ * {@link ExportStatus} (EnumType.STRING).
  */
 @Repository
 public interface ExportEventRepository extends JpaRepository<ExportEvent, Long> {
 
     Optional<ExportEvent> findByTaskId(String taskId);
+
+    /**
+     * Merge-часть upsert-а: непустые поля перекрывают старые (COALESCE), {@code status}
+     * меняется только из не-terminal, {@code finished_at} ставится при первом переходе в
+     * terminal. SET в SQLite видит значения строки до записи — они же уходят в {@code prev_*}
+     * (changeset 021): {@code RETURNING} видит только строку после записи. Первый параметр —
+     * всегда не-null {@code :now}: null без типа Hibernate связывает через
+     * {@code getParameterType}, а sqlite-jdbc до первого set'а его не поддерживает.
+     * {@code :status == null} — событие без статуса ({@code bytes_measured}).
+     */
+    String INGEST_MERGE = """
+                prev_status = status,
+                prev_messages_count = messages_count,
+                prev_bytes_count = bytes_count,
+                updated_at = :now,
+                messages_count = COALESCE(:messagesCount, messages_count),
+                bytes_count = COALESCE(:bytesCount, bytes_count),
+                from_date = COALESCE(:fromDate, from_date),
+                to_date = COALESCE(:toDate, to_date),
+                keywords = COALESCE(:keywords, keywords),
+                exclude_keywords = COALESCE(:excludeKeywords, exclude_keywords),
+                error_message = COALESCE(:errorMessage, error_message),
+                subscription_id = COALESCE(:subscriptionId, subscription_id),
+                status = CASE
+                    WHEN :status IS NOT NULL AND status NOT IN ('COMPLETED', 'FAILED', 'CANCELLED')
+                    THEN :status ELSE status END,
+                finished_at = CASE
+                    WHEN :status IN ('COMPLETED', 'FAILED', 'CANCELLED')
+                         AND status NOT IN ('COMPLETED', 'FAILED', 'CANCELLED')
+                         AND finished_at IS NULL
+                    THEN :ts ELSE finished_at END
+            """;
+
+    /**
+     * Проекция {@link IngestResult}; даты — epoch millis: native-кортеж отдаёт TEXT-колонку
+     * строкой {@code yyyy-MM-dd HH:mm:ss.SSS} (UTC), а {@code julianday} её разбирает.
+     */
+    String INGEST_RETURNING = """
+            RETURNING prev_status AS previousStatus, status AS status,
+                      bot_user_id AS botUserId, chat_ref_id AS chatRefId,
+                      CAST(ROUND((julianday(started_at) - 2440587.5) * 86400000) AS INTEGER) AS startedAtMillis,
+                      CAST(ROUND((julianday(finished_at) - 2440587.5) * 86400000) AS INTEGER) AS finishedAtMillis,
+                      prev_messages_count AS previousMessagesCount, messages_count AS messagesCount,
+                      prev_bytes_count AS previousBytesCount, bytes_count AS bytesCount,
+                      subscription_id AS subscriptionId
+            """;
+
+    /**
+     * Вставка нового события или merge повторного/позднего ({@link #INGEST_MERGE}) одной
+     * командой. {@code chat_ref_id} новой строки берётся из {@code chats} по
+     * {@code (canonicalChatId, topicId)} — чат и владелец должны быть upsert'нуты раньше.
+     * Новая строка получает {@code status} (или QUEUED), {@code started_at = :ts} и
+     * {@code finished_at = :ts} для terminal-статуса; владелец и чат существующей не меняются.
+     */
+    @Query(value = """
+            INSERT INTO export_events (task_id, bot_user_id, chat_ref_id, started_at, finished_at, status,
+                                       messages_count, bytes_count, from_date, to_date, keywords,
+                                       exclude_keywords, source, error_message, subscription_id,
+                                       created_at, updated_at)
+            VALUES (:taskId, :botUserId,
+                    (SELECT c.id FROM chats c
+                     WHERE c.canonical_chat_id = :canonicalChatId
+                       AND COALESCE(c.topic_id, -1) = COALESCE(:topicId, -1)),
+                    :ts, CASE WHEN :status IN ('COMPLETED', 'FAILED', 'CANCELLED') THEN :ts END,
+                    COALESCE(:status, 'QUEUED'), :messagesCount, :bytesCount, :fromDate, :toDate,
+                    :keywords, :excludeKeywords, :source, :errorMessage, :subscriptionId, :now, :now)
+            ON CONFLICT (task_id) DO UPDATE SET
+            """ + INGEST_MERGE + INGEST_RETURNING, nativeQuery = true)
+    IngestResult upsertForIngest(@Param("taskId") String taskId,
+                                 @Param("botUserId") long botUserId,
+                                 @Param("canonicalChatId") String canonicalChatId,
+                                 @Param("topicId") Integer topicId,
+                                 @Param("status") String status,
+                                 @Param("ts") Instant ts,
+                                 @Param("messagesCount") Long messagesCount,
+                                 @Param("bytesCount") Long bytesCount,
+                                 @Param("fromDate") LocalDate fromDate,
+                                 @Param("toDate") LocalDate toDate,
+                                 @Param("keywords") String keywords,
+                                 @Param("excludeKeywords") String excludeKeywords,
+                                 @Param("source") String source,
+                                 @Param("errorMessage") String errorMessage,
+                                 @Param("subscriptionId") Long subscriptionId,
+                                 @Param("now") Instant now);
+
+    /**
+     * Merge события, которое нельзя вставить (нет владельца или чата), в уже существующую
+     * строку — те же правила {@link #INGEST_MERGE}.
+     *
+     * @return пусто — строки с таким {@code task_id} нет
+     */
+    @Query(value = "UPDATE export_events SET" + INGEST_MERGE + "WHERE task_id = :taskId\n" + INGEST_RETURNING,
+            nativeQuery = true)
+    Optional<IngestResult> mergeForIngest(@Param("taskId") String taskId,
+                                          @Param("status") String status,
+                                          @Param("ts") Instant ts,
+                                          @Param("messagesCount") Long messagesCount,
+                                          @Param("bytesCount") Long bytesCount,
+                                          @Param("fromDate") LocalDate fromDate,
+                                          @Param("toDate") LocalDate toDate,
+                                          @Param("keywords") String keywords,
+                                          @Param("excludeKeywords") String excludeKeywords,
+                                          @Param("errorMessage") String errorMessage,
+                                          @Param("subscriptionId") Long subscriptionId,
+                                          @Param("now") Instant now);
+
+    /**
+     * Строка после записи ingestion-а и её состояние до неё ({@code previous*}).
+     * {@code previousStatus == null} — строку вставила эта команда.
+     */
+    interface IngestResult {
+
+        ExportStatus getPreviousStatus();
+
+        ExportStatus getStatus();
+
+        Long getBotUserId();
+
+        Long getChatRefId();
+
+        Long getStartedAtMillis();
+
+        Long getFinishedAtMillis();
+
+        Long getPreviousMessagesCount();
+
+        Long getMessagesCount();
+
+        Long getPreviousBytesCount();
+
+        Long getBytesCount();
+
+        Long getSubscriptionId();
+    }
 }
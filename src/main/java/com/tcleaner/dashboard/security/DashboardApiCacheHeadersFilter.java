@@ -16,6 +16,10 @@ import java.io.IOException;
  * пользователя (botUserId, username, история экспортов, метрики /me/**). Без этих заголовков
  * shared browser / корпоративный proxy / CDN могут закэшировать ответ user-A и отдать его
  * user-B — утечка PII.
+ *
+ * <p>Stats-эндпоинты {@code DashboardApiController} тоже идут с {@code no-store}: браузер их
+ * не хранит и не ревалидирует, ETag ({@code JsonResponseCache}) даёт 304 только не-браузерным
+ * клиентам, которые сами присылают {@code If-None-Match}.
  */
 @Component
 @Order(Ordered.HIGHEST_PRECEDENCE + 20)
@@ -1,15 +1,26 @@
 package com.tcleaner.dashboard.service.ingestion;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.tcleaner.core.BotLanguage;
 import com.tcleaner.dashboard.domain.BotUser;
 import com.tcleaner.dashboard.repository.BotUserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Idempotent upsert для {@link BotUser} по {@code botUserId}.
@@ -17,16 +28,61 @@ import java.util.Optional;
  * повторное — обновляет {@code username}/{@code displayName}/{@code lastSeen}, не трогая
  * {@code firstSeen} и денормализованные {@code total*}-поля (их правит ingestion-сервис
  * при обработке {@code export.*}-событий).
+ *
+ * <p>Ingestion пишет через {@link #touch} и {@link #recordTerminalExport} — native
+ * {@code ON CONFLICT}/{@code UPDATE} без загрузки сущности; {@link #upsert} остаётся для
+ * тех, кому нужен {@link BotUser} целиком (логин в дашборд).
+ *
+ * <p>Near-cache профиля ({@code language}, {@code username}): почти каждый update бота и каждая
+ * подписка в {@code ConfirmationScheduler} спрашивают язык, а он меняется только через
+ * {@link #setLanguage}. Кэш заполняется на промахе, обновляется на {@code upsert}/{@code touch}
+ * ({@code bot_user.seen}), а {@code setLanguage} сбрасывает запись локально и публикует
+ * {@code botUserId} в Redis-канал {@link #INVALIDATION_CHANNEL} — остальные инстансы
+ * сбрасывают свою копию ({@code BotUserCacheInvalidationConfig}). Изменения кэша применяются
+ * только после коммита: откат транзакции не оставляет в нём незакоммиченных данных.
+ * Промах не кладёт в кэш прочитанное, если за время чтения запись сбросили
+ * ({@code setLanguage}/{@link #evictLocal}): иначе старый язык вернулся бы в кэш до expire.
+ * Hit ratio — метрики {@code cache.gets{cache=bot_user_profile}}.
  */
 @Component
 public class BotUserUpserter {
 
     private static final Logger log = LoggerFactory.getLogger(BotUserUpserter.class);
 
+    public static final String INVALIDATION_CHANNEL = "bot_user:invalidate";
+    static final String CACHE_NAME = "bot_user_profile";
+    // Негативная запись: новый пользователь до выбора языка тоже не должен ходить в БД на
+    // каждый update. Появление записи в БД идёт через upsert/setLanguage — оба обновляют кэш.
+    private static final Profile MISSING = new Profile(null, null);
+    private static final int GENERATION_STRIPES = 1024;
+
     private final BotUserRepository repository;
+    private final StringRedisTemplate redis;
+    // expireAfterWrite — страховка на случай потерянного pub/sub-сообщения (Redis pub/sub
+    // at-most-once): рассинхрон между инстансами не живёт дольше часа.
+    private final Cache<Long, Profile> profiles = Caffeine.newBuilder()
+            .maximumSize(50_000)
+            .expireAfterWrite(Duration.ofHours(1))
+            .recordStats()
+            .build();
+    // Счётчик сбросов по полосам botUserId: промах сравнивает значение до и после findById.
+    // Полосы, а не счётчик на ключ, — память не растёт с числом пользователей; сброс соседа по
+    // полосе лишь пропускает одно заполнение кэша.
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
 
     public BotUserUpserter(BotUserRepository repository) {
+        this(repository, null, null);
+    }
+
+    @Autowired
+    public BotUserUpserter(BotUserRepository repository,
+                           @Nullable StringRedisTemplate redis,
+                           @Nullable MeterRegistry meterRegistry) {
         this.repository = repository;
+        this.redis = redis;
+        if (meterRegistry != null) {
+            CaffeineCacheMetrics.monitor(meterRegistry, profiles, CACHE_NAME);
+        }
     }
 
     @Transactional
@@ -49,7 +105,66 @@ public class BotUserUpserter {
         if (user.getLastSeen() == null || ts.isAfter(user.getLastSeen())) {
             user.setLastSeen(ts);
         }
-        return repository.save(user);
+        BotUser saved = repository.save(user);
+        Profile fresh = Profile.of(saved);
+        afterCommit(() -> profiles.put(botUserId, fresh));
+        return saved;
+    }
+
+    /**
+     * {@link #upsert} одной командой {@code INSERT ... ON CONFLICT}: без {@code findById}
+     * и без сущности в persistence context. Закэшированный профиль получает новый
+     * {@code username} после коммита; незакэшированный не загружается.
+     */
+    @Transactional
+    public void touch(long botUserId, String username, String displayName, Instant seenAt) {
+        String name = blankToNull(username);
+        repository.upsertSeen(botUserId, name, blankToNull(displayName),
+                seenAt != null ? seenAt : Instant.now());
+        afterCommit(() -> refreshUsername(botUserId, name));
+    }
+
+    /**
+     * Засчитывает terminal-событие {@code taskId} в {@code total_*} владельца
+     * ({@link BotUserRepository#applyTerminalExport}) и обновляет его {@code username}/
+     * {@code lastSeen}. Вызывать только на первом переходе события в terminal.
+     */
+    @Transactional
+    public void recordTerminalExport(long botUserId, String taskId, String username, String displayName,
+                                     Instant seenAt) {
+        String name = blankToNull(username);
+        repository.applyTerminalExport(taskId, name, blankToNull(displayName),
+                seenAt != null ? seenAt : Instant.now());
+        afterCommit(() -> refreshUsername(botUserId, name));
+    }
+
+    // MISSING → запись в БД уже есть: language ещё null, username — из события.
+    private void refreshUsername(long botUserId, String username) {
+        profiles.asMap().computeIfPresent(botUserId, (id, cached) -> {
+            if (cached == MISSING) {
+                return new Profile(null, username);
+            }
+            return username == null ? cached : new Profile(cached.language(), username);
+        });
+    }
+
+    private static String blankToNull(String value) {
+        return value != null && !value.isBlank() ? value : null;
+    }
+
+    /**
+     * Кэшированный профиль; на промахе — один {@code findById}. Без {@code @Transactional}:
+     * попадание в кэш не должно брать соединение из пула SQLite.
+     */
+    public Optional<Profile> getProfile(long botUserId) {
+        Profile cached = profiles.getIfPresent(botUserId);
+        if (cached == null) {
+            long generation = generations.get(stripe(botUserId));
+            Profile loaded = repository.findById(botUserId).map(Profile::of).orElse(MISSING);
+            afterCommit(() -> fill(botUserId, loaded, generation));
+            cached = loaded;
+        }
+        return cached == MISSING ? Optional.empty() : Optional.of(cached);
     }
 
     /**
@@ -57,14 +172,12 @@ public class BotUserUpserter {
      * ещё не существует либо language == null. Бот использует это для решения
      * "показать клавиатуру выбора языка при /start или сразу HELP".
      */
-    @Transactional(readOnly = true)
     public Optional<String> getLanguage(long botUserId) {
-        return repository.findById(botUserId)
-                .map(BotUser::getLanguage)
+        return getProfile(botUserId)
+                .map(Profile::language)
                 .filter(code -> code != null && !code.isBlank());
     }
 
-    @Transactional(readOnly = true)
     public BotLanguage resolveLanguage(long botUserId) {
         return getLanguage(botUserId)
                 .flatMap(BotLanguage::fromCode)
@@ -85,10 +198,81 @@ public class BotUserUpserter {
                 .build());
         user.setLanguage(code);
         repository.save(user);
+        // Сразу — чтобы чтение в этой же транзакции пошло в БД; после коммита — ещё раз
+        // (чтение из другого потока между save и коммитом могло положить старое значение).
+        invalidate(botUserId);
+        afterCommit(() -> {
+            invalidate(botUserId);
+            publishInvalidation(botUserId);
+        });
         if (existing.isEmpty()) {
             log.info("BotUser создан через setLanguage: botUserId={} code={}", botUserId, code);
         } else {
             log.info("BotUser язык обновлён: botUserId={} code={}", botUserId, code);
         }
     }
+
+    /**
+     * Сброс локальной копии по сообщению из {@link #INVALIDATION_CHANNEL}.
+     */
+    public void evictLocal(long botUserId) {
+        invalidate(botUserId);
+    }
+
+    // Счётчик — до сброса: заполнение, прочитавшее его раньше, уже не положит старый профиль.
+    private void invalidate(long botUserId) {
+        generations.incrementAndGet(stripe(botUserId));
+        profiles.invalidate(botUserId);
+    }
+
+    // Атомарно с проверкой счётчика; свежий профиль от upsert/touch не затирается прочитанным.
+    private void fill(long botUserId, Profile loaded, long generation) {
+        profiles.asMap().compute(botUserId, (id, current) -> {
+            if (current != null || generations.get(stripe(id)) != generation) {
+                return current;
+            }
+            return loaded;
+        });
+    }
+
+    private static int stripe(long botUserId) {
+        return Long.hashCode(botUserId) & (GENERATION_STRIPES - 1);
+    }
+
+    private void publishInvalidation(long botUserId) {
+        if (redis == null) {
+            return;
+        }
+        try {
+            redis.convertAndSend(INVALIDATION_CHANNEL, String.valueOf(botUserId));
+        } catch (Exception ex) {
+            // Другие инстансы догонят по expireAfterWrite; смену языка это не отменяет.
+            log.warn("Не удалось опубликовать инвалидацию профиля {}: {}", botUserId, ex.getMessage());
+        }
+    }
+
+    // Вне транзакции — сразу. Package-private: тем же способом ExportEventIngestionService
+    // откладывает in-memory статистику пачки до коммита.
+    static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * Поля профиля, которые нужны на горячем пути бота.
+     */
+    public record Profile(String language, String username) {
+
+        static Profile of(BotUser user) {
+            return new Profile(user.getLanguage(), user.getUsername());
+        }
+    }
 }
@@ -12,6 +12,9 @@ import java.time.Instant;
  * {@code (canonicalChatId, topicId)}. Если {@code canonicalChatId} пуст
  * (Python ещё не резолвил username) — используем {@code chatIdRaw} как fallback,
  * чтобы не терять событие и не плодить NULL-ы в UNIQUE-индексе.
+ *
+ * <p>{@link #touch} — то же самое одной native-командой без загрузки сущности (ingestion);
+ * {@link #upsert} нужен тем, кому требуется {@link Chat} с {@code id}.
  */
 @Component
 public class ChatUpserter {
@@ -25,9 +28,7 @@ public class ChatUpserter {
     @Transactional
     public Chat upsert(String canonicalChatId, String chatIdRaw, Integer topicId,
                        String chatTitle, Instant seenAt) {
-        String canonical = (canonicalChatId != null && !canonicalChatId.isBlank())
-                ? canonicalChatId
-                : chatIdRaw;
+        String canonical = canonicalKey(canonicalChatId, chatIdRaw);
         String raw = (chatIdRaw != null && !chatIdRaw.isBlank()) ? chatIdRaw : canonical;
         Instant ts = seenAt != null ? seenAt : Instant.now();
 
@@ -49,4 +50,24 @@ public class ChatUpserter {
         }
         return repository.save(chat);
     }
+
+    /**
+     * Upsert через {@code INSERT ... ON CONFLICT} с теми же правилами, что у {@link #upsert}.
+     *
+     * @return {@code canonical_chat_id}, под которым чат лежит в {@code chats}
+     */
+    @Transactional
+    public String touch(String canonicalChatId, String chatIdRaw, Integer topicId,
+                        String chatTitle, Instant seenAt) {
+        String canonical = canonicalKey(canonicalChatId, chatIdRaw);
+        String raw = (chatIdRaw != null && !chatIdRaw.isBlank()) ? chatIdRaw : canonical;
+        repository.upsertSeen(canonical, raw, topicId,
+                chatTitle != null && !chatTitle.isBlank() ? chatTitle : null,
+                seenAt != null ? seenAt : Instant.now());
+        return canonical;
+    }
+
+    private static String canonicalKey(String canonicalChatId, String chatIdRaw) {
+        return (canonicalChatId != null && !canonicalChatId.isBlank()) ? canonicalChatId : chatIdRaw;
+    }
 }
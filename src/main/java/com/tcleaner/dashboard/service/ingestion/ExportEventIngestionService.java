@@ -1,26 +1,44 @@
 package com.tcleaner.dashboard.service.ingestion;
 
-import com.tcleaner.dashboard.domain.BotUser;
-import com.tcleaner.dashboard.domain.Chat;
-import com.tcleaner.dashboard.domain.ExportEvent;
+import com.tcleaner.bot.QueueEtaEstimator;
 import com.tcleaner.dashboard.domain.ExportSource;
 import com.tcleaner.dashboard.domain.ExportStatus;
+import com.tcleaner.dashboard.dto.LiveUpdateDto;
 import com.tcleaner.dashboard.events.StatsEventPayload;
 import com.tcleaner.dashboard.events.StatsEventType;
 import com.tcleaner.dashboard.repository.ExportEventRepository;
+import com.tcleaner.dashboard.repository.ExportEventRepository.IngestResult;
+import com.tcleaner.dashboard.service.live.LiveFeedBroadcaster;
+import com.tcleaner.dashboard.service.queue.ExportCostEstimator;
+import com.tcleaner.dashboard.service.stats.ActiveUserSketches;
+import com.tcleaner.dashboard.service.stats.StatsCacheInvalidator;
+import com.tcleaner.dashboard.service.stats.StatsCacheInvalidator.Touched;
 import com.tcleaner.dashboard.service.subscription.SubscriptionService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
-// Идемпотентность по UNIQUE(task_id): late-arriving completed до started → merge COALESCE(new, old).
-// total_* счётчики инкрементируются только при первом переходе в terminal — двойной счёт исключён.
+// Идемпотентный ingest stats-событий по UNIQUE(task_id): одна native SQLite-команда на событие
+// (UPSERT ... RETURNING) без загрузки сущностей — поля сливаются COALESCE(new, old), terminal-статус
+// не откатывается, total_* считаются один раз при первом переходе в terminal. ingestBatch — одна
+// транзакция на пачку; HLL-скетчи активных пользователей пишутся в ней же, а in-memory состояние
+// (ETA, cost estimator, кеши дашборда, SSE-лента) обновляется после коммита — откатившаяся пачка
+// ничего не засчитывает дважды.
+// Необязательные коллабораторы — через ObjectProvider: в unit-тестах без контекста их нет.
 @Service
 public class ExportEventIngestionService {
 
@@ -30,33 +48,113 @@ public class ExportEventIngestionService {
     private final BotUserUpserter botUserUpserter;
     private final ChatUpserter chatUpserter;
     private final SubscriptionService subscriptionService;
+    @Nullable
+    private final ExportCostEstimator costEstimator;
+    @Nullable
+    private final QueueEtaEstimator queueEtaEstimator;
+    @Nullable
+    private final StatsCacheInvalidator statsCache;
+    @Nullable
+    private final LiveFeedBroadcaster liveFeed;
+    @Nullable
+    private final ActiveUserSketches sketches;
 
+    @Autowired
     public ExportEventIngestionService(
             ExportEventRepository eventRepository,
             BotUserUpserter botUserUpserter,
             ChatUpserter chatUpserter,
-            SubscriptionService subscriptionService
+            SubscriptionService subscriptionService,
+            ObjectProvider<ExportCostEstimator> costEstimator,
+            ObjectProvider<QueueEtaEstimator> queueEtaEstimator,
+            ObjectProvider<StatsCacheInvalidator> statsCache,
+            ObjectProvider<LiveFeedBroadcaster> liveFeed,
+            ObjectProvider<ActiveUserSketches> sketches
     ) {
         this.eventRepository = eventRepository;
         this.botUserUpserter = botUserUpserter;
         this.chatUpserter = chatUpserter;
         this.subscriptionService = subscriptionService;
+        this.costEstimator = costEstimator.getIfAvailable();
+        this.queueEtaEstimator = queueEtaEstimator.getIfAvailable();
+        this.statsCache = statsCache.getIfAvailable();
+        this.liveFeed = liveFeed.getIfAvailable();
+        this.sketches = sketches.getIfAvailable();
+    }
+
+    /**
+     * Пачка событий в одной транзакции: один коммит (WAL fsync) вместо коммита на событие.
+     * Ошибка любого события откатывает всю пачку — изоляция битых событий на стороне
+     * {@code StatsStreamConsumer} (делит пачку пополам и повторяет).
+     */
+    @Transactional
+    public void ingestBatch(List<StatsEventPayload> payloads) {
+        List<Runnable> deferred = new ArrayList<>();
+        Set<Touched> touched = new LinkedHashSet<>();
+        List<LiveUpdateDto> live = new ArrayList<>();
+        List<String> inserted = new ArrayList<>();
+        for (StatsEventPayload payload : payloads) {
+            ingest(payload, deferred, touched, live, inserted);
+        }
+        recordSketches(inserted);
+        BotUserUpserter.afterCommit(() -> {
+            deferred.forEach(Runnable::run);
+            invalidateCaches(touched);
+            publishLive(live);
+        });
     }
 
     @Transactional
     public void ingest(StatsEventPayload payload) {
+        List<Runnable> deferred = new ArrayList<>();
+        Set<Touched> touched = new LinkedHashSet<>();
+        List<LiveUpdateDto> live = new ArrayList<>();
+        List<String> inserted = new ArrayList<>();
+        ingest(payload, deferred, touched, live, inserted);
+        recordSketches(inserted);
+        BotUserUpserter.afterCommit(() -> {
+            deferred.forEach(Runnable::run);
+            invalidateCaches(touched);
+            publishLive(live);
+        });
+    }
+
+    private void recordSketches(List<String> inserted) {
+        if (sketches != null) {
+            sketches.record(inserted);
+        }
+    }
+
+    private void invalidateCaches(Set<Touched> touched) {
+        if (statsCache != null) {
+            statsCache.invalidate(touched);
+        }
+    }
+
+    // После инвалидации: клиент, дочитывающий данные по resync, не попадёт на старый кеш.
+    private void publishLive(List<LiveUpdateDto> live) {
+        if (liveFeed != null) {
+            liveFeed.publish(live);
+        }
+    }
+
+    // deferred — обновления in-memory статистики (ETA, cost), выполняются после коммита.
+    private void ingest(StatsEventPayload payload, List<Runnable> deferred, Set<Touched> touched,
+                        List<LiveUpdateDto> live, List<String> inserted) {
         if (payload == null || payload.getType() == null) {
             log.warn("Пропуск события без type");
             return;
         }
         try {
             switch (payload.getType()) {
-                case BOT_USER_SEEN -> handleBotUserSeen(payload);
-                case EXPORT_STARTED -> upsertEvent(payload, ExportStatus.QUEUED);
-                case EXPORT_COMPLETED -> upsertEvent(payload, ExportStatus.COMPLETED);
-                case EXPORT_FAILED -> upsertEvent(payload, ExportStatus.FAILED);
-                case EXPORT_CANCELLED -> upsertEvent(payload, ExportStatus.CANCELLED);
-                case EXPORT_BYTES_MEASURED -> upsertEvent(payload, null);
+                case BOT_USER_SEEN -> handleBotUserSeen(payload, touched);
+                case EXPORT_STARTED -> upsertEvent(payload, ExportStatus.QUEUED, deferred, touched, live, inserted);
+                case EXPORT_COMPLETED ->
+                        upsertEvent(payload, ExportStatus.COMPLETED, deferred, touched, live, inserted);
+                case EXPORT_FAILED -> upsertEvent(payload, ExportStatus.FAILED, deferred, touched, live, inserted);
+                case EXPORT_CANCELLED ->
+                        upsertEvent(payload, ExportStatus.CANCELLED, deferred, touched, live, inserted);
+                case EXPORT_BYTES_MEASURED -> upsertEvent(payload, null, deferred, touched, live, inserted);
             }
         } catch (Exception ex) {
             // Re-throw: @Transactional откатывает частичный upsert (chat/user/event),
@@ -69,136 +167,142 @@ public class ExportEventIngestionService {
         }
     }
 
-    private void handleBotUserSeen(StatsEventPayload payload) {
+    private void handleBotUserSeen(StatsEventPayload payload, Set<Touched> touched) {
         if (payload.getBotUserId() == null) {
             log.warn("bot_user.seen без bot_user_id — пропуск");
             return;
         }
-        botUserUpserter.upsert(
+        botUserUpserter.touch(
                 payload.getBotUserId(),
                 payload.getUsername(),
                 payload.getDisplayName(),
                 payload.getTs());
+        touched.add(new Touched(payload.getBotUserId(), null, null));
     }
 
-    private void upsertEvent(StatsEventPayload payload, ExportStatus desiredStatus) {
-        if (payload.getTaskId() == null || payload.getTaskId().isBlank()) {
+    private void upsertEvent(StatsEventPayload payload, ExportStatus desiredStatus, List<Runnable> deferred,
+                             Set<Touched> touched, List<LiveUpdateDto> live, List<String> inserted) {
+        String taskId = payload.getTaskId();
+        if (taskId == null || taskId.isBlank()) {
             log.warn("{} без task_id — пропуск", payload.getType());
             return;
         }
         Instant now = Instant.now();
-        ExportEvent existing = eventRepository.findByTaskId(payload.getTaskId()).orElse(null);
-
-        if (existing == null) {
-            if (!hasMinimalFieldsForInsert(payload)) {
-                log.warn("{}(task={}) прилетел первым без bot_user_id/chat — пропуск",
-                        payload.getType(), payload.getTaskId());
-                return;
-            }
-            Chat chat = chatUpserter.upsert(
+        Instant ts = payload.getTs() != null ? payload.getTs() : now;
+        String status = desiredStatus != null ? desiredStatus.name() : null;
+        IngestResult result;
+        if (hasMinimalFieldsForInsert(payload)) {
+            // Чат и владелец — до события: FOREIGN KEY проверяются на каждой команде.
+            // chat_ref_id существующего события upsert не меняет — late event с другим
+            // canonical сломал бы агрегаты по истории; метаданные чата обновляются.
+            String canonical = chatUpserter.touch(
                     payload.getCanonicalChatId(), payload.getChatIdRaw(),
                     payload.getTopicId(), payload.getChatTitle(), payload.getTs());
-            BotUser user = botUserUpserter.upsert(
+            botUserUpserter.touch(
                     payload.getBotUserId(), payload.getUsername(),
                     payload.getDisplayName(), payload.getTs());
-
-            ExportEvent created = ExportEvent.builder()
-                    .taskId(payload.getTaskId())
-                    .botUserId(user.getBotUserId())
-                    .chatRefId(chat.getId())
-                    .startedAt(payload.getTs() != null ? payload.getTs() : now)
-                    .status(desiredStatus != null ? desiredStatus : ExportStatus.QUEUED)
-                    .messagesCount(payload.getMessagesCount())
-                    .bytesCount(payload.getBytesCount())
-                    .fromDate(parseDate(payload.getFromDate()))
-                    .toDate(parseDate(payload.getToDate()))
-                    .keywords(payload.getKeywords())
-                    .excludeKeywords(payload.getExcludeKeywords())
-                    .source(parseSource(payload.getSource()))
-                    .errorMessage(payload.getError())
-                    .subscriptionId(payload.getSubscriptionId())
-                    .createdAt(now)
-                    .updatedAt(now)
-                    .build();
-            if (isTerminal(desiredStatus)) {
-                created.setFinishedAt(payload.getTs() != null ? payload.getTs() : now);
+            result = eventRepository.upsertForIngest(
+                    taskId, payload.getBotUserId(), canonical, payload.getTopicId(), status, ts,
+                    payload.getMessagesCount(), payload.getBytesCount(),
+                    parseDate(payload.getFromDate()), parseDate(payload.getToDate()),
+                    blankToNull(payload.getKeywords()), blankToNull(payload.getExcludeKeywords()),
+                    parseSource(payload.getSource()).name(), blankToNull(payload.getError()),
+                    payload.getSubscriptionId(), now);
+        } else {
+            // Без владельца или чата строку не вставить (NOT NULL) — только merge в существующую.
+            result = eventRepository.mergeForIngest(
+                    taskId, status, ts, payload.getMessagesCount(), payload.getBytesCount(),
+                    parseDate(payload.getFromDate()), parseDate(payload.getToDate()),
+                    blankToNull(payload.getKeywords()), blankToNull(payload.getExcludeKeywords()),
+                    blankToNull(payload.getError()), payload.getSubscriptionId(), now).orElse(null);
+            if (result == null) {
+                log.warn("{}(task={}) прилетел первым без bot_user_id/chat — пропуск",
+                        payload.getType(), taskId);
+                return;
+            }
+            if (payload.getChatTitle() != null || payload.getCanonicalChatId() != null) {
+                chatUpserter.touch(
+                        payload.getCanonicalChatId(), payload.getChatIdRaw(),
+                        payload.getTopicId(), payload.getChatTitle(), payload.getTs());
             }
-            eventRepository.save(created);
-            maybeBumpUserTotals(user, null, created);
-            updateSubscriptionOnTerminal(created);
-            return;
         }
 
-        ExportStatus prev = existing.getStatus();
-        coalesce(payload.getMessagesCount(), existing::setMessagesCount);
-        coalesce(payload.getBytesCount(), existing::setBytesCount);
-        coalesce(parseDate(payload.getFromDate()), existing::setFromDate);
-        coalesce(parseDate(payload.getToDate()), existing::setToDate);
-        coalesce(payload.getKeywords(), existing::setKeywords);
-        coalesce(payload.getExcludeKeywords(), existing::setExcludeKeywords);
-        coalesce(payload.getError(), existing::setErrorMessage);
-        coalesce(payload.getSubscriptionId(), existing::setSubscriptionId);
-        if (payload.getChatTitle() != null || payload.getCanonicalChatId() != null) {
-            // Upsert обновляет метаданные чата (title, type), но chat_ref_id события
-            // не меняем — late event с другим canonical сломал бы агрегаты по истории.
-            chatUpserter.upsert(
-                    payload.getCanonicalChatId(), payload.getChatIdRaw(),
-                    payload.getTopicId(), payload.getChatTitle(), payload.getTs());
+        Instant startedAt = toInstant(result.getStartedAtMillis());
+        ExportStatus prev = result.getPreviousStatus();
+        touched.add(new Touched(result.getBotUserId(), result.getChatRefId(), utcDay(startedAt)));
+        if (prev == null) {
+            inserted.add(taskId);
         }
-        if (desiredStatus != null && canAdvanceStatus(prev, desiredStatus)) {
-            existing.setStatus(desiredStatus);
-            if (isTerminal(desiredStatus) && existing.getFinishedAt() == null) {
-                existing.setFinishedAt(payload.getTs() != null ? payload.getTs() : now);
-            }
+        addLiveUpdate(live, taskId, payload, result, startedAt);
+        if (isTerminal(result.getStatus()) && !isTerminal(prev)) {
+            Finished finished = new Finished(taskId, result.getStatus(), startedAt,
+                    toInstant(result.getFinishedAtMillis()), result.getMessagesCount(), result.getSubscriptionId());
+            onFirstTerminal(result.getBotUserId(), finished, payload, deferred);
         }
-        existing.setUpdatedAt(now);
-        ExportEvent saved = eventRepository.save(existing);
+    }
 
-        if (desiredStatus != null && isTerminal(desiredStatus) && !isTerminal(prev)) {
-            BotUser user = botUserUpserter.upsert(
-                    saved.getBotUserId(), payload.getUsername(),
-                    payload.getDisplayName(), payload.getTs());
-            maybeBumpUserTotals(user, prev, saved);
-            updateSubscriptionOnTerminal(saved);
+    // Новая строка (created) или изменение существующей; дельты — по состоянию до и после записи.
+    private static void addLiveUpdate(List<LiveUpdateDto> live, String taskId, StatsEventPayload payload,
+                                      IngestResult result, Instant startedAt) {
+        boolean created = result.getPreviousStatus() == null;
+        long messages = orZero(result.getMessagesCount()) - orZero(result.getPreviousMessagesCount());
+        long bytes = orZero(result.getBytesCount()) - orZero(result.getPreviousBytesCount());
+        if (!created && result.getStatus() == result.getPreviousStatus() && messages == 0 && bytes == 0) {
+            return;
+        }
+        live.add(new LiveUpdateDto(created ? "created" : "updated", taskId, result.getBotUserId(),
+                payload.getUsername(), result.getChatRefId(), payload.getChatTitle(), result.getStatus().name(),
+                created ? null : result.getPreviousStatus().name(), created ? 1 : 0, messages, bytes,
+                startedAt != null ? startedAt.toString() : null));
+    }
+
+    // Первый переход задачи в terminal: total_* владельца, lifecycle подписки, ETA и cost.
+    private void onFirstTerminal(long botUserId, Finished event, StatsEventPayload payload,
+                                 List<Runnable> deferred) {
+        botUserUpserter.recordTerminalExport(botUserId, event.taskId(),
+                payload.getUsername(), payload.getDisplayName(), payload.getTs());
+        updateSubscriptionOnTerminal(event);
+        deferred.add(() -> {
+            recordQueueTiming(event, payload.getProcessingStartedAt());
+            recordActualCost(event);
+        });
+    }
+
+    // Throughput для ETA очереди. До recordActualCost: источник задачи (cache/Telegram) берётся
+    // из предсказания, которое сверка с фактом удаляет.
+    private void recordQueueTiming(Finished event, Instant processingStartedAt) {
+        if (queueEtaEstimator == null) {
+            return;
+        }
+        queueEtaEstimator.recordFinished(event.taskId(), event.startedAt(), event.finishedAt(),
+                event.messagesCount(), event.status() == ExportStatus.COMPLETED, processingStartedAt);
+    }
+
+    // Факт для метрик predicted-vs-actual shortest-job-first. Только первый переход в COMPLETED
+    // с известным messages_count; failed/cancelled обрываются на середине и оценку не проверяют.
+    private void recordActualCost(Finished event) {
+        if (costEstimator == null || event.status() != ExportStatus.COMPLETED
+                || event.messagesCount() == null) {
+            return;
         }
+        costEstimator.recordActual(event.taskId(), event.messagesCount());
     }
 
     // CANCELLED не трогаем — юзер сам отменил, consecutive_failures не растёт.
-    private void updateSubscriptionOnTerminal(ExportEvent event) {
-        Long subscriptionId = event.getSubscriptionId();
+    private void updateSubscriptionOnTerminal(Finished event) {
+        Long subscriptionId = event.subscriptionId();
         if (subscriptionId == null) {
             return;
         }
         try {
-            if (event.getStatus() == ExportStatus.COMPLETED) {
+            if (event.status() == ExportStatus.COMPLETED) {
                 subscriptionService.recordSuccess(subscriptionId);
-            } else if (event.getStatus() == ExportStatus.FAILED) {
+            } else if (event.status() == ExportStatus.FAILED) {
                 subscriptionService.recordFailure(subscriptionId);
             }
         } catch (RuntimeException ex) {
             log.warn("Не удалось обновить lifecycle подписки {} по событию task={}: {}",
-                    subscriptionId, event.getTaskId(), ex.getMessage());
-        }
-    }
-
-    private void maybeBumpUserTotals(BotUser user, ExportStatus prev, ExportEvent event) {
-        if (!isTerminal(event.getStatus())) {
-            return;
-        }
-        if (prev != null && isTerminal(prev)) {
-            return;
-        }
-        if (event.getStatus() == ExportStatus.CANCELLED) {
-            return;
-        }
-        user.setTotalExports(user.getTotalExports() + 1);
-        if (event.getStatus() == ExportStatus.COMPLETED) {
-            if (event.getMessagesCount() != null) {
-                user.setTotalMessages(user.getTotalMessages() + event.getMessagesCount());
-            }
-            if (event.getBytesCount() != null) {
-                user.setTotalBytes(user.getTotalBytes() + event.getBytesCount());
-            }
+                    subscriptionId, event.taskId(), ex.getMessage());
         }
     }
 
@@ -214,24 +318,21 @@ public class ExportEventIngestionService {
                 || status == ExportStatus.CANCELLED;
     }
 
-    // Предотвращает откат статуса: late started после completed не перезаписывает terminal.
-    private static boolean canAdvanceStatus(ExportStatus prev, ExportStatus next) {
-        if (prev == null) {
-            return true;
-        }
-        if (isTerminal(prev)) {
-            return false;
-        }
-        return true;
+    // День rollup-ов и ключей кеша — UTC-дата started_at.
+    private static LocalDate utcDay(Instant instant) {
+        return instant != null ? LocalDate.ofInstant(instant, ZoneOffset.UTC) : null;
     }
 
-    private static <T> void coalesce(T value, java.util.function.Consumer<T> setter) {
-        if (value != null) {
-            if (value instanceof String s && s.isBlank()) {
-                return;
-            }
-            setter.accept(value);
-        }
+    private static Instant toInstant(Long epochMillis) {
+        return epochMillis != null ? Instant.ofEpochMilli(epochMillis) : null;
+    }
+
+    private static long orZero(Long value) {
+        return value != null ? value : 0L;
+    }
+
+    private static String blankToNull(String value) {
+        return value != null && !value.isBlank() ? value : null;
     }
 
     private static LocalDate parseDate(String iso) {
@@ -261,4 +362,11 @@ public class ExportEventIngestionService {
             return ExportSource.BOT;
         }
     }
+
+    /**
+     * Задача, впервые перешедшая в terminal, — значения после merge.
+     */
+    private record Finished(String taskId, ExportStatus status, Instant startedAt, Instant finishedAt,
+                            Long messagesCount, Long subscriptionId) {
+    }
 }
@@ -0,0 +1,268 @@
+package com.tcleaner.dashboard.service.live;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tcleaner.dashboard.dto.LiveUpdateDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.MediaType;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Живая лента дашборда: один broadcaster на инстанс раздаёт {@link LiveUpdateDto} всем
+ * открытым SSE-сессиям, вместо того чтобы каждая вкладка перечитывала SQL/кеш по таймеру.
+ *
+ * <p>Источник — {@code ExportEventIngestionService} после коммита ({@link #publish}).
+ * Ingestion идёт на одном инстансе, дашборды открыты на любом, поэтому пачка уходит в
+ * Redis-канал {@link #RELAY_CHANNEL}, и каждый инстанс (включая автора) раздаёт её своим
+ * сессиям ({@code LiveFeedRelayConfig} → {@link #deliverLocal}). Без relay или при сбое
+ * Redis — раздача только локальным сессиям. Pub/sub at-most-once: клиент, потерявший
+ * сообщение, догоняет при следующей загрузке страницы.
+ *
+ * <p>RBAC — на сессию: scope фиксируется при подписке ({@code BotUserAccessPolicy} в
+ * контроллере), USER получает только события своего botUserId, ADMIN — все или выбранного.
+ *
+ * <p>Backpressure: ingestion только кладёт обновления в ограниченную очередь сессии, в сокет
+ * пишут потоки {@code live-feed-sender} — не больше одного на сессию, так что медленный
+ * клиент не тормозит ни ingestion, ни остальных. Переполненная очередь сбрасывается, клиенту
+ * уходит {@code resync} (перечитать данные целиком), счётчик {@code dashboard.live.dropped}.
+ * Heartbeat-комментарий раз в {@code dashboard.live.heartbeat} держит соединение через
+ * прокси и выявляет отвалившихся клиентов.
+ */
+@Component
+public class LiveFeedBroadcaster {
+
+    private static final Logger log = LoggerFactory.getLogger(LiveFeedBroadcaster.class);
+
+    public static final String RELAY_CHANNEL = "dashboard:live-feed";
+    static final String UPDATE_EVENT = "update";
+    static final String RESYNC_EVENT = "resync";
+    private static final TypeReference<List<LiveUpdateDto>> UPDATES = new TypeReference<>() {};
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final ObjectMapper objectMapper;
+    private final StringRedisTemplate redis;
+    private final boolean relay;
+    private final Executor sender;
+    private final int queueCapacity;
+    private final int maxSubscribers;
+    private final long timeoutMs;
+    private final Counter dropped;
+
+    @Autowired
+    public LiveFeedBroadcaster(
+            ObjectMapper objectMapper,
+            StringRedisTemplate redis,
+            MeterRegistry meterRegistry,
+            @Value("${dashboard.live.relay.enabled:true}") boolean relay,
+            @Value("${dashboard.live.sender-threads:4}") int senderThreads,
+            @Value("${dashboard.live.queue-capacity:256}") int queueCapacity,
+            @Value("${dashboard.live.max-subscribers:500}") int maxSubscribers,
+            @Value("${dashboard.live.timeout:PT30M}") Duration timeout
+    ) {
+        this(objectMapper, redis, meterRegistry, relay, newSender(senderThreads), queueCapacity, maxSubscribers,
+                timeout);
+    }
+
+    LiveFeedBroadcaster(ObjectMapper objectMapper, StringRedisTemplate redis, MeterRegistry meterRegistry,
+                        boolean relay, Executor sender, int queueCapacity, int maxSubscribers, Duration timeout) {
+        this.objectMapper = objectMapper;
+        this.redis = redis;
+        this.relay = relay;
+        this.sender = sender;
+        this.queueCapacity = queueCapacity;
+        this.maxSubscribers = maxSubscribers;
+        this.timeoutMs = timeout.toMillis();
+        Gauge.builder("dashboard.live.subscribers", subscribers, Set::size)
+                .description("Открытые SSE-сессии живой ленты дашборда")
+                .register(meterRegistry);
+        this.dropped = Counter.builder("dashboard.live.dropped")
+                .description("Обновления живой ленты, отброшенные из-за переполненной очереди сессии")
+                .register(meterRegistry);
+    }
+
+    private static ExecutorService newSender(int threads) {
+        AtomicInteger seq = new AtomicInteger();
+        return Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread thread = new Thread(r, "live-feed-sender-" + seq.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Новая SSE-сессия. {@code botUserId == null} — все пользователи (только ADMIN, RBAC —
+     * на стороне вызывающего).
+     *
+     * @return {@code null}, если достигнут {@code dashboard.live.max-subscribers}
+     */
+    public SseEmitter subscribe(@Nullable Long botUserId) {
+        return subscribe(botUserId, new SseEmitter(timeoutMs));
+    }
+
+    SseEmitter subscribe(Long botUserId, SseEmitter emitter) {
+        if (subscribers.size() >= maxSubscribers) {
+            return null;
+        }
+        Subscriber subscriber = new Subscriber(emitter, botUserId, new ArrayBlockingQueue<>(queueCapacity));
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(ex -> subscribers.remove(subscriber));
+        subscribers.add(subscriber);
+        return emitter;
+    }
+
+    /**
+     * Раздаёт изменения всем инстансам (через {@link #RELAY_CHANNEL}) или только локальным
+     * сессиям. Вызывать после коммита.
+     */
+    public void publish(List<LiveUpdateDto> updates) {
+        if (updates.isEmpty()) {
+            return;
+        }
+        if (relay) {
+            try {
+                redis.convertAndSend(RELAY_CHANNEL, objectMapper.writeValueAsString(updates));
+                return;
+            } catch (Exception ex) {
+                log.warn("Не удалось опубликовать живую ленту в Redis, раздаём локально: {}", ex.getMessage());
+            }
+        }
+        deliverLocal(updates);
+    }
+
+    /** Раздача локальным сессиям — в том числе по сообщению из {@link #RELAY_CHANNEL}. */
+    public void deliverLocal(List<LiveUpdateDto> updates) {
+        for (Subscriber subscriber : subscribers) {
+            boolean offered = false;
+            for (LiveUpdateDto update : updates) {
+                if (subscriber.accepts(update)) {
+                    subscriber.offer(update);
+                    offered = true;
+                }
+            }
+            if (offered) {
+                schedule(subscriber);
+            }
+        }
+    }
+
+    /** Разбор сообщения {@link #RELAY_CHANNEL}. */
+    public List<LiveUpdateDto> parse(String body) throws JsonProcessingException {
+        return objectMapper.readValue(body, UPDATES);
+    }
+
+    @Scheduled(fixedDelayString = "${dashboard.live.heartbeat:PT15S}")
+    public void heartbeat() {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.heartbeat.set(true);
+            schedule(subscriber);
+        }
+    }
+
+    int subscriberCount() {
+        return subscribers.size();
+    }
+
+    private void schedule(Subscriber subscriber) {
+        if (subscriber.draining.compareAndSet(false, true)) {
+            sender.execute(() -> drain(subscriber));
+        }
+    }
+
+    // Пишет в сокет один поток на сессию (флаг draining): SseEmitter не потокобезопасен.
+    private void drain(Subscriber subscriber) {
+        try {
+            boolean sent = false;
+            while (true) {
+                if (subscriber.overflow.getAndSet(false)) {
+                    subscriber.queue.clear();
+                    subscriber.emitter.send(SseEmitter.event().name(RESYNC_EVENT).data("{}"));
+                    sent = true;
+                }
+                List<LiveUpdateDto> batch = new ArrayList<>();
+                subscriber.queue.drainTo(batch);
+                if (batch.isEmpty()) {
+                    break;
+                }
+                subscriber.emitter.send(SseEmitter.event().name(UPDATE_EVENT).data(batch, MediaType.APPLICATION_JSON));
+                sent = true;
+            }
+            if (subscriber.heartbeat.getAndSet(false) && !sent) {
+                subscriber.emitter.send(SseEmitter.event().comment("hb"));
+            }
+        } catch (IOException | IllegalStateException ex) {
+            // Клиент ушёл или emitter уже завершён — сессию забываем, контейнер закроет запрос.
+            subscribers.remove(subscriber);
+            subscriber.emitter.completeWithError(ex);
+            return;
+        } finally {
+            subscriber.draining.set(false);
+        }
+        // Обновление могло прийти между drainTo и сбросом флага.
+        if (!subscriber.queue.isEmpty() || subscriber.overflow.get()) {
+            schedule(subscriber);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        subscribers.forEach(subscriber -> subscriber.emitter.complete());
+        subscribers.clear();
+        if (sender instanceof ExecutorService executor) {
+            executor.shutdownNow();
+        }
+    }
+
+    private final class Subscriber {
+
+        final SseEmitter emitter;
+        final Long botUserId;
+        final BlockingQueue<LiveUpdateDto> queue;
+        final AtomicBoolean draining = new AtomicBoolean();
+        final AtomicBoolean overflow = new AtomicBoolean();
+        final AtomicBoolean heartbeat = new AtomicBoolean();
+
+        Subscriber(SseEmitter emitter, Long botUserId, BlockingQueue<LiveUpdateDto> queue) {
+            this.emitter = emitter;
+            this.botUserId = botUserId;
+            this.queue = queue;
+        }
+
+        boolean accepts(LiveUpdateDto update) {
+            return botUserId == null || botUserId == update.botUserId();
+        }
+
+        void offer(LiveUpdateDto update) {
+            if (!queue.offer(update)) {
+                overflow.set(true);
+                dropped.increment();
+            }
+        }
+    }
+}
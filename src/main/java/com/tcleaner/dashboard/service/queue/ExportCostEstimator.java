@@ -0,0 +1,330 @@
+package com.tcleaner.dashboard.service.queue;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Оценка стоимости экспорта для shortest-job-first в {@code ExportJobProducer}.
+ *
+ * <p>Единица стоимости — число сообщений, которые воркеру предстоит выгрузить: именно оно
+ * определяет время (Telegram API отдаёт сообщения пачками с FloodWait). Длительность из
+ * {@code export_events} не годится — {@code started_at} это момент постановки в очередь,
+ * и в разницу входит ожидание.
+ *
+ * <p>Источники оценки:
+ * <ul>
+ *   <li>история завершённых экспортов того же {@code chat_ref_id}: плотность (сообщений в день)
+ *       по экспортам с датами и размер полной выгрузки по экспортам без {@code from_date};</li>
+ *   <li>запрошенное окно дат;</li>
+ *   <li>покрытие кэша воркера: при cache-hit большая часть читается из SQLite,
+ *       стоимость умножается на {@link #CACHED_FACTOR}.</li>
+ * </ul>
+ *
+ * <p>{@link #estimate} стоит на пути постановки, поэтому SQLite не читает: история берётся только
+ * из кэша, промах даёт предварительную оценку без истории ({@link Estimate#provisional()}), а
+ * история грузится в фоне — {@link #estimateLoaded} отдаёт уточнённую оценку, когда она готова.
+ *
+ * <p>Предсказание запоминается по taskId, а на terminal-событии ingestion сравнивает его
+ * с фактическим {@code messages_count} — метрики {@code export.cost.*}.
+ */
+@Component
+public class ExportCostEstimator {
+
+    private static final Logger log = LoggerFactory.getLogger(ExportCostEstimator.class);
+
+    static final long DEFAULT_MESSAGES = 5_000;
+    static final double CACHED_FACTOR = 0.2;
+    private static final long ASSUMED_HISTORY_DAYS = 365;
+    private static final int HISTORY_LIMIT = 20;
+
+    private static final String HISTORY_SQL = """
+            SELECT e.messages_count, e.from_date, e.to_date, date(e.started_at) AS started_day
+            FROM export_events e
+            JOIN chats c ON c.id = e.chat_ref_id
+            WHERE (c.chat_id_raw = ? OR c.canonical_chat_id = ?)
+              AND COALESCE(c.topic_id, -1) = COALESCE(?, -1)
+              AND e.status = 'COMPLETED'
+              AND e.messages_count IS NOT NULL
+            ORDER BY e.started_at DESC
+            LIMIT ?
+            """;
+
+    private final JdbcTemplate jdbc;
+    private final Executor historyExecutor;
+    // Ошибка загрузки в кэше не остаётся: Caffeine убирает исключительно завершённый future.
+    private final AsyncCache<String, ChatHistory> historyCache = Caffeine.newBuilder()
+            .expireAfterWrite(Duration.ofMinutes(10))
+            .maximumSize(10_000)
+            .buildAsync();
+    private final Cache<String, Prediction> predictions = Caffeine.newBuilder()
+            .expireAfterWrite(Duration.ofHours(6))
+            .maximumSize(10_000)
+            .build();
+
+    private final long msPerMessage;
+    private final long maxPenaltyMs;
+    private final long expressMaxMessages;
+
+    private final DistributionSummary predictedSummary;
+    private final DistributionSummary actualSummary;
+    private final DistributionSummary ratioSummary;
+    private final Counter unmatchedCounter;
+
+    public ExportCostEstimator(
+            JdbcTemplate jdbc,
+            @Qualifier("applicationTaskExecutor") Executor historyExecutor,
+            MeterRegistry meterRegistry,
+            @Value("${telegram.queue.sjf.ms-per-message:10}") long msPerMessage,
+            @Value("${telegram.queue.sjf.max-penalty:PT30M}") Duration maxPenalty,
+            @Value("${telegram.queue.sjf.express-max-messages:2000}") long expressMaxMessages
+    ) {
+        this.jdbc = jdbc;
+        this.historyExecutor = historyExecutor;
+        this.msPerMessage = msPerMessage;
+        this.maxPenaltyMs = maxPenalty.toMillis();
+        this.expressMaxMessages = expressMaxMessages;
+        this.predictedSummary = DistributionSummary.builder("export.cost.predicted.messages")
+                .register(meterRegistry);
+        this.actualSummary = DistributionSummary.builder("export.cost.actual.messages")
+                .register(meterRegistry);
+        this.ratioSummary = DistributionSummary.builder("export.cost.prediction.ratio")
+                .description("(actual + 1) / (predicted + 1): 1 — точная оценка, >1 — недооценка")
+                .register(meterRegistry);
+        this.unmatchedCounter = Counter.builder("export.cost.unmatched").register(meterRegistry);
+    }
+
+    /**
+     * Оценка для задачи: стоимость при cache-hit и при miss (какой вариант сработает, решает
+     * enqueue-скрипт по {@code cache:ranges}), штраф к score и флаг "дешёвая задача".
+     * Не блокирует: истории чата нет в кэше — оценка по умолчанию с {@code provisional},
+     * а история начинает грузиться. Ошибка чтения истории постановке не мешает.
+     */
+    public Estimate estimate(String chatIdentifier, Integer topicId, String fromDate, String toDate) {
+        CompletableFuture<ChatHistory> history = history(chatIdentifier, topicId);
+        boolean loaded = history.isDone() && !history.isCompletedExceptionally();
+        return estimate(loaded ? history.join() : ChatHistory.EMPTY, !loaded, fromDate, toDate);
+    }
+
+    /**
+     * Та же оценка, но по загруженной истории чата: завершается, когда загрузка из
+     * {@link #estimate} (или новая) закончится. Ошибка загрузки — оценка по умолчанию.
+     */
+    public CompletableFuture<Estimate> estimateLoaded(String chatIdentifier, Integer topicId,
+                                                      String fromDate, String toDate) {
+        return history(chatIdentifier, topicId)
+                .exceptionally(ex -> ChatHistory.EMPTY)
+                .thenApply(history -> estimate(history, false, fromDate, toDate));
+    }
+
+    private Estimate estimate(ChatHistory history, boolean provisional, String fromDate, String toDate) {
+        long uncached = predictMessages(history, fromDate, toDate);
+        long cached = Math.round(uncached * CACHED_FACTOR);
+        return new Estimate(cached, uncached, penaltyMs(cached), penaltyMs(uncached),
+                uncached <= expressMaxMessages, provisional);
+    }
+
+    /**
+     * Запоминает предсказание для сравнения с фактом на terminal-событии.
+     *
+     * @param cached задача попала на cache-hit (по ответу enqueue-скрипта)
+     */
+    public void remember(String taskId, long predictedMessages, boolean cached) {
+        predictions.put(taskId, new Prediction(predictedMessages, cached));
+        predictedSummary.record(predictedMessages);
+    }
+
+    /**
+     * Заменяет предварительное предсказание уточнённым, если задача ещё не сверена с фактом.
+     * {@code export.cost.predicted.messages} остаётся оценкой на момент постановки.
+     */
+    public void revise(String taskId, long predictedMessages) {
+        predictions.asMap().computeIfPresent(taskId,
+                (id, predicted) -> new Prediction(predictedMessages, predicted.cached()));
+    }
+
+    /**
+     * Сохранённое предсказание для задачи или {@code null} (рестарт, задача из подписки,
+     * уже сверена с фактом).
+     */
+    public Prediction prediction(String taskId) {
+        return predictions.getIfPresent(taskId);
+    }
+
+    /**
+     * Фактическая стоимость завершённой задачи. Без сохранённого предсказания (рестарт,
+     * задача из подписки) — только счётчик {@code export.cost.unmatched}.
+     */
+    public void recordActual(String taskId, long actualMessages) {
+        Prediction predicted = predictions.getIfPresent(taskId);
+        if (predicted == null) {
+            unmatchedCounter.increment();
+            return;
+        }
+        predictions.invalidate(taskId);
+        actualSummary.record(actualMessages);
+        ratioSummary.record((actualMessages + 1.0) / (predicted.messages() + 1.0));
+    }
+
+    // Штраф к score = "задача ведёт себя так, будто пришла на penalty позже". Кап — это и есть
+    // aging внутри уровня: большая задача обгоняется только задачами, пришедшими не позже чем
+    // через maxPenalty после неё, поэтому голодание ограничено сверху.
+    long penaltyMs(long messages) {
+        return Math.min(messages * msPerMessage, maxPenaltyMs);
+    }
+
+    /**
+     * Межуровневый aging ({@code enqueue_export.lua}): main-задача, ждущая дольше, при следующей
+     * постановке переходит в express. Тот же кап, что у штрафа, — поток дешёвых express-задач
+     * откладывает большую не больше, чем её обгоняют внутри уровня.
+     */
+    public long maxPenaltyMs() {
+        return maxPenaltyMs;
+    }
+
+    long predictMessages(ChatHistory history, String fromDate, String toDate) {
+        LocalDate from = parseDay(fromDate);
+        if (from == null) {
+            if (history.fullCount() != null) {
+                return history.fullCount();
+            }
+            if (history.perDay() != null) {
+                return Math.round(history.perDay() * ASSUMED_HISTORY_DAYS);
+            }
+            return DEFAULT_MESSAGES;
+        }
+        LocalDate to = parseDay(toDate);
+        long days = Math.max(1, ChronoUnit.DAYS.between(from, to != null ? to : LocalDate.now()) + 1);
+        if (history.perDay() != null) {
+            long byDensity = Math.round(history.perDay() * days);
+            return history.fullCount() != null ? Math.min(byDensity, history.fullCount()) : byDensity;
+        }
+        long base = history.fullCount() != null ? history.fullCount() : DEFAULT_MESSAGES;
+        return Math.round(base * Math.min(1.0, (double) days / ASSUMED_HISTORY_DAYS));
+    }
+
+    private CompletableFuture<ChatHistory> history(String chatIdentifier, Integer topicId) {
+        if (chatIdentifier == null) {
+            return CompletableFuture.completedFuture(ChatHistory.EMPTY);
+        }
+        try {
+            return historyCache.get(historyKey(chatIdentifier, topicId),
+                    (key, caffeineExecutor) -> CompletableFuture.supplyAsync(
+                            () -> queryHistory(chatIdentifier, topicId), historyExecutor)
+                            .whenComplete((history, ex) -> {
+                                if (ex != null) {
+                                    log.debug("История стоимости для {} недоступна: {}",
+                                            chatIdentifier, ex.getMessage());
+                                }
+                            }));
+        } catch (RuntimeException ex) {
+            // Пул переполнен (AbortPolicy): без истории, следующая постановка попробует снова.
+            log.debug("История стоимости для {} не загружается: {}", chatIdentifier, ex.getMessage());
+            return CompletableFuture.completedFuture(ChatHistory.EMPTY);
+        }
+    }
+
+    private ChatHistory queryHistory(String chatIdentifier, Integer topicId) {
+        List<Double> densities = new ArrayList<>();
+        long[] fullMax = {-1};
+        jdbc.query(HISTORY_SQL, rs -> {
+            long count = rs.getLong("messages_count");
+            LocalDate from = parseDay(rs.getString("from_date"));
+            if (from == null) {
+                fullMax[0] = Math.max(fullMax[0], count);
+                return;
+            }
+            LocalDate to = parseDay(rs.getString("to_date"));
+            if (to == null) {
+                to = parseDay(rs.getString("started_day"));
+            }
+            if (to != null) {
+                long days = Math.max(1, ChronoUnit.DAYS.between(from, to) + 1);
+                densities.add((double) count / days);
+            }
+        }, chatIdentifier, chatIdentifier, topicId, HISTORY_LIMIT);
+        return new ChatHistory(fullMax[0] >= 0 ? fullMax[0] : null, median(densities));
+    }
+
+    private static Double median(List<Double> values) {
+        if (values.isEmpty()) {
+            return null;
+        }
+        Collections.sort(values);
+        int mid = values.size() / 2;
+        return values.size() % 2 == 1 ? values.get(mid) : (values.get(mid - 1) + values.get(mid)) / 2.0;
+    }
+
+    private static String historyKey(String chatIdentifier, Integer topicId) {
+        return chatIdentifier + "#" + (topicId != null ? topicId : "");
+    }
+
+    // Даты приходят как ISO LocalDateTime из сессии бота ("2024-01-01T00:00:00") и как TEXT из
+    // SQLite ("2024-01-01" или "2024-01-01 00:00:00.000") — день всегда в первых 10 символах.
+    static LocalDate parseDay(String value) {
+        if (value == null || value.length() < 10) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(value.substring(0, 10));
+        } catch (DateTimeParseException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * История чата: размер последней полной выгрузки и медианная плотность сообщений в день.
+     */
+    record ChatHistory(Long fullCount, Double perDay) {
+        static final ChatHistory EMPTY = new ChatHistory(null, null);
+    }
+
+    /**
+     * Предсказание, запомненное при постановке.
+     *
+     * @param messages ожидаемая стоимость с учётом фактического cache-hit/miss
+     * @param cached   задача пошла по кэшу
+     */
+    public record Prediction(long messages, boolean cached) {
+    }
+
+    /**
+     * Результат оценки.
+     *
+     * @param cachedMessages   ожидаемая стоимость при cache-hit
+     * @param uncachedMessages ожидаемая стоимость при cache-miss
+     * @param cachedPenaltyMs  добавка к score при cache-hit
+     * @param uncachedPenaltyMs добавка к score при cache-miss
+     * @param cheap            задача достаточно мала, чтобы идти в express даже без кэша
+     * @param provisional      истории чата ещё не было в кэше — оценка по умолчанию
+     */
+    public record Estimate(long cachedMessages, long uncachedMessages,
+                           long cachedPenaltyMs, long uncachedPenaltyMs, boolean cheap, boolean provisional) {
+
+        public static final Estimate NONE = new Estimate(0, 0, 0, 0, false);
+
+        public Estimate(long cachedMessages, long uncachedMessages,
+                        long cachedPenaltyMs, long uncachedPenaltyMs, boolean cheap) {
+            this(cachedMessages, uncachedMessages, cachedPenaltyMs, uncachedPenaltyMs, cheap, false);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.tcleaner.dashboard.service.queue;
+
+import com.tcleaner.bot.ExportJobProducer;
+import com.tcleaner.bot.QueueEtaEstimator;
+import com.tcleaner.dashboard.dto.QueueEtaDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ETA очереди для дашборда: размер очереди из Redis (два дешёвых вызова) + оценка
+ * {@link QueueEtaEstimator} по статистике в памяти. Недоступный Redis не ломает
+ * страницу — отдаётся {@code available=false}.
+ */
+@Service
+public class QueueEtaService {
+
+    private static final Logger log = LoggerFactory.getLogger(QueueEtaService.class);
+
+    private final ExportJobProducer jobProducer;
+    private final QueueEtaEstimator etaEstimator;
+
+    public QueueEtaService(ExportJobProducer jobProducer, QueueEtaEstimator etaEstimator) {
+        this.jobProducer = jobProducer;
+        this.etaEstimator = etaEstimator;
+    }
+
+    public QueueEtaDto get() {
+        long pending;
+        boolean active;
+        try {
+            pending = jobProducer.getQueueLength();
+            active = jobProducer.hasActiveProcessingJob();
+        } catch (Exception e) {
+            log.warn("Redis недоступен при расчёте ETA очереди: {}", e.getMessage());
+            return new QueueEtaDto(false, 0L, false, null, null, null,
+                    etaEstimator.meanJobSeconds(), 0L, sources());
+        }
+        QueueEtaEstimator.Eta eta = etaEstimator.estimate(pending, active, null);
+        if (eta == null) {
+            return new QueueEtaDto(false, pending, active, null, null, null,
+                    etaEstimator.meanJobSeconds(), 0L, sources());
+        }
+        return new QueueEtaDto(true, pending, active,
+                eta.expected().toSeconds(), eta.low().toSeconds(), eta.high().toSeconds(),
+                etaEstimator.meanJobSeconds(), eta.samples(), sources());
+    }
+
+    private Map<String, QueueEtaDto.SourceThroughput> sources() {
+        Map<String, QueueEtaDto.SourceThroughput> result = new LinkedHashMap<>();
+        etaEstimator.throughput().forEach((source, t) -> result.put(source.name().toLowerCase(),
+                new QueueEtaDto.SourceThroughput(t.messagesPerSecond(), t.overheadSeconds(), t.samples())));
+        return result;
+    }
+}
@@ -0,0 +1,40 @@
+package com.tcleaner.dashboard.service.scheduling;
+
+/**
+ * Захваченный lease одного запуска задачи планировщика.
+ *
+ * <p>{@link #fencingToken()} строго растёт от запуска к запуску в пределах кластера: узел,
+ * потерявший lease (GC-пауза, сеть), узнаёт об этом по {@link #isHeld()} и не должен
+ * продолжать побочные эффекты — их уже делает держатель с большим токеном.
+ */
+public final class SchedulerLease {
+
+    private final String job;
+    private final long fencingToken;
+    private volatile boolean held = true;
+
+    public SchedulerLease(String job, long fencingToken) {
+        this.job = job;
+        this.fencingToken = fencingToken;
+    }
+
+    public String job() {
+        return job;
+    }
+
+    public long fencingToken() {
+        return fencingToken;
+    }
+
+    /**
+     * {@code false}, если продление не удалось и lease мог перейти к другому узлу.
+     * Проверка локальная, без обращения к Redis.
+     */
+    public boolean isHeld() {
+        return held;
+    }
+
+    void revoke() {
+        held = false;
+    }
+}
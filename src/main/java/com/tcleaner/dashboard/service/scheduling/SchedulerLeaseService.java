@@ -0,0 +1,206 @@
+package com.tcleaner.dashboard.service.scheduling;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Lease в Redis для {@code @Scheduled}-задач, которые должны выполняться на одном узле
+ * кластера: cron срабатывает на каждом инстансе, запуск получает только захвативший
+ * {@code scheduler:lease:{job}}.
+ *
+ * <ul>
+ *   <li>Lease продлевается фоном каждые {@code ttl / 3}, пока задача выполняется; упавший
+ *       узел отпускает его по TTL.</li>
+ *   <li>Каждый захват выдаёт fencing-токен (монотонный {@code INCR}), он передаётся задаче
+ *       в {@link SchedulerLease}. Потерянное продление снимает {@link SchedulerLease#isHeld()} —
+ *       задача прекращает побочные эффекты, не дожидаясь конца цикла.</li>
+ *   <li>После завершения lease держится до {@code min-hold} от начала: узел с отстающими
+ *       часами не повторит тот же cron-тик.</li>
+ * </ul>
+ *
+ * <p>Redis недоступен → запуск пропускается: повтор подписки или confirmation хуже пропуска
+ * одного тика. Метрики: {@code scheduler.lease.held}, {@code scheduler.lease.acquired},
+ * {@code scheduler.lease.skipped}, {@code scheduler.lease.lost}, {@code scheduler.job.duration}
+ * и {@code scheduler.job.lag.seconds} — время с последнего завершённого запуска в кластере.
+ */
+@Service
+public class SchedulerLeaseService {
+
+    private static final Logger log = LoggerFactory.getLogger(SchedulerLeaseService.class);
+
+    static final String LEASE_PREFIX = "scheduler:lease:";
+    static final String FENCE_PREFIX = "scheduler:fence:";
+    static final String LAST_RUN_PREFIX = "scheduler:last-run:";
+
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> ACQUIRE_SCRIPT =
+            RedisScript.of(new ClassPathResource("redis/lease_acquire.lua"), List.class);
+    private static final RedisScript<Long> RENEW_SCRIPT =
+            RedisScript.of(new ClassPathResource("redis/lease_renew.lua"), Long.class);
+    private static final RedisScript<Long> RELEASE_SCRIPT =
+            RedisScript.of(new ClassPathResource("redis/lease_release.lua"), Long.class);
+
+    private final StringRedisTemplate redis;
+    private final MeterRegistry meterRegistry;
+    private final Clock clock;
+    private final long ttlMs;
+    private final long minHoldMs;
+    private final String instanceId = UUID.randomUUID().toString().substring(0, 8);
+    private final ScheduledExecutorService renewer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "scheduler-lease-renew");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, JobMeters> meters = new ConcurrentHashMap<>();
+
+    public SchedulerLeaseService(
+            StringRedisTemplate redis,
+            MeterRegistry meterRegistry,
+            Clock clock,
+            @Value("${scheduler.lease.ttl:PT2M}") Duration ttl,
+            @Value("${scheduler.lease.min-hold:PT30S}") Duration minHold
+    ) {
+        this.redis = redis;
+        this.meterRegistry = meterRegistry;
+        this.clock = clock;
+        this.ttlMs = ttl.toMillis();
+        this.minHoldMs = minHold.toMillis();
+    }
+
+    /**
+     * Выполняет {@code task}, если удалось захватить lease задачи {@code job}.
+     *
+     * @return {@code true} — задача выполнялась на этом узле
+     */
+    public boolean runExclusive(String job, Consumer<SchedulerLease> task) {
+        JobMeters jobMeters = meters.computeIfAbsent(job, this::register);
+        long token;
+        try {
+            List<?> reply = redis.execute(ACQUIRE_SCRIPT,
+                    List.of(LEASE_PREFIX + job, FENCE_PREFIX + job, LAST_RUN_PREFIX + job),
+                    instanceId, String.valueOf(ttlMs));
+            token = toLong(reply, 0);
+            jobMeters.lastRunMs.set(toLong(reply, 1));
+        } catch (Exception e) {
+            jobMeters.skipped.increment();
+            log.warn("Lease {} недоступен, запуск пропущен: {}", job, e.getMessage());
+            return false;
+        }
+        if (token <= 0) {
+            jobMeters.skipped.increment();
+            log.debug("Lease {} у другого узла, запуск пропущен", job);
+            return false;
+        }
+
+        SchedulerLease lease = new SchedulerLease(job, token);
+        String holder = instanceId + ":" + token;
+        long startedMs = clock.millis();
+        jobMeters.acquired.increment();
+        jobMeters.held.set(true);
+        long renewEveryMs = Math.max(1, ttlMs / 3);
+        ScheduledFuture<?> renewal = renewer.scheduleAtFixedRate(
+                () -> renew(job, holder, lease, jobMeters), renewEveryMs, renewEveryMs, TimeUnit.MILLISECONDS);
+        try {
+            jobMeters.duration.record(() -> task.accept(lease));
+        } finally {
+            renewal.cancel(false);
+            jobMeters.held.set(false);
+            release(job, holder, lease, jobMeters, startedMs);
+        }
+        return true;
+    }
+
+    private void renew(String job, String holder, SchedulerLease lease, JobMeters jobMeters) {
+        if (!lease.isHeld()) {
+            return;
+        }
+        try {
+            Long renewed = redis.execute(RENEW_SCRIPT, List.of(LEASE_PREFIX + job), holder, String.valueOf(ttlMs));
+            if (renewed == null || renewed == 0L) {
+                lease.revoke();
+                jobMeters.lost.increment();
+                log.warn("Lease {} (token {}) потерян во время выполнения", job, lease.fencingToken());
+            }
+        } catch (Exception e) {
+            // Следующая попытка через ttl/3; lease истечёт, только если Redis недоступен дольше.
+            log.warn("Не удалось продлить lease {}: {}", job, e.getMessage());
+        }
+    }
+
+    private void release(String job, String holder, SchedulerLease lease, JobMeters jobMeters, long startedMs) {
+        long hold = Math.max(0, minHoldMs - (clock.millis() - startedMs));
+        try {
+            Long released = redis.execute(RELEASE_SCRIPT, List.of(LEASE_PREFIX + job, LAST_RUN_PREFIX + job),
+                    holder, String.valueOf(hold));
+            if (released != null && released == 1L) {
+                jobMeters.lastRunMs.set(clock.millis());
+            } else if (lease.isHeld()) {
+                lease.revoke();
+                jobMeters.lost.increment();
+                log.warn("Lease {} (token {}) истёк до завершения задачи", job, lease.fencingToken());
+            }
+        } catch (Exception e) {
+            log.warn("Не удалось отпустить lease {}: истечёт по TTL ({})", job, e.getMessage());
+        }
+    }
+
+    private JobMeters register(String job) {
+        JobMeters jobMeters = new JobMeters(
+                Counter.builder("scheduler.lease.acquired").tag("job", job).register(meterRegistry),
+                Counter.builder("scheduler.lease.skipped").tag("job", job).register(meterRegistry),
+                Counter.builder("scheduler.lease.lost").tag("job", job).register(meterRegistry),
+                Timer.builder("scheduler.job.duration").tag("job", job).register(meterRegistry));
+        Gauge.builder("scheduler.lease.held", jobMeters.held, held -> held.get() ? 1 : 0)
+                .tag("job", job)
+                .description("1 — задача сейчас выполняется на этом узле")
+                .register(meterRegistry);
+        Gauge.builder("scheduler.job.lag.seconds", jobMeters.lastRunMs,
+                        last -> last.get() > 0 ? (clock.millis() - last.get()) / 1000.0 : Double.NaN)
+                .tag("job", job)
+                .description("Секунд с последнего завершённого запуска в кластере")
+                .register(meterRegistry);
+        return jobMeters;
+    }
+
+    private static long toLong(List<?> reply, int index) {
+        return reply != null && reply.size() > index && reply.get(index) instanceof Number number
+                ? number.longValue() : 0L;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        renewer.shutdownNow();
+    }
+
+    private record JobMeters(Counter acquired, Counter skipped, Counter lost, Timer duration,
+                             AtomicBoolean held, AtomicLong lastRunMs) {
+
+        JobMeters(Counter acquired, Counter skipped, Counter lost, Timer duration) {
+            this(acquired, skipped, lost, duration, new AtomicBoolean(), new AtomicLong());
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.tcleaner.dashboard.service.stats;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Пишущая сторона дневных HyperLogLog-скетчей активных пользователей
+ * ({@code stats_daily_users_hll}, {@code stats_daily_chat_users_hll}, changeset 019).
+ * Читает их {@link StatsQueryService}, объединяя скетчи дней периода.
+ *
+ * <p>Скетч посчитать SQL-триггером нельзя, поэтому его ведёт ingestion: {@link #record} в
+ * транзакции пачки добавляет пользователей новых событий в скетч их UTC-дня и чата
+ * (read-merge-write безопасен — пишет один writer). Merge события скетч не трогает:
+ * пользователь, день и чат у события не меняются. {@link #rebuild} пересчитывает дни из
+ * {@code export_events} — вместе с rollup-ами ({@code StatsRollupService}) и для backfill.
+ */
+@Service
+public class ActiveUserSketches {
+
+    // Параметров в одном IN (...) — с запасом ниже SQLITE_MAX_VARIABLE_NUMBER.
+    private static final int IN_CHUNK = 500;
+    private static final int STREAM_FETCH_SIZE = 1000;
+    private static final String DAY = "substr(started_at, 1, 10)";
+    private static final String UPSERT_DAY = "INSERT INTO stats_daily_users_hll (day, sketch) VALUES (?, ?) "
+            + "ON CONFLICT(day) DO UPDATE SET sketch = excluded.sketch";
+    private static final String UPSERT_CHAT = "INSERT INTO stats_daily_chat_users_hll (day, chat_ref_id, sketch) "
+            + "VALUES (?, ?, ?) ON CONFLICT(chat_ref_id, day) DO UPDATE SET sketch = excluded.sketch";
+
+    private final JdbcTemplate jdbc;
+
+    public ActiveUserSketches(JdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    /**
+     * Добавляет пользователей только что вставленных событий в скетчи их дней. Вызывать в
+     * транзакции, вставившей события: один SELECT на пачку и по чтению/записи на затронутый
+     * день, без запроса на событие.
+     */
+    public void record(Collection<String> taskIds) {
+        if (taskIds.isEmpty()) {
+            return;
+        }
+        Map<String, DaySketches> days = new TreeMap<>();
+        List<String> ids = List.copyOf(taskIds);
+        for (int i = 0; i < ids.size(); i += IN_CHUNK) {
+            List<String> chunk = ids.subList(i, Math.min(ids.size(), i + IN_CHUNK));
+            jdbc.query("SELECT " + DAY + " AS day, chat_ref_id, bot_user_id FROM export_events WHERE task_id IN ("
+                            + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")",
+                    (RowCallbackHandler) rs -> days.computeIfAbsent(rs.getString("day"), DaySketches::new)
+                            .add(rs.getLong("chat_ref_id"), rs.getLong("bot_user_id")),
+                    chunk.toArray());
+        }
+        for (DaySketches day : days.values()) {
+            mergeStored(day);
+            write(day);
+        }
+    }
+
+    /**
+     * Пересобирает скетчи дней {@code [from, to]} из {@code export_events}. События читаются
+     * курсором по порядку {@code started_at}, в памяти — скетчи одного дня.
+     *
+     * @return число пересобранных дней с событиями
+     */
+    @Transactional
+    public int rebuild(LocalDate from, LocalDate to) {
+        String fromDay = from.toString();
+        String toDay = to.toString();
+        jdbc.update("DELETE FROM stats_daily_users_hll WHERE day >= ? AND day <= ?", fromDay, toDay);
+        jdbc.update("DELETE FROM stats_daily_chat_users_hll WHERE day >= ? AND day <= ?", fromDay, toDay);
+
+        int[] days = {0};
+        DaySketches[] current = {null};
+        jdbc.query(con -> {
+            var ps = con.prepareStatement("SELECT " + DAY + " AS day, chat_ref_id, bot_user_id FROM export_events "
+                    + "WHERE started_at >= ? AND started_at < ? ORDER BY started_at");
+            ps.setFetchSize(STREAM_FETCH_SIZE);
+            ps.setString(1, fromDay);
+            // Граница — начало следующего дня: started_at хранится как "YYYY-MM-DD HH:MM:SS.sss".
+            ps.setString(2, to.plusDays(1).toString());
+            return ps;
+        }, (RowCallbackHandler) rs -> {
+            String day = rs.getString("day");
+            if (current[0] == null || !current[0].day.equals(day)) {
+                if (current[0] != null) {
+                    write(current[0]);
+                    days[0]++;
+                }
+                current[0] = new DaySketches(day);
+            }
+            current[0].add(rs.getLong("chat_ref_id"), rs.getLong("bot_user_id"));
+        });
+        if (current[0] != null) {
+            write(current[0]);
+            days[0]++;
+        }
+        return days[0];
+    }
+
+    /**
+     * Дни с событиями в rollup-ах, но без скетча: база, мигрированная до changeset 019.
+     */
+    public List<String> missingDays() {
+        return jdbc.queryForList("SELECT day FROM stats_daily WHERE exports > 0 "
+                + "AND day NOT IN (SELECT day FROM stats_daily_users_hll) ORDER BY day", String.class);
+    }
+
+    private void mergeStored(DaySketches day) {
+        jdbc.query("SELECT sketch FROM stats_daily_users_hll WHERE day = ?",
+                (RowCallbackHandler) rs -> day.users.merge(HyperLogLog.fromBytes(rs.getBytes("sketch"))),
+                day.day);
+        List<Long> chats = new ArrayList<>(day.chats.keySet());
+        for (int i = 0; i < chats.size(); i += IN_CHUNK) {
+            List<Long> chunk = chats.subList(i, Math.min(chats.size(), i + IN_CHUNK));
+            List<Object> args = new ArrayList<>(chunk.size() + 1);
+            args.add(day.day);
+            args.addAll(chunk);
+            jdbc.query("SELECT chat_ref_id, sketch FROM stats_daily_chat_users_hll WHERE day = ? AND chat_ref_id IN ("
+                            + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")",
+                    (RowCallbackHandler) rs -> day.chats.get(rs.getLong("chat_ref_id"))
+                            .merge(HyperLogLog.fromBytes(rs.getBytes("sketch"))),
+                    args.toArray());
+        }
+    }
+
+    private void write(DaySketches day) {
+        jdbc.update(UPSERT_DAY, day.day, day.users.toBytes());
+        List<Object[]> rows = new ArrayList<>(day.chats.size());
+        day.chats.forEach((chat, sketch) -> rows.add(new Object[]{day.day, chat, sketch.toBytes()}));
+        jdbc.batchUpdate(UPSERT_CHAT, rows);
+    }
+
+    // Скетчи одного дня: все пользователи и по чатам.
+    private static final class DaySketches {
+
+        final String day;
+        final HyperLogLog users = new HyperLogLog();
+        final Map<Long, HyperLogLog> chats = new HashMap<>();
+
+        DaySketches(String day) {
+            this.day = day;
+        }
+
+        void add(long chatRefId, long botUserId) {
+            users.add(botUserId);
+            chats.computeIfAbsent(chatRefId, c -> new HyperLogLog()).add(botUserId);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.tcleaner.dashboard.service.stats;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Позиция keyset-пагинации ленты событий ({@link StatsQueryService#streamEvents}): последняя
+ * отданная строка — {@code started_at} в формате SQLite и {@code export_events.id} как
+ * tie-breaker для событий с одинаковым временем старта.
+ *
+ * <p>Клиенту уходит непрозрачным токеном (base64url от {@code "started_at|id"}): формат
+ * может поменяться, разбирать его на клиенте нельзя. Подделанный токен лишь сдвигает
+ * позицию внутри уже разрешённой RBAC-выборки.
+ */
+public record EventCursor(String startedAt, long id) {
+
+    public String encode() {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((startedAt + "|" + id).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** @throws IllegalArgumentException токен повреждён или не от этого API */
+    public static EventCursor decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int sep = raw.lastIndexOf('|');
+            if (sep <= 0) {
+                throw new IllegalArgumentException("Невалидный cursor");
+            }
+            return new EventCursor(raw.substring(0, sep), Long.parseLong(raw.substring(sep + 1)));
+        } catch (IllegalArgumentException ex) {
+            // NumberFormatException и ошибки base64 — тоже IllegalArgumentException.
+            throw new IllegalArgumentException("Невалидный cursor", ex);
+        }
+    }
+}
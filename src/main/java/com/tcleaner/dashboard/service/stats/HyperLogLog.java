@@ -0,0 +1,135 @@
+package com.tcleaner.dashboard.service.stats;
+
+import java.util.Arrays;
+
+/**
+ * HyperLogLog-скетч уникальных {@code bot_user_id}: 2^{@value #PRECISION} регистров, оценка
+ * с относительной стандартной ошибкой {@link #RELATIVE_ERROR} (≈1.6%) при любом числе
+ * элементов. Скетчи объединяются без потерь ({@link #merge} — максимум по регистрам), поэтому
+ * уникальные за период — объединение дневных скетчей, а не {@code COUNT(DISTINCT)} по дням.
+ *
+ * <p>Формат хранения ({@link #toBytes}): первый байт — {@link #SPARSE} или {@link #DENSE}.
+ * Sparse — тройки (индекс регистра big-endian 2 байта, значение 1 байт) для ненулевых
+ * регистров: день одного чата — несколько байт. Dense — все регистры по байту (4 КБ);
+ * выбирается, когда он короче.
+ *
+ * <p>Не потокобезопасен.
+ */
+public final class HyperLogLog {
+
+    static final int PRECISION = 12;
+    static final int REGISTERS = 1 << PRECISION;
+    /** Относительная стандартная ошибка оценки: 1.04 / sqrt(m). */
+    public static final double RELATIVE_ERROR = 1.04 / Math.sqrt(REGISTERS);
+
+    static final byte SPARSE = 0;
+    static final byte DENSE = 1;
+
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+
+    private final byte[] registers;
+
+    public HyperLogLog() {
+        this(new byte[REGISTERS]);
+    }
+
+    private HyperLogLog(byte[] registers) {
+        this.registers = registers;
+    }
+
+    public HyperLogLog add(long value) {
+        long hash = mix(value);
+        int index = (int) (hash >>> (64 - PRECISION));
+        // Ранг — позиция первой единицы в оставшихся 64 - p битах (маркер-бит ограничивает её).
+        int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+        return this;
+    }
+
+    public HyperLogLog merge(HyperLogLog other) {
+        for (int i = 0; i < REGISTERS; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+        return this;
+    }
+
+    public long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double raw = ALPHA * REGISTERS * REGISTERS / sum;
+        // Малые мощности — linear counting по пустым регистрам: на них сырая оценка смещена.
+        if (raw <= 2.5 * REGISTERS && zeros > 0) {
+            return Math.round(REGISTERS * Math.log((double) REGISTERS / zeros));
+        }
+        return Math.round(raw);
+    }
+
+    public byte[] toBytes() {
+        int nonZero = 0;
+        for (byte register : registers) {
+            if (register != 0) {
+                nonZero++;
+            }
+        }
+        if (3 * nonZero >= REGISTERS) {
+            byte[] out = new byte[1 + REGISTERS];
+            out[0] = DENSE;
+            System.arraycopy(registers, 0, out, 1, REGISTERS);
+            return out;
+        }
+        byte[] out = new byte[1 + 3 * nonZero];
+        out[0] = SPARSE;
+        int pos = 1;
+        for (int i = 0; i < REGISTERS; i++) {
+            if (registers[i] != 0) {
+                out[pos++] = (byte) (i >>> 8);
+                out[pos++] = (byte) i;
+                out[pos++] = registers[i];
+            }
+        }
+        return out;
+    }
+
+    public static HyperLogLog fromBytes(byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            throw new IllegalArgumentException("Пустой HLL-скетч");
+        }
+        if (bytes[0] == DENSE && bytes.length == 1 + REGISTERS) {
+            return new HyperLogLog(Arrays.copyOfRange(bytes, 1, bytes.length));
+        }
+        if (bytes[0] != SPARSE || (bytes.length - 1) % 3 != 0) {
+            throw new IllegalArgumentException(
+                    "Невалидный HLL-скетч: формат " + bytes[0] + ", " + bytes.length + " байт");
+        }
+        byte[] registers = new byte[REGISTERS];
+        for (int pos = 1; pos < bytes.length; pos += 3) {
+            int index = ((bytes[pos] & 0xFF) << 8) | (bytes[pos + 1] & 0xFF);
+            if (index >= REGISTERS) {
+                throw new IllegalArgumentException("Невалидный HLL-скетч: регистр " + index);
+            }
+            registers[index] = bytes[pos + 2];
+        }
+        return new HyperLogLog(registers);
+    }
+
+    // Финализатор MurmurHash3 (fmix64): последовательные id равномерно расходятся по регистрам.
+    static long mix(long value) {
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
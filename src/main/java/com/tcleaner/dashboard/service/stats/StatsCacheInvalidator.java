@@ -0,0 +1,179 @@
+package com.tcleaner.dashboard.service.stats;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.tcleaner.dashboard.dto.DashboardCacheStatsDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static com.tcleaner.dashboard.config.CacheConfig.HISTORICAL;
+import static com.tcleaner.dashboard.config.CacheConfig.LIVE;
+import static com.tcleaner.dashboard.config.CacheConfig.PROFILE;
+
+/**
+ * Точечная инвалидация кешей {@link StatsQueryService} по изменениям из ingestion.
+ * {@code ExportEventIngestionService} после коммита отдаёт сюда затронутые события
+ * ({@link Touched}: пользователь, чат, день старта); удаляются только ключи
+ * ({@link StatsCacheKey}), чей результат мог измениться: агрегаты за периоды, содержащие
+ * этот день, — ADMIN и самого пользователя, его recentEvents/топ по bot_users/профиль.
+ * Поэтому TTL кешей — лишь страховка, а не источник свежести (см. {@code CacheConfig}).
+ *
+ * <p>Кеши локальные (Caffeine), поэтому изменения публикуются в Redis-канал
+ * {@link #INVALIDATION_CHANNEL} — остальные инстансы сбрасывают свои копии
+ * ({@code StatsCacheInvalidationConfig}). Своё сообщение приходит и автору: повторный
+ * сброс безвреден. Pub/sub at-most-once — потерянное сообщение догоняет TTL.
+ *
+ * <p>Метрики: {@code stats.cache.invalidated{cache}} — ключи, снятые инвалидацией;
+ * {@code stats.cache.hit.ratio{cache}} — доля попаданий с момента старта; hit/miss/eviction и
+ * время загрузки Caffeine — {@code cache.*{cache}} (actuator) и {@link #stats()}.
+ */
+@Component
+public class StatsCacheInvalidator {
+
+    private static final Logger log = LoggerFactory.getLogger(StatsCacheInvalidator.class);
+
+    public static final String INVALIDATION_CHANNEL = "dashboard:stats-cache:invalidate";
+    private static final List<String> CACHES = List.of(LIVE, HISTORICAL, PROFILE);
+
+    private final CacheManager cacheManager;
+    private final StringRedisTemplate redis;
+    private final boolean publish;
+    private final Map<String, Counter> invalidated = new HashMap<>();
+
+    public StatsCacheInvalidator(CacheManager cacheManager) {
+        this(cacheManager, null, null, false);
+    }
+
+    @Autowired
+    public StatsCacheInvalidator(
+            CacheManager cacheManager,
+            @Nullable StringRedisTemplate redis,
+            @Nullable MeterRegistry meterRegistry,
+            @Value("${dashboard.stats.cache.invalidation.enabled:true}") boolean publish
+    ) {
+        this.cacheManager = cacheManager;
+        this.redis = redis;
+        this.publish = publish;
+        MeterRegistry registry = meterRegistry != null ? meterRegistry : new SimpleMeterRegistry();
+        for (String name : CACHES) {
+            invalidated.put(name, Counter.builder("stats.cache.invalidated")
+                    .description("Ключи dashboard-кеша, снятые инвалидацией из ingestion")
+                    .tag("cache", name)
+                    .register(registry));
+            Gauge.builder("stats.cache.hit.ratio", this, self -> self.nativeStats(name).hitRate())
+                    .description("Доля попаданий в dashboard-кеш")
+                    .tag("cache", name)
+                    .register(registry);
+        }
+    }
+
+    /**
+     * Сбрасывает затронутые ключи локально и рассылает изменения остальным инстансам.
+     * Вызывать после коммита: до него читатель мог бы закешировать старые данные заново.
+     */
+    public void invalidate(Collection<Touched> touched) {
+        if (touched.isEmpty()) {
+            return;
+        }
+        evictLocal(touched);
+        if (publish && redis != null) {
+            try {
+                redis.convertAndSend(INVALIDATION_CHANNEL, Touched.format(touched));
+            } catch (Exception ex) {
+                log.warn("Не удалось опубликовать инвалидацию stats-кеша: {}", ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Сброс локальных ключей, задетых {@code touched}, — в том числе по сообщению из
+     * {@link #INVALIDATION_CHANNEL}.
+     */
+    public void evictLocal(Collection<Touched> touched) {
+        for (String name : CACHES) {
+            if (!(cacheManager.getCache(name) instanceof CaffeineCache cache)) {
+                continue;
+            }
+            // Ключей в кеше не больше maximumSize — полный обход дешевле любого индекса.
+            List<Object> keys = new ArrayList<>();
+            for (Object key : cache.getNativeCache().asMap().keySet()) {
+                if (key instanceof StatsCacheKey k && touched.stream()
+                        .anyMatch(t -> k.affectedBy(t.botUserId(), t.chatRefId(), t.day()))) {
+                    keys.add(key);
+                }
+            }
+            cache.getNativeCache().invalidateAll(keys);
+            invalidated.get(name).increment(keys.size());
+        }
+    }
+
+    /** Hit/miss/eviction и загрузки по каждому dashboard-кешу (Caffeine {@code recordStats}). */
+    public List<DashboardCacheStatsDto> stats() {
+        List<DashboardCacheStatsDto> result = new ArrayList<>();
+        for (String name : CACHES) {
+            Cache cache = cacheManager.getCache(name);
+            if (!(cache instanceof CaffeineCache caffeine)) {
+                continue;
+            }
+            CacheStats stats = caffeine.getNativeCache().stats();
+            result.add(new DashboardCacheStatsDto(name, caffeine.getNativeCache().estimatedSize(),
+                    stats.hitCount(), stats.missCount(), stats.hitRate(), stats.evictionCount(),
+                    (long) invalidated.get(name).count(), stats.loadCount(),
+                    stats.averageLoadPenalty() / 1_000_000.0));
+        }
+        return result;
+    }
+
+    private CacheStats nativeStats(String name) {
+        return cacheManager.getCache(name) instanceof CaffeineCache cache
+                ? cache.getNativeCache().stats() : CacheStats.empty();
+    }
+
+    /**
+     * Изменение события: владелец, чат ({@code null} — неизвестен) и UTC-день старта.
+     * {@code day == null} — изменился только профиль пользователя ({@code bot_user.seen}).
+     */
+    public record Touched(long botUserId, Long chatRefId, LocalDate day) {
+
+        // "botUserId:chatRefId:day" через запятую; пустое поле — null.
+        static String format(Collection<Touched> touched) {
+            return touched.stream()
+                    .map(t -> t.botUserId() + ":" + (t.chatRefId() != null ? t.chatRefId() : "")
+                            + ":" + (t.day() != null ? t.day() : ""))
+                    .collect(Collectors.joining(","));
+        }
+
+        public static List<Touched> parse(String body) {
+            List<Touched> result = new ArrayList<>();
+            for (String item : body.trim().split(",")) {
+                String[] parts = item.split(":", -1);
+                if (parts.length != 3) {
+                    throw new IllegalArgumentException("Невалидная инвалидация: " + item);
+                }
+                result.add(new Touched(Long.parseLong(parts[0]),
+                        parts[1].isEmpty() ? null : Long.valueOf(parts[1]),
+                        parts[2].isEmpty() ? null : LocalDate.parse(parts[2])));
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.tcleaner.dashboard.service.stats;
+
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.ParameterNameDiscoverer;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+
+/**
+ * Ключ кешей {@link StatsQueryService} (keyGenerator {@code statsCacheKeys} из {@code CacheConfig}).
+ * В отличие от SpEL-строки ключ структурный: {@link StatsCacheInvalidator} по нему решает,
+ * задевает ли изменение события закешированный результат.
+ *
+ * <p>Поля берутся из аргументов метода: {@link StatsPeriod} — диапазон дней
+ * ({@code *WithDelta} читает и предыдущий период — диапазон расширяется на него),
+ * {@code botUserId} и {@code chatRefId} — по имени параметра (0/null — «все»), остальные
+ * аргументы — в {@code args}, только для различения ключей.
+ *
+ * <p>{@code reload} — повторный вызов метода на целевом бине в обход кеш-прокси: по нему
+ * Caffeine обновляет запись в фоне ({@code refreshAfterWrite}, см. {@code CacheConfig}).
+ * В равенство ключей не входит.
+ *
+ * @param from      первый день диапазона или {@code null} — метод не за период
+ * @param botUserId 0 — ADMIN-агрегат по всем пользователям
+ * @param chatRefId 0 — без фильтра по чату
+ * @param reload    пересчёт значения или {@code null} — ключ без цели (тесты, инвалидация)
+ */
+public record StatsCacheKey(String query, LocalDate from, LocalDate to, long botUserId, long chatRefId,
+                            List<Object> args, Callable<Object> reload) {
+
+    private static final ParameterNameDiscoverer NAMES = new DefaultParameterNameDiscoverer();
+
+    /** Ключ вызова {@code method} на {@code target} с пересчётом для фонового обновления. */
+    public static StatsCacheKey of(Object target, Method method, Object... params) {
+        Object[] copy = params.clone();
+        return of(method, copy).withReload(() -> {
+            try {
+                return method.invoke(target, copy);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause() instanceof Exception cause ? cause : ex;
+            }
+        });
+    }
+
+    public static StatsCacheKey of(Method method, Object... params) {
+        String[] names = NAMES.getParameterNames(method);
+        StatsPeriod period = null;
+        long botUserId = 0;
+        long chatRefId = 0;
+        List<Object> args = new ArrayList<>();
+        for (int i = 0; i < params.length; i++) {
+            Object param = params[i];
+            String name = names != null ? names[i] : "";
+            if (param instanceof StatsPeriod p) {
+                period = p;
+            } else if ("botUserId".equals(name)) {
+                botUserId = param instanceof Number n ? Math.max(0, n.longValue()) : 0;
+            } else if ("chatRefId".equals(name)) {
+                chatRefId = param instanceof Number n ? Math.max(0, n.longValue()) : 0;
+            } else {
+                args.add(param);
+            }
+        }
+        if (period == null) {
+            return new StatsCacheKey(method.getName(), null, null, botUserId, chatRefId, args, null);
+        }
+        LocalDate from = method.getName().endsWith("WithDelta") ? period.previous().from() : period.from();
+        args.add(period.granularity());
+        return new StatsCacheKey(method.getName(), from, period.to(), botUserId, chatRefId, args, null);
+    }
+
+    private StatsCacheKey withReload(Callable<Object> reload) {
+        return new StatsCacheKey(query, from, to, botUserId, chatRefId, args, reload);
+    }
+
+    /**
+     * Задевает ли изменение события пользователя {@code botUserId} в чате {@code chatRefId}
+     * (null — неизвестен) с днём старта {@code day} этот ключ. {@code day == null} — изменился
+     * только профиль пользователя ({@code bot_user.seen}): username/last_seen.
+     */
+    boolean affectedBy(long userId, Long chat, LocalDate day) {
+        if (botUserId != 0 && botUserId != userId) {
+            return false;
+        }
+        if (day == null) {
+            return "userDetail".equals(query);
+        }
+        if (from != null) {
+            return !day.isBefore(from) && !day.isAfter(to);
+        }
+        return chatRefId == 0 || chat == null || chatRefId == chat;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof StatsCacheKey k && botUserId == k.botUserId && chatRefId == k.chatRefId
+                && query.equals(k.query) && Objects.equals(from, k.from) && Objects.equals(to, k.to)
+                && args.equals(k.args);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(query, from, to, botUserId, chatRefId, args);
+    }
+
+    @Override
+    public String toString() {
+        return "StatsCacheKey[" + query + ", " + from + ".." + to + ", botUserId=" + botUserId
+                + ", chatRefId=" + chatRefId + ", args=" + args + "]";
+    }
+}
@@ -27,11 +27,11 @@ public record StatsPeriod(LocalDate from, LocalDate to, Granularity granularity)
         };
     }
 
-    /** ISO-строка начала для SQL-сравнения: "YYYY-MM-DD". */
-    public String fromSql() { return from.toString(); }
+    /** Первый день периода — ключ {@code day} rollup-таблиц: "YYYY-MM-DD". */
+    public String fromDay() { return from.toString(); }
 
-    /** ISO-строка конца для SQL-сравнения: "YYYY-MM-DDT23:59:59Z" (включительно). */
-    public String toSql() { return to.toString() + "T23:59:59Z"; }
+    /** Последний день периода (включительно) — ключ {@code day} rollup-таблиц: "YYYY-MM-DD". */
+    public String toDay() { return to.toString(); }
 
     /**
      * Все ожидаемые bucket-ключи в диапазоне [from, to] для текущей гранулярности.
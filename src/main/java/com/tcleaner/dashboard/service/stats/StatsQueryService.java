@@ -1,5 +1,6 @@
 package com.tcleaner.dashboard.service.stats;
 
+import com.tcleaner.dashboard.config.DashboardReadPool;
 import com.tcleaner.dashboard.domain.ExportStatus;
 import com.tcleaner.dashboard.dto.ChatStatsRow;
 import com.tcleaner.dashboard.dto.EventRowDto;
@@ -9,42 +10,93 @@ import com.tcleaner.dashboard.dto.UserDetailDto;
 import com.tcleaner.dashboard.dto.UserStatsRow;
 import com.tcleaner.dashboard.util.PaginationUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.Cacheable;
-import org.springframework.context.annotation.Lazy;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import static com.tcleaner.dashboard.config.CacheConfig.HISTORICAL;
 import static com.tcleaner.dashboard.config.CacheConfig.LIVE;
 import static com.tcleaner.dashboard.config.CacheConfig.PROFILE;
+import static com.tcleaner.dashboard.config.CacheConfig.STATS_KEYS;
 
 /**
  * Читающая сторона дашборда: агрегации через native SQL (SQLite + strftime-bucket'ы).
- * Все методы read-only. JdbcTemplate шарит spring.datasource с JPA, поэтому
- * @Transactional(readOnly=true) корректно открывает транзакцию через
- * JpaTransactionManager, а JdbcTemplate берёт connection из неё через
- * DataSourceUtils. ВАЖНО: sqlite-jdbc игнорирует Connection.setReadOnly() —
- * флаг служит интенцией для читателя и Hibernate FlushMode hint, но физически
- * write-statement через JdbcTemplate не блокируется. Не добавлять write-методы
- * в этот класс.
+ * Агрегаты за период читаются из дневных rollup-таблиц {@code stats_daily*} (их ведут
+ * триггеры на export_events, см. changelog 014-017): период всегда состоит из целых дней,
+ * так что запрос сканирует строки по дням, а не события. Сырые export_events читает
+ * только recentEvents. Все методы read-only.
+ *
+ * <p>Уникальные пользователи по дням не суммируются. Для периодов длиннее
+ * {@code dashboard.stats.users.exact-max-days} без USER-фильтра они считаются объединением
+ * дневных HyperLogLog-скетчей ({@link ActiveUserSketches}: все юзеры и по чатам), а ответ
+ * несёт относительную ошибку {@link HyperLogLog#RELATIVE_ERROR}; короткие периоды и
+ * USER-scope — точным {@code COUNT(DISTINCT)} по rollup-ам.
+ *
+ * <p>Запросы идут через {@link DashboardReadPool} — отдельный пул соединений, открытых
+ * SQLite в режиме read-only ({@code open_mode=1}): write-statement отсюда падает с
+ * {@code SQLITE_READONLY}, а тяжёлые чтения не занимают соединения основного пула.
+ * {@code @Transactional} класс не использует: он шёл бы через JpaTransactionManager и держал
+ * бы connection основного пула на всё время запроса. Одиночный statement в WAL видит последний
+ * закоммиченный снапшот; методы из нескольких statement-ов (overview, топ чатов) выполняются
+ * в {@link #inSnapshot} — read-only транзакции read-пула на одном соединении, иначе сводка и
+ * топы могли бы прочитать разные коммиты ingestion-а. Без read-пула (тесты на
+ * {@code :memory:}) — основной JdbcTemplate без транзакции. Не добавлять write-методы в этот класс.
+ *
+ * <p>Кешируемые методы — {@code sync = true}: одновременные промахи по ключу ждут один SQL.
+ * Фоновое обновление кеш вызывает на самом бине в обход прокси ({@link StatsCacheKey#reload()}),
+ * из потока пула {@code CacheConfig} — методы не должны зависеть от контекста запроса.
  */
 @Service
-@org.springframework.transaction.annotation.Transactional(readOnly = true)
 public class StatsQueryService {
 
+    // Размер топов в overview.
+    private static final int TOP_N = 10;
+    // Строк за один шаг JDBC-курсора при стриминге ленты событий.
+    private static final int STREAM_FETCH_SIZE = 500;
+    private static final int DEFAULT_EXACT_USERS_MAX_DAYS = 31;
+
     private final JdbcTemplate jdbc;
-    // Self-reference через Spring proxy — без этого nested вызовы (overview → topUsers)
-    // игнорируют @Cacheable advice и бьют SQL на каждый запрос. @Lazy ломает цикл бинов.
-    private final StatsQueryService self;
+    @Nullable
+    private final TransactionTemplate snapshot;
+    private final int exactUsersMaxDays;
+
+    public StatsQueryService(JdbcTemplate jdbc) {
+        this(jdbc, null, DEFAULT_EXACT_USERS_MAX_DAYS);
+    }
+
+    @Autowired
+    public StatsQueryService(
+            JdbcTemplate jdbc,
+            @Nullable DashboardReadPool readPool,
+            @Value("${dashboard.stats.users.exact-max-days:" + DEFAULT_EXACT_USERS_MAX_DAYS + "}")
+            int exactUsersMaxDays
+    ) {
+        this.jdbc = readPool != null ? readPool.jdbc() : jdbc;
+        this.snapshot = readPool != null ? readPool.snapshot() : null;
+        this.exactUsersMaxDays = exactUsersMaxDays;
+    }
 
-    public StatsQueryService(JdbcTemplate jdbc, @Lazy @Autowired StatsQueryService self) {
-        this.jdbc = jdbc;
-        this.self = self;
+    // Несколько statement-ов — один снапшот: транзакция read-пула держит одно соединение на весь read.
+    private <T> T inSnapshot(Supplier<T> read) {
+        return snapshot != null ? snapshot.execute(status -> read.get()) : read.get();
     }
 
     // Единая точка фильтрации: склеивает SQL-фрагмент bot_user_id и добавляет параметр,
@@ -53,65 +105,61 @@ public class StatsQueryService {
         return botUserId != null && botUserId > 0;
     }
 
-    @Cacheable(value = LIVE, key = "#period.toString() + '_' + #botUserId")
-    public OverviewDto overview(StatsPeriod period, Long botUserId) {
-        long[] totals = periodTotals(period, botUserId);
-        long users = activeUsers(period, botUserId);
+    // Аргументы rollup-запроса: "day >= ? AND day <= ?" + опционально bot_user_id.
+    private static Object[] dayArgs(StatsPeriod period, Long botUserId, Object... tail) {
+        return dayArgs(period.fromDay(), period.toDay(), botUserId, tail);
+    }
 
-        return new OverviewDto(
-                totals[0], totals[1], totals[2],
-                users,
-                self.topUsersByPeriod(period, 10, botUserId),
-                self.topChats(period, botUserId, 10),
-                self.statusBreakdown(period, botUserId),
-                null, null, null, null);
+    private static Object[] dayArgs(String fromDay, String toDay, Long botUserId, Object... tail) {
+        List<Object> args = new ArrayList<>(List.of(fromDay, toDay));
+        if (byUser(botUserId)) {
+            args.add(botUserId);
+        }
+        args.addAll(List.of(tail));
+        return args.toArray();
     }
 
-    /**
-     * Три агрегата (exports, messages, bytes) за период — без top/breakdown.
-     */
-    private long[] periodTotals(StatsPeriod period, Long botUserId) {
-        String from = period.fromSql();
-        String to = period.toSql();
-        String sql = "SELECT COUNT(*) AS exports, "
-                + "COALESCE(SUM(messages_count), 0) AS messages, "
-                + "COALESCE(SUM(bytes_count), 0) AS bytes "
-                + "FROM export_events WHERE started_at >= ? AND started_at <= ?"
-                + (byUser(botUserId) ? " AND bot_user_id = ?" : "");
-        Object[] args = byUser(botUserId)
-                ? new Object[]{from, to, botUserId}
-                : new Object[]{from, to};
-        Long[] result = jdbc.queryForObject(sql,
-                (rs, n) -> new Long[]{
-                        rs.getLong("exports"),
-                        rs.getLong("messages"),
-                        rs.getLong("bytes")},
-                args);
-        return result != null
-                ? new long[]{result[0], result[1], result[2]}
-                : new long[]{0, 0, 0};
+    // Уникальные юзеры периода — из HLL-скетчей: ADMIN-scope и период длиннее порога точного режима.
+    // У USER-scope их не больше одного — точный подсчёт по его строкам дёшев всегда.
+    private boolean sketched(StatsPeriod period, Long botUserId) {
+        return !byUser(botUserId) && ChronoUnit.DAYS.between(period.from(), period.to()) + 1 > exactUsersMaxDays;
+    }
+
+    @Cacheable(value = LIVE, keyGenerator = STATS_KEYS, sync = true)
+    public OverviewDto overview(StatsPeriod period, Long botUserId) {
+        return inSnapshot(() -> assembleOverview(period, botUserId, false));
     }
 
     /**
      * Overview + дельта vs предыдущий период той же длины.
      * Delta = ((current - prev) / prev) * 100. prev==0 → null.
      */
-    @Cacheable(value = LIVE, key = "'wd_' + #period.toString() + '_' + #botUserId")
+    @Cacheable(value = LIVE, keyGenerator = STATS_KEYS, sync = true)
     public OverviewDto overviewWithDelta(StatsPeriod period, Long botUserId) {
-        long[] current = periodTotals(period, botUserId);
-        long[] prev = periodTotals(period.previous(), botUserId);
-        long users = activeUsers(period, botUserId);
-        long usersPrev = activeUsers(period.previous(), botUserId);
+        return inSnapshot(() -> assembleOverview(period, botUserId, true));
+    }
+
+    /**
+     * Overview целиком за пять запросов вместо девяти (totals и users за каждый период
+     * отдельно, топы в два шага, breakdown): сводка обоих периодов ({@link #periodSummary}),
+     * топ юзеров и топ чатов с JOIN имён только для топа, уникальные юзеры чатов топа,
+     * breakdown; в режиме скетчей — плюс чтение дневных скетчей. Кешируется одной
+     * единицей — вложенных @Cacheable-вызовов нет, а ключ *WithDelta уже покрывает prev.
+     */
+    private OverviewDto assembleOverview(StatsPeriod period, Long botUserId, boolean withDelta) {
+        long[] summary = periodSummary(period, withDelta, botUserId);
+        boolean sketched = sketched(period, botUserId);
         return new OverviewDto(
-                current[0], current[1], current[2],
-                users,
-                self.topUsersByPeriod(period, 10, botUserId),
-                self.topChats(period, botUserId, 10),
-                self.statusBreakdown(period, botUserId),
-                computeDeltaPercent(current[0], prev[0]),
-                computeDeltaPercent(current[1], prev[1]),
-                computeDeltaPercent(current[2], prev[2]),
-                computeDeltaPercent(users, usersPrev));
+                summary[0], summary[1], summary[2],
+                summary[3],
+                scanTopUsers(period, botUserId, TOP_N),
+                scanTopChats(period, botUserId, TOP_N),
+                scanStatuses(period, botUserId),
+                withDelta ? computeDeltaPercent(summary[0], summary[4]) : null,
+                withDelta ? computeDeltaPercent(summary[1], summary[5]) : null,
+                withDelta ? computeDeltaPercent(summary[2], summary[6]) : null,
+                withDelta ? computeDeltaPercent(summary[3], summary[7]) : null,
+                sketched ? HyperLogLog.RELATIVE_ERROR : null);
     }
 
     private static Double computeDeltaPercent(long current, long previous) {
@@ -121,7 +169,78 @@ public class StatsQueryService {
         return ((double) (current - previous) / previous) * 100.0;
     }
 
-    @Cacheable(value = HISTORICAL, key = "#limit + '_' + #botUserId")
+    /**
+     * Exports/messages/bytes и активные юзеры текущего и (при {@code withPrevious})
+     * предыдущего периода одним запросом: один проход по [prev.from, to] с условной
+     * агрегацией ({@code day >= from} — текущий период, раньше — предыдущий).
+     * ADMIN — строки stats_daily, USER — stats_daily_user. Distinct-юзеры по дням не
+     * суммируются — это два скалярных подзапроса по stats_daily_user; без дельты
+     * диапазон prev пуст. Сводный COUNT(DISTINCT CASE ...) за оба периода медленнее
+     * двух подзапросов: SQLite строит для каждого временное B-дерево по всему диапазону.
+     * В режиме скетчей подзапросов нет — оба числа дают скетчи {@link #sketchUsers}.
+     *
+     * @return {exports, messages, bytes, users, prevExports, prevMessages, prevBytes, prevUsers}
+     */
+    private long[] periodSummary(StatsPeriod period, boolean withPrevious, Long botUserId) {
+        boolean sketched = sketched(period, botUserId);
+        String userFilter = byUser(botUserId) ? "AND bot_user_id = ? " : "";
+        String activeUsers = sketched ? "0" : "(SELECT COUNT(DISTINCT bot_user_id) FROM stats_daily_user "
+                + "WHERE day >= ? AND day %s ? AND exports > 0 " + userFilter + ")";
+        String sql = "SELECT "
+                + "COALESCE(SUM(CASE WHEN cur THEN exports END), 0) AS exports, "
+                + "COALESCE(SUM(CASE WHEN cur THEN messages END), 0) AS messages, "
+                + "COALESCE(SUM(CASE WHEN cur THEN bytes END), 0) AS bytes, "
+                + activeUsers.formatted("<=") + " AS users, "
+                + "COALESCE(SUM(CASE WHEN cur THEN 0 ELSE exports END), 0) AS prev_exports, "
+                + "COALESCE(SUM(CASE WHEN cur THEN 0 ELSE messages END), 0) AS prev_messages, "
+                + "COALESCE(SUM(CASE WHEN cur THEN 0 ELSE bytes END), 0) AS prev_bytes, "
+                + activeUsers.formatted("<") + " AS prev_users "
+                + "FROM (SELECT exports, messages, bytes, day >= ? AS cur "
+                + (byUser(botUserId) ? "FROM stats_daily_user " : "FROM stats_daily ")
+                + "WHERE day >= ? AND day <= ? " + userFilter + ")";
+        String prevFrom = withPrevious ? period.previous().fromDay() : period.fromDay();
+        List<Object> args = new ArrayList<>();
+        if (!sketched) {
+            args.addAll(List.of(dayArgs(period.fromDay(), period.toDay(), botUserId)));
+            args.addAll(List.of(dayArgs(prevFrom, period.fromDay(), botUserId)));
+        }
+        args.add(period.fromDay());
+        args.addAll(List.of(dayArgs(prevFrom, period.toDay(), botUserId)));
+        long[] result = jdbc.queryForObject(sql,
+                (rs, n) -> new long[]{
+                        rs.getLong("exports"), rs.getLong("messages"), rs.getLong("bytes"),
+                        rs.getLong("users"),
+                        rs.getLong("prev_exports"), rs.getLong("prev_messages"), rs.getLong("prev_bytes"),
+                        rs.getLong("prev_users")},
+                args.toArray());
+        if (result == null) {
+            result = new long[8];
+        }
+        if (sketched) {
+            long[] users = sketchUsers(prevFrom, period.fromDay(), period.toDay());
+            result[3] = users[0];
+            result[7] = users[1];
+        }
+        return result;
+    }
+
+    /**
+     * Уникальные юзеры {@code [from, to]} и {@code [prevFrom, from)} объединением дневных
+     * скетчей — один проход по {@code stats_daily_users_hll}.
+     *
+     * @return {users, prevUsers}
+     */
+    private long[] sketchUsers(String prevFrom, String from, String to) {
+        HyperLogLog current = new HyperLogLog();
+        HyperLogLog previous = new HyperLogLog();
+        jdbc.query("SELECT day >= ? AS cur, sketch FROM stats_daily_users_hll WHERE day >= ? AND day <= ?",
+                (RowCallbackHandler) rs -> (rs.getBoolean("cur") ? current : previous)
+                        .merge(HyperLogLog.fromBytes(rs.getBytes("sketch"))),
+                from, prevFrom, to);
+        return new long[]{current.estimate(), previous.estimate()};
+    }
+
+    @Cacheable(value = HISTORICAL, keyGenerator = STATS_KEYS, sync = true)
     public List<UserStatsRow> topUsers(int limit, Long botUserId) {
         String base = "SELECT bot_user_id, username, display_name, total_exports, "
                 + "total_messages, total_bytes, last_seen FROM bot_users ";
@@ -133,51 +252,27 @@ public class StatsQueryService {
                 userStatsMapper(), limit);
     }
 
-    @Cacheable(value = HISTORICAL, key = "#period.toString() + '_users_' + #limit + '_' + #botUserId")
+    @Cacheable(value = HISTORICAL, keyGenerator = STATS_KEYS, sync = true)
     public List<UserStatsRow> topUsersByPeriod(StatsPeriod period, int limit, Long botUserId) {
-        // Atomicity: оба jdbc.query() работают в одной транзакции (классовый @Transactional)
-        // → один connection через DataSourceUtils → один WAL snapshot SQLite. Без транзакции
-        // bot_users мог бы быть удалён между шагами → null username.
-        String from = period.fromSql();
-        String to = period.toSql();
-        // Step 1: aggregate-only query — no JOIN, fully covered by idx_events_overview_covering
-        String aggSql = "SELECT e.bot_user_id, "
-                + "COUNT(*) AS total_exports, "
-                + "COALESCE(SUM(e.messages_count), 0) AS total_messages, "
-                + "COALESCE(SUM(e.bytes_count), 0) AS total_bytes, "
-                + "MAX(e.started_at) AS last_seen "
-                + "FROM export_events e "
-                + "WHERE e.started_at >= ? AND e.started_at <= ? "
-                + (byUser(botUserId) ? "AND e.bot_user_id = ? " : "")
-                + "GROUP BY e.bot_user_id ORDER BY total_exports DESC LIMIT ?";
-        Object[] aggArgs = byUser(botUserId)
-                ? new Object[]{from, to, botUserId, PaginationUtils.clamp(limit, 500)}
-                : new Object[]{from, to, PaginationUtils.clamp(limit, 500)};
-
-        record AggRow(long userId, int exports, long messages, long bytes, String lastSeen) {}
-        List<AggRow> agg = jdbc.query(aggSql,
-                (rs, n) -> new AggRow(rs.getLong("bot_user_id"), rs.getInt("total_exports"),
-                        rs.getLong("total_messages"), rs.getLong("total_bytes"),
-                        rs.getString("last_seen")),
-                aggArgs);
-        if (agg.isEmpty()) return List.of();
-
-        // Step 2: batch lookup usernames by PK — O(1) per user vs JOIN on every event row
-        String placeholders = "?,".repeat(agg.size());
-        placeholders = placeholders.substring(0, placeholders.length() - 1);
-        Map<Long, String[]> userMeta = new java.util.HashMap<>();
-        jdbc.query("SELECT bot_user_id, username, display_name FROM bot_users WHERE bot_user_id IN (" + placeholders + ")",
-                (rs, n) -> {
-                    userMeta.put(rs.getLong("bot_user_id"),
-                            new String[]{rs.getString("username"), rs.getString("display_name")});
-                    return null;
-                },
-                agg.stream().map(AggRow::userId).toArray());
-
-        return agg.stream().map(r -> {
-            String[] meta = userMeta.getOrDefault(r.userId(), new String[]{null, null});
-            return new UserStatsRow(r.userId(), meta[0], meta[1], r.exports(), r.messages(), r.bytes(), r.lastSeen());
-        }).toList();
+        return scanTopUsers(period, botUserId, PaginationUtils.clamp(limit, 500));
+    }
+
+    // Grouped scan stats_daily_user с LIMIT во вложенном запросе — JOIN bot_users только
+    // для топа; общий для overview и /stats/users.
+    private List<UserStatsRow> scanTopUsers(StatsPeriod period, Long botUserId, int limit) {
+        String sql = "SELECT a.bot_user_id, u.username, u.display_name, a.total_exports, "
+                + "a.total_messages, a.total_bytes, a.last_seen FROM ("
+                + "SELECT bot_user_id, "
+                + "SUM(exports) AS total_exports, "
+                + "SUM(messages) AS total_messages, "
+                + "SUM(bytes) AS total_bytes, "
+                + "MAX(last_started_at) AS last_seen "
+                + "FROM stats_daily_user "
+                + "WHERE day >= ? AND day <= ? "
+                + (byUser(botUserId) ? "AND bot_user_id = ? " : "")
+                + "GROUP BY bot_user_id HAVING total_exports > 0 ORDER BY total_exports DESC LIMIT ?) a "
+                + "LEFT JOIN bot_users u ON u.bot_user_id = a.bot_user_id ORDER BY a.total_exports DESC";
+        return jdbc.query(sql, userStatsMapper(), dayArgs(period, botUserId, limit));
     }
 
     private static org.springframework.jdbc.core.RowMapper<UserStatsRow> userStatsMapper() {
@@ -188,60 +283,87 @@ public class StatsQueryService {
                 rs.getString("last_seen"));
     }
 
-    @Cacheable(value = HISTORICAL, key = "#period.toString() + '_' + #botUserId + '_' + #limit")
+    @Cacheable(value = HISTORICAL, keyGenerator = STATS_KEYS, sync = true)
     public List<ChatStatsRow> topChats(StatsPeriod period, Long botUserId, int limit) {
-        // Atomicity: см. topUsersByPeriod — split на 2 query безопасен внутри @Transactional.
-        String from = period.fromSql();
-        String to = period.toSql();
-        // Step 1: aggregate-only — covered by idx_events_topchats_covering, no JOIN
-        String aggSql = "SELECT e.chat_ref_id, "
-                + "COUNT(*) AS export_count, "
-                + "COALESCE(SUM(e.messages_count), 0) AS total_messages, "
-                + "COALESCE(SUM(e.bytes_count), 0) AS total_bytes "
-                + "FROM export_events e "
-                + "WHERE e.started_at >= ? AND e.started_at <= ? "
-                + (byUser(botUserId) ? "AND e.bot_user_id = ? " : "")
-                + "GROUP BY e.chat_ref_id ORDER BY total_bytes DESC LIMIT ?";
-        Object[] aggArgs = byUser(botUserId)
-                ? new Object[]{from, to, botUserId, limit}
-                : new Object[]{from, to, limit};
-
-        record AggRow(long chatRefId, long exports, long messages, long bytes) {}
-        List<AggRow> agg = jdbc.query(aggSql,
-                (rs, n) -> new AggRow(rs.getLong("chat_ref_id"), rs.getLong("export_count"),
-                        rs.getLong("total_messages"), rs.getLong("total_bytes")),
-                aggArgs);
-        if (agg.isEmpty()) return List.of();
-
-        // Step 2: batch lookup chat meta by PK
-        String placeholders = "?,".repeat(agg.size());
-        placeholders = placeholders.substring(0, placeholders.length() - 1);
-        Map<Long, String[]> chatMeta = new java.util.HashMap<>();
-        jdbc.query("SELECT id, canonical_chat_id, chat_title FROM chats WHERE id IN (" + placeholders + ")",
-                (rs, n) -> {
-                    chatMeta.put(rs.getLong("id"),
-                            new String[]{rs.getString("canonical_chat_id"), rs.getString("chat_title")});
-                    return null;
-                },
-                agg.stream().map(AggRow::chatRefId).toArray());
-
-        return agg.stream().map(r -> {
-            String[] meta = chatMeta.getOrDefault(r.chatRefId(), new String[]{null, null});
-            return new ChatStatsRow(r.chatRefId(), meta[0], meta[1], r.exports(), r.messages(), r.bytes());
-        }).toList();
-    }
-
-    @Cacheable(value = HISTORICAL, key = "#period.toString() + '_' + #botUserId")
+        return inSnapshot(() -> scanTopChats(period, botUserId, limit));
+    }
+
+    // Агрегат по stats_daily_chat с LIMIT во вложенном запросе — JOIN chats только для топа.
+    private List<ChatStatsRow> scanTopChats(StatsPeriod period, Long botUserId, int limit) {
+        String sql = "SELECT a.chat_ref_id, a.export_count, a.total_messages, a.total_bytes, "
+                + "c.canonical_chat_id, c.chat_title FROM ("
+                + "SELECT chat_ref_id, "
+                + "SUM(exports) AS export_count, "
+                + "SUM(messages) AS total_messages, "
+                + "SUM(bytes) AS total_bytes "
+                + "FROM stats_daily_chat "
+                + "WHERE day >= ? AND day <= ? "
+                + (byUser(botUserId) ? "AND bot_user_id = ? " : "")
+                + "GROUP BY chat_ref_id HAVING export_count > 0 ORDER BY total_bytes DESC LIMIT ?) a "
+                + "LEFT JOIN chats c ON c.id = a.chat_ref_id ORDER BY a.total_bytes DESC";
+        List<ChatStatsRow> rows = jdbc.query(sql,
+                (rs, n) -> new ChatStatsRow(rs.getLong("chat_ref_id"), rs.getString("canonical_chat_id"),
+                        rs.getString("chat_title"), rs.getLong("export_count"),
+                        rs.getLong("total_messages"), rs.getLong("total_bytes"), 0L, null),
+                dayArgs(period, botUserId, limit));
+        if (rows.isEmpty()) {
+            return rows;
+        }
+        boolean sketched = sketched(period, botUserId);
+        Map<Long, Long> users = sketched ? sketchChatUsers(period, rows) : exactChatUsers(period, botUserId, rows);
+        Double errorBound = sketched ? HyperLogLog.RELATIVE_ERROR : null;
+        return rows.stream()
+                .map(row -> new ChatStatsRow(row.chatRefId(), row.canonicalChatId(), row.chatTitle(),
+                        row.exportCount(), row.totalMessages(), row.totalBytes(),
+                        users.getOrDefault(row.chatRefId(), 0L), errorBound))
+                .toList();
+    }
+
+    // Уникальные юзеры только чатов топа: отдельный запрос дешевле COUNT(DISTINCT) в группировке всех чатов.
+    private Map<Long, Long> exactChatUsers(StatsPeriod period, Long botUserId, List<ChatStatsRow> top) {
+        String sql = "SELECT chat_ref_id, COUNT(DISTINCT bot_user_id) AS users FROM stats_daily_chat "
+                + "WHERE day >= ? AND day <= ? AND exports > 0 "
+                + (byUser(botUserId) ? "AND bot_user_id = ? " : "")
+                + "AND chat_ref_id IN (" + placeholders(top.size()) + ") GROUP BY chat_ref_id";
+        Map<Long, Long> users = new HashMap<>();
+        jdbc.query(sql, (RowCallbackHandler) rs -> users.put(rs.getLong("chat_ref_id"), rs.getLong("users")),
+                dayArgs(period, botUserId, top.stream().map(ChatStatsRow::chatRefId).toArray()));
+        return users;
+    }
+
+    // Объединение дневных скетчей чатов топа; PK (chat_ref_id, day) — range-скан дней на чат.
+    private Map<Long, Long> sketchChatUsers(StatsPeriod period, List<ChatStatsRow> top) {
+        List<Object> args = new ArrayList<>();
+        top.forEach(row -> args.add(row.chatRefId()));
+        args.add(period.fromDay());
+        args.add(period.toDay());
+        Map<Long, HyperLogLog> sketches = new HashMap<>();
+        jdbc.query("SELECT chat_ref_id, sketch FROM stats_daily_chat_users_hll "
+                        + "WHERE chat_ref_id IN (" + placeholders(top.size()) + ") AND day >= ? AND day <= ?",
+                (RowCallbackHandler) rs -> sketches.computeIfAbsent(rs.getLong("chat_ref_id"), c -> new HyperLogLog())
+                        .merge(HyperLogLog.fromBytes(rs.getBytes("sketch"))),
+                args.toArray());
+        Map<Long, Long> users = new HashMap<>();
+        sketches.forEach((chat, sketch) -> users.put(chat, sketch.estimate()));
+        return users;
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    @Cacheable(value = HISTORICAL, keyGenerator = STATS_KEYS, sync = true)
     public Map<String, Long> statusBreakdown(StatsPeriod period, Long botUserId) {
-        String from = period.fromSql();
-        String to = period.toSql();
-        String sql = "SELECT status, COUNT(*) AS cnt FROM export_events "
-                + "WHERE started_at >= ? AND started_at <= ? "
+        return scanStatuses(period, botUserId);
+    }
+
+    private Map<String, Long> scanStatuses(StatsPeriod period, Long botUserId) {
+        // exports = 0 — статус, из которого события ушли (QUEUED → COMPLETED): не показываем.
+        String sql = "SELECT status, SUM(exports) AS cnt FROM stats_daily_status "
+                + "WHERE day >= ? AND day <= ? "
                 + (byUser(botUserId) ? "AND bot_user_id = ? " : "")
-                + "GROUP BY status";
-        Object[] args = byUser(botUserId)
-                ? new Object[]{from, to, botUserId}
-                : new Object[]{from, to};
+                + "GROUP BY status HAVING cnt > 0";
+        Object[] args = dayArgs(period, botUserId);
         List<StatusBreakdownRow> rows = jdbc.query(sql,
                 (rs, n) -> new StatusBreakdownRow(rs.getString("status"), rs.getLong("cnt")),
                 args);
@@ -254,47 +376,107 @@ public class StatsQueryService {
 
     private record StatusBreakdownRow(String status, long count) {}
 
-    @Cacheable(value = HISTORICAL, key = "#period.toString() + '_' + #metric + '_' + #botUserId")
+    @Cacheable(value = HISTORICAL, keyGenerator = STATS_KEYS, sync = true)
     public List<TimeSeriesPointDto> timeSeries(StatsPeriod period, String metric, Long botUserId) {
         String fmt = period.strftimeFormat();
-        String from = period.fromSql();
-        String to = period.toSql();
         // aggregate и fmt — whitelist через switch/enum, не пользовательский ввод.
-        String aggregate = switch (metric == null ? "exports" : metric) {
-            case "messages" -> "COALESCE(SUM(messages_count), 0)";
-            case "bytes" -> "COALESCE(SUM(bytes_count), 0)";
-            case "users" -> "COUNT(DISTINCT bot_user_id)";
-            default -> "COUNT(*)";
+        String resolved = metric == null ? "exports" : metric;
+        String aggregate = switch (resolved) {
+            case "messages" -> "COALESCE(SUM(messages), 0)";
+            case "bytes" -> "COALESCE(SUM(bytes), 0)";
+            case "users" -> "COUNT(DISTINCT CASE WHEN exports > 0 THEN bot_user_id END)";
+            default -> "COALESCE(SUM(exports), 0)";
         };
-        String groupBucket = "strftime('" + fmt + "', started_at)";
+        if (resolved.equals("users") && sketched(period, botUserId)) {
+            return fill(period, sketchSeries(period));
+        }
+        // Уникальные юзеры и USER-фильтр — из stats_daily_user, иначе хватает stats_daily.
+        String table = byUser(botUserId) || resolved.equals("users") ? "stats_daily_user" : "stats_daily";
+        String groupBucket = "strftime('" + fmt + "', day)";
         String sql = "SELECT " + groupBucket + " AS period, " + aggregate + " AS value "
-                + "FROM export_events WHERE started_at >= ? AND started_at <= ? "
+                + "FROM " + table + " WHERE day >= ? AND day <= ? "
                 + (byUser(botUserId) ? "AND bot_user_id = ? " : "")
                 + "GROUP BY period ORDER BY period";
-        Object[] args = byUser(botUserId)
-                ? new Object[]{from, to, botUserId}
-                : new Object[]{from, to};
+        Object[] args = dayArgs(period, botUserId);
         List<TimeSeriesPointDto> raw = jdbc.query(sql,
                 (rs, n) -> new TimeSeriesPointDto(rs.getString("period"), rs.getLong("value")),
                 args);
+        return fill(period, raw);
+    }
 
-        Map<String, Long> filled = new LinkedHashMap<>();
-        period.allPeriodKeys().forEach(k -> filled.put(k, 0L));
-        raw.forEach(p -> filled.put(p.period(), p.value()));
-        return filled.entrySet().stream()
-                .map(e -> new TimeSeriesPointDto(e.getKey(), e.getValue()))
+    // Уникальные юзеры bucket-а — объединение скетчей его дней.
+    private List<TimeSeriesPointDto> sketchSeries(StatsPeriod period) {
+        Map<String, HyperLogLog> buckets = new LinkedHashMap<>();
+        jdbc.query("SELECT strftime('" + period.strftimeFormat() + "', day) AS period, sketch "
+                        + "FROM stats_daily_users_hll WHERE day >= ? AND day <= ?",
+                (RowCallbackHandler) rs -> buckets.computeIfAbsent(rs.getString("period"), k -> new HyperLogLog())
+                        .merge(HyperLogLog.fromBytes(rs.getBytes("sketch"))),
+                period.fromDay(), period.toDay());
+        return buckets.entrySet().stream()
+                .map(e -> new TimeSeriesPointDto(e.getKey(), e.getValue().estimate(), HyperLogLog.RELATIVE_ERROR))
                 .toList();
     }
 
+    // Все bucket-ы периода, пустые — нулём; errorBound оценённых точек сохраняется.
+    private static List<TimeSeriesPointDto> fill(StatsPeriod period, List<TimeSeriesPointDto> raw) {
+        Map<String, TimeSeriesPointDto> filled = new LinkedHashMap<>();
+        period.allPeriodKeys().forEach(k -> filled.put(k, new TimeSeriesPointDto(k, 0L)));
+        raw.forEach(p -> filled.put(p.period(), p));
+        return List.copyOf(filled.values());
+    }
+
     /**
      * Последние N событий с опциональными фильтрами. Чувствительно к RBAC —
      * контроллер обязан передать эффективный botUserId (0 = «все», только ADMIN).
      */
-    @Cacheable(value = LIVE, key = "#botUserId + '_' + #chatRefId + '_' + #status + '_' + #limit")
+    @Cacheable(value = LIVE, keyGenerator = STATS_KEYS, sync = true)
     public List<EventRowDto> recentEvents(Long botUserId, Long chatRefId,
                                           String status, int limit) {
+        EventsQuery query = eventsQuery(botUserId, chatRefId, status, null);
+        if (query == null) {
+            return java.util.List.of();
+        }
+        query.sql().append("ORDER BY e.started_at DESC, e.id DESC LIMIT ?");
+        query.args().add(Math.max(1, Math.min(limit, 500)));
+        return jdbc.query(query.sql().toString(), (rs, n) -> eventRow(rs), query.args().toArray());
+    }
+
+    /**
+     * Страница ленты событий после {@code after} (null — с начала), новые первыми, строки
+     * уходят в {@code sink} по мере чтения из JDBC-курсора — в памяти не копятся и в кеш
+     * не попадают. Keyset по {@code (started_at, id)}: row-value сравнение SQLite отдаёт
+     * range по индексу с leading started_at (idx_events_user_started/chat_started при
+     * фильтре), так что глубокая страница стоит как первая. RBAC — как у recentEvents.
+     *
+     * @return позиция для следующей страницы или {@code null}, если страница неполная
+     */
+    public EventCursor streamEvents(Long botUserId, Long chatRefId, String status,
+                                    EventCursor after, int limit, Consumer<EventRowDto> sink) {
+        EventsQuery query = eventsQuery(botUserId, chatRefId, status, after);
+        if (query == null) {
+            return null;
+        }
+        query.sql().append("ORDER BY e.started_at DESC, e.id DESC LIMIT ?");
+        query.args().add(limit);
+        EventCursor[] last = {null};
+        int[] count = {0};
+        jdbc.query(con -> {
+            PreparedStatement ps = con.prepareStatement(query.sql().toString());
+            ps.setFetchSize(STREAM_FETCH_SIZE);
+            new ArgumentPreparedStatementSetter(query.args().toArray()).setValues(ps);
+            return ps;
+        }, (RowCallbackHandler) rs -> {
+            sink.accept(eventRow(rs));
+            last[0] = new EventCursor(rs.getString("started_at"), rs.getLong("id"));
+            count[0]++;
+        });
+        return count[0] == limit ? last[0] : null;
+    }
+
+    // SQL ленты событий до ORDER BY; null — невалидный status (пустой результат, не 400).
+    private static EventsQuery eventsQuery(Long botUserId, Long chatRefId, String status, EventCursor after) {
         StringBuilder sql = new StringBuilder(
-                "SELECT e.task_id, e.bot_user_id, u.username, u.display_name, "
+                "SELECT e.id, e.task_id, e.bot_user_id, u.username, u.display_name, "
                 + "c.chat_title, c.canonical_chat_id, "
                 + "e.started_at, e.finished_at, e.status, "
                 + "e.messages_count, e.bytes_count, e.source, e.error_message "
@@ -317,35 +499,31 @@ public class StatsQueryService {
                 sql.append("AND e.status = ? ");
                 args.add(normalized.name());
             } catch (IllegalArgumentException ex) {
-                return java.util.List.of();
+                return null;
             }
         }
-        sql.append("ORDER BY e.started_at DESC LIMIT ?");
-        args.add(Math.max(1, Math.min(limit, 500)));
-
-        return jdbc.query(sql.toString(),
-                (rs, n) -> new EventRowDto(
-                        rs.getString("task_id"), rs.getLong("bot_user_id"),
-                        rs.getString("username"), rs.getString("display_name"),
-                        rs.getString("chat_title"),
-                        rs.getString("canonical_chat_id"),
-                        toIso(rs.getString("started_at")), toIso(rs.getString("finished_at")),
-                        rs.getString("status"),
-                        nullableLong(rs.getObject("messages_count")),
-                        nullableLong(rs.getObject("bytes_count")),
-                        rs.getString("source"), rs.getString("error_message")),
-                args.toArray());
+        if (after != null) {
+            // Row value, а не "a < ? OR (a = ? AND id < ?)": OR SQLite не превращает в range.
+            sql.append("AND (e.started_at, e.id) < (?, ?) ");
+            args.add(after.startedAt());
+            args.add(after.id());
+        }
+        return new EventsQuery(sql, args);
     }
 
-    private long activeUsers(StatsPeriod period, Long botUserId) {
-        String sql = "SELECT COUNT(DISTINCT bot_user_id) FROM export_events "
-                + "WHERE started_at >= ? AND started_at <= ?"
-                + (byUser(botUserId) ? " AND bot_user_id = ?" : "");
-        Object[] args = byUser(botUserId)
-                ? new Object[]{period.fromSql(), period.toSql(), botUserId}
-                : new Object[]{period.fromSql(), period.toSql()};
-        Long result = jdbc.queryForObject(sql, Long.class, args);
-        return result != null ? result : 0L;
+    private record EventsQuery(StringBuilder sql, List<Object> args) {}
+
+    private static EventRowDto eventRow(ResultSet rs) throws SQLException {
+        return new EventRowDto(
+                rs.getString("task_id"), rs.getLong("bot_user_id"),
+                rs.getString("username"), rs.getString("display_name"),
+                rs.getString("chat_title"),
+                rs.getString("canonical_chat_id"),
+                toIso(rs.getString("started_at")), toIso(rs.getString("finished_at")),
+                rs.getString("status"),
+                nullableLong(rs.getObject("messages_count")),
+                nullableLong(rs.getObject("bytes_count")),
+                rs.getString("source"), rs.getString("error_message"));
     }
 
     private static Long nullableLong(Object o) {
@@ -361,7 +539,7 @@ public class StatsQueryService {
         return sqlite.replace(' ', 'T') + "Z";
     }
 
-    @Cacheable(value = PROFILE, key = "#botUserId")
+    @Cacheable(value = PROFILE, keyGenerator = STATS_KEYS, sync = true)
     public UserDetailDto userDetail(long botUserId) {
         return jdbc.queryForObject(
                 "SELECT bot_user_id, username, display_name, total_exports, "
@@ -0,0 +1,134 @@
+package com.tcleaner.dashboard.service.stats;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static com.tcleaner.dashboard.config.CacheConfig.HISTORICAL;
+import static com.tcleaner.dashboard.config.CacheConfig.LIVE;
+
+/**
+ * Пересборка дневных rollup-таблиц ({@code stats_daily*}) из {@code export_events}.
+ * В штатном режиме rollup-ы ведут триггеры на {@code export_events} (changesets 015-017)
+ * в транзакции самой записи; {@link #rebuild} нужен для backfill и ремонта: после ручной
+ * правки/удаления событий, restore из backup или изменения правил агрегации.
+ *
+ * <p>Дни {@code [from, to]} удаляются и вставляются заново одной транзакцией — читатели
+ * (WAL snapshot) видят либо старые, либо новые rollup-ы. Триггеры не мешают: пересборка
+ * пишет только в rollup-таблицы. Дневные HLL-скетчи активных пользователей
+ * ({@link ActiveUserSketches}) пересобираются в той же транзакции; дни без скетчей (база до
+ * changeset 019) заполняет {@link #backfillSketches} на старте.
+ */
+@Service
+public class StatsRollupService {
+
+    private static final Logger log = LoggerFactory.getLogger(StatsRollupService.class);
+
+    private static final List<String> TABLES =
+            List.of("stats_daily", "stats_daily_user", "stats_daily_chat", "stats_daily_status");
+
+    // substr(started_at, 1, 10) — UTC-день старта, тот же ключ, что у триггеров.
+    private static final String DAY = "substr(started_at, 1, 10)";
+    private static final String RANGE = " FROM export_events WHERE started_at >= ? AND started_at < ? ";
+    // Backfill скетчей — транзакцией на столько дней: writer не занят одной долгой транзакцией.
+    private static final int BACKFILL_CHUNK_DAYS = 31;
+
+    private final JdbcTemplate jdbc;
+    private final CacheManager cacheManager;
+    private final ActiveUserSketches sketches;
+
+    public StatsRollupService(JdbcTemplate jdbc, CacheManager cacheManager, ActiveUserSketches sketches) {
+        this.jdbc = jdbc;
+        this.cacheManager = cacheManager;
+        this.sketches = sketches;
+    }
+
+    /**
+     * Пересобирает rollup-ы за дни {@code [from, to]} включительно.
+     *
+     * @return число событий, попавших в пересобранные дни
+     */
+    @Transactional
+    public Rebuild rebuild(LocalDate from, LocalDate to) {
+        if (from.isAfter(to)) {
+            throw new IllegalArgumentException("from позже to: " + from + " > " + to);
+        }
+        String fromDay = from.toString();
+        String toDay = to.toString();
+        // Граница — начало следующего дня: started_at хранится как "YYYY-MM-DD HH:MM:SS.sss".
+        String toExclusive = to.plusDays(1).toString();
+
+        for (String table : TABLES) {
+            jdbc.update("DELETE FROM " + table + " WHERE day >= ? AND day <= ?", fromDay, toDay);
+        }
+        int days = jdbc.update("INSERT INTO stats_daily (day, exports, messages, bytes) "
+                + "SELECT " + DAY + ", COUNT(*), COALESCE(SUM(messages_count), 0), COALESCE(SUM(bytes_count), 0)"
+                + RANGE + "GROUP BY " + DAY, fromDay, toExclusive);
+        jdbc.update("INSERT INTO stats_daily_user (day, bot_user_id, exports, messages, bytes, last_started_at) "
+                + "SELECT " + DAY + ", bot_user_id, COUNT(*), COALESCE(SUM(messages_count), 0), "
+                + "COALESCE(SUM(bytes_count), 0), MAX(started_at)"
+                + RANGE + "GROUP BY " + DAY + ", bot_user_id", fromDay, toExclusive);
+        jdbc.update("INSERT INTO stats_daily_chat (day, chat_ref_id, bot_user_id, exports, messages, bytes) "
+                + "SELECT " + DAY + ", chat_ref_id, bot_user_id, COUNT(*), COALESCE(SUM(messages_count), 0), "
+                + "COALESCE(SUM(bytes_count), 0)"
+                + RANGE + "GROUP BY " + DAY + ", chat_ref_id, bot_user_id", fromDay, toExclusive);
+        jdbc.update("INSERT INTO stats_daily_status (day, status, bot_user_id, exports) "
+                + "SELECT " + DAY + ", status, bot_user_id, COUNT(*)"
+                + RANGE + "GROUP BY " + DAY + ", status, bot_user_id", fromDay, toExclusive);
+        sketches.rebuild(from, to);
+        Long events = jdbc.queryForObject(
+                "SELECT COALESCE(SUM(exports), 0) FROM stats_daily WHERE day >= ? AND day <= ?",
+                Long.class, fromDay, toDay);
+
+        // Закешированные агрегаты посчитаны по старым rollup-ам.
+        clearCaches();
+        log.info("Rollup-ы пересобраны за {}..{}: {} дней, {} событий", fromDay, toDay, days, events);
+        return new Rebuild(from, to, days, events != null ? events : 0L);
+    }
+
+    /**
+     * Заполняет HLL-скетчи дней, у которых есть rollup, но нет скетча: первый старт после
+     * changeset 019. Дальше скетчи ведёт ingestion, и дней без них нет — запрос пустой.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillSketches() {
+        List<String> missing = sketches.missingDays();
+        if (missing.isEmpty()) {
+            return;
+        }
+        LocalDate first = LocalDate.parse(missing.get(0));
+        LocalDate last = LocalDate.parse(missing.get(missing.size() - 1));
+        int days = 0;
+        for (LocalDate from = first; !from.isAfter(last); from = from.plusDays(BACKFILL_CHUNK_DAYS)) {
+            LocalDate to = from.plusDays(BACKFILL_CHUNK_DAYS - 1);
+            days += sketches.rebuild(from, to.isAfter(last) ? last : to);
+        }
+        clearCaches();
+        log.info("HLL-скетчи активных пользователей заполнены за {}..{}: {} дней", first, last, days);
+    }
+
+    private void clearCaches() {
+        for (String name : List.of(LIVE, HISTORICAL)) {
+            Cache cache = cacheManager.getCache(name);
+            if (cache != null) {
+                cache.clear();
+            }
+        }
+    }
+
+    /**
+     * @param days дней с событиями в диапазоне
+     * @param events событий в пересобранных днях
+     */
+    public record Rebuild(LocalDate from, LocalDate to, int days, long events) {
+    }
+}
@@ -7,6 +7,8 @@ import com.tcleaner.core.BotLanguage;
 import com.tcleaner.dashboard.domain.ChatSubscription;
 import com.tcleaner.dashboard.repository.ChatSubscriptionRepository;
 import com.tcleaner.dashboard.service.ingestion.BotUserUpserter;
+import com.tcleaner.dashboard.service.scheduling.SchedulerLease;
+import com.tcleaner.dashboard.service.scheduling.SchedulerLeaseService;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
@@ -39,6 +41,10 @@ import java.util.UUID;
  *
  * <p>Ошибка при обработке одной подписки не прерывает обработку остальных —
  * исключение логируется и итерация продолжается.
+ *
+ * <p>При нескольких инстансах проход выполняет только узел, захвативший lease
+ * {@link #JOB} ({@link SchedulerLeaseService}); потеря lease останавливает проход
+ * до следующей отправки.
  */
 @Service
 @ConditionalOnExpression("'${telegram.bot.token:}' != ''")
@@ -48,6 +54,7 @@ public class ConfirmationScheduler {
 
     private static final Duration CONFIRM_THRESHOLD = Duration.ofDays(7);
     private static final Duration ARCHIVE_THRESHOLD = Duration.ofHours(48);
+    static final String JOB = "confirmation";
 
     private final ChatSubscriptionRepository repository;
     private final SubscriptionService subscriptionService;
@@ -57,6 +64,7 @@ public class ConfirmationScheduler {
     private final BotUserUpserter userUpserter;
     private final Counter cyclesCounter;
     private final Counter errorsCounter;
+    private final SchedulerLeaseService leases;
 
     public ConfirmationScheduler(ChatSubscriptionRepository repository,
                                  SubscriptionService subscriptionService,
@@ -64,7 +72,9 @@ public class ConfirmationScheduler {
                                  BotI18n i18n,
                                  BotKeyboards keyboards,
                                  BotUserUpserter userUpserter,
-                                 MeterRegistry meterRegistry) {
+                                 MeterRegistry meterRegistry,
+                                 SchedulerLeaseService leases) {
+        this.leases = leases;
         this.repository = repository;
         this.subscriptionService = subscriptionService;
         this.messenger = messenger;
@@ -82,22 +92,34 @@ public class ConfirmationScheduler {
      */
     @Scheduled(cron = "${subscription.confirmation.cron:0 0 7 * * *}")
     public void tick() {
+        leases.runExclusive(JOB, this::runCycle);
+    }
+
+    void runCycle(SchedulerLease lease) {
         MDC.put("cycle_id", UUID.randomUUID().toString());
         MDC.put("scheduler", "confirmation");
+        if (lease != null) {
+            MDC.put("fencing_token", String.valueOf(lease.fencingToken()));
+        }
         cyclesCounter.increment();
         try {
             Instant now = Instant.now();
-            sendConfirmationPrompts(now);
-            archiveUnconfirmed(now);
+            sendConfirmationPrompts(now, lease);
+            archiveUnconfirmed(now, lease);
         } catch (Exception e) {
             errorsCounter.increment();
             log.error("Critical error in ConfirmationScheduler: {}", e.getMessage(), e);
         } finally {
             MDC.remove("cycle_id");
             MDC.remove("scheduler");
+            MDC.remove("fencing_token");
         }
     }
 
+    void sendConfirmationPrompts(Instant now) {
+        sendConfirmationPrompts(now, null);
+    }
+
     /**
      * Первый проход: отправляет confirmation-запрос для подписок,
      * у которых {@code lastConfirmAt} старше 7 дней и запрос ещё не отправлялся.
@@ -109,11 +131,15 @@ public class ConfirmationScheduler {
      *   <li>Вызывает {@link SubscriptionService#markConfirmSent(long)}.</li>
      * </ol>
      *
-     * @param now текущий момент времени (передаётся из {@link #tick()})
+     * @param now   текущий момент времени (передаётся из {@link #tick()})
+     * @param lease lease запуска; {@code null} — без координации между узлами
      */
-    void sendConfirmationPrompts(Instant now) {
+    void sendConfirmationPrompts(Instant now, SchedulerLease lease) {
         List<ChatSubscription> due = repository.findDueForConfirmation(now.minus(CONFIRM_THRESHOLD));
         for (ChatSubscription sub : due) {
+            if (lost(lease)) {
+                return;
+            }
             // markConfirmSent вызываем ДО отправки: если пользователь заблокировал бота,
             // мы всё равно выходим из due-списка и через 48 часов подписка архивируется
             // естественным timeout'ом. Без этого подписка висела бы в выборке вечно.
@@ -137,6 +163,10 @@ public class ConfirmationScheduler {
         }
     }
 
+    void archiveUnconfirmed(Instant now) {
+        archiveUnconfirmed(now, null);
+    }
+
     /**
      * Второй проход: архивирует подписки, в которых пользователь не ответил
      * на запрос подтверждения в течение 48 часов.
@@ -148,11 +178,15 @@ public class ConfirmationScheduler {
      *   <li>Отправляет уведомление об архивировании через {@link BotMessenger#trySend}.</li>
      * </ol>
      *
-     * @param now текущий момент времени (передаётся из {@link #tick()})
+     * @param now   текущий момент времени (передаётся из {@link #tick()})
+     * @param lease lease запуска; {@code null} — без координации между узлами
      */
-    void archiveUnconfirmed(Instant now) {
+    void archiveUnconfirmed(Instant now, SchedulerLease lease) {
         List<ChatSubscription> due = repository.findDueForArchive(now.minus(ARCHIVE_THRESHOLD));
         for (ChatSubscription sub : due) {
+            if (lost(lease)) {
+                return;
+            }
             try {
                 subscriptionService.archive(sub.getId());
                 BotLanguage lang = resolveLang(sub.getBotUserId());
@@ -165,6 +199,15 @@ public class ConfirmationScheduler {
         }
     }
 
+    // Lease мог перейти к другому узлу — он повторит проход; продолжать значит слать дубли.
+    private boolean lost(SchedulerLease lease) {
+        if (lease == null || lease.isHeld()) {
+            return false;
+        }
+        log.warn("Lease {} lost (token {}) — pass stopped", JOB, lease.fencingToken());
+        return true;
+    }
+
     private BotLanguage resolveLang(long botUserId) {
         return userUpserter.resolveLanguage(botUserId);
     }
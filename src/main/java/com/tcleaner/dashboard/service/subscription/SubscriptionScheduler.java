@@ -5,6 +5,8 @@ import com.tcleaner.dashboard.domain.Chat;
 import com.tcleaner.dashboard.domain.ChatSubscription;
 import com.tcleaner.dashboard.repository.ChatRepository;
 import com.tcleaner.dashboard.repository.ChatSubscriptionRepository;
+import com.tcleaner.dashboard.service.scheduling.SchedulerLease;
+import com.tcleaner.dashboard.service.scheduling.SchedulerLeaseService;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
@@ -35,6 +37,7 @@ public class SubscriptionScheduler {
 
     private static final Duration PREWINDOW = Duration.ofMinutes(30);
     private static final DateTimeFormatter HHMM = DateTimeFormatter.ofPattern("HH:mm");
+    static final String JOB = "subscription";
 
     private final ChatSubscriptionRepository repository;
     private final SubscriptionService subscriptionService;
@@ -42,12 +45,15 @@ public class SubscriptionScheduler {
     private final ChatRepository chatRepository;
     private final Counter cyclesCounter;
     private final Counter errorsCounter;
+    private final SchedulerLeaseService leases;
 
     public SubscriptionScheduler(ChatSubscriptionRepository repository,
                                   SubscriptionService subscriptionService,
                                   ExportJobProducer jobProducer,
                                   ChatRepository chatRepository,
-                                  MeterRegistry meterRegistry) {
+                                  MeterRegistry meterRegistry,
+                                  SchedulerLeaseService leases) {
+        this.leases = leases;
         this.repository = repository;
         this.subscriptionService = subscriptionService;
         this.jobProducer = jobProducer;
@@ -56,11 +62,22 @@ public class SubscriptionScheduler {
         this.errorsCounter = Counter.builder("subscription.scheduler.errors").register(meterRegistry);
     }
 
+    /**
+     * Cron срабатывает на каждом инстансе; цикл выполняет только захвативший lease
+     * {@link #JOB} — иначе подписки ставились бы в очередь по разу на узел.
+     */
     @Scheduled(cron = "${subscription.scheduler.cron:0 */5 * * * *}")
     public void runDueSubscriptions() {
+        leases.runExclusive(JOB, this::runCycle);
+    }
+
+    void runCycle(SchedulerLease lease) {
         String cycleId = UUID.randomUUID().toString();
         MDC.put("cycle_id", cycleId);
         MDC.put("scheduler", "subscription");
+        if (lease != null) {
+            MDC.put("fencing_token", String.valueOf(lease.fencingToken()));
+        }
         cyclesCounter.increment();
         try {
             if (jobProducer.hasActiveProcessingJob() || jobProducer.getQueueLength() > 0) {
@@ -89,6 +106,10 @@ public class SubscriptionScheduler {
             }
 
             for (ChatSubscription sub : candidates) {
+                if (lease != null && !lease.isHeld()) {
+                    log.warn("Lease {} lost (token {}) — cycle stopped", JOB, lease.fencingToken());
+                    return;
+                }
                 processCandidate(sub, chatsById.get(sub.getChatRefId()), now);
             }
         } catch (Exception e) {
@@ -97,6 +118,7 @@ public class SubscriptionScheduler {
         } finally {
             MDC.remove("cycle_id");
             MDC.remove("scheduler");
+            MDC.remove("fencing_token");
         }
     }
 
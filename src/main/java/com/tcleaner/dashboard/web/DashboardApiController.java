@@ -2,20 +2,17 @@ package com.tcleaner.dashboard.web;
 
 import com.tcleaner.dashboard.auth.DashboardUserDetails;
 import com.tcleaner.dashboard.dto.CacheMetricsDto;
-import com.tcleaner.dashboard.dto.ChatStatsRow;
-import com.tcleaner.dashboard.dto.EventRowDto;
 import com.tcleaner.dashboard.dto.MeDto;
-import com.tcleaner.dashboard.dto.OverviewDto;
-import com.tcleaner.dashboard.dto.TimeSeriesPointDto;
-import com.tcleaner.dashboard.dto.UserDetailDto;
-import com.tcleaner.dashboard.dto.UserStatsRow;
+import com.tcleaner.dashboard.dto.QueueEtaDto;
 import com.tcleaner.dashboard.security.BotUserAccessPolicy;
 import com.tcleaner.dashboard.service.cache.CacheMetricsService;
+import com.tcleaner.dashboard.service.queue.QueueEtaService;
 import com.tcleaner.dashboard.service.stats.PeriodResolver;
 import com.tcleaner.dashboard.service.stats.StatsPeriod;
 import com.tcleaner.dashboard.service.stats.StatsQueryService;
 import com.tcleaner.dashboard.util.PaginationUtils;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -23,16 +20,19 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
 
 import java.time.LocalDate;
-import java.util.List;
-import java.util.Map;
 
 /**
  * JSON API дашборда: {@code /dashboard/api/me} + {@code /dashboard/api/stats/**}.
  * RBAC централизован через {@link BotUserAccessPolicy} — ADMIN видит всех,
  * USER — только свой {@code botUserId}. Требует аутентификации (контроль — в
  * {@code DashboardSecurityConfig}); {@code /stats/users} дополнительно ADMIN-only.
+ *
+ * <p>Ответы {@code /stats/**} на результатах {@link StatsQueryService} отдаются готовыми
+ * байтами с ETag ({@link JsonResponseCache}): повтор того же DTO не сериализуется заново,
+ * а {@code If-None-Match} с тем же ETag получает 304.
  */
 @RestController
 @RequestMapping("/dashboard/api")
@@ -42,15 +42,21 @@ public class DashboardApiController {
     private final PeriodResolver periodResolver;
     private final BotUserAccessPolicy accessPolicy;
     private final CacheMetricsService cacheMetricsService;
+    private final QueueEtaService queueEtaService;
+    private final JsonResponseCache responses;
 
     public DashboardApiController(StatsQueryService statsQueryService,
                                   PeriodResolver periodResolver,
                                   BotUserAccessPolicy accessPolicy,
-                                  CacheMetricsService cacheMetricsService) {
+                                  CacheMetricsService cacheMetricsService,
+                                  QueueEtaService queueEtaService,
+                                  JsonResponseCache responses) {
         this.statsQueryService = statsQueryService;
         this.periodResolver = periodResolver;
         this.accessPolicy = accessPolicy;
         this.cacheMetricsService = cacheMetricsService;
+        this.queueEtaService = queueEtaService;
+        this.responses = responses;
     }
 
     @GetMapping("/admin/cache-metrics")
@@ -58,6 +64,12 @@ public class DashboardApiController {
         return cacheMetricsService.get();
     }
 
+    // Глобальная очередь без персональных данных — доступна любому авторизованному.
+    @GetMapping("/stats/queue-eta")
+    public QueueEtaDto queueEta() {
+        return queueEtaService.get();
+    }
+
     @GetMapping("/me")
     public MeDto me(@AuthenticationPrincipal DashboardUserDetails principal) {
         return new MeDto(
@@ -67,57 +79,65 @@ public class DashboardApiController {
     }
 
     @GetMapping("/stats/overview")
-    public OverviewDto overview(
+    public ResponseEntity<byte[]> overview(
             @AuthenticationPrincipal DashboardUserDetails principal,
+            ServletWebRequest request,
             @RequestParam(required = false) String period,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
             @RequestParam(required = false) Long userId) {
         Scope s = scope(principal, period, from, to, userId);
-        return statsQueryService.overviewWithDelta(s.period(), s.botUserId());
+        return responses.respond(statsQueryService.overviewWithDelta(s.period(), s.botUserId()), request);
     }
 
     @GetMapping("/stats/users")
-    public List<UserStatsRow> users(
+    public ResponseEntity<byte[]> users(
             @AuthenticationPrincipal DashboardUserDetails principal,
+            ServletWebRequest request,
             @RequestParam(required = false) String period,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
             @RequestParam(defaultValue = "200") int limit) {
         Scope s = scope(principal, period, from, to, null);
         if (period != null && !"all".equalsIgnoreCase(period)) {
-            return statsQueryService.topUsersByPeriod(s.period(), PaginationUtils.clamp(limit, 500), s.botUserId());
+            return responses.respond(
+                    statsQueryService.topUsersByPeriod(s.period(), PaginationUtils.clamp(limit, 500), s.botUserId()),
+                    request);
         }
-        return statsQueryService.topUsers(PaginationUtils.clamp(limit, 500), s.botUserId());
+        return responses.respond(statsQueryService.topUsers(PaginationUtils.clamp(limit, 500), s.botUserId()), request);
     }
 
     @GetMapping("/stats/user/{botUserId}")
-    public UserDetailDto userDetail(
+    public ResponseEntity<byte[]> userDetail(
             @AuthenticationPrincipal DashboardUserDetails principal,
+            ServletWebRequest request,
             @PathVariable long botUserId) {
         if (!accessPolicy.canSeeUser(
                 principal.getDashboardRole(), principal.getBotUserId(), botUserId)) {
             throw new AccessDeniedException(
                     "Доступ запрещён: нельзя просматривать данные другого пользователя");
         }
-        return statsQueryService.userDetail(botUserId);
+        return responses.respond(statsQueryService.userDetail(botUserId), request);
     }
 
     @GetMapping("/stats/chats")
-    public List<ChatStatsRow> chats(
+    public ResponseEntity<byte[]> chats(
             @AuthenticationPrincipal DashboardUserDetails principal,
+            ServletWebRequest request,
             @RequestParam(required = false) String period,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
             @RequestParam(required = false) Long userId,
             @RequestParam(defaultValue = "20") int limit) {
         Scope s = scope(principal, period, from, to, userId);
-        return statsQueryService.topChats(s.period(), s.botUserId(), PaginationUtils.clamp(limit, 200));
+        return responses.respond(
+                statsQueryService.topChats(s.period(), s.botUserId(), PaginationUtils.clamp(limit, 200)), request);
     }
 
     @GetMapping("/stats/timeseries")
-    public List<TimeSeriesPointDto> timeSeries(
+    public ResponseEntity<byte[]> timeSeries(
             @AuthenticationPrincipal DashboardUserDetails principal,
+            ServletWebRequest request,
             @RequestParam(required = false) String period,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
@@ -126,31 +146,34 @@ public class DashboardApiController {
             @RequestParam(required = false) String granularity) {
         Scope s = scope(principal, period, from, to, userId);
         StatsPeriod resolved = overrideGranularity(s.period(), granularity);
-        return statsQueryService.timeSeries(resolved, metric, s.botUserId());
+        return responses.respond(statsQueryService.timeSeries(resolved, metric, s.botUserId()), request);
     }
 
     @GetMapping("/stats/status-breakdown")
-    public Map<String, Long> statusBreakdown(
+    public ResponseEntity<byte[]> statusBreakdown(
             @AuthenticationPrincipal DashboardUserDetails principal,
+            ServletWebRequest request,
             @RequestParam(required = false) String period,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
             @RequestParam(required = false) Long userId) {
         Scope s = scope(principal, period, from, to, userId);
-        return statsQueryService.statusBreakdown(s.period(), s.botUserId());
+        return responses.respond(statsQueryService.statusBreakdown(s.period(), s.botUserId()), request);
     }
 
     // /stats/events переименован в /stats/recent: EasyPrivacy/uBlock блокирует
     // паттерн "stats/events" как tracking endpoint — запрос не доходил до сервера.
     @GetMapping("/stats/recent")
-    public List<EventRowDto> events(
+    public ResponseEntity<byte[]> events(
             @AuthenticationPrincipal DashboardUserDetails principal,
+            ServletWebRequest request,
             @RequestParam(required = false) Long userId,
             @RequestParam(required = false) Long chatId,
             @RequestParam(required = false) String status,
             @RequestParam(defaultValue = "100") int limit) {
         Long effective = effectiveUserId(principal, userId);
-        return statsQueryService.recentEvents(effective, chatId, status, PaginationUtils.clamp(limit, 500));
+        return responses.respond(
+                statsQueryService.recentEvents(effective, chatId, status, PaginationUtils.clamp(limit, 500)), request);
     }
 
     private Scope scope(DashboardUserDetails principal, String period,
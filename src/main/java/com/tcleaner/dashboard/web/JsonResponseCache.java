@@ -0,0 +1,148 @@
+package com.tcleaner.dashboard.web;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Готовые JSON-ответы stats-эндпоинтов {@link DashboardApiController}: байты сериализации,
+ * gzip-копия и сильный ETag на каждый результат {@code StatsQueryService}.
+ *
+ * <p>Ключ — сам DTO по ссылке ({@code weakKeys}). {@code StatsQueryService} отдаёт один и тот же
+ * объект из {@code stats-*}-кешей, пока его ключ (метод, эффективный botUserId после RBAC,
+ * нормализованные параметры — {@code StatsCacheKey}) не снят инвалидацией и не пересчитан;
+ * новый объект — новые байты, старые уходят вместе с DTO при GC. Своей инвалидации поэтому нет,
+ * и чужие байты отдать нельзя: они — функция DTO, который уже прошёл RBAC.
+ *
+ * <p>{@code Cache-Control} остаётся {@code no-store} из {@code DashboardApiCacheHeadersFilter}:
+ * персональные ответы не хранит ни прокси, ни браузер. Поэтому браузер и WebView Mini App
+ * {@code If-None-Match} не присылают и 304 не получают никогда — ETag работает только для
+ * не-браузерных клиентов (скрипты, мониторинг), которые сами хранят тело и ETag. Таким клиентам
+ * 304 ({@code HttpEntityMethodProcessor}) приходит, только если байты текущего пользователя те же.
+ * Выигрыш для браузера — в готовых байтах и gzip без повторной сериализации, не в 304.
+ * Тело — {@code byte[]} через {@code ByteArrayHttpMessageConverter}: массив из кеша пишется в
+ * ответ одним {@code write}, без Jackson и промежуточных буферов. {@code Content-Encoding}
+ * выставлен заранее — сжатие Tomcat ({@code server.compression}) такой ответ не трогает.
+ * Метрики — {@code cache.*{cache=dashboard-api-json}}.
+ */
+@Component
+public class JsonResponseCache {
+
+    static final String CACHE_NAME = "dashboard-api-json";
+    private static final String GZIP = "gzip";
+
+    private final ObjectMapper objectMapper;
+    private final long gzipMinSize;
+    private final Cache<Object, Serialized> responses;
+
+    public JsonResponseCache(
+            ObjectMapper objectMapper,
+            @Value("${dashboard.api.response-cache.max-entries:2000}") long maxEntries,
+            @Value("${server.compression.min-response-size:1024}") DataSize gzipMinSize,
+            MeterRegistry meterRegistry
+    ) {
+        this.objectMapper = objectMapper;
+        this.gzipMinSize = gzipMinSize.toBytes();
+        this.responses = Caffeine.newBuilder()
+                .weakKeys()
+                .maximumSize(maxEntries)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, responses, CACHE_NAME);
+    }
+
+    /**
+     * Ответ 200 с готовыми байтами {@code body} (gzip, если клиент принимает) и ETag; при
+     * совпавшем {@code If-None-Match} Spring превращает его в 304 без тела.
+     */
+    public ResponseEntity<byte[]> respond(Object body, ServletWebRequest request) {
+        Serialized serialized = responses.get(body, this::serialize);
+        boolean gzip = serialized.gzip() != null && acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .varyBy(HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            // Сжатое и несжатое — разные представления: у каждого свой сильный ETag.
+            return response.eTag(serialized.etag() + "-" + GZIP)
+                    .header(HttpHeaders.CONTENT_ENCODING, GZIP)
+                    .body(serialized.gzip());
+        }
+        return response.eTag(serialized.etag()).body(serialized.json());
+    }
+
+    private Serialized serialize(Object body) {
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(body);
+        } catch (JsonProcessingException ex) {
+            throw new HttpMessageNotWritableException("Не удалось сериализовать ответ: " + ex.getOriginalMessage(), ex);
+        }
+        return new Serialized(json, json.length >= gzipMinSize ? gzip(json) : null, etag(json));
+    }
+
+    private static byte[] gzip(byte[] json) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 4);
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(json);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return out.toByteArray();
+    }
+
+    // 128 бит SHA-256 тела: сильный валидатор — одинаковые байты дают одинаковый ETag на любом инстансе.
+    private static String etag(byte[] json) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(json);
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /** Принимает ли клиент gzip: {@code gzip} или {@code *} без {@code q=0}. */
+    static boolean acceptsGzip(@Nullable String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            if (!GZIP.equalsIgnoreCase(name) && !"*".equals(name)) {
+                continue;
+            }
+            boolean refused = false;
+            for (int i = 1; i < parts.length; i++) {
+                refused |= parts[i].trim().matches("q=0(\\.0{0,3})?");
+            }
+            if (!refused) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Ответ одного DTO: JSON, gzip-копия ({@code null} — короче порога сжатия) и ETag без кавычек. */
+    record Serialized(byte[] json, @Nullable byte[] gzip, String etag) {
+    }
+}
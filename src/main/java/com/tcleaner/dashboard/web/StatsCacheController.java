@@ -0,0 +1,30 @@
+package com.tcleaner.dashboard.web;
+
+import com.tcleaner.dashboard.dto.DashboardCacheStatsDto;
+import com.tcleaner.dashboard.service.stats.StatsCacheInvalidator;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * Статистика dashboard-кешей этого инстанса: GET /dashboard/api/admin/stats/caches —
+ * hit/miss/eviction и число ключей, снятых инвалидацией из ingestion.
+ * ADMIN-only через {@code /dashboard/api/admin/**} в {@code DashboardSecurityConfig}.
+ */
+@RestController
+@RequestMapping("/dashboard/api/admin/stats/caches")
+public class StatsCacheController {
+
+    private final StatsCacheInvalidator invalidator;
+
+    public StatsCacheController(StatsCacheInvalidator invalidator) {
+        this.invalidator = invalidator;
+    }
+
+    @GetMapping
+    public List<DashboardCacheStatsDto> caches() {
+        return invalidator.stats();
+    }
+}
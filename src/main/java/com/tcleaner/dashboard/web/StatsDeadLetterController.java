@@ -0,0 +1,30 @@
+package com.tcleaner.dashboard.web;
+
+import com.tcleaner.dashboard.events.StatsStreamReclaimer;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Dead letters stats-стрима: POST /dashboard/api/admin/stats/dead-letters/replay возвращает
+ * до {@code limit} событий обратно в ingestion (после исправления причины сбоя).
+ * ADMIN-only через {@code /dashboard/api/admin/**} в {@code DashboardSecurityConfig}.
+ */
+@RestController
+@RequestMapping("/dashboard/api/admin/stats/dead-letters")
+public class StatsDeadLetterController {
+
+    private static final int MAX_LIMIT = 10_000;
+
+    private final StatsStreamReclaimer reclaimer;
+
+    public StatsDeadLetterController(StatsStreamReclaimer reclaimer) {
+        this.reclaimer = reclaimer;
+    }
+
+    @PostMapping("/replay")
+    public StatsStreamReclaimer.Replay replay(@RequestParam(defaultValue = "1000") int limit) {
+        return reclaimer.replayDeadLetters(Math.min(Math.max(1, limit), MAX_LIMIT));
+    }
+}
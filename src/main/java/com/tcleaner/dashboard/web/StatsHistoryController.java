@@ -0,0 +1,109 @@
+package com.tcleaner.dashboard.web;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.tcleaner.dashboard.auth.DashboardUserDetails;
+import com.tcleaner.dashboard.dto.EventRowDto;
+import com.tcleaner.dashboard.security.BotUserAccessPolicy;
+import com.tcleaner.dashboard.service.stats.EventCursor;
+import com.tcleaner.dashboard.service.stats.StatsQueryService;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Полная лента событий с keyset-пагинацией: GET /dashboard/api/stats/history.
+ * В отличие от {@code /stats/recent} не кешируется и не собирает страницу в памяти —
+ * строки пишутся в ответ прямо из JDBC-курсора {@link StatsQueryService#streamEvents}.
+ *
+ * <p>Формат по {@code Accept}: {@code application/x-ndjson} — событие на строку и
+ * последней строкой {@code {"nextCursor":...}}; иначе {@code {"items":[...],"nextCursor":...}}.
+ * {@code nextCursor == null} — страниц больше нет. RBAC — как у {@code /stats/recent}.
+ */
+@RestController
+@RequestMapping("/dashboard/api/stats")
+public class StatsHistoryController {
+
+    static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    private static final int MAX_LIMIT = 10_000;
+
+    private final StatsQueryService statsQueryService;
+    private final BotUserAccessPolicy accessPolicy;
+    private final ObjectMapper objectMapper;
+    // Без flush на каждую строку: сбросом в сокет управляет буфер контейнера.
+    private final ObjectWriter rowWriter;
+
+    public StatsHistoryController(StatsQueryService statsQueryService,
+                                  BotUserAccessPolicy accessPolicy,
+                                  ObjectMapper objectMapper) {
+        this.statsQueryService = statsQueryService;
+        this.accessPolicy = accessPolicy;
+        this.objectMapper = objectMapper;
+        this.rowWriter = objectMapper.writerFor(EventRowDto.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    @GetMapping("/history")
+    public ResponseEntity<StreamingResponseBody> history(
+            @AuthenticationPrincipal DashboardUserDetails principal,
+            @RequestParam(required = false) Long userId,
+            @RequestParam(required = false) Long chatId,
+            @RequestParam(required = false) String status,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "100") int limit,
+            @RequestHeader(value = "Accept", required = false) String accept) {
+        // RBAC и разбор cursor — до начала стрима: после первых байт статус уже 200.
+        long eff = accessPolicy.effectiveUserId(principal.getDashboardRole(), principal.getBotUserId(), userId);
+        Long botUserId = eff > 0 ? eff : null;
+        EventCursor after = cursor == null || cursor.isBlank() ? null : EventCursor.decode(cursor);
+        int pageSize = Math.min(Math.max(1, limit), MAX_LIMIT);
+
+        if (accept != null && accept.contains(NDJSON.toString())) {
+            StreamingResponseBody body = out -> {
+                JsonGenerator gen = objectMapper.createGenerator(out);
+                gen.setRootValueSeparator(null);
+                EventCursor next = statsQueryService.streamEvents(botUserId, chatId, status, after, pageSize,
+                        row -> write(gen, row, "\n"));
+                gen.writeStartObject();
+                gen.writeStringField("nextCursor", next == null ? null : next.encode());
+                gen.writeEndObject();
+                gen.writeRaw('\n');
+                gen.close();
+            };
+            return ResponseEntity.ok().contentType(NDJSON).body(body);
+        }
+        StreamingResponseBody body = out -> {
+            JsonGenerator gen = objectMapper.createGenerator(out);
+            gen.writeStartObject();
+            gen.writeArrayFieldStart("items");
+            EventCursor next = statsQueryService.streamEvents(botUserId, chatId, status, after, pageSize,
+                    row -> write(gen, row, ""));
+            gen.writeEndArray();
+            gen.writeStringField("nextCursor", next == null ? null : next.encode());
+            gen.writeEndObject();
+            gen.close();
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    // Consumer не пропускает checked IOException — заворачиваем, наружу уходит обрыв стрима.
+    private void write(JsonGenerator gen, EventRowDto row, String suffix) {
+        try {
+            rowWriter.writeValue(gen, row);
+            gen.writeRaw(suffix);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.tcleaner.dashboard.web;
+
+import com.tcleaner.dashboard.auth.DashboardUserDetails;
+import com.tcleaner.dashboard.security.BotUserAccessPolicy;
+import com.tcleaner.dashboard.service.live.LiveFeedBroadcaster;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Живая лента дашборда: GET /dashboard/api/stats/live ({@code text/event-stream}).
+ * События {@code update} — JSON-массив {@code LiveUpdateDto}, {@code resync} — клиент
+ * отстал, перечитать данные целиком. RBAC как у {@code /stats/recent}: USER — только свои
+ * события, ADMIN — все или {@code userId}. Лимит сессий исчерпан → 503.
+ */
+@RestController
+@RequestMapping("/dashboard/api/stats")
+public class StatsLiveController {
+
+    private final LiveFeedBroadcaster broadcaster;
+    private final BotUserAccessPolicy accessPolicy;
+
+    public StatsLiveController(LiveFeedBroadcaster broadcaster, BotUserAccessPolicy accessPolicy) {
+        this.broadcaster = broadcaster;
+        this.accessPolicy = accessPolicy;
+    }
+
+    @GetMapping("/live")
+    public SseEmitter live(
+            @AuthenticationPrincipal DashboardUserDetails principal,
+            @RequestParam(required = false) Long userId) {
+        long eff = accessPolicy.effectiveUserId(principal.getDashboardRole(), principal.getBotUserId(), userId);
+        SseEmitter emitter = broadcaster.subscribe(eff > 0 ? eff : null);
+        if (emitter == null) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Слишком много открытых live-сессий");
+        }
+        return emitter;
+    }
+}
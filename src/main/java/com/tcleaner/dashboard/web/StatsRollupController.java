@@ -0,0 +1,33 @@
+package com.tcleaner.dashboard.web;
+
+import com.tcleaner.dashboard.service.stats.StatsRollupService;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.LocalDate;
+
+/**
+ * Backfill дневных rollup-ов: POST /dashboard/api/admin/stats/rollups/rebuild?from=&to=
+ * пересобирает {@code stats_daily*} за дни {@code [from, to]} из {@code export_events}.
+ * ADMIN-only через {@code /dashboard/api/admin/**} в {@code DashboardSecurityConfig}.
+ */
+@RestController
+@RequestMapping("/dashboard/api/admin/stats/rollups")
+public class StatsRollupController {
+
+    private final StatsRollupService rollupService;
+
+    public StatsRollupController(StatsRollupService rollupService) {
+        this.rollupService = rollupService;
+    }
+
+    @PostMapping("/rebuild")
+    public StatsRollupService.Rebuild rebuild(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        return rollupService.rebuild(from, to);
+    }
+}
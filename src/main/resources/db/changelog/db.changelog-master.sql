@@ -7,8 +7,8 @@
 -- SQLite-specific notes:
 --   * INTEGER PRIMARY KEY is the rowid alias and auto-increments.
 --   * SQLite uses dynamic typing; BIGINT/TEXT/TIMESTAMP are affinity hints only.
---   * Foreign keys are advisory unless `PRAGMA foreign_keys = ON` (set by Hikari
---     `connection-init-sql` in application.properties).
+--   * Foreign keys are advisory unless `PRAGMA foreign_keys = ON` (set by the
+--     `foreign_keys=true` parameter of spring.datasource.url; see 020).
 --   * Timestamps are stored as ISO-8601 TEXT (UTC) for portability and
 --     human-readable backups.
 -- =============================================================================
@@ -416,3 +416,378 @@ CREATE INDEX IF NOT EXISTS idx_events_status_covering
 -- откат 013 не должен дропать индексы — это работа rollback 012/011.
 -- Liquibase: --rollback с no-op SELECT — стандартный идиом для пустого rollback.
 --rollback SELECT 1;
+
+-- =============================================================================
+-- 014: Дневные rollup-таблицы для StatsQueryService.
+-- Агрегаты дашборда за период читаются из rollup-ов: стоимость запроса растёт
+-- с числом дней в периоде, а не с числом событий. day — UTC-дата started_at
+-- ("YYYY-MM-DD", substr(started_at, 1, 10)); событие попадает в день старта, как
+-- и в прежних range-запросах по export_events.
+-- Разрезы chat/status хранят bot_user_id: USER-scoped дашборд фильтрует по нему,
+-- ADMIN суммирует по пользователям. Строки с exports = 0 (статус ушёл из QUEUED,
+-- событие удалено) не удаляются — запросы их отбрасывают.
+-- Таблицы ведут триггеры на export_events (015-017) в транзакции самой записи;
+-- backfill ниже и StatsRollupService.rebuild пересобирают их из export_events.
+-- =============================================================================
+
+--changeset app:014-daily-rollups splitStatements:true endDelimiter:;
+
+CREATE TABLE stats_daily (
+    day         TEXT PRIMARY KEY,
+    exports     INTEGER NOT NULL DEFAULT 0,
+    messages    BIGINT  NOT NULL DEFAULT 0,
+    bytes       BIGINT  NOT NULL DEFAULT 0
+);
+
+CREATE TABLE stats_daily_user (
+    day             TEXT   NOT NULL,
+    bot_user_id     BIGINT NOT NULL,
+    exports         INTEGER NOT NULL DEFAULT 0,
+    messages        BIGINT  NOT NULL DEFAULT 0,
+    bytes           BIGINT  NOT NULL DEFAULT 0,
+    last_started_at TEXT   NOT NULL,
+    PRIMARY KEY (day, bot_user_id)
+);
+
+CREATE INDEX idx_stats_daily_user_user ON stats_daily_user (bot_user_id, day);
+
+CREATE TABLE stats_daily_chat (
+    day             TEXT    NOT NULL,
+    chat_ref_id     INTEGER NOT NULL,
+    bot_user_id     BIGINT  NOT NULL,
+    exports         INTEGER NOT NULL DEFAULT 0,
+    messages        BIGINT  NOT NULL DEFAULT 0,
+    bytes           BIGINT  NOT NULL DEFAULT 0,
+    PRIMARY KEY (day, chat_ref_id, bot_user_id)
+);
+
+CREATE INDEX idx_stats_daily_chat_user ON stats_daily_chat (bot_user_id, day);
+
+CREATE TABLE stats_daily_status (
+    day             TEXT    NOT NULL,
+    status          TEXT    NOT NULL,
+    bot_user_id     BIGINT  NOT NULL,
+    exports         INTEGER NOT NULL DEFAULT 0,
+    PRIMARY KEY (day, status, bot_user_id)
+);
+
+CREATE INDEX idx_stats_daily_status_user ON stats_daily_status (bot_user_id, day);
+
+INSERT INTO stats_daily (day, exports, messages, bytes)
+SELECT substr(started_at, 1, 10), COUNT(*), COALESCE(SUM(messages_count), 0), COALESCE(SUM(bytes_count), 0)
+FROM export_events
+GROUP BY substr(started_at, 1, 10);
+
+INSERT INTO stats_daily_user (day, bot_user_id, exports, messages, bytes, last_started_at)
+SELECT substr(started_at, 1, 10), bot_user_id, COUNT(*),
+       COALESCE(SUM(messages_count), 0), COALESCE(SUM(bytes_count), 0), MAX(started_at)
+FROM export_events
+GROUP BY substr(started_at, 1, 10), bot_user_id;
+
+INSERT INTO stats_daily_chat (day, chat_ref_id, bot_user_id, exports, messages, bytes)
+SELECT substr(started_at, 1, 10), chat_ref_id, bot_user_id, COUNT(*),
+       COALESCE(SUM(messages_count), 0), COALESCE(SUM(bytes_count), 0)
+FROM export_events
+GROUP BY substr(started_at, 1, 10), chat_ref_id, bot_user_id;
+
+INSERT INTO stats_daily_status (day, status, bot_user_id, exports)
+SELECT substr(started_at, 1, 10), status, bot_user_id, COUNT(*)
+FROM export_events
+GROUP BY substr(started_at, 1, 10), status, bot_user_id;
+
+--rollback DROP INDEX IF EXISTS idx_stats_daily_status_user;
+--rollback DROP TABLE IF EXISTS stats_daily_status;
+--rollback DROP INDEX IF EXISTS idx_stats_daily_chat_user;
+--rollback DROP TABLE IF EXISTS stats_daily_chat;
+--rollback DROP INDEX IF EXISTS idx_stats_daily_user_user;
+--rollback DROP TABLE IF EXISTS stats_daily_user;
+--rollback DROP TABLE IF EXISTS stats_daily;
+
+-- =============================================================================
+-- 015-017: Триггеры rollup-ов на export_events.
+-- Каждая запись ingestion (INSERT ON CONFLICT / merge UPDATE, в т.ч. переход в
+-- terminal) обновляет rollup-ы в своей же транзакции: вклад старой строки
+-- вычитается, новой — прибавляется. UPDATE-триггер срабатывает только когда
+-- меняется что-то из агрегируемого (merge чаще всего трогает лишь updated_at).
+-- last_started_at при вычитании не уменьшается — после DELETE он может указывать
+-- на удалённое событие до следующего StatsRollupService.rebuild.
+-- BEGIN ... END содержит ';' — отдельные changesets без разбиения на statements.
+-- =============================================================================
+
+--changeset app:015-rollup-trigger-insert splitStatements:false
+CREATE TRIGGER trg_export_events_rollup_insert AFTER INSERT ON export_events
+BEGIN
+    INSERT INTO stats_daily (day, exports, messages, bytes)
+    VALUES (substr(NEW.started_at, 1, 10), 1,
+            COALESCE(NEW.messages_count, 0), COALESCE(NEW.bytes_count, 0))
+    ON CONFLICT (day) DO UPDATE SET
+        exports = exports + excluded.exports,
+        messages = messages + excluded.messages,
+        bytes = bytes + excluded.bytes;
+    INSERT INTO stats_daily_user (day, bot_user_id, exports, messages, bytes, last_started_at)
+    VALUES (substr(NEW.started_at, 1, 10), NEW.bot_user_id, 1,
+            COALESCE(NEW.messages_count, 0), COALESCE(NEW.bytes_count, 0), NEW.started_at)
+    ON CONFLICT (day, bot_user_id) DO UPDATE SET
+        exports = exports + excluded.exports,
+        messages = messages + excluded.messages,
+        bytes = bytes + excluded.bytes,
+        last_started_at = MAX(last_started_at, excluded.last_started_at);
+    INSERT INTO stats_daily_chat (day, chat_ref_id, bot_user_id, exports, messages, bytes)
+    VALUES (substr(NEW.started_at, 1, 10), NEW.chat_ref_id, NEW.bot_user_id, 1,
+            COALESCE(NEW.messages_count, 0), COALESCE(NEW.bytes_count, 0))
+    ON CONFLICT (day, chat_ref_id, bot_user_id) DO UPDATE SET
+        exports = exports + excluded.exports,
+        messages = messages + excluded.messages,
+        bytes = bytes + excluded.bytes;
+    INSERT INTO stats_daily_status (day, status, bot_user_id, exports)
+    VALUES (substr(NEW.started_at, 1, 10), NEW.status, NEW.bot_user_id, 1)
+    ON CONFLICT (day, status, bot_user_id) DO UPDATE SET
+        exports = exports + excluded.exports;
+END;
+--rollback DROP TRIGGER IF EXISTS trg_export_events_rollup_insert;
+
+--changeset app:016-rollup-trigger-update splitStatements:false
+CREATE TRIGGER trg_export_events_rollup_update
+AFTER UPDATE OF started_at, bot_user_id, chat_ref_id, status, messages_count, bytes_count ON export_events
+WHEN OLD.started_at IS NOT NEW.started_at
+  OR OLD.bot_user_id IS NOT NEW.bot_user_id
+  OR OLD.chat_ref_id IS NOT NEW.chat_ref_id
+  OR OLD.status IS NOT NEW.status
+  OR OLD.messages_count IS NOT NEW.messages_count
+  OR OLD.bytes_count IS NOT NEW.bytes_count
+BEGIN
+    UPDATE stats_daily SET
+        exports = exports - 1,
+        messages = messages - COALESCE(OLD.messages_count, 0),
+        bytes = bytes - COALESCE(OLD.bytes_count, 0)
+    WHERE day = substr(OLD.started_at, 1, 10);
+    UPDATE stats_daily_user SET
+        exports = exports - 1,
+        messages = messages - COALESCE(OLD.messages_count, 0),
+        bytes = bytes - COALESCE(OLD.bytes_count, 0)
+    WHERE day = substr(OLD.started_at, 1, 10) AND bot_user_id = OLD.bot_user_id;
+    UPDATE stats_daily_chat SET
+        exports = exports - 1,
+        messages = messages - COALESCE(OLD.messages_count, 0),
+        bytes = bytes - COALESCE(OLD.bytes_count, 0)
+    WHERE day = substr(OLD.started_at, 1, 10) AND chat_ref_id = OLD.chat_ref_id
+      AND bot_user_id = OLD.bot_user_id;
+    UPDATE stats_daily_status SET exports = exports - 1
+    WHERE day = substr(OLD.started_at, 1, 10) AND status = OLD.status AND bot_user_id = OLD.bot_user_id;
+
+    INSERT INTO stats_daily (day, exports, messages, bytes)
+    VALUES (substr(NEW.started_at, 1, 10), 1,
+            COALESCE(NEW.messages_count, 0), COALESCE(NEW.bytes_count, 0))
+    ON CONFLICT (day) DO UPDATE SET
+        exports = exports + excluded.exports,
+        messages = messages + excluded.messages,
+        bytes = bytes + excluded.bytes;
+    INSERT INTO stats_daily_user (day, bot_user_id, exports, messages, bytes, last_started_at)
+    VALUES (substr(NEW.started_at, 1, 10), NEW.bot_user_id, 1,
+            COALESCE(NEW.messages_count, 0), COALESCE(NEW.bytes_count, 0), NEW.started_at)
+    ON CONFLICT (day, bot_user_id) DO UPDATE SET
+        exports = exports + excluded.exports,
+        messages = messages + excluded.messages,
+        bytes = bytes + excluded.bytes,
+        last_started_at = MAX(last_started_at, excluded.last_started_at);
+    INSERT INTO stats_daily_chat (day, chat_ref_id, bot_user_id, exports, messages, bytes)
+    VALUES (substr(NEW.started_at, 1, 10), NEW.chat_ref_id, NEW.bot_user_id, 1,
+            COALESCE(NEW.messages_count, 0), COALESCE(NEW.bytes_count, 0))
+    ON CONFLICT (day, chat_ref_id, bot_user_id) DO UPDATE SET
+        exports = exports + excluded.exports,
+        messages = messages + excluded.messages,
+        bytes = bytes + excluded.bytes;
+    INSERT INTO stats_daily_status (day, status, bot_user_id, exports)
+    VALUES (substr(NEW.started_at, 1, 10), NEW.status, NEW.bot_user_id, 1)
+    ON CONFLICT (day, status, bot_user_id) DO UPDATE SET
+        exports = exports + excluded.exports;
+END;
+--rollback DROP TRIGGER IF EXISTS trg_export_events_rollup_update;
+
+--changeset app:017-rollup-trigger-delete splitStatements:false
+CREATE TRIGGER trg_export_events_rollup_delete AFTER DELETE ON export_events
+BEGIN
+    UPDATE stats_daily SET
+        exports = exports - 1,
+        messages = messages - COALESCE(OLD.messages_count, 0),
+        bytes = bytes - COALESCE(OLD.bytes_count, 0)
+    WHERE day = substr(OLD.started_at, 1, 10);
+    UPDATE stats_daily_user SET
+        exports = exports - 1,
+        messages = messages - COALESCE(OLD.messages_count, 0),
+        bytes = bytes - COALESCE(OLD.bytes_count, 0)
+    WHERE day = substr(OLD.started_at, 1, 10) AND bot_user_id = OLD.bot_user_id;
+    UPDATE stats_daily_chat SET
+        exports = exports - 1,
+        messages = messages - COALESCE(OLD.messages_count, 0),
+        bytes = bytes - COALESCE(OLD.bytes_count, 0)
+    WHERE day = substr(OLD.started_at, 1, 10) AND chat_ref_id = OLD.chat_ref_id
+      AND bot_user_id = OLD.bot_user_id;
+    UPDATE stats_daily_status SET exports = exports - 1
+    WHERE day = substr(OLD.started_at, 1, 10) AND status = OLD.status AND bot_user_id = OLD.bot_user_id;
+END;
+--rollback DROP TRIGGER IF EXISTS trg_export_events_rollup_delete;
+
+--changeset app:018-rollups-without-rowid splitStatements:true endDelimiter:;
+-- =============================================================================
+-- 018: Rollup-ы юзер/чат/статус — WITHOUT ROWID (кластеризованы по PK).
+-- Строки дня вставляются вперемешку с другими днями, и range-скан по
+-- (day, ...) в rowid-таблице шёл по индексу PK с lookup-ом строки на каждую
+-- запись — на 2M событий ~0.5 с на запрос overview (StatsOverviewBenchmark).
+-- В WITHOUT ROWID строки лежат в порядке PK — скан дней последовательный (~10×).
+-- Триггеры 015-017 ссылаются на таблицы по имени: legacy_alter_table не даёт
+-- RENAME перепроверять их, пока старой таблицы уже нет.
+-- =============================================================================
+
+CREATE TABLE stats_daily_user_new (
+    day             TEXT   NOT NULL,
+    bot_user_id     BIGINT NOT NULL,
+    exports         INTEGER NOT NULL DEFAULT 0,
+    messages        BIGINT  NOT NULL DEFAULT 0,
+    bytes           BIGINT  NOT NULL DEFAULT 0,
+    last_started_at TEXT   NOT NULL,
+    PRIMARY KEY (day, bot_user_id)
+) WITHOUT ROWID;
+
+CREATE TABLE stats_daily_chat_new (
+    day             TEXT    NOT NULL,
+    chat_ref_id     INTEGER NOT NULL,
+    bot_user_id     BIGINT  NOT NULL,
+    exports         INTEGER NOT NULL DEFAULT 0,
+    messages        BIGINT  NOT NULL DEFAULT 0,
+    bytes           BIGINT  NOT NULL DEFAULT 0,
+    PRIMARY KEY (day, chat_ref_id, bot_user_id)
+) WITHOUT ROWID;
+
+CREATE TABLE stats_daily_status_new (
+    day             TEXT    NOT NULL,
+    status          TEXT    NOT NULL,
+    bot_user_id     BIGINT  NOT NULL,
+    exports         INTEGER NOT NULL DEFAULT 0,
+    PRIMARY KEY (day, status, bot_user_id)
+) WITHOUT ROWID;
+
+INSERT INTO stats_daily_user_new (day, bot_user_id, exports, messages, bytes, last_started_at)
+SELECT day, bot_user_id, exports, messages, bytes, last_started_at FROM stats_daily_user;
+
+INSERT INTO stats_daily_chat_new (day, chat_ref_id, bot_user_id, exports, messages, bytes)
+SELECT day, chat_ref_id, bot_user_id, exports, messages, bytes FROM stats_daily_chat;
+
+INSERT INTO stats_daily_status_new (day, status, bot_user_id, exports)
+SELECT day, status, bot_user_id, exports FROM stats_daily_status;
+
+PRAGMA legacy_alter_table = ON;
+
+DROP TABLE stats_daily_user;
+DROP TABLE stats_daily_chat;
+DROP TABLE stats_daily_status;
+
+ALTER TABLE stats_daily_user_new RENAME TO stats_daily_user;
+ALTER TABLE stats_daily_chat_new RENAME TO stats_daily_chat;
+ALTER TABLE stats_daily_status_new RENAME TO stats_daily_status;
+
+PRAGMA legacy_alter_table = OFF;
+
+CREATE INDEX idx_stats_daily_user_user ON stats_daily_user (bot_user_id, day);
+CREATE INDEX idx_stats_daily_chat_user ON stats_daily_chat (bot_user_id, day);
+CREATE INDEX idx_stats_daily_status_user ON stats_daily_status (bot_user_id, day);
+
+-- Откат не нужен — схема колонок и индексов та же, отличается только хранение;
+-- no-op SELECT, как в 013.
+--rollback SELECT 1;
+
+-- =============================================================================
+-- 019: Дневные HyperLogLog-скетчи активных пользователей (HyperLogLog.toBytes).
+-- Уникальные юзеры по дням не суммируются, а скетчи объединяются: уникальные за
+-- период — объединение скетчей его дней, а не COUNT(DISTINCT) по stats_daily_user.
+-- stats_daily_users_hll — все пользователи дня, stats_daily_chat_users_hll — по
+-- чатам (обычно несколько байт: sparse-формат; PK начинается с чата — запрос читает
+-- дни периода только для чатов топа). Скетчи ведёт ActiveUserSketches при
+-- ingestion (SQL-триггером HLL не посчитать); существующие дни заполняет backfill
+-- на старте, StatsRollupService.rebuild пересобирает их вместе с rollup-ами.
+-- DELETE события скетч не уменьшает — до rebuild удалённый юзер остаётся в оценке.
+-- =============================================================================
+
+--changeset app:019-active-user-sketches splitStatements:true endDelimiter:;
+--validCheckSum 9:63d5230a8c8b30cd727d7dec85df29e8
+
+CREATE TABLE stats_daily_users_hll (
+    day     TEXT PRIMARY KEY,
+    sketch  BLOB NOT NULL
+);
+
+CREATE TABLE stats_daily_chat_users_hll (
+    day         TEXT    NOT NULL,
+    chat_ref_id INTEGER NOT NULL,
+    sketch      BLOB    NOT NULL,
+    PRIMARY KEY (chat_ref_id, day)
+);
+
+--rollback DROP TABLE IF EXISTS stats_daily_chat_users_hll;
+--rollback DROP TABLE IF EXISTS stats_daily_users_hll;
+
+-- =============================================================================
+-- 020: Ремонт строк, записанных без foreign_keys.
+-- До foreign_keys=true в spring.datasource.url ограничения FOREIGN KEY в проде не
+-- действовали: connection-init-sql Hikari выполнял только первый PRAGMA строки.
+-- События и подписки того времени могут ссылаться на bot_users/chats, которых нет, —
+-- с включёнными FK UPDATE такой строки падает с FOREIGN KEY constraint failed и
+-- ронял бы ingestion её события. Недостающие родители восстанавливаются заглушками
+-- из того, что о них известно по детям: пользователь — first/last_seen и счётчики
+-- по его событиям (правила 010 и applyTerminalExport), чат — canonical/raw
+-- 'orphan:<id>'. Ссылка dashboard_users на отсутствующего пользователя обнуляется,
+-- как сделал бы её ON DELETE SET NULL. Что осталось — пишет ForeignKeyCheck на старте.
+-- =============================================================================
+
+--changeset app:020-repair-foreign-key-orphans splitStatements:true endDelimiter:;
+--validCheckSum 9:594d22832feeb07bb41fbb77b760930f
+
+INSERT INTO bot_users (bot_user_id, first_seen, last_seen, total_exports, total_messages, total_bytes)
+SELECT o.bot_user_id, MIN(o.seen), MAX(o.seen),
+       SUM(CASE WHEN o.status IN ('COMPLETED', 'FAILED') THEN 1 ELSE 0 END),
+       SUM(CASE WHEN o.status = 'COMPLETED' THEN COALESCE(o.messages_count, 0) ELSE 0 END),
+       SUM(CASE WHEN o.status = 'COMPLETED' THEN COALESCE(o.bytes_count, 0) ELSE 0 END)
+FROM (
+    SELECT bot_user_id, started_at AS seen, status, messages_count, bytes_count FROM export_events
+    UNION ALL
+    SELECT bot_user_id, created_at, NULL, NULL, NULL FROM chat_subscriptions
+) o
+WHERE NOT EXISTS (SELECT 1 FROM bot_users u WHERE u.bot_user_id = o.bot_user_id)
+GROUP BY o.bot_user_id;
+
+INSERT INTO chats (id, canonical_chat_id, chat_id_raw, first_seen, last_seen)
+SELECT o.chat_ref_id, 'orphan:' || o.chat_ref_id, 'orphan:' || o.chat_ref_id, MIN(o.seen), MAX(o.seen)
+FROM (
+    SELECT chat_ref_id, started_at AS seen FROM export_events
+    UNION ALL
+    SELECT chat_ref_id, created_at FROM chat_subscriptions
+) o
+WHERE NOT EXISTS (SELECT 1 FROM chats c WHERE c.id = o.chat_ref_id)
+GROUP BY o.chat_ref_id;
+
+UPDATE dashboard_users SET bot_user_id = NULL
+WHERE bot_user_id IS NOT NULL
+  AND NOT EXISTS (SELECT 1 FROM bot_users u WHERE u.bot_user_id = dashboard_users.bot_user_id);
+
+-- Заглушки неотличимы от родителей, удалённых позже по делу, — откат данных не трогает.
+--rollback SELECT 1;
+
+-- =============================================================================
+-- 021: Состояние события до последней записи ingestion-а.
+-- Ingestion пишет событие одной командой INSERT ... ON CONFLICT(task_id) DO UPDATE
+-- ... RETURNING, а RETURNING в SQLite видит строку только после изменения. Статус
+-- и счётчики до merge (для первого перехода в terminal и дельт живой ленты) тот же
+-- DO UPDATE сохраняет в prev_*; prev_status IS NULL в ответе — строку вставили.
+-- Rollup-триггер 016 на эти колонки не подписан.
+-- =============================================================================
+
+--changeset app:021-export-events-prev-state splitStatements:true endDelimiter:;
+
+ALTER TABLE export_events ADD COLUMN prev_status TEXT;
+ALTER TABLE export_events ADD COLUMN prev_messages_count BIGINT;
+ALTER TABLE export_events ADD COLUMN prev_bytes_count BIGINT;
+
+-- DROP COLUMN требует SQLite >= 3.35 — как и RETURNING, ради которого колонки добавлены.
+--rollback ALTER TABLE export_events DROP COLUMN prev_bytes_count;
+--rollback ALTER TABLE export_events DROP COLUMN prev_messages_count;
+--rollback ALTER TABLE export_events DROP COLUMN prev_status;
@@ -0,0 +1,130 @@
+-- Атомарная постановка ручного экспорта в очередь (ExportJobProducer#enqueueExport).
+-- Один EVALSHA вместо SET NX + GET canonical + GET ranges + SET×2 + RPUSH + LLEN×3 + EXISTS.
+-- Скрипт выполняется целиком или не выполняется вовсе — cleanup-ветка для брони не нужна.
+--
+-- KEYS[1] active_export:{userId}
+-- KEYS[2] job_json:{taskId}
+-- KEYS[3] job_queue:{taskId}
+-- KEYS[4] основная очередь
+-- KEYS[5] express-очередь
+-- KEYS[6] subscription-очередь
+-- KEYS[7] active_processing_job
+-- KEYS[8] приоритетная очередь {queue}:pq (ZSET, member = taskId)
+-- KEYS[9] payload'ы приоритетной очереди {queue}:pq:payloads (HASH taskId → JSON)
+-- ARGV[1] taskId
+-- ARGV[2] job JSON
+-- ARGV[3] TTL брони и метаданных, секунды
+-- ARGV[4] идентификатор чата как ввёл пользователь (для canonical:/cache:ranges:)
+-- ARGV[5] backend: "list" | "zset"
+-- ARGV[6] основание score: score = priority * base + epoch_ms + penalty (0 = express, 1 = main)
+-- ARGV[7] penalty, мс, если данные чата в кэше (ExportCostEstimator, shortest-job-first)
+-- ARGV[8] penalty, мс, если кэша нет
+-- ARGV[9] "1" — задача дешёвая по оценке: express даже без кэша
+-- ARGV[10] межуровневый aging, мс (0 — выключен): main-задача, ждущая дольше, переходит в express
+--
+-- canonical:{input} и cache:ranges:{canonical} не передаются в KEYS: имя второго ключа
+-- известно только после чтения первого; job_queue:{taskId} повышаемых задач — тоже.
+-- Для single-node Redis это корректно.
+--
+-- Aging внутри уровня — кап penalty (ExportCostEstimator). Между уровнями его нет: express
+-- всегда впереди main, и непрерывный поток дешёвых задач откладывал бы main бесконечно.
+-- Поэтому каждая постановка сначала повышает main-задачи старше ARGV[10] до express:
+-- zset — тот же score без priority * base (время + penalty ≤ now - aging, так что все
+-- новые задачи встают за ними); list — голова main переносится в голову express в прежнем
+-- порядке, возраст — поле enqueued_at payload'а. Голодание main ограничено aging + penalty
+-- плюс разбор express-задач, пришедших раньше.
+--
+-- Ответ: {1, taskId, cached, pendingInQueue, hasActiveJob, aheadInQueue}
+--     или {0, existingTaskId} — у пользователя уже есть активный экспорт.
+-- aheadInQueue для zset — точный ZRANK плюс legacy-списки того же и более высокого
+-- приоритета (миграция); для list — прежняя оценка pendingInQueue - 1.
+
+if not redis.call('SET', KEYS[1], ARGV[1], 'NX', 'EX', ARGV[3]) then
+    return {0, redis.call('GET', KEYS[1]) or ''}
+end
+
+local canonical = redis.call('GET', 'canonical:' .. ARGV[4]) or ARGV[4]
+local ranges = redis.call('GET', 'cache:ranges:' .. canonical)
+local cached = ranges and ranges ~= '[]'
+local express = cached or ARGV[9] == '1'
+local penalty = tonumber(ARGV[8])
+if cached then
+    penalty = tonumber(ARGV[7])
+end
+
+redis.call('SET', KEYS[2], ARGV[2], 'EX', ARGV[3])
+
+-- Повышений за одну постановку не больше: скрипт не должен блокировать Redis на длинной очереди.
+local AGING_BATCH = 50
+local aging = tonumber(ARGV[10] or '0')
+local now = redis.call('TIME')
+local ms = tonumber(now[1]) * 1000 + math.floor(tonumber(now[2]) / 1000)
+
+if aging > 0 then
+    if ARGV[5] == 'zset' then
+        local base = tonumber(ARGV[6])
+        local aged = redis.call('ZRANGEBYSCORE', KEYS[8], base, '(' .. (base + ms - aging),
+            'WITHSCORES', 'LIMIT', 0, AGING_BATCH)
+        for i = 1, #aged, 2 do
+            redis.call('ZADD', KEYS[8], tonumber(aged[i + 1]) - base, aged[i])
+        end
+    else
+        -- Задача без enqueued_at поставлена до появления поля — заведомо старая.
+        local jobQueuePrefix = string.sub(KEYS[3], 1, #KEYS[3] - #ARGV[1])
+        local promoted = {}
+        while #promoted < AGING_BATCH do
+            local head = redis.call('LINDEX', KEYS[4], 0)
+            if not head then
+                break
+            end
+            local ok, job = pcall(cjson.decode, head)
+            if not ok or type(job) ~= 'table' then
+                job = {}
+            end
+            if (tonumber(job['enqueued_at']) or 0) > ms - aging then
+                break
+            end
+            redis.call('LPOP', KEYS[4])
+            table.insert(promoted, 1, {head, job['task_id']})
+        end
+        -- promoted — от новых к старым: LPUSH оставляет самую старую в голове express.
+        for _, entry in ipairs(promoted) do
+            redis.call('LPUSH', KEYS[5], entry[1])
+            if type(entry[2]) == 'string' then
+                redis.call('SET', jobQueuePrefix .. entry[2], KEYS[5], 'XX', 'KEEPTTL')
+            end
+        end
+    end
+end
+
+local legacy = redis.call('LLEN', KEYS[4]) + redis.call('LLEN', KEYS[5]) + redis.call('LLEN', KEYS[6])
+local pending
+local ahead
+
+if ARGV[5] == 'zset' then
+    local priority = 1
+    if express then
+        priority = 0
+    end
+    redis.call('HSET', KEYS[9], ARGV[1], ARGV[2])
+    redis.call('ZADD', KEYS[8], priority * tonumber(ARGV[6]) + ms + penalty, ARGV[1])
+    redis.call('SET', KEYS[3], KEYS[8], 'EX', ARGV[3])
+    pending = redis.call('ZCARD', KEYS[8]) + legacy
+    ahead = redis.call('ZRANK', KEYS[8], ARGV[1]) + redis.call('LLEN', KEYS[5])
+    if priority > 0 then
+        ahead = ahead + redis.call('LLEN', KEYS[4])
+    end
+else
+    local target = KEYS[4]
+    if express then
+        target = KEYS[5]
+    end
+    redis.call('SET', KEYS[3], target, 'EX', ARGV[3])
+    redis.call('RPUSH', target, ARGV[2])
+    pending = legacy + 1
+    ahead = pending - 1
+end
+
+local active = redis.call('EXISTS', KEYS[7])
+
+return {1, ARGV[1], cached and 1 or 0, pending, active, ahead}
@@ -0,0 +1,24 @@
+-- Постановка задачи в приоритетную очередь без брони active_export
+-- (ExportJobProducer#enqueueSubscription при telegram.queue.backend=zset).
+--
+-- KEYS[1] {queue}:pq (ZSET, member = taskId)
+-- KEYS[2] {queue}:pq:payloads (HASH taskId → JSON)
+-- KEYS[3] job_json:{taskId}
+-- KEYS[4] job_queue:{taskId}
+-- ARGV[1] taskId
+-- ARGV[2] job JSON
+-- ARGV[3] priority (0 = express, 1 = main, 2 = subscription)
+-- ARGV[4] основание score: score = priority * base + epoch_ms
+-- ARGV[5] TTL метаданных задачи, сек
+--
+-- Время берётся из Redis TIME, а не с часов JVM — порядок задач не зависит от
+-- расхождения часов между инстансами. Метаданные (job_json/job_queue) пишутся тем же
+-- скриптом: задачи в очереди без них (cancel не найдёт, куда она легла) не бывает.
+
+local now = redis.call('TIME')
+local ms = tonumber(now[1]) * 1000 + math.floor(tonumber(now[2]) / 1000)
+redis.call('SET', KEYS[3], ARGV[2], 'EX', ARGV[5])
+redis.call('SET', KEYS[4], KEYS[1], 'EX', ARGV[5])
+redis.call('HSET', KEYS[2], ARGV[1], ARGV[2])
+redis.call('ZADD', KEYS[1], tonumber(ARGV[3]) * tonumber(ARGV[4]) + ms, ARGV[1])
+return 1
@@ -0,0 +1,25 @@
+-- Синхронизация sliding-window flood-лимита между инстансами бота (BotSecurityGate#syncFloodWindows).
+-- Один EVALSHA на пачку пользователей: локально накопленные счётчики добавляются к общему
+-- счётчику текущего окна, в ответ — общие счётчики текущего и предыдущего окна.
+--
+-- KEYS[2i-1] bot:flood:{userId}:{window}     — счётчик окна, в котором накоплены сообщения
+-- KEYS[2i]   bot:flood:{userId}:{window - 1} — предыдущее окно (вес в sliding-оценке)
+-- ARGV[1]    TTL счётчиков, секунды (два окна: предыдущее нужно до конца текущего)
+-- ARGV[i+1]  сколько сообщений накоплено локально с прошлой синхронизации
+--
+-- Ответ: {current_1, previous_1, current_2, previous_2, ...}
+
+local ttl = tonumber(ARGV[1])
+local result = {}
+
+for i = 1, #KEYS / 2 do
+    local delta = tonumber(ARGV[i + 1])
+    local current = redis.call('INCRBY', KEYS[2 * i - 1], delta)
+    if current == delta then
+        redis.call('EXPIRE', KEYS[2 * i - 1], ttl)
+    end
+    result[2 * i - 1] = current
+    result[2 * i] = tonumber(redis.call('GET', KEYS[2 * i]) or '0')
+end
+
+return result
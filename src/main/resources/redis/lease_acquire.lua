@@ -0,0 +1,21 @@
+-- Захват lease задачи планировщика (SchedulerLeaseService#runExclusive).
+--
+-- KEYS[1] scheduler:lease:{job}    — держатель "{instanceId}:{token}", TTL = lease
+-- KEYS[2] scheduler:fence:{job}    — счётчик fencing-токенов, монотонно растёт
+-- KEYS[3] scheduler:last-run:{job} — epoch ms последнего завершённого запуска в кластере
+-- ARGV[1] instanceId
+-- ARGV[2] TTL lease, мс
+--
+-- Ответ: {token, lastRunMs}; token = 0 — lease держит другой узел (или этот же,
+-- но предыдущий запуск ещё не отпустил его).
+
+local last = tonumber(redis.call('GET', KEYS[3]) or '0')
+
+if redis.call('EXISTS', KEYS[1]) == 1 then
+    return {0, last}
+end
+
+local token = redis.call('INCR', KEYS[2])
+redis.call('SET', KEYS[1], ARGV[1] .. ':' .. token, 'PX', ARGV[2])
+
+return {token, last}
@@ -0,0 +1,25 @@
+-- Завершение запуска: отметка last-run и освобождение lease.
+-- Lease не удаляется сразу, а доживает min-hold: cron срабатывает на всех узлах
+-- почти одновременно, и узел с отстающими часами не должен повторить тот же запуск.
+--
+-- KEYS[1] scheduler:lease:{job}
+-- KEYS[2] scheduler:last-run:{job}
+-- ARGV[1] "{instanceId}:{token}"
+-- ARGV[2] сколько ещё держать lease, мс (0 — удалить)
+--
+-- Ответ: 1 — отпущен, 0 — lease уже не наш (истёк во время выполнения).
+
+if redis.call('GET', KEYS[1]) ~= ARGV[1] then
+    return 0
+end
+
+local now = redis.call('TIME')
+redis.call('SET', KEYS[2], tonumber(now[1]) * 1000 + math.floor(tonumber(now[2]) / 1000))
+
+if tonumber(ARGV[2]) > 0 then
+    redis.call('PEXPIRE', KEYS[1], ARGV[2])
+else
+    redis.call('DEL', KEYS[1])
+end
+
+return 1
@@ -0,0 +1,13 @@
+-- Продление lease, пока задача выполняется. Продлевает только текущий держатель:
+-- если lease истёк и перехвачен другим узлом, ответ 0 — задача должна остановиться.
+--
+-- KEYS[1] scheduler:lease:{job}
+-- ARGV[1] "{instanceId}:{token}"
+-- ARGV[2] TTL lease, мс
+
+if redis.call('GET', KEYS[1]) ~= ARGV[1] then
+    return 0
+end
+
+redis.call('PEXPIRE', KEYS[1], ARGV[2])
+return 1
@@ -0,0 +1,17 @@
+-- Уточнение score задачи в приоритетной очереди (ExportJobProducer, shortest-job-first):
+-- задача встала с предварительной оценкой стоимости, а история чата загрузилась позже.
+--
+-- KEYS[1] {queue}:pq (ZSET, member = taskId)
+-- ARGV[1] taskId
+-- ARGV[2] разница штрафов, мс: уточнённый минус использованный при постановке
+--
+-- Задачу, которую воркер уже забрал или которую отменили, не возвращаем (ZADD XX).
+-- Разница прибавляется к текущему score, поэтому повышение aging-ом между постановкой
+-- и уточнением сохраняется. Ответ: 1 — score обновлён, 0 — задачи в очереди нет.
+
+local score = redis.call('ZSCORE', KEYS[1], ARGV[1])
+if not score then
+    return 0
+end
+redis.call('ZADD', KEYS[1], 'XX', tonumber(score) + tonumber(ARGV[2]), ARGV[1])
+return 1
@@ -0,0 +1,26 @@
+-- Запись сессии бота (RedisSessionStore#save): поля, версия, TTL и уведомление — один EVALSHA.
+--
+-- KEYS[1] bot:session:{userId} (HASH)
+-- ARGV[1] TTL, секунды
+-- ARGV[2] канал уведомлений об изменении
+-- ARGV[3] префикс сообщения: "{instanceId}:{userId}"
+-- ARGV[4..] пары field, value; пустое значение удаляет поле
+--
+-- Ответ: новая версия. В канал уходит "{instanceId}:{userId}:{version}" — остальные
+-- инстансы сбрасывают near-cache, если их копия старее.
+
+local key = KEYS[1]
+
+for i = 4, #ARGV, 2 do
+    if ARGV[i + 1] == '' then
+        redis.call('HDEL', key, ARGV[i])
+    else
+        redis.call('HSET', key, ARGV[i], ARGV[i + 1])
+    end
+end
+
+local version = redis.call('HINCRBY', key, 'version', 1)
+redis.call('EXPIRE', key, ARGV[1])
+redis.call('PUBLISH', ARGV[2], ARGV[3] .. ':' .. version)
+
+return version
@@ -3,6 +3,7 @@
  * Содержит:
  *   - fetchJson(path, params) — GET /dashboard/api/... с CSRF-заголовком и ошибками.
  *   - formatBytes / formatNumber — форматирование для таблиц и KPI.
+ *   - subscribeLive(params, handlers) — SSE-лента /dashboard/api/stats/live.
  *   - активация кнопок period-filter (без перезагрузки страницы).
  */
 (function () {
@@ -64,6 +65,31 @@
         return res;
     }
 
+    /**
+     * SSE /dashboard/api/stats/live: onUpdate(массив LiveUpdateDto); onResync() — сервер
+     * отбросил отставшие обновления или соединение рвалось (EventSource переподключается сам,
+     * пропущенное за разрыв не вернётся) — данные надо перечитать.
+     */
+    function subscribeLive(params, { onUpdate, onResync }) {
+        if (!window.EventSource) return null;
+        const source = new EventSource(buildUrl("/dashboard/api/stats/live", params));
+        let opened = false;
+        source.addEventListener("open", () => {
+            if (opened && onResync) onResync();
+            opened = true;
+        });
+        source.addEventListener("update", (e) => {
+            try {
+                onUpdate(JSON.parse(e.data));
+            } catch (err) {
+                console.error("live update failed:", err);
+            }
+        });
+        if (onResync) source.addEventListener("resync", () => onResync());
+        window.addEventListener("pagehide", () => source.close());
+        return source;
+    }
+
     function formatNumber(n) {
         if (n === null || n === undefined) return "—";
         return Number(n).toLocaleString("ru-RU");
@@ -491,7 +517,7 @@
         renderSparkline, renderStatsBar, setCountBadge,
         renderStatusDoughnut, renderKpiSparkline,
         renderTimeseries, renderBarChart, onReady,
-        initSortableTable, createElement,
+        initSortableTable, createElement, subscribeLive,
     };
 
     // bfcache restore → форсируем свежий запрос с актуальной JSESSIONID.
@@ -2,7 +2,7 @@
     "use strict";
 
     const { fetchJson, formatNumber, formatBytes, formatDate,
-            setCountBadge, initSortableTable, onReady } = window.Dashboard || {};
+            setCountBadge, initSortableTable, subscribeLive, onReady } = window.Dashboard || {};
     if (!fetchJson) { return; }
 
     const STATUS_CLASS = {
@@ -74,7 +74,12 @@
         return e[key];
     }
 
+    const LIMIT = 100;
+
     let _loadAbort = null;
+    // Строки таблицы и фильтр для живых обновлений; null — таблица ещё не загружена.
+    let _rows = null;
+    let _status = "";
 
     async function load(status) {
         if (_loadAbort) { _loadAbort.abort(); }
@@ -82,19 +87,12 @@
         const signal = _loadAbort.signal;
         const tbody = document.getElementById("events-tbody");
         if (!tbody) { return; }
-        const params = { limit: 100 };
+        const params = { limit: LIMIT };
         if (status) { params.status = status; }
+        _status = status || "";
         try {
             const events = await fetchJson("/dashboard/api/stats/recent", params, signal);
-            render(tbody, events);
-            setCountBadge("events", events.length);
-            if (initSortableTable) {
-                initSortableTable(document.getElementById("events-table"), {
-                    rows: events,
-                    rerender: (sorted) => render(tbody, sorted),
-                    getValue: sortValue,
-                });
-            }
+            show(tbody, events);
         } catch (e) {
             if (e.name === "AbortError") { return; }
             tbody.replaceChildren(el("tr", null,
@@ -102,12 +100,54 @@
         }
     }
 
+    function show(tbody, events) {
+        _rows = events;
+        render(tbody, events);
+        setCountBadge("events", events.length);
+        if (initSortableTable) {
+            initSortableTable(document.getElementById("events-table"), {
+                rows: events,
+                rerender: (sorted) => render(tbody, sorted),
+                getValue: sortValue,
+            });
+        }
+    }
+
+    function matchesFilter(status) {
+        return !_status || String(status).toUpperCase() === _status.toUpperCase();
+    }
+
+    // SSE: новое событие — в начало таблицы, изменение — на месте; фильтр статуса соблюдается.
+    function applyUpdates(updates) {
+        const tbody = document.getElementById("events-tbody");
+        if (!tbody || !_rows) { return; }
+        let rows = _rows.slice();
+        updates.forEach(u => {
+            const i = rows.findIndex(r => r.taskId === u.taskId);
+            if (i >= 0) {
+                const r = rows[i];
+                rows[i] = { ...r, status: u.status,
+                    messagesCount: (Number(r.messagesCount) || 0) + (Number(u.messages) || 0),
+                    bytesCount: (Number(r.bytesCount) || 0) + (Number(u.bytes) || 0) };
+            } else if (u.kind === "created") {
+                rows.unshift({ taskId: u.taskId, botUserId: u.botUserId, username: u.username,
+                    chatTitle: u.chatTitle, status: u.status, messagesCount: u.messages,
+                    bytesCount: u.bytes, startedAt: u.startedAt });
+            }
+        });
+        rows = rows.filter(r => matchesFilter(r.status)).slice(0, LIMIT);
+        show(tbody, rows);
+    }
+
     function init() {
         const select = document.getElementById("status-filter");
         if (select) {
             select.addEventListener("change", () => load(select.value));
         }
         load(select ? select.value : "");
+        if (subscribeLive) {
+            subscribeLive({}, { onUpdate: applyUpdates, onResync: () => load(_status) });
+        }
     }
 
     onReady(init);
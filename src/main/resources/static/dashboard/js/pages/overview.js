@@ -1,7 +1,8 @@
 /**
  * overview.js — наполняет KPI (значение + delta + sparkline + meta),
  * таблицы, 4 Chart.js-графика и stats-bar на /dashboard/overview.
- * Данные: /dashboard/api/stats/overview + /timeseries (×3 метрики).
+ * Данные: /dashboard/api/stats/overview + /timeseries (×3 метрики) + /stats/queue-eta.
+ * KPI экспортов/сообщений/байт дальше обновляются дельтами из SSE /stats/live без запросов к API.
  */
 (function () {
     "use strict";
@@ -9,11 +10,15 @@
     const { fetchJson, formatNumber, formatBytes, readPeriodFromUrl,
             setKpi, setKpiDelta, setKpiMeta, setCountBadge,
             renderKpiSparkline, renderStatsBar, renderStatusDoughnut,
-            renderTimeseries, renderBarChart, initSortableTable, onReady } = window.Dashboard || {};
+            renderTimeseries, renderBarChart, initSortableTable, subscribeLive,
+            onReady } = window.Dashboard || {};
     if (!fetchJson) { return; }
 
     const METRICS = ["exports", "messages", "bytes", "users"];
 
+    // Текущие KPI для живых дельт; null — данные ещё не загружены.
+    let totals = null;
+
     async function load() {
         const period = readPeriodFromUrl();
         const params = { period: period.period, from: period.from, to: period.to };
@@ -26,10 +31,14 @@
             const tsExports = series[0];
             const tsUsers  = series[3];
 
-            setKpi("totalExports", formatNumber(overview.totalExports));
-            setKpi("totalMessages", formatNumber(overview.totalMessages));
-            setKpi("totalBytes", formatBytes(overview.totalBytes));
-            setKpi("totalUsers", formatNumber(overview.totalUsers));
+            totals = {
+                exports: Number(overview.totalExports) || 0,
+                messages: Number(overview.totalMessages) || 0,
+                bytes: Number(overview.totalBytes) || 0,
+            };
+            renderTotals();
+            // usersErrorBound != null — оценка по HLL-скетчам (длинный период), а не точный подсчёт.
+            setKpi("totalUsers", (overview.usersErrorBound != null ? "≈" : "") + formatNumber(overview.totalUsers));
 
             setKpiDelta("exports", overview.deltaExports, { kind: "percent" });
             setKpiDelta("messages", overview.deltaMessages, { kind: "percent" });
@@ -215,5 +224,72 @@
         }
     }
 
-    onReady(() => { load(); loadCachePanel(); });
+    function formatSeconds(sec) {
+        if (sec == null) return "—";
+        if (sec < 60) return Math.round(sec) + " с";
+        if (sec < 3600) return Math.round(sec / 60) + " мин";
+        return (sec / 3600).toFixed(1) + " ч";
+    }
+
+    function renderQueuePanel(data) {
+        const setElementText = (selector, text) => {
+            const el = document.querySelector(selector);
+            if (el) el.textContent = text;
+        };
+        const statusEl = document.querySelector("[data-queue-status]");
+        if (statusEl) statusEl.hidden = !!data?.available;
+        if (!data) return;
+
+        setElementText("[data-queue-kpi='pending']", formatNumber(data.pendingInQueue));
+        setElementText("[data-queue-kpi-meta='pending']", data.hasActiveJob ? "воркер занят" : "воркер свободен");
+        if (data.available) {
+            setElementText("[data-queue-kpi='eta']", "~" + formatSeconds(data.etaSeconds));
+            setElementText("[data-queue-kpi-meta='eta']",
+                formatSeconds(data.lowSeconds) + " – " + formatSeconds(data.highSeconds)
+                + " · " + formatNumber(data.samples) + " набл.");
+        }
+        ["telegram", "cache"].forEach(key => {
+            const t = data.sources?.[key];
+            if (!t) return;
+            setElementText(`[data-queue-kpi='${key}']`, t.messagesPerSecond.toFixed(1));
+            setElementText(`[data-queue-kpi-meta='${key}']`,
+                "+" + formatSeconds(t.overheadSeconds) + " на задачу · " + formatNumber(t.samples) + " набл.");
+        });
+    }
+
+    async function loadQueuePanel() {
+        try {
+            renderQueuePanel(await fetchJson("/dashboard/api/stats/queue-eta"));
+        } catch (e) {
+            console.error("queue-eta load failed:", e);
+        }
+    }
+
+    function renderTotals() {
+        setKpi("totalExports", formatNumber(totals.exports));
+        setKpi("totalMessages", formatNumber(totals.messages));
+        setKpi("totalBytes", formatBytes(totals.bytes));
+    }
+
+    // Дельты применяются, только если период доходит до сегодня: события ленты — свежие.
+    // Изменение задачи, стартовавшей до начала периода, неточно до следующей загрузки страницы.
+    function subscribeTotals() {
+        const period = readPeriodFromUrl();
+        const today = new Date().toISOString().slice(0, 10);
+        if (!subscribeLive || (period.period === "custom" && period.to && period.to < today)) { return; }
+        subscribeLive({}, {
+            onUpdate: (updates) => {
+                if (!totals) { return; }
+                updates.forEach(u => {
+                    totals.exports += Number(u.exports) || 0;
+                    totals.messages += Number(u.messages) || 0;
+                    totals.bytes += Number(u.bytes) || 0;
+                });
+                renderTotals();
+            },
+            onResync: load,
+        });
+    }
+
+    onReady(() => { load(); loadCachePanel(); loadQueuePanel(); subscribeTotals(); });
 })();
@@ -3,9 +3,7 @@ package com.tcleaner;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.tcleaner.core.MessageFilter;
-import com.tcleaner.dashboard.domain.BotUser;
 import com.tcleaner.dashboard.domain.Chat;
-import com.tcleaner.dashboard.domain.ExportEvent;
 import com.tcleaner.dashboard.domain.ExportSource;
 import com.tcleaner.dashboard.domain.ExportStatus;
 import com.tcleaner.dashboard.events.StatsEventPayload;
@@ -21,6 +19,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ValueOperations;
 
@@ -36,10 +35,12 @@ import static org.mockito.ArgumentMatchers.anyCollection;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 /**
@@ -64,12 +65,52 @@ class CoverageRound4BranchTests {
         private ExportEventIngestionService svc;
 
         @BeforeEach
+        @SuppressWarnings({"unchecked", "rawtypes"})
         void init() {
             events = mock(ExportEventRepository.class);
             userUpserter = mock(BotUserUpserter.class);
             chatUpserter = mock(ChatUpserter.class);
             subs = mock(SubscriptionService.class);
-            svc = new ExportEventIngestionService(events, userUpserter, chatUpserter, subs);
+            ObjectProvider none = mock(ObjectProvider.class);
+            svc = new ExportEventIngestionService(events, userUpserter, chatUpserter, subs,
+                    none, none, none, none, none);
+        }
+
+        private ExportEventRepository.IngestResult result(ExportStatus previous, ExportStatus status) {
+            ExportEventRepository.IngestResult result = mock(ExportEventRepository.IngestResult.class);
+            // Mockito отдаёт 0 для Long — NULL-колонки RETURNING задаём явно.
+            when(result.getChatRefId()).thenReturn(null);
+            when(result.getFinishedAtMillis()).thenReturn(null);
+            when(result.getSubscriptionId()).thenReturn(null);
+            when(result.getMessagesCount()).thenReturn(null);
+            when(result.getPreviousMessagesCount()).thenReturn(null);
+            when(result.getBytesCount()).thenReturn(null);
+            when(result.getPreviousBytesCount()).thenReturn(null);
+            when(result.getPreviousStatus()).thenReturn(previous);
+            when(result.getStatus()).thenReturn(status);
+            when(result.getBotUserId()).thenReturn(1L);
+            when(result.getStartedAtMillis()).thenReturn(Instant.now().toEpochMilli());
+            return result;
+        }
+
+        private ExportEventRepository.IngestResult stubUpsert(ExportStatus previous, ExportStatus status) {
+            ExportEventRepository.IngestResult result = result(previous, status);
+            when(chatUpserter.touch(any(), any(), any(), any(), any())).thenReturn("@c");
+            when(events.upsertForIngest(any(), anyLong(), any(), any(), any(), any(), any(), any(),
+                    any(), any(), any(), any(), any(), any(), any(), any())).thenReturn(result);
+            return result;
+        }
+
+        private ExportEventRepository.IngestResult stubMerge(ExportStatus previous, ExportStatus status) {
+            ExportEventRepository.IngestResult result = result(previous, status);
+            when(events.mergeForIngest(any(), any(), any(), any(), any(), any(), any(), any(), any(), any(),
+                    any(), any())).thenReturn(Optional.of(result));
+            return result;
+        }
+
+        private void verifyNoUpsert() {
+            verify(events, never()).upsertForIngest(any(), anyLong(), any(), any(), any(), any(), any(), any(),
+                    any(), any(), any(), any(), any(), any(), any(), any());
         }
 
         @Test
@@ -77,8 +118,8 @@ class CoverageRound4BranchTests {
         void payloadNullEarlyReturn() {
             svc.ingest(null);
 
-            verify(events, never()).save(any());
-            verify(userUpserter, never()).upsert(anyLong(), any(), any(), any());
+            verifyNoInteractions(events);
+            verify(userUpserter, never()).touch(anyLong(), any(), any(), any());
         }
 
         @Test
@@ -86,7 +127,7 @@ class CoverageRound4BranchTests {
         void typeNullEarlyReturn() {
             svc.ingest(StatsEventPayload.builder().taskId("t").build());
 
-            verify(events, never()).save(any());
+            verifyNoInteractions(events);
         }
 
         @Test
@@ -96,7 +137,7 @@ class CoverageRound4BranchTests {
                     .type(StatsEventType.BOT_USER_SEEN)
                     .username("alice").build());
 
-            verify(userUpserter, never()).upsert(anyLong(), any(), any(), any());
+            verify(userUpserter, never()).touch(anyLong(), any(), any(), any());
         }
 
         @Test
@@ -105,7 +146,7 @@ class CoverageRound4BranchTests {
             svc.ingest(StatsEventPayload.builder()
                     .type(StatsEventType.EXPORT_STARTED).build());
 
-            verify(events, never()).save(any());
+            verifyNoInteractions(events);
         }
 
         @Test
@@ -114,26 +155,27 @@ class CoverageRound4BranchTests {
             svc.ingest(StatsEventPayload.builder()
                     .type(StatsEventType.EXPORT_STARTED).taskId("   ").build());
 
-            verify(events, never()).save(any());
+            verifyNoInteractions(events);
         }
 
         @Test
-        @DisplayName("EXPORT_STARTED без bot_user_id/chat (минимальные поля) → skip insert")
+        @DisplayName("EXPORT_STARTED без bot_user_id/chat и без строки → UPDATE ничего не вернул, skip")
         void startedMissingMinimalFields() {
-            when(events.findByTaskId("t1")).thenReturn(Optional.empty());
+            when(events.mergeForIngest(eq("t1"), any(), any(), any(), any(), any(), any(), any(), any(), any(),
+                    any(), any())).thenReturn(Optional.empty());
 
             svc.ingest(StatsEventPayload.builder()
                     .type(StatsEventType.EXPORT_STARTED).taskId("t1").build());
 
-            verify(events, never()).save(any());
-            verify(chatUpserter, never()).upsert(any(), any(), any(), any(), any());
+            verifyNoUpsert();
+            verify(chatUpserter, never()).touch(any(), any(), any(), any(), any());
+            verify(userUpserter, never()).recordTerminalExport(anyLong(), anyString(), any(), any(), any());
         }
 
         @Test
         @DisplayName("ingest бросает (chatUpserter throw) → @Transactional rollback → exception проброшен наружу")
         void ingestRethrowsOnFailure() {
-            when(events.findByTaskId(anyString())).thenReturn(Optional.empty());
-            when(chatUpserter.upsert(any(), any(), any(), any(), any()))
+            when(chatUpserter.touch(any(), any(), any(), any(), any()))
                     .thenThrow(new RuntimeException("DB fail"));
 
             try {
@@ -144,18 +186,15 @@ class CoverageRound4BranchTests {
             } catch (RuntimeException ex) {
                 assertThat(ex.getMessage()).contains("DB fail");
             }
+            verifyNoUpsert();
         }
 
         @Test
         @DisplayName("updateSubscriptionOnTerminal: recordSuccess бросает → swallowed, не рушит ingest")
         void subscriptionUpdateSwallowsException() {
             // ивент EXPORT_COMPLETED с subscriptionId — терминал → recordSuccess
-            when(events.findByTaskId("t2")).thenReturn(Optional.empty());
-            Chat chatRet = Chat.builder().id(1L).canonicalChatId("@c").build();
-            BotUser userRet = BotUser.builder().botUserId(1L).build();
-            when(chatUpserter.upsert(any(), any(), any(), any(), any())).thenReturn(chatRet);
-            when(userUpserter.upsert(anyLong(), any(), any(), any())).thenReturn(userRet);
-            when(events.save(any(ExportEvent.class))).thenAnswer(inv -> inv.getArgument(0));
+            ExportEventRepository.IngestResult result = stubUpsert(null, ExportStatus.COMPLETED);
+            when(result.getSubscriptionId()).thenReturn(99L);
             doThrow(new RuntimeException("DB sub error"))
                     .when(subs).recordSuccess(anyLong());
 
@@ -173,12 +212,8 @@ class CoverageRound4BranchTests {
         @Test
         @DisplayName("updateSubscriptionOnTerminal: FAILED → recordFailure (не recordSuccess)")
         void subscriptionUpdateFailedCallsRecordFailure() {
-            when(events.findByTaskId("t3")).thenReturn(Optional.empty());
-            Chat chatRet = Chat.builder().id(1L).canonicalChatId("@c").build();
-            BotUser userRet = BotUser.builder().botUserId(1L).build();
-            when(chatUpserter.upsert(any(), any(), any(), any(), any())).thenReturn(chatRet);
-            when(userUpserter.upsert(anyLong(), any(), any(), any())).thenReturn(userRet);
-            when(events.save(any(ExportEvent.class))).thenAnswer(inv -> inv.getArgument(0));
+            ExportEventRepository.IngestResult result = stubUpsert(null, ExportStatus.FAILED);
+            when(result.getSubscriptionId()).thenReturn(50L);
 
             svc.ingest(StatsEventPayload.builder()
                     .type(StatsEventType.EXPORT_FAILED).taskId("t3")
@@ -192,12 +227,8 @@ class CoverageRound4BranchTests {
         @Test
         @DisplayName("updateSubscriptionOnTerminal: CANCELLED — НЕ дёргает recordSuccess/recordFailure")
         void cancelledDoesNotUpdateSubscription() {
-            when(events.findByTaskId("tC")).thenReturn(Optional.empty());
-            Chat chatRet = Chat.builder().id(1L).canonicalChatId("@c").build();
-            BotUser userRet = BotUser.builder().botUserId(1L).build();
-            when(chatUpserter.upsert(any(), any(), any(), any(), any())).thenReturn(chatRet);
-            when(userUpserter.upsert(anyLong(), any(), any(), any())).thenReturn(userRet);
-            when(events.save(any(ExportEvent.class))).thenAnswer(inv -> inv.getArgument(0));
+            ExportEventRepository.IngestResult result = stubUpsert(null, ExportStatus.CANCELLED);
+            when(result.getSubscriptionId()).thenReturn(7L);
 
             svc.ingest(StatsEventPayload.builder()
                     .type(StatsEventType.EXPORT_CANCELLED).taskId("tC")
@@ -211,12 +242,7 @@ class CoverageRound4BranchTests {
         @Test
         @DisplayName("subscriptionId=null → ветка raннего return в updateSubscriptionOnTerminal")
         void nullSubscriptionIdSkipsUpdate() {
-            when(events.findByTaskId("tNull")).thenReturn(Optional.empty());
-            Chat chatRet = Chat.builder().id(1L).canonicalChatId("@c").build();
-            BotUser userRet = BotUser.builder().botUserId(1L).build();
-            when(chatUpserter.upsert(any(), any(), any(), any(), any())).thenReturn(chatRet);
-            when(userUpserter.upsert(anyLong(), any(), any(), any())).thenReturn(userRet);
-            when(events.save(any(ExportEvent.class))).thenAnswer(inv -> inv.getArgument(0));
+            stubUpsert(null, ExportStatus.COMPLETED);
 
             svc.ingest(StatsEventPayload.builder()
                     .type(StatsEventType.EXPORT_COMPLETED).taskId("tNull")
@@ -227,90 +253,64 @@ class CoverageRound4BranchTests {
         }
 
         @Test
-        @DisplayName("EXPORT_BYTES_MEASURED для existing — обновляет bytes, статус не меняет")
+        @DisplayName("EXPORT_BYTES_MEASURED для existing — merge только bytes, статус null (не меняется)")
         void bytesMeasuredOnlyUpdatesBytes() {
-            ExportEvent existing = ExportEvent.builder()
-                    .taskId("tb").botUserId(1L).chatRefId(1L)
-                    .status(ExportStatus.COMPLETED)
-                    .startedAt(Instant.now())
-                    .build();
-            when(events.findByTaskId("tb")).thenReturn(Optional.of(existing));
-            when(events.save(any(ExportEvent.class))).thenAnswer(inv -> inv.getArgument(0));
+            stubMerge(ExportStatus.COMPLETED, ExportStatus.COMPLETED);
 
             svc.ingest(StatsEventPayload.builder()
                     .type(StatsEventType.EXPORT_BYTES_MEASURED).taskId("tb")
                     .bytesCount(5000L).build());
 
-            assertThat(existing.getBytesCount()).isEqualTo(5000L);
-            // статус не меняется
-            assertThat(existing.getStatus()).isEqualTo(ExportStatus.COMPLETED);
+            verify(events).mergeForIngest(eq("tb"), isNull(), any(), isNull(), eq(5000L),
+                    isNull(), isNull(), isNull(), isNull(), isNull(), isNull(), any());
+            verifyNoUpsert();
+            verify(userUpserter, never()).recordTerminalExport(anyLong(), anyString(), any(), any(), any());
         }
 
         @Test
-        @DisplayName("Late STARTED после COMPLETED — статус НЕ откатывается (canAdvanceStatus prev=terminal)")
+        @DisplayName("Late STARTED после COMPLETED — RETURNING: terminal-prev, totals и подписка не трогаются")
         void lateStartedDoesNotOverwriteTerminal() {
-            ExportEvent existing = ExportEvent.builder()
-                    .taskId("tL").botUserId(1L).chatRefId(1L)
-                    .status(ExportStatus.COMPLETED)
-                    .startedAt(Instant.now())
-                    .finishedAt(Instant.now())
-                    .build();
-            when(events.findByTaskId("tL")).thenReturn(Optional.of(existing));
-            when(events.save(any(ExportEvent.class))).thenAnswer(inv -> inv.getArgument(0));
+            stubUpsert(ExportStatus.COMPLETED, ExportStatus.COMPLETED);
 
             svc.ingest(StatsEventPayload.builder()
                     .type(StatsEventType.EXPORT_STARTED).taskId("tL")
-                    .botUserId(1L).chatIdRaw("@c").build());
+                    .botUserId(1L).chatIdRaw("@c").subscriptionId(5L).build());
 
-            assertThat(existing.getStatus()).isEqualTo(ExportStatus.COMPLETED);
+            verify(events).upsertForIngest(eq("tL"), eq(1L), any(), any(), eq("QUEUED"), any(), any(), any(),
+                    any(), any(), any(), any(), any(), any(), any(), any());
+            verify(userUpserter, never()).recordTerminalExport(anyLong(), anyString(), any(), any(), any());
+            verifyNoInteractions(subs);
         }
 
         @Test
         @DisplayName("Existing event: chat metadata update (chatTitle != null) дёргает upsert чата")
         void existingEventUpdatesChatMetadata() {
-            ExportEvent existing = ExportEvent.builder()
-                    .taskId("tCh").botUserId(1L).chatRefId(1L)
-                    .status(ExportStatus.QUEUED)
-                    .startedAt(Instant.now())
-                    .build();
-            when(events.findByTaskId("tCh")).thenReturn(Optional.of(existing));
-            when(events.save(any(ExportEvent.class))).thenAnswer(inv -> inv.getArgument(0));
+            stubMerge(ExportStatus.QUEUED, ExportStatus.QUEUED);
 
             svc.ingest(StatsEventPayload.builder()
                     .type(StatsEventType.EXPORT_BYTES_MEASURED).taskId("tCh")
                     .chatTitle("Renamed Chat").build());
 
-            verify(chatUpserter).upsert(any(), any(), any(), eq("Renamed Chat"), any());
+            verify(chatUpserter).touch(any(), any(), any(), eq("Renamed Chat"), any());
         }
 
         @Test
-        @DisplayName("coalesce: blank string не перетирает существующее поле")
+        @DisplayName("coalesce: blank string уходит в merge как null — COALESCE сохраняет поле")
         void coalesceBlankSkipped() {
-            ExportEvent existing = ExportEvent.builder()
-                    .taskId("tCo").botUserId(1L).chatRefId(1L)
-                    .status(ExportStatus.QUEUED)
-                    .startedAt(Instant.now())
-                    .keywords("original")
-                    .build();
-            when(events.findByTaskId("tCo")).thenReturn(Optional.of(existing));
-            when(events.save(any(ExportEvent.class))).thenAnswer(inv -> inv.getArgument(0));
+            stubMerge(ExportStatus.QUEUED, ExportStatus.QUEUED);
 
             svc.ingest(StatsEventPayload.builder()
                     .type(StatsEventType.EXPORT_BYTES_MEASURED).taskId("tCo")
                     .keywords("   ").build());
 
-            assertThat(existing.getKeywords()).isEqualTo("original");
+            verify(events).mergeForIngest(eq("tCo"), isNull(), any(), isNull(), isNull(),
+                    isNull(), isNull(), isNull(), isNull(), isNull(), isNull(), any());
         }
 
         @Test
         @DisplayName("parseDate: datetime fallback — '2026-04-14T00:00:00' → 2026-04-14")
         void parseDateDateTimeFallback() {
-            when(events.findByTaskId("tDt")).thenReturn(Optional.empty());
-            Chat chatRet = Chat.builder().id(1L).canonicalChatId("@c").build();
-            BotUser userRet = BotUser.builder().botUserId(1L).build();
-            when(chatUpserter.upsert(any(), any(), any(), any(), any())).thenReturn(chatRet);
-            when(userUpserter.upsert(anyLong(), any(), any(), any())).thenReturn(userRet);
-            when(events.save(any(ExportEvent.class))).thenAnswer(inv -> inv.getArgument(0));
+            stubUpsert(null, ExportStatus.QUEUED);
 
             svc.ingest(StatsEventPayload.builder()
                     .type(StatsEventType.EXPORT_STARTED).taskId("tDt")
@@ -319,62 +319,43 @@ class CoverageRound4BranchTests {
                     .toDate("garbage")  // невалидный → ex2 → null
                     .build());
 
-            org.mockito.ArgumentCaptor<ExportEvent> cap = org.mockito.ArgumentCaptor.forClass(ExportEvent.class);
-            verify(events).save(cap.capture());
-            assertThat(cap.getValue().getFromDate()).isEqualTo(LocalDate.of(2026, 4, 14));
-            assertThat(cap.getValue().getToDate()).isNull();
+            verify(events).upsertForIngest(eq("tDt"), eq(1L), eq("@c"), isNull(), eq("QUEUED"), any(),
+                    isNull(), isNull(), eq(LocalDate.of(2026, 4, 14)), isNull(), isNull(), isNull(),
+                    eq("BOT"), isNull(), isNull(), any());
         }
 
         @Test
         @DisplayName("parseSource: blank → BOT default")
         void parseSourceBlankDefault() {
-            when(events.findByTaskId("tS1")).thenReturn(Optional.empty());
-            Chat chatRet = Chat.builder().id(1L).canonicalChatId("@c").build();
-            BotUser userRet = BotUser.builder().botUserId(1L).build();
-            when(chatUpserter.upsert(any(), any(), any(), any(), any())).thenReturn(chatRet);
-            when(userUpserter.upsert(anyLong(), any(), any(), any())).thenReturn(userRet);
-            when(events.save(any(ExportEvent.class))).thenAnswer(inv -> inv.getArgument(0));
+            stubUpsert(null, ExportStatus.QUEUED);
 
             svc.ingest(StatsEventPayload.builder()
                     .type(StatsEventType.EXPORT_STARTED).taskId("tS1")
                     .botUserId(1L).chatIdRaw("@c")
                     .source("   ").build());
 
-            org.mockito.ArgumentCaptor<ExportEvent> cap = org.mockito.ArgumentCaptor.forClass(ExportEvent.class);
-            verify(events).save(cap.capture());
-            assertThat(cap.getValue().getSource()).isEqualTo(ExportSource.BOT);
+            verify(events).upsertForIngest(eq("tS1"), anyLong(), any(), any(), any(), any(), any(), any(),
+                    any(), any(), any(), any(), eq(ExportSource.BOT.name()), any(), any(), any());
         }
 
         @Test
         @DisplayName("parseSource: невалидное значение → BOT fallback (catch IllegalArgumentException)")
         void parseSourceInvalidFallback() {
-            when(events.findByTaskId("tS2")).thenReturn(Optional.empty());
-            Chat chatRet = Chat.builder().id(1L).canonicalChatId("@c").build();
-            BotUser userRet = BotUser.builder().botUserId(1L).build();
-            when(chatUpserter.upsert(any(), any(), any(), any(), any())).thenReturn(chatRet);
-            when(userUpserter.upsert(anyLong(), any(), any(), any())).thenReturn(userRet);
-            when(events.save(any(ExportEvent.class))).thenAnswer(inv -> inv.getArgument(0));
+            stubUpsert(null, ExportStatus.QUEUED);
 
             svc.ingest(StatsEventPayload.builder()
                     .type(StatsEventType.EXPORT_STARTED).taskId("tS2")
                     .botUserId(1L).chatIdRaw("@c")
                     .source("unknown_xyz").build());
 
-            org.mockito.ArgumentCaptor<ExportEvent> cap = org.mockito.ArgumentCaptor.forClass(ExportEvent.class);
-            verify(events).save(cap.capture());
-            assertThat(cap.getValue().getSource()).isEqualTo(ExportSource.BOT);
+            verify(events).upsertForIngest(eq("tS2"), anyLong(), any(), any(), any(), any(), any(), any(),
+                    any(), any(), any(), any(), eq(ExportSource.BOT.name()), any(), any(), any());
         }
 
         @Test
-        @DisplayName("maybeBumpUserTotals: COMPLETED с null messages/bytes — totalExports++, остальные не трогаются")
-        void totalsBumpNullCountsNotApplied() {
-            when(events.findByTaskId("tT")).thenReturn(Optional.empty());
-            Chat chatRet = Chat.builder().id(1L).canonicalChatId("@c").build();
-            BotUser userRet = BotUser.builder().botUserId(1L)
-                    .totalExports(5).totalMessages(100L).totalBytes(1000L).build();
-            when(chatUpserter.upsert(any(), any(), any(), any(), any())).thenReturn(chatRet);
-            when(userUpserter.upsert(anyLong(), any(), any(), any())).thenReturn(userRet);
-            when(events.save(any(ExportEvent.class))).thenAnswer(inv -> inv.getArgument(0));
+        @DisplayName("COMPLETED первым событием — totals засчитываются один раз через recordTerminalExport")
+        void terminalInsertRecordsTotals() {
+            stubUpsert(null, ExportStatus.COMPLETED);
 
             svc.ingest(StatsEventPayload.builder()
                     .type(StatsEventType.EXPORT_COMPLETED).taskId("tT")
@@ -382,20 +363,28 @@ class CoverageRound4BranchTests {
                     // messages/bytes намеренно null
                     .build());
 
-            assertThat(userRet.getTotalExports()).isEqualTo(6);
-            assertThat(userRet.getTotalMessages()).isEqualTo(100L);
-            assertThat(userRet.getTotalBytes()).isEqualTo(1000L);
+            verify(userUpserter).recordTerminalExport(eq(1L), eq("tT"), isNull(), isNull(), isNull());
+        }
+
+        @Test
+        @DisplayName("UPSERT попал в строку параллельного consumer'а (prev QUEUED) → terminal засчитан по RETURNING")
+        void upsertConflictCountsTerminalFromReturning() {
+            stubUpsert(ExportStatus.QUEUED, ExportStatus.COMPLETED);
+
+            svc.ingest(StatsEventPayload.builder()
+                    .type(StatsEventType.EXPORT_COMPLETED).taskId("tR")
+                    .botUserId(1L).chatIdRaw("@c").messagesCount(10L)
+                    .build());
+
+            verify(events).upsertForIngest(eq("tR"), eq(1L), any(), any(), eq("COMPLETED"), any(), eq(10L),
+                    any(), any(), any(), any(), any(), any(), any(), any(), any());
+            verify(userUpserter).recordTerminalExport(eq(1L), eq("tR"), any(), any(), any());
         }
 
         @Test
         @DisplayName("Insert через canonicalChatId (chatIdRaw отсутствует) — минимальные поля приняты")
         void insertWithCanonicalOnly() {
-            when(events.findByTaskId("tCanon")).thenReturn(Optional.empty());
-            Chat chatRet = Chat.builder().id(1L).canonicalChatId("-100xyz").build();
-            BotUser userRet = BotUser.builder().botUserId(7L).build();
-            when(chatUpserter.upsert(any(), any(), any(), any(), any())).thenReturn(chatRet);
-            when(userUpserter.upsert(anyLong(), any(), any(), any())).thenReturn(userRet);
-            when(events.save(any(ExportEvent.class))).thenAnswer(inv -> inv.getArgument(0));
+            stubUpsert(null, ExportStatus.QUEUED);
 
             svc.ingest(StatsEventPayload.builder()
                     .type(StatsEventType.EXPORT_STARTED).taskId("tCanon")
@@ -403,7 +392,8 @@ class CoverageRound4BranchTests {
                     // chatIdRaw отсутствует — но canonical задан → hasMinimalFieldsForInsert=true
                     .build());
 
-            verify(events).save(any(ExportEvent.class));
+            verify(events).upsertForIngest(eq("tCanon"), eq(7L), any(), any(), any(), any(), any(), any(),
+                    any(), any(), any(), any(), any(), any(), any(), any());
         }
     }
 
@@ -17,12 +17,9 @@ import com.tcleaner.dashboard.auth.telegram.TelegramLoginService;
 import com.tcleaner.dashboard.auth.telegram.TelegramMiniAppAuthVerifier;
 import com.tcleaner.dashboard.config.RedisStreamsConfig;
 import com.tcleaner.dashboard.domain.AuthProvider;
-import com.tcleaner.dashboard.domain.BotUser;
-import com.tcleaner.dashboard.domain.Chat;
 import com.tcleaner.dashboard.domain.ChatSubscription;
 import com.tcleaner.dashboard.domain.DashboardRole;
 import com.tcleaner.dashboard.domain.DashboardUser;
-import com.tcleaner.dashboard.domain.ExportEvent;
 import com.tcleaner.dashboard.domain.ExportStatus;
 import com.tcleaner.dashboard.dto.EventRowDto;
 import com.tcleaner.dashboard.dto.TimeSeriesPointDto;
@@ -37,6 +34,7 @@ import com.tcleaner.dashboard.repository.ExportEventRepository;
 import com.tcleaner.dashboard.service.ingestion.BotUserUpserter;
 import com.tcleaner.dashboard.service.ingestion.ChatUpserter;
 import com.tcleaner.dashboard.service.ingestion.ExportEventIngestionService;
+import com.tcleaner.dashboard.service.scheduling.SchedulerLeases;
 import com.tcleaner.dashboard.service.stats.StatsPeriod;
 import com.tcleaner.dashboard.service.stats.StatsQueryService;
 import com.tcleaner.dashboard.service.subscription.ConfirmationScheduler;
@@ -51,6 +49,7 @@ import org.springframework.data.redis.core.ListOperations;
 import org.springframework.data.redis.core.StreamOperations;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.security.web.context.SecurityContextRepository;
@@ -72,9 +71,11 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doThrow;
@@ -307,30 +308,42 @@ class CoverageRound5Tests {
             publisher = mock(StatsStreamPublisher.class);
             when(redis.opsForValue()).thenReturn(valueOps);
             when(redis.opsForList()).thenReturn(listOps);
-            producer = new ExportJobProducer(redis, new ObjectMapper(), "telegram_queue", publisherProvider);
+            producer = new ExportJobProducer(redis, new ObjectMapper(), "telegram_queue", publisherProvider, "list",
+                    mock(ObjectProvider.class));
         }
 
         @Test
         @DisplayName("enqueue: дубликат активного экспорта → IllegalStateException")
         void enqueueDuplicateActive() {
-            when(valueOps.setIfAbsent(anyString(), anyString(), anyLong(), any())).thenReturn(false);
-            when(valueOps.get(anyString())).thenReturn("export_existing");
+            when(redis.execute(any(RedisScript.class), anyList(), any(Object[].class)))
+                    .thenReturn(List.of(0L, "export_existing"));
             assertThatThrownBy(() -> producer.enqueue(1L, 1L, 123L))
                     .isInstanceOf(IllegalStateException.class)
                     .hasMessageContaining("export_existing");
+            verify(redis, never()).delete(anyString());
         }
 
         @Test
-        @DisplayName("enqueue: LPUSH бросает → откат брони + RuntimeException")
-        void enqueueLpushFailRollback() {
-            when(valueOps.setIfAbsent(anyString(), anyString(), anyLong(), any())).thenReturn(true);
-            when(valueOps.get(eq("cache:ranges:123"))).thenReturn(null);
-            when(valueOps.get(eq("canonical:123"))).thenReturn(null);
-            when(listOps.rightPush(anyString(), anyString())).thenThrow(new RuntimeException("redis down"));
+        @DisplayName("enqueue: скрипт бросает → RuntimeException, бронь не трогаем (скрипт атомарен)")
+        void enqueueScriptFailNoRollback() {
+            when(redis.execute(any(RedisScript.class), anyList(), any(Object[].class)))
+                    .thenThrow(new RuntimeException("redis down"));
 
             assertThatThrownBy(() -> producer.enqueue(1L, 1L, 123L))
-                    .isInstanceOf(RuntimeException.class);
-            verify(redis).delete(eq("active_export:1"));
+                    .isInstanceOf(RuntimeException.class)
+                    .hasMessageContaining("Ошибка добавления задачи в очередь");
+            verify(redis, never()).delete(anyString());
+        }
+
+        @Test
+        @DisplayName("enqueue: пустой ответ скрипта → RuntimeException")
+        void enqueueEmptyScriptReply() {
+            when(redis.execute(any(RedisScript.class), anyList(), any(Object[].class)))
+                    .thenReturn(List.of());
+
+            assertThatThrownBy(() -> producer.enqueue(1L, 1L, 123L))
+                    .isInstanceOf(RuntimeException.class)
+                    .hasMessageContaining("пустой ответ");
         }
 
         @Test
@@ -508,7 +521,7 @@ class CoverageRound5Tests {
         }
     }
 
-    // ─── BotSessionRegistry — 7 lines, 3 branches ─────────────────────────────
+    // ─── BotSessionRegistry ───────────────────────────────────────────────────
     @Nested
     @DisplayName("BotSessionRegistry")
     class BotSessionRegistryTests {
@@ -522,38 +535,6 @@ class CoverageRound5Tests {
             UserSession s2 = reg.get(1L);
             assertThat(s2).isSameAs(s);
         }
-
-        @Test
-        @DisplayName("evictStaleSessions: пустая карта → ранний return")
-        void evictEmpty() {
-            BotSessionRegistry reg = new BotSessionRegistry();
-            reg.evictStaleSessions();
-        }
-
-        @Test
-        @DisplayName("evictStaleSessions: не stale → ничего не удалено")
-        void evictFresh() {
-            BotSessionRegistry reg = new BotSessionRegistry();
-            reg.get(1L);
-            reg.evictStaleSessions();
-            assertThat(reg.get(1L)).isNotNull();
-        }
-
-        @Test
-        @DisplayName("evictStaleSessions: stale (lastAccess давно) → удалена")
-        void evictStale() throws Exception {
-            BotSessionRegistry reg = new BotSessionRegistry();
-            UserSession s = reg.get(2L);
-            // подкручиваем lastAccess через reflection
-            Field f = UserSession.class.getDeclaredField("lastAccess");
-            f.setAccessible(true);
-            f.set(s, Instant.now().minus(Duration.ofHours(10)));
-            reg.evictStaleSessions();
-            // после eviction get создаст новую — но проверить размер прямо нельзя.
-            // Косвенно: новая сессия != s (т.к. computeIfAbsent создаст заново).
-            UserSession s2 = reg.get(2L);
-            assertThat(s2).isNotSameAs(s);
-        }
     }
 
     // ─── ExportBotCallbackHandler — 7 lines, 2 branches ───────────────────────
@@ -673,7 +654,8 @@ class CoverageRound5Tests {
             upserter = mock(BotUserUpserter.class);
             when(i18n.msg(any(BotLanguage.class), anyString())).thenReturn("text");
             when(upserter.resolveLanguage(anyLong())).thenReturn(BotLanguage.EN);
-            sched = new ConfirmationScheduler(repo, svc, messenger, i18n, keyboards, upserter, new SimpleMeterRegistry());
+            sched = new ConfirmationScheduler(repo, svc, messenger, i18n, keyboards, upserter,
+                    new SimpleMeterRegistry(), SchedulerLeases.granted());
         }
 
         @Test
@@ -938,15 +920,13 @@ class CoverageRound5Tests {
     class StatsQueryServiceTests {
 
         private JdbcTemplate jdbc;
-        private StatsQueryService self;
         private StatsQueryService svc;
 
         @BeforeEach
         @SuppressWarnings("unchecked")
         void init() {
             jdbc = mock(JdbcTemplate.class);
-            self = mock(StatsQueryService.class);
-            svc = new StatsQueryService(jdbc, self);
+            svc = new StatsQueryService(jdbc);
         }
 
         private StatsPeriod day() {
@@ -1120,43 +1100,44 @@ class CoverageRound5Tests {
 
         @SuppressWarnings("unchecked")
         @Test
-        @DisplayName("overviewWithDelta: prev != 0 → computeDeltaPercent")
+        @DisplayName("overviewWithDelta: prev != 0 → computeDeltaPercent, сводка + три запроса")
         void overviewWithDelta() {
             when(jdbc.queryForObject(anyString(), any(RowMapper.class), any(Object[].class)))
-                    .thenReturn(new Long[]{10L, 100L, 1000L});
-            when(jdbc.queryForObject(anyString(), eq(Long.class), any(Object[].class)))
-                    .thenReturn(5L);
-            when(self.topUsersByPeriod(any(), anyInt(), any())).thenReturn(List.of());
-            when(self.topChats(any(), any(), anyInt())).thenReturn(List.of());
-            when(self.statusBreakdown(any(), any())).thenReturn(Map.of());
-            assertThat(svc.overviewWithDelta(day(), null)).isNotNull();
+                    .thenReturn(new long[]{10L, 100L, 1000L, 2L, 5L, 50L, 500L, 0L});
+            when(jdbc.query(anyString(), any(RowMapper.class), any(Object[].class))).thenReturn(List.of());
+
+            var dto = svc.overviewWithDelta(day(), null);
+
+            assertThat(dto.totalExports()).isEqualTo(10L);
+            assertThat(dto.totalUsers()).isEqualTo(2L);
+            assertThat(dto.deltaExports()).isEqualTo(100.0);
+            assertThat(dto.deltaUsers()).isNull();
+            verify(jdbc).queryForObject(anyString(), any(RowMapper.class), any(Object[].class));
+            verify(jdbc, times(3)).query(anyString(), any(RowMapper.class), any(Object[].class));
         }
 
         @SuppressWarnings("unchecked")
         @Test
-        @DisplayName("overview: byUser ветка")
+        @DisplayName("overview: byUser ветка, без дельт")
         void overviewByUser() {
             when(jdbc.queryForObject(anyString(), any(RowMapper.class), any(Object[].class)))
-                    .thenReturn(new Long[]{1L, 2L, 3L});
-            when(jdbc.queryForObject(anyString(), eq(Long.class), any(Object[].class)))
-                    .thenReturn(1L);
-            when(self.topUsersByPeriod(any(), anyInt(), any())).thenReturn(List.of());
-            when(self.topChats(any(), any(), anyInt())).thenReturn(List.of());
-            when(self.statusBreakdown(any(), any())).thenReturn(Map.of());
-            assertThat(svc.overview(day(), 99L)).isNotNull();
+                    .thenReturn(new long[]{1L, 2L, 3L, 1L, 1L, 1L, 1L, 1L});
+            when(jdbc.query(anyString(), any(RowMapper.class), any(Object[].class))).thenReturn(List.of());
+            var dto = svc.overview(day(), 99L);
+            assertThat(dto.totalUsers()).isEqualTo(1L);
+            assertThat(dto.deltaExports()).isNull();
         }
 
         @SuppressWarnings("unchecked")
         @Test
-        @DisplayName("periodTotals: result == null → 0,0,0 ветка")
-        void periodTotalsNull() {
+        @DisplayName("periodSummary: result == null → нули")
+        void periodSummaryNull() {
             when(jdbc.queryForObject(anyString(), any(RowMapper.class), any(Object[].class)))
                     .thenReturn(null);
-            when(jdbc.queryForObject(anyString(), eq(Long.class), any(Object[].class))).thenReturn(null);
-            when(self.topUsersByPeriod(any(), anyInt(), any())).thenReturn(List.of());
-            when(self.topChats(any(), any(), anyInt())).thenReturn(List.of());
-            when(self.statusBreakdown(any(), any())).thenReturn(Map.of());
-            assertThat(svc.overview(day(), null)).isNotNull();
+            when(jdbc.query(anyString(), any(RowMapper.class), any(Object[].class))).thenReturn(List.of());
+            var dto = svc.overview(day(), null);
+            assertThat(dto.totalExports()).isZero();
+            assertThat(dto.totalUsers()).isZero();
         }
     }
 
@@ -1172,12 +1153,43 @@ class CoverageRound5Tests {
         private ExportEventIngestionService svc;
 
         @BeforeEach
+        @SuppressWarnings({"unchecked", "rawtypes"})
         void init() {
             events = mock(ExportEventRepository.class);
             userUpserter = mock(BotUserUpserter.class);
             chatUpserter = mock(ChatUpserter.class);
             subs = mock(SubscriptionService.class);
-            svc = new ExportEventIngestionService(events, userUpserter, chatUpserter, subs);
+            ObjectProvider none = mock(ObjectProvider.class);
+            svc = new ExportEventIngestionService(events, userUpserter, chatUpserter, subs,
+                    none, none, none, none, none);
+        }
+
+        private ExportEventRepository.IngestResult result(ExportStatus previous, ExportStatus status) {
+            ExportEventRepository.IngestResult result = mock(ExportEventRepository.IngestResult.class);
+            // Mockito отдаёт 0 для Long — NULL-колонки RETURNING задаём явно.
+            when(result.getChatRefId()).thenReturn(null);
+            when(result.getFinishedAtMillis()).thenReturn(null);
+            when(result.getSubscriptionId()).thenReturn(null);
+            when(result.getMessagesCount()).thenReturn(null);
+            when(result.getPreviousMessagesCount()).thenReturn(null);
+            when(result.getBytesCount()).thenReturn(null);
+            when(result.getPreviousBytesCount()).thenReturn(null);
+            when(result.getPreviousStatus()).thenReturn(previous);
+            when(result.getStatus()).thenReturn(status);
+            when(result.getBotUserId()).thenReturn(2L);
+            return result;
+        }
+
+        private void stubInsert(String taskId) {
+            ExportEventRepository.IngestResult result = result(null, ExportStatus.QUEUED);
+            when(chatUpserter.touch(any(), any(), any(), any(), any())).thenReturn("c");
+            when(events.upsertForIngest(eq(taskId), anyLong(), any(), any(), any(), any(), any(), any(),
+                    any(), any(), any(), any(), any(), any(), any(), any())).thenReturn(result);
+        }
+
+        private void verifyInsert(String taskId, LocalDate fromDate, String source) {
+            verify(events).upsertForIngest(eq(taskId), anyLong(), any(), any(), any(), any(), any(), any(),
+                    eq(fromDate), any(), any(), any(), eq(source), any(), any(), any());
         }
 
         @Test
@@ -1187,125 +1199,99 @@ class CoverageRound5Tests {
                     .type(StatsEventType.BOT_USER_SEEN)
                     .botUserId(5L).username("alice").displayName("Alice")
                     .ts(Instant.now()).build());
-            verify(userUpserter).upsert(eq(5L), eq("alice"), eq("Alice"), any());
+            verify(userUpserter).touch(eq(5L), eq("alice"), eq("Alice"), any());
         }
 
         @Test
         @DisplayName("EXPORT_STARTED с canonicalChatId (без chatIdRaw) — insert проходит")
         void insertViaCanonical() {
-            when(events.findByTaskId("tCA")).thenReturn(Optional.empty());
-            Chat c = Chat.builder().id(1L).canonicalChatId("canon").build();
-            BotUser u = BotUser.builder().botUserId(2L).build();
-            when(chatUpserter.upsert(any(), any(), any(), any(), any())).thenReturn(c);
-            when(userUpserter.upsert(anyLong(), any(), any(), any())).thenReturn(u);
-            when(events.save(any(ExportEvent.class))).thenAnswer(inv -> inv.getArgument(0));
+            stubInsert("tCA");
 
             svc.ingest(StatsEventPayload.builder()
                     .type(StatsEventType.EXPORT_STARTED).taskId("tCA")
                     .botUserId(2L).canonicalChatId("canon").build());
-            verify(events).save(any());
+            verify(chatUpserter).touch(eq("canon"), isNull(), isNull(), isNull(), isNull());
+            verifyInsert("tCA", null, "BOT");
         }
 
         @Test
         @DisplayName("EXPORT_STARTED минимальные поля: chatIdRaw blank + canonical blank → skip")
         void minimalFieldsBothBlank() {
-            when(events.findByTaskId("tB")).thenReturn(Optional.empty());
             svc.ingest(StatsEventPayload.builder()
                     .type(StatsEventType.EXPORT_STARTED).taskId("tB")
                     .botUserId(1L).chatIdRaw("   ").canonicalChatId(" ").build());
-            verify(events, never()).save(any());
+            verify(chatUpserter, never()).touch(any(), any(), any(), any(), any());
+            verify(events, never()).upsertForIngest(any(), anyLong(), any(), any(), any(), any(), any(),
+                    any(), any(), any(), any(), any(), any(), any(), any(), any());
         }
 
         @Test
         @DisplayName("parseDate: невалидная строка → null (предупреждение)")
         void parseDateInvalid() {
-            when(events.findByTaskId("tD")).thenReturn(Optional.empty());
-            Chat c = Chat.builder().id(1L).canonicalChatId("c").build();
-            BotUser u = BotUser.builder().botUserId(2L).build();
-            when(chatUpserter.upsert(any(), any(), any(), any(), any())).thenReturn(c);
-            when(userUpserter.upsert(anyLong(), any(), any(), any())).thenReturn(u);
-            when(events.save(any(ExportEvent.class))).thenAnswer(inv -> inv.getArgument(0));
+            stubInsert("tD");
 
             svc.ingest(StatsEventPayload.builder()
                     .type(StatsEventType.EXPORT_STARTED).taskId("tD")
                     .botUserId(2L).chatIdRaw("@c")
                     .fromDate("not-a-date").build());
-            verify(events).save(any());
+            verifyInsert("tD", null, "BOT");
         }
 
         @Test
         @DisplayName("parseDate: datetime ISO с временем → fallback на LocalDateTime")
         void parseDateAsDatetime() {
-            when(events.findByTaskId("tDT")).thenReturn(Optional.empty());
-            Chat c = Chat.builder().id(1L).canonicalChatId("c").build();
-            BotUser u = BotUser.builder().botUserId(2L).build();
-            when(chatUpserter.upsert(any(), any(), any(), any(), any())).thenReturn(c);
-            when(userUpserter.upsert(anyLong(), any(), any(), any())).thenReturn(u);
-            when(events.save(any(ExportEvent.class))).thenAnswer(inv -> inv.getArgument(0));
+            stubInsert("tDT");
             svc.ingest(StatsEventPayload.builder()
                     .type(StatsEventType.EXPORT_STARTED).taskId("tDT")
                     .botUserId(2L).chatIdRaw("@c")
                     .fromDate("2025-04-14T00:00:00").build());
+            verifyInsert("tDT", LocalDate.of(2025, 4, 14), "BOT");
         }
 
         @Test
         @DisplayName("parseSource: null/blank → BOT (default)")
         void parseSourceNull() {
-            when(events.findByTaskId("tS1")).thenReturn(Optional.empty());
-            Chat c = Chat.builder().id(1L).canonicalChatId("c").build();
-            BotUser u = BotUser.builder().botUserId(2L).build();
-            when(chatUpserter.upsert(any(), any(), any(), any(), any())).thenReturn(c);
-            when(userUpserter.upsert(anyLong(), any(), any(), any())).thenReturn(u);
-            when(events.save(any(ExportEvent.class))).thenAnswer(inv -> inv.getArgument(0));
+            stubInsert("tS1");
             svc.ingest(StatsEventPayload.builder()
                     .type(StatsEventType.EXPORT_STARTED).taskId("tS1")
                     .botUserId(2L).chatIdRaw("@c").source(" ").build());
+            verifyInsert("tS1", null, "BOT");
         }
 
         @Test
         @DisplayName("parseSource: bogus → BOT (IAE catch)")
         void parseSourceBogus() {
-            when(events.findByTaskId("tS2")).thenReturn(Optional.empty());
-            Chat c = Chat.builder().id(1L).canonicalChatId("c").build();
-            BotUser u = BotUser.builder().botUserId(2L).build();
-            when(chatUpserter.upsert(any(), any(), any(), any(), any())).thenReturn(c);
-            when(userUpserter.upsert(anyLong(), any(), any(), any())).thenReturn(u);
-            when(events.save(any(ExportEvent.class))).thenAnswer(inv -> inv.getArgument(0));
+            stubInsert("tS2");
             svc.ingest(StatsEventPayload.builder()
                     .type(StatsEventType.EXPORT_STARTED).taskId("tS2")
                     .botUserId(2L).chatIdRaw("@c").source("MARTIAN").build());
+            verifyInsert("tS2", null, "BOT");
         }
 
         @Test
-        @DisplayName("coalesce: blank string → не вызывает setter")
-        void coalesceBlankString() {
-            ExportEvent existing = ExportEvent.builder()
-                    .taskId("tEx").botUserId(1L).chatRefId(1L)
-                    .status(ExportStatus.QUEUED).startedAt(Instant.now())
-                    .keywords("old").build();
-            when(events.findByTaskId("tEx")).thenReturn(Optional.of(existing));
-            when(events.save(any(ExportEvent.class))).thenAnswer(inv -> inv.getArgument(0));
+        @DisplayName("parseSource: api (lower case) → API")
+        void parseSourceLowerCase() {
+            stubInsert("tS3");
             svc.ingest(StatsEventPayload.builder()
-                    .type(StatsEventType.EXPORT_BYTES_MEASURED).taskId("tEx")
-                    .keywords("   ").build());
-            assertThat(existing.getKeywords()).isEqualTo("old");
+                    .type(StatsEventType.EXPORT_STARTED).taskId("tS3")
+                    .botUserId(2L).chatIdRaw("@c").source("api").build());
+            verifyInsert("tS3", null, "API");
         }
 
         @Test
-        @DisplayName("maybeBumpUserTotals: messagesCount == null → не инкрементируется")
-        void bumpNullMessages() {
-            when(events.findByTaskId("tBN")).thenReturn(Optional.empty());
-            Chat c = Chat.builder().id(1L).canonicalChatId("c").build();
-            BotUser u = BotUser.builder().botUserId(2L).totalExports(0).totalMessages(0L).totalBytes(0L).build();
-            when(chatUpserter.upsert(any(), any(), any(), any(), any())).thenReturn(c);
-            when(userUpserter.upsert(anyLong(), any(), any(), any())).thenReturn(u);
-            when(events.save(any(ExportEvent.class))).thenAnswer(inv -> inv.getArgument(0));
+        @DisplayName("terminal после QUEUED: значения для ETA/подписки — из RETURNING строки после merge")
+        void terminalTransitionUsesMergedValues() {
+            ExportEventRepository.IngestResult merged = result(ExportStatus.QUEUED, ExportStatus.COMPLETED);
+            when(merged.getSubscriptionId()).thenReturn(77L);
+            when(events.mergeForIngest(eq("tM"), eq("COMPLETED"), any(), eq(5L), any(), any(), any(), any(),
+                    any(), any(), any(), any())).thenReturn(Optional.of(merged));
+
             svc.ingest(StatsEventPayload.builder()
-                    .type(StatsEventType.EXPORT_COMPLETED).taskId("tBN")
-                    .botUserId(2L).chatIdRaw("@c").build());
-            assertThat(u.getTotalExports()).isEqualTo(1);
-            assertThat(u.getTotalMessages()).isEqualTo(0L);
-            assertThat(u.getTotalBytes()).isEqualTo(0L);
+                    .type(StatsEventType.EXPORT_COMPLETED).taskId("tM")
+                    .messagesCount(5L).build());
+
+            verify(userUpserter).recordTerminalExport(eq(2L), eq("tM"), isNull(), isNull(), isNull());
+            verify(subs).recordSuccess(77L);
         }
     }
 
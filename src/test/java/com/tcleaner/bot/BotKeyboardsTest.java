@@ -0,0 +1,32 @@
+package com.tcleaner.bot;
+
+import com.tcleaner.core.BotLanguage;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.support.StaticMessageSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("BotKeyboards — статические меню собираются один раз")
+class BotKeyboardsTest {
+
+    private final BotI18n i18n = new BotI18n(new StaticMessageSource());
+    private final BotKeyboards keyboards = new BotKeyboards(i18n);
+
+    @Test
+    @DisplayName("повторный вызов → тот же экземпляр, у каждого языка свои тексты")
+    void cachesPerLanguage() {
+        assertThat(keyboards.dateChoiceKeyboard(BotLanguage.RU)).isSameAs(keyboards.dateChoiceKeyboard(BotLanguage.RU));
+        assertThat(keyboards.settingsKeyboard(BotLanguage.DE)).isSameAs(keyboards.settingsKeyboard(BotLanguage.DE));
+        assertThat(keyboards.languageChoiceKeyboard()).isSameAs(keyboards.languageChoiceKeyboard());
+        assertThat(keyboards.mainMenuKeyboard(BotLanguage.RU).getKeyboard().get(0).get(0).getText())
+                .isEqualTo(i18n.msg(BotLanguage.RU, "bot.settings.title"))
+                .isNotEqualTo(keyboards.mainMenuKeyboard(BotLanguage.EN).getKeyboard().get(0).get(0).getText());
+    }
+
+    @Test
+    @DisplayName("lang = null → меню EN")
+    void nullLanguage() {
+        assertThat(keyboards.cancelExportKeyboard(null)).isSameAs(keyboards.cancelExportKeyboard(BotLanguage.EN));
+    }
+}
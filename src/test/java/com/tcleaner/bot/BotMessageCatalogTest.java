@@ -0,0 +1,84 @@
+package com.tcleaner.bot;
+
+import com.tcleaner.core.BotLanguage;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.springframework.context.support.ReloadableResourceBundleMessageSource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Locale;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("BotMessageCatalog — скомпилированные при старте тексты бота")
+class BotMessageCatalogTest {
+
+    private static final Object[] ARGS = {"Alice", 1234567, 42L, 3.5, new Date(0), null};
+
+    private static BotMessageCatalog catalog;
+    private static ReloadableResourceBundleMessageSource messageSource;
+
+    @BeforeAll
+    static void load() {
+        catalog = BotMessageCatalog.load(BotI18nConfig.BASENAME);
+        messageSource = new ReloadableResourceBundleMessageSource();
+        messageSource.setBasename("classpath:bot_messages");
+        messageSource.setDefaultEncoding(StandardCharsets.UTF_8.name());
+        messageSource.setFallbackToSystemLocale(false);
+        messageSource.setDefaultLocale(Locale.ENGLISH);
+    }
+
+    @Nested
+    @DisplayName("совпадение с MessageSource")
+    class Parity {
+
+        @ParameterizedTest
+        @EnumSource(BotLanguage.class)
+        @DisplayName("каждый ключ каждого языка — тот же текст, с аргументами и без")
+        void sameTextAsMessageSource(BotLanguage lang) {
+            Locale locale = lang.getLocale();
+            assertThat(catalog.keys(lang)).isNotEmpty();
+            for (String key : catalog.keys(lang)) {
+                assertThat(catalog.format(lang, key))
+                        .as("%s %s", lang, key)
+                        .isEqualTo(messageSource.getMessage(key, null, locale));
+                assertThat(catalog.format(lang, key, ARGS))
+                        .as("%s %s (args)", lang, key)
+                        .isEqualTo(messageSource.getMessage(key, ARGS, locale));
+            }
+        }
+
+        @Test
+        @DisplayName("ключ без перевода берётся из базового EN-файла")
+        void fallsBackToBase() {
+            assertThat(catalog.keys(BotLanguage.PT_BR)).containsAll(catalog.keys(BotLanguage.EN));
+        }
+    }
+
+    @Nested
+    @DisplayName("BotI18n поверх catalog")
+    class ViaBotI18n {
+
+        @Test
+        @DisplayName("неизвестный ключ → сам ключ")
+        void unknownKey() {
+            BotI18n i18n = new BotI18n(messageSource, catalog);
+
+            assertThat(i18n.msg(BotLanguage.DE, "bot.no.such.key", 1)).isEqualTo("bot.no.such.key");
+        }
+
+        @Test
+        @DisplayName("lang = null → EN")
+        void nullLanguage() {
+            BotI18n i18n = new BotI18n(messageSource, catalog);
+
+            assertThat(i18n.msg((BotLanguage) null, "bot.progress.fetched", 5000))
+                    .isEqualTo(messageSource.getMessage("bot.progress.fetched", new Object[] {5000}, Locale.ENGLISH));
+        }
+    }
+}
@@ -12,6 +12,7 @@ import org.telegram.telegrambots.meta.api.methods.commands.SetMyCommands;
 import org.telegram.telegrambots.meta.api.methods.groupadministration.GetChat;
 import org.telegram.telegrambots.meta.api.methods.menubutton.SetChatMenuButton;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.methods.updates.SetWebhook;
 import org.telegram.telegrambots.meta.api.methods.updatingmessages.EditMessageText;
 import org.telegram.telegrambots.meta.api.objects.chat.ChatFullInfo;
 import org.telegram.telegrambots.meta.api.objects.commands.BotCommand;
@@ -24,6 +25,7 @@ import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
@@ -459,6 +461,31 @@ class BotMessengerTest {
 
             assertDoesNotThrow(() -> botMessenger.setChatMenuButton("https://x.invalid", "Open"));
         }
+
+        @Test
+        @DisplayName("setWebhook: url, секрет и max_connections передаются в API")
+        void setWebhookPassesParameters() throws TelegramApiException {
+            setupMessenger();
+            when(mockTelegramClient.execute(any(SetWebhook.class))).thenReturn(true);
+
+            assertTrue(botMessenger.setWebhook("https://bot.example.com/telegram/webhook", "s3cret", 40));
+
+            ArgumentCaptor<SetWebhook> captor = ArgumentCaptor.forClass(SetWebhook.class);
+            verify(mockTelegramClient).execute(captor.capture());
+            assertEquals("https://bot.example.com/telegram/webhook", captor.getValue().getUrl());
+            assertEquals("s3cret", captor.getValue().getSecretToken());
+            assertEquals(Integer.valueOf(40), captor.getValue().getMaxConnections());
+        }
+
+        @Test
+        @DisplayName("setWebhook: TelegramApiException → false")
+        void setWebhookFailureReturnsFalse() throws TelegramApiException {
+            setupMessenger();
+            when(mockTelegramClient.execute(any(SetWebhook.class)))
+                    .thenThrow(new TelegramApiException("bad webhook"));
+
+            assertFalse(botMessenger.setWebhook("https://x.invalid/telegram/webhook", "s3cret", 40));
+        }
     }
 
 }
@@ -1,85 +1,173 @@
 package com.tcleaner.bot;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Iterator;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
-import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 class BotSecurityGateTest {
 
+    private static final Instant T0 = Instant.parse("2026-04-15T12:00:00Z");
+
     private StringRedisTemplate redisMock;
-    private ValueOperations<String, String> valueOpsMock;
+    private SimpleMeterRegistry registry;
+    private MutableClock clock;
     private BotSecurityGate gate;
 
     @BeforeEach
     void setUp() {
         redisMock = mock(StringRedisTemplate.class);
-        @SuppressWarnings("unchecked")
-        ValueOperations<String, String> ops = mock(ValueOperations.class);
-        valueOpsMock = ops;
-        when(redisMock.opsForValue()).thenReturn(valueOpsMock);
+        registry = new SimpleMeterRegistry();
+        clock = new MutableClock(T0);
+        gate = new BotSecurityGate(redisMock, registry, clock, 3, Duration.ofSeconds(5));
+    }
 
-        gate = new BotSecurityGate(redisMock);
+    @SuppressWarnings("unchecked")
+    private Cursor<String> scanReturns(String... keys) {
+        Cursor<String> cursor = mock(Cursor.class);
+        Iterator<String> it = List.of(keys).iterator();
+        when(cursor.hasNext()).thenAnswer(inv -> it.hasNext());
+        when(cursor.next()).thenAnswer(inv -> it.next());
+        when(redisMock.scan(any(ScanOptions.class))).thenReturn(cursor);
+        return cursor;
+    }
+
+    private double rejected(String reason) {
+        return registry.get("bot.security.rejected").tag("reason", reason).counter().count();
     }
 
     @Nested
-    @DisplayName("Redis blacklist")
+    @DisplayName("Blacklist — локальный снимок")
     class Blacklist {
 
         @Test
-        @DisplayName("isBlocked возвращает true если Redis содержит bot:blocked:{userId}")
-        void blockedWhenKeyExists() {
-            when(redisMock.hasKey("bot:blocked:42")).thenReturn(Boolean.TRUE);
+        @DisplayName("после refreshBlacklist пользователь из bot:blocked:{userId} заблокирован")
+        void blockedAfterRefresh() {
+            scanReturns("bot:blocked:42", "bot:blocked:garbage");
+
+            gate.refreshBlacklist();
 
             assertThat(gate.isBlocked(42L)).isTrue();
+            assertThat(gate.isBlocked(99L)).isFalse();
+            assertThat(rejected("blocked")).isEqualTo(1.0);
+            assertThat(registry.get("bot.security.blacklist.size").gauge().value()).isEqualTo(1.0);
         }
 
         @Test
-        @DisplayName("isBlocked возвращает false если ключа нет")
-        void notBlockedWhenKeyAbsent() {
-            when(redisMock.hasKey("bot:blocked:99")).thenReturn(Boolean.FALSE);
+        @DisplayName("isBlocked не ходит в Redis")
+        void doesNotTouchRedis() {
+            gate.isBlocked(5L);
 
-            assertThat(gate.isBlocked(99L)).isFalse();
+            verifyNoInteractions(redisMock);
         }
 
         @Test
-        @DisplayName("isBlocked возвращает false если Redis вернул null (failsafe)")
-        void notBlockedOnNullRedisResponse() {
-            when(redisMock.hasKey(anyString())).thenReturn(null);
+        @DisplayName("ключ удалён между снимками → следующий refresh снимает блокировку")
+        void refreshRemovesUnblocked() {
+            scanReturns("bot:blocked:42");
+            gate.refreshBlacklist();
+            scanReturns();
 
-            assertThat(gate.isBlocked(7L)).isFalse();
+            gate.refreshBlacklist();
+
+            assertThat(gate.isBlocked(42L)).isFalse();
         }
 
         @Test
-        @DisplayName("isBlocked не обращается к opsForValue")
-        void doesNotUseOpsForValue() {
-            when(redisMock.hasKey(anyString())).thenReturn(Boolean.FALSE);
+        @DisplayName("Redis недоступен → прежний снимок сохраняется, до первого снимка — fail-open")
+        void failureKeepsSnapshot() {
+            when(redisMock.scan(any(ScanOptions.class))).thenThrow(new RuntimeException("connection refused"));
+            gate.refreshBlacklist();
+            assertThat(gate.isBlocked(42L)).isFalse();
 
-            gate.isBlocked(5L);
+            gate.onBlacklistEvent("__keyspace@0__:bot:blocked:42", "set");
+            gate.refreshBlacklist();
 
-            verify(redisMock, never()).opsForValue();
+            assertThat(gate.isBlocked(42L)).isTrue();
         }
 
         @Test
-        @DisplayName("isBlocked возвращает false при исключении Redis — fail-open")
-        void failOpenOnRedisException() {
-            when(redisMock.hasKey(anyString())).thenThrow(new RuntimeException("connection refused"));
+        @DisplayName("del во время SCAN: ключ, который курсор уже прошёл, не возвращается снимком")
+        void deleteDuringScanWins() {
+            gate.onBlacklistEvent("__keyspace@0__:bot:blocked:42", "set");
+            Cursor<String> cursor = scanReturns("bot:blocked:42", "bot:blocked:43");
+            when(cursor.hasNext()).thenAnswer(new Answer<Boolean>() {
+                private int calls;
+
+                @Override
+                public Boolean answer(InvocationOnMock inv) {
+                    if (++calls == 2) {
+                        gate.onBlacklistEvent("__keyspace@0__:bot:blocked:42", "del");
+                    }
+                    return calls <= 2;
+                }
+            });
 
+            gate.refreshBlacklist();
+
+            assertThat(gate.isBlocked(42L)).isFalse();
+            assertThat(gate.isBlocked(43L)).isTrue();
+        }
+
+        @Test
+        @DisplayName("set во время SCAN: ключ позади курсора не теряется снимком")
+        void setDuringScanKept() {
+            Cursor<String> cursor = scanReturns();
+            when(cursor.hasNext()).thenAnswer(inv -> {
+                gate.onBlacklistEvent("__keyspace@0__:bot:blocked:7", "set");
+                return false;
+            });
+
+            gate.refreshBlacklist();
+
+            assertThat(gate.isBlocked(7L)).isTrue();
+        }
+
+        @Test
+        @DisplayName("keyspace-события: set блокирует, del/expired снимают, expire игнорируется")
+        void keyspaceEvents() {
+            gate.onBlacklistEvent("__keyspace@0__:bot:blocked:7", "set");
+            gate.onBlacklistEvent("__keyspace@0__:bot:blocked:8", "set");
+            gate.onBlacklistEvent("__keyspace@0__:bot:blocked:8", "expire");
+            assertThat(gate.isBlocked(7L)).isTrue();
+            assertThat(gate.isBlocked(8L)).isTrue();
+
+            gate.onBlacklistEvent("__keyspace@0__:bot:blocked:7", "del");
+            gate.onBlacklistEvent("__keyspace@0__:bot:blocked:8", "expired");
+            gate.onBlacklistEvent("__keyspace@0__:bot:blocked:oops", "set");
+
+            assertThat(gate.isBlocked(7L)).isFalse();
             assertThat(gate.isBlocked(8L)).isFalse();
         }
     }
 
     @Nested
-    @DisplayName("Flood limiter")
+    @DisplayName("Flood limiter — sliding window")
     class FloodLimiter {
 
         @Test
@@ -91,13 +179,14 @@ class BotSecurityGateTest {
         }
 
         @Test
-        @DisplayName("4-е сообщение в окне 5 секунд — flood")
+        @DisplayName("4-е сообщение в окне 5 секунд — flood, считается в метрике")
         void fourthMessageIsFlooded() {
             gate.isFlooded(200L);
             gate.isFlooded(200L);
             gate.isFlooded(200L);
 
             assertThat(gate.isFlooded(200L)).isTrue();
+            assertThat(rejected("flood")).isEqualTo(1.0);
         }
 
         @Test
@@ -111,6 +200,22 @@ class BotSecurityGateTest {
             assertThat(gate.isFlooded(301L)).isFalse();
         }
 
+        @Test
+        @DisplayName("граница окна не обнуляет счёт: предыдущее окно входит с весом")
+        void previousWindowWeighted() {
+            clock.set(T0.plusMillis(4_000));
+            gate.isFlooded(500L);
+            gate.isFlooded(500L);
+            gate.isFlooded(500L);
+
+            clock.set(T0.plusMillis(5_500));
+            // 3 × 0.9 + 1 = 3.7 > 3 — fixed window пропустил бы
+            assertThat(gate.isFlooded(500L)).isTrue();
+
+            clock.set(T0.plusMillis(14_000));
+            assertThat(gate.isFlooded(500L)).isFalse();
+        }
+
         @Test
         @DisplayName("isFlooded не трогает Redis")
         void doesNotTouchRedis() {
@@ -119,8 +224,104 @@ class BotSecurityGateTest {
             gate.isFlooded(400L);
             gate.isFlooded(400L);
 
-            verify(redisMock, never()).hasKey(anyString());
-            verify(redisMock, never()).opsForValue();
+            verifyNoInteractions(redisMock);
+        }
+    }
+
+    @Nested
+    @DisplayName("Синхронизация flood-счётчиков между инстансами")
+    class FloodSync {
+
+        @Test
+        @DisplayName("нет новых сообщений → Redis не вызывается")
+        void idleSkipsRedis() {
+            gate.syncFloodWindows();
+
+            verifyNoInteractions(redisMock);
+        }
+
+        @Test
+        @SuppressWarnings("unchecked")
+        @DisplayName("локальные сообщения уходят одним скриптом, общий счёт другого инстанса учитывается")
+        void mergesRemoteCounts() {
+            gate.isFlooded(600L);
+            // другой инстанс уже насчитал 2 сообщения: общий счётчик после INCRBY 1 = 3
+            when(redisMock.execute(any(RedisScript.class), anyList(), any(Object[].class)))
+                    .thenReturn(List.of(3L, 0L));
+
+            gate.syncFloodWindows();
+
+            ArgumentCaptor<List<String>> keys = ArgumentCaptor.forClass(List.class);
+            ArgumentCaptor<Object[]> args = ArgumentCaptor.forClass(Object[].class);
+            verify(redisMock).execute(any(RedisScript.class), keys.capture(), args.capture());
+            long window = T0.toEpochMilli() / 5_000;
+            assertThat(keys.getValue()).containsExactly("bot:flood:600:" + window, "bot:flood:600:" + (window - 1));
+            assertThat(args.getValue()).containsExactly("10", "1");
+            assertThat(gate.isFlooded(600L)).isTrue();
+        }
+
+        @Test
+        @SuppressWarnings("unchecked")
+        @DisplayName("ошибка Redis → сообщения остаются в локальной оценке и уходят следующей попыткой")
+        void failureKeepsLocalCount() {
+            gate.isFlooded(700L);
+            gate.isFlooded(700L);
+            when(redisMock.execute(any(RedisScript.class), anyList(), any(Object[].class)))
+                    .thenThrow(new RuntimeException("connection refused"));
+
+            gate.syncFloodWindows();
+
+            assertThat(registry.get("bot.security.flood.sync.errors").counter().count()).isEqualTo(1.0);
+            assertThat(gate.isFlooded(700L)).isFalse();
+            assertThat(gate.isFlooded(700L)).isTrue();
+
+            ArgumentCaptor<Object[]> args = ArgumentCaptor.forClass(Object[].class);
+            gate.syncFloodWindows();
+            verify(redisMock, times(2))
+                    .execute(any(RedisScript.class), anyList(), args.capture());
+            assertThat(args.getValue()).containsExactly("10", "4");
+        }
+
+        @Test
+        @DisplayName("записи старше предыдущего окна удаляются без запроса в Redis")
+        void evictsStaleWindows() {
+            when(redisMock.execute(any(RedisScript.class), anyList(), any(Object[].class)))
+                    .thenReturn(List.of(1L, 0L));
+            gate.isFlooded(800L);
+            gate.syncFloodWindows();
+
+            clock.set(T0.plusSeconds(60));
+            gate.syncFloodWindows();
+
+            verify(redisMock).execute(any(RedisScript.class), anyList(), any(Object[].class));
+            assertThat(gate.isFlooded(800L)).isFalse();
+        }
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void set(Instant instant) {
+            this.now = instant;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
         }
     }
 }
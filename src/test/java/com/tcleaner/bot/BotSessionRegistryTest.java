@@ -0,0 +1,178 @@
+package com.tcleaner.bot;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@DisplayName("BotSessionRegistry — near-cache сессий и внешнее хранилище")
+class BotSessionRegistryTest {
+
+    private final AtomicLong nanos = new AtomicLong();
+    private SessionStore store;
+    private BotSessionRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        store = mock(SessionStore.class);
+        registry = new BotSessionRegistry(store, Duration.ofHours(2), nanos::get, new SimpleMeterRegistry());
+    }
+
+    @Nested
+    @DisplayName("истечение по TTL")
+    class Expiry {
+
+        @Test
+        @DisplayName("без обращений дольше TTL → новая сессия, обращение продлевает")
+        void expiresAfterAccessTtl() {
+            BotSessionRegistry local = new BotSessionRegistry(null, Duration.ofHours(2), nanos::get, null);
+            UserSession first = local.get(1L);
+
+            nanos.addAndGet(Duration.ofMinutes(90).toNanos());
+            assertThat(local.get(1L)).isSameAs(first);
+            nanos.addAndGet(Duration.ofMinutes(90).toNanos());
+            assertThat(local.get(1L)).isSameAs(first);
+
+            nanos.addAndGet(Duration.ofHours(3).toNanos());
+            assertThat(local.get(1L)).isNotSameAs(first);
+        }
+
+        @Test
+        @DisplayName("без хранилища save ничего не делает")
+        void saveWithoutStore() {
+            BotSessionRegistry local = new BotSessionRegistry();
+            local.get(1L).setChatId("@chan");
+
+            local.save(1L);
+
+            assertThat(local.get(1L).isDirty()).isTrue();
+        }
+    }
+
+    @Nested
+    @DisplayName("read-through / write-back")
+    class Store {
+
+        @Test
+        @DisplayName("промах читает хранилище один раз, дальше — из near-cache")
+        void loadsOnMissOnly() {
+            UserSession stored = UserSession.fromFields(Map.of(UserSession.FIELD_STATE, "AWAITING_TO_DATE",
+                    UserSession.FIELD_CHAT_ID, "@chan"), 4);
+            when(store.load(7L)).thenReturn(stored);
+
+            assertThat(registry.get(7L).getChatId()).isEqualTo("@chan");
+            assertThat(registry.get(7L).getState()).isEqualTo(UserSession.State.AWAITING_TO_DATE);
+            verify(store, times(1)).load(7L);
+        }
+
+        @Test
+        @DisplayName("ошибка хранилища при чтении → пустая сессия")
+        void loadFailureStartsFresh() {
+            when(store.load(7L)).thenThrow(new IllegalStateException("redis down"));
+
+            assertThat(registry.get(7L).getState()).isEqualTo(UserSession.State.IDLE);
+        }
+
+        @Test
+        @DisplayName("несколько изменений → одна запись, версия запоминается; без изменений — без записи")
+        void savesChangesOnce() {
+            when(store.save(eq(7L), anyMap())).thenReturn(3L);
+            UserSession session = registry.get(7L);
+            session.setChatId("@chan");
+            session.setState(UserSession.State.AWAITING_DATE_CHOICE);
+
+            registry.save(7L);
+            registry.save(7L);
+            registry.save(8L);
+
+            verify(store, times(1)).save(eq(7L), anyMap());
+            assertThat(session.getVersion()).isEqualTo(3L);
+        }
+
+        @Test
+        @DisplayName("ошибка записи → изменения остаются и уходят следующей попыткой")
+        void saveFailureRetries() {
+            when(store.save(eq(7L), anyMap()))
+                    .thenThrow(new IllegalStateException("redis down"))
+                    .thenReturn(1L);
+            registry.get(7L).setChatId("@chan");
+
+            registry.save(7L);
+            registry.save(7L);
+
+            verify(store, times(2)).save(eq(7L), anyMap());
+        }
+    }
+
+    @Nested
+    @DisplayName("сброс по версии")
+    class Invalidation {
+
+        @Test
+        @DisplayName("более новая версия с другого инстанса → копия сбрасывается")
+        void evictsOlderCopy() {
+            UserSession cached = registry.get(7L);
+
+            registry.evictIfStale(7L, 2L);
+
+            assertThat(registry.get(7L)).isNotSameAs(cached);
+            verify(store, times(2)).load(7L);
+        }
+
+        @Test
+        @DisplayName("та же версия или несохранённые изменения → копия остаётся")
+        void keepsCurrentOrDirtyCopy() {
+            when(store.save(eq(7L), anyMap())).thenReturn(2L);
+            UserSession cached = registry.get(7L);
+            cached.setChatId("@chan");
+            registry.save(7L);
+
+            registry.evictIfStale(7L, 2L);
+            cached.setChatId("@other");
+            registry.evictIfStale(7L, 5L);
+
+            assertThat(registry.get(7L)).isSameAs(cached);
+        }
+
+        @Test
+        @DisplayName("listener: свои уведомления и мусор пропускаются, чужие — сбрасывают")
+        void listenerParsesNotifications() {
+            UserSession cached = registry.get(7L);
+            MessageListener listener = BotSessionInvalidationConfig.changesListener("me", registry);
+
+            listener.onMessage(message("me:7:9"), null);
+            listener.onMessage(message("garbage"), null);
+            listener.onMessage(message("other:x:9"), null);
+            assertThat(registry.get(7L)).isSameAs(cached);
+
+            listener.onMessage(message("other:7:9"), null);
+            assertThat(registry.get(7L)).isNotSameAs(cached);
+            verify(store, never()).save(anyLong(), any());
+        }
+
+        private Message message(String body) {
+            Message message = mock(Message.class);
+            when(message.getBody()).thenReturn(body.getBytes(StandardCharsets.UTF_8));
+            return message;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.tcleaner.bot;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("BotUpdateDispatcher — очередь update'ов webhook")
+class BotUpdateDispatcherTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private BotUpdateDispatcher dispatcher;
+
+    @AfterEach
+    void tearDown() {
+        if (dispatcher != null) {
+            dispatcher.stop();
+        }
+    }
+
+    static Update update(long userId, int updateId) {
+        String json = """
+                {"update_id": %d, "message": {"message_id": %d, "date": 1767225600, "text": "/start",
+                 "from": {"id": %d, "is_bot": false, "first_name": "U"},
+                 "chat": {"id": %d, "type": "private"}}}
+                """.formatted(updateId, updateId, userId, userId);
+        try {
+            return MAPPER.readValue(json, Update.class);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private BotUpdateDispatcher dispatcher(Consumer<Update> handler, int workers, int capacity) {
+        dispatcher = new BotUpdateDispatcher(handler, registry, workers, capacity, 10);
+        return dispatcher;
+    }
+
+    @Nested
+    @DisplayName("обработка")
+    class Processing {
+
+        @Test
+        @DisplayName("update'ы одного пользователя обрабатываются по порядку, все доходят до обработчика")
+        void preservesPerUserOrder() throws InterruptedException {
+            Map<Long, List<Integer>> seen = new ConcurrentHashMap<>();
+            CountDownLatch done = new CountDownLatch(200);
+            dispatcher(u -> {
+                seen.computeIfAbsent(u.getMessage().getFrom().getId(), id -> new CopyOnWriteArrayList<>())
+                        .add(u.getUpdateId());
+                done.countDown();
+            }, 4, 1000).start();
+
+            for (int i = 0; i < 100; i++) {
+                assertThat(dispatcher.offer(update(1L, i))).isTrue();
+                assertThat(dispatcher.offer(update(2L, 1000 + i))).isTrue();
+            }
+
+            assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(seen.get(1L)).isSorted().hasSize(100);
+            assertThat(seen.get(2L)).isSorted().hasSize(100);
+            assertThat(registry.get("bot.webhook.received").counter().count()).isEqualTo(200.0);
+        }
+
+        @Test
+        @DisplayName("исключение обработчика не останавливает поток партиции")
+        void survivesHandlerFailure() throws InterruptedException {
+            CountDownLatch done = new CountDownLatch(1);
+            dispatcher(u -> {
+                if (u.getUpdateId() == 1) {
+                    throw new IllegalStateException("boom");
+                }
+                done.countDown();
+            }, 1, 10).start();
+
+            dispatcher.offer(update(1L, 1));
+            dispatcher.offer(update(1L, 2));
+
+            assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        }
+
+        @Test
+        @DisplayName("stop() дорабатывает уже принятые update'ы")
+        void stopDrainsAccepted() {
+            List<Integer> processed = new CopyOnWriteArrayList<>();
+            dispatcher(u -> processed.add(u.getUpdateId()), 1, 10);
+            dispatcher.offer(update(1L, 1));
+            dispatcher.offer(update(1L, 2));
+
+            dispatcher.start();
+            dispatcher.stop();
+
+            assertThat(processed).containsExactly(1, 2);
+            assertThat(dispatcher.backlog()).isZero();
+        }
+    }
+
+    @Nested
+    @DisplayName("переполнение")
+    class Overflow {
+
+        @Test
+        @DisplayName("полная партиция → update отклоняется, shed и backlog в метриках")
+        void shedsWhenFull() {
+            dispatcher(u -> { }, 1, 2);
+
+            assertThat(dispatcher.offer(update(1L, 1))).isTrue();
+            assertThat(dispatcher.offer(update(1L, 2))).isTrue();
+            assertThat(dispatcher.offer(update(1L, 3))).isFalse();
+
+            assertThat(registry.get("bot.webhook.shed").counter().count()).isEqualTo(1.0);
+            assertThat(registry.get("bot.webhook.backlog").gauge().value()).isEqualTo(2.0);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.tcleaner.bot;
+
+import com.tcleaner.api.TelegramWebhookSecretFilter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Локальная заглушка Telegram: записанные update'ы из {@code src/test/resources/webhook/}
+ * отправляются POST'ом на эндпоинт, как это делает Bot API (см. также ops/webhook-replay.sh).
+ */
+@DisplayName("BotWebhookController — приём update'ов webhook")
+class BotWebhookControllerTest {
+
+    private static final String SECRET = "test-webhook-secret";
+    private static final String SECRET_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+
+    private final List<Update> handled = new CopyOnWriteArrayList<>();
+    private BotMessenger messenger;
+    private BotUpdateDispatcher dispatcher;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        messenger = mock(BotMessenger.class);
+        // Не стартуем потоки: update'ы остаются в очереди и проверяются синхронно.
+        dispatcher = new BotUpdateDispatcher(handled::add, new SimpleMeterRegistry(), 1, 2, 10);
+        mockMvc = MockMvcBuilders
+                .standaloneSetup(new BotWebhookController(dispatcher, messenger, "", SECRET, 40))
+                .addFilters(new TelegramWebhookSecretFilter(SECRET))
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        dispatcher.stop();
+    }
+
+    private static String recorded(String name) throws IOException {
+        return new ClassPathResource("webhook/" + name).getContentAsString(StandardCharsets.UTF_8);
+    }
+
+    @Nested
+    @DisplayName("приём")
+    class Receive {
+
+        @Test
+        @DisplayName("записанные update'ы с верным секретом → 200, уходят в обработку")
+        void acceptsRecordedUpdates() throws Exception {
+            mockMvc.perform(post(BotWebhookController.PATH)
+                            .header(SECRET_HEADER, SECRET)
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(recorded("update_start.json")))
+                    .andExpect(status().isOk());
+            mockMvc.perform(post(BotWebhookController.PATH)
+                            .header(SECRET_HEADER, SECRET)
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(recorded("update_callback.json")))
+                    .andExpect(status().isOk());
+
+            dispatcher.start();
+            dispatcher.stop();
+
+            assertThat(handled).hasSize(2);
+            assertThat(handled.get(0).getMessage().getText()).isEqualTo("/start");
+            assertThat(handled.get(1).getCallbackQuery().getData()).isEqualTo("export_all");
+            assertThat(ExportBot.extractUserId(handled.get(1))).isEqualTo(555000111L);
+        }
+
+        @Test
+        @DisplayName("неверный или отсутствующий секрет → 401, update не принимается")
+        void rejectsWrongSecret() throws Exception {
+            mockMvc.perform(post(BotWebhookController.PATH)
+                            .header(SECRET_HEADER, "wrong")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(recorded("update_start.json")))
+                    .andExpect(status().isUnauthorized());
+            mockMvc.perform(post(BotWebhookController.PATH)
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(recorded("update_start.json")))
+                    .andExpect(status().isUnauthorized());
+
+            assertThat(dispatcher.backlog()).isZero();
+        }
+
+        @Test
+        @DisplayName("очередь переполнена → 503 с Retry-After, Telegram повторит доставку")
+        void returns503WhenFull() throws Exception {
+            for (int i = 0; i < 2; i++) {
+                mockMvc.perform(post(BotWebhookController.PATH)
+                                .header(SECRET_HEADER, SECRET)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(recorded("update_start.json")))
+                        .andExpect(status().isOk());
+            }
+
+            mockMvc.perform(post(BotWebhookController.PATH)
+                            .header(SECRET_HEADER, SECRET)
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(recorded("update_start.json")))
+                    .andExpect(status().isServiceUnavailable())
+                    .andExpect(header().string("Retry-After", "5"));
+        }
+    }
+
+    @Nested
+    @DisplayName("регистрация webhook")
+    class Register {
+
+        @Test
+        @DisplayName("url задан → setWebhook с секретом")
+        void registersWhenUrlSet() {
+            new BotWebhookController(dispatcher, messenger, "https://bot.example.com/telegram/webhook", SECRET, 40)
+                    .registerWebhook();
+
+            verify(messenger).setWebhook("https://bot.example.com/telegram/webhook", SECRET, 40);
+        }
+
+        @Test
+        @DisplayName("url пустой → webhook не регистрируется")
+        void skipsWithoutUrl() {
+            new BotWebhookController(dispatcher, messenger, " ", SECRET, 40).registerWebhook();
+
+            verify(messenger, never()).setWebhook(anyString(), anyString(), anyInt());
+        }
+    }
+
+    @Test
+    @DisplayName("фильтр без секрета не создаётся")
+    void filterRequiresSecret() {
+        assertThatThrownBy(() -> new TelegramWebhookSecretFilter(""))
+                .isInstanceOf(IllegalStateException.class);
+    }
+}
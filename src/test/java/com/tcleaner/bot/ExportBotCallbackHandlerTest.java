@@ -175,11 +175,8 @@ class ExportBotCallbackHandlerTest {
         @Test
         @DisplayName("CB_LAST_24H запускает quickRangeExport за 1 день")
         void last24h() {
-            when(jobProducerMock.enqueue(anyLong(), anyLong(), any(), any(), anyString(), isNull()))
-                    .thenReturn("tid");
-            when(jobProducerMock.isLikelyCached(any())).thenReturn(false);
-            when(jobProducerMock.getQueueLength()).thenReturn(0L);
-            when(jobProducerMock.hasActiveProcessingJob()).thenReturn(false);
+            when(jobProducerMock.enqueueExport(anyLong(), anyLong(), any(), any(), anyString(), isNull()))
+                    .thenReturn(new ExportJobProducer.EnqueueResult("tid", false, 0L, false, 0L));
             when(messengerMock.sendWithKeyboardGetId(anyLong(), anyString(), any())).thenReturn(5);
 
             UserSession s = sessionRegistry.get(5L);
@@ -188,17 +185,14 @@ class ExportBotCallbackHandlerTest {
 
             handler.handleCallbackSafe(makeCallback(5L, ExportBot.CB_LAST_24H));
 
-            verify(jobProducerMock).enqueue(eq(5L), eq(5L), eq("ch"), isNull(), anyString(), isNull());
+            verify(jobProducerMock).enqueueExport(eq(5L), eq(5L), eq("ch"), isNull(), anyString(), isNull());
         }
 
         @Test
         @DisplayName("CB_LAST_7D запускает quickRangeExport за 7 дней")
         void last7d() {
-            when(jobProducerMock.enqueue(anyLong(), anyLong(), any(), any(), anyString(), isNull()))
-                    .thenReturn("tid");
-            when(jobProducerMock.isLikelyCached(any())).thenReturn(false);
-            when(jobProducerMock.getQueueLength()).thenReturn(0L);
-            when(jobProducerMock.hasActiveProcessingJob()).thenReturn(false);
+            when(jobProducerMock.enqueueExport(anyLong(), anyLong(), any(), any(), anyString(), isNull()))
+                    .thenReturn(new ExportJobProducer.EnqueueResult("tid", false, 0L, false, 0L));
             when(messengerMock.sendWithKeyboardGetId(anyLong(), anyString(), any())).thenReturn(5);
 
             UserSession s = sessionRegistry.get(6L);
@@ -207,7 +201,7 @@ class ExportBotCallbackHandlerTest {
 
             handler.handleCallbackSafe(makeCallback(6L, ExportBot.CB_LAST_7D));
 
-            verify(jobProducerMock).enqueue(eq(6L), eq(6L), eq("ch2"), isNull(), anyString(), isNull());
+            verify(jobProducerMock).enqueueExport(eq(6L), eq(6L), eq("ch2"), isNull(), anyString(), isNull());
         }
 
         @Test
@@ -9,6 +9,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.context.support.ReloadableResourceBundleMessageSource;
 import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
@@ -20,7 +21,9 @@ import org.telegram.telegrambots.meta.api.objects.message.Message;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
 
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -48,6 +51,7 @@ class ExportBotTest {
     private BotUserUpserter userUpserterMock;
     private SubscriptionService subscriptionServiceMock;
     private BotSecurityGate securityGateMock;
+    private SessionStore sessionStoreMock;
     private BotI18n i18n;
     private ExportBot bot;
 
@@ -58,6 +62,7 @@ class ExportBotTest {
         userUpserterMock = mock(BotUserUpserter.class);
         subscriptionServiceMock = mock(SubscriptionService.class);
         securityGateMock = mock(BotSecurityGate.class);
+        sessionStoreMock = mock(SessionStore.class);
         when(securityGateMock.isBlocked(anyLong())).thenReturn(false);
         when(securityGateMock.isFlooded(anyLong())).thenReturn(false);
 
@@ -65,17 +70,8 @@ class ExportBotTest {
         when(userUpserterMock.resolveLanguage(anyLong())).thenReturn(BotLanguage.RU);
 
         when(jobProducerMock.getActiveExport(anyLong())).thenReturn(null);
-        when(jobProducerMock.enqueue(anyLong(), anyLong(), any(String.class), isNull(), isNull()))
-                .thenReturn("export_test_id");
-        when(jobProducerMock.enqueue(anyLong(), anyLong(), any(String.class), any(String.class), any(String.class)))
-                .thenReturn("export_test_id");
-        when(jobProducerMock.enqueue(anyLong(), anyLong(), any(String.class), any(), isNull(), isNull()))
-                .thenReturn("export_test_id");
-        when(jobProducerMock.enqueue(anyLong(), anyLong(), any(String.class), any(), any(String.class), any(String.class)))
-                .thenReturn("export_test_id");
-        when(jobProducerMock.isLikelyCached(any())).thenReturn(false);
-        when(jobProducerMock.getQueueLength()).thenReturn(0L);
-        when(jobProducerMock.hasActiveProcessingJob()).thenReturn(false);
+        when(jobProducerMock.enqueueExport(anyLong(), anyLong(), any(String.class), any(), any(), any()))
+                .thenReturn(new ExportJobProducer.EnqueueResult("export_test_id", false, 0L, false, 0L));
         when(messengerMock.sendWithKeyboardGetId(anyLong(), anyString(), any())).thenReturn(42);
         when(messengerMock.getChatInfo(anyString())).thenAnswer(invocation -> {
             String identifier = invocation.getArgument(0, String.class);
@@ -88,7 +84,7 @@ class ExportBotTest {
 
     private ExportBot buildBot(String miniAppUrl) {
         BotKeyboards keyboards = new BotKeyboards(i18n);
-        BotSessionRegistry sessionRegistry = new BotSessionRegistry();
+        BotSessionRegistry sessionRegistry = new BotSessionRegistry(sessionStoreMock, Duration.ofHours(2), null);
         QueueDisplayBuilder qdBuilder = new QueueDisplayBuilder(i18n);
 
         ExportBotCommandHandler cmdHandler = new ExportBotCommandHandler(
@@ -105,7 +101,7 @@ class ExportBotTest {
 
         return new ExportBot("token", miniAppUrl, messengerMock, i18n,
                 noPublisher, new SimpleMeterRegistry(), securityGateMock,
-                cmdHandler, cbHandler);
+                cmdHandler, cbHandler, sessionRegistry);
     }
 
     private static ReloadableResourceBundleMessageSource newTestMessageSource() {
@@ -176,7 +172,7 @@ class ExportBotTest {
                     eq(123L),
                     contains("Чат:"),
                     any(InlineKeyboardMarkup.class));
-            verify(jobProducerMock, never()).enqueue(anyLong(), anyLong(), anyString(), any(), any(), any());
+            verify(jobProducerMock, never()).enqueueExport(anyLong(), anyLong(), anyString(), any(), any(), any());
         }
 
         @Test
@@ -247,7 +243,7 @@ class ExportBotTest {
             bot.consume(createTextMessageUpdate(123L, "@my_channel"));
             bot.consume(createCallbackUpdate(123L, ExportBot.CB_EXPORT_ALL));
 
-            verify(jobProducerMock).enqueue(123L, 123L, "my_channel", null, null, null);
+            verify(jobProducerMock).enqueueExport(123L, 123L, "my_channel", null, null, null);
             verify(messengerMock).editMessage(
                     eq(123L), anyInt(), contains("Задача принята"), any(InlineKeyboardMarkup.class));
         }
@@ -291,7 +287,7 @@ class ExportBotTest {
             bot.consume(createTextMessageUpdate(123L, "01.01.2024"));
             bot.consume(createCallbackUpdate(123L, ExportBot.CB_TO_TODAY));
 
-            verify(jobProducerMock).enqueue(
+            verify(jobProducerMock).enqueueExport(
                     eq(123L), eq(123L), eq("my_channel"), isNull(), contains("2024-01-01"), isNull());
         }
 
@@ -318,7 +314,7 @@ class ExportBotTest {
             bot.consume(createTextMessageUpdate(123L, "01.01.2024"));
             bot.consume(createTextMessageUpdate(123L, "31.12.2024"));
 
-            verify(jobProducerMock).enqueue(
+            verify(jobProducerMock).enqueueExport(
                     eq(123L), eq(123L), eq("my_channel"),
                     isNull(), contains("2024-01-01"), contains("2024-12-31"));
         }
@@ -388,7 +384,7 @@ class ExportBotTest {
             bot.consume(createTextMessageUpdate(123L, "@my_channel"));
 
             verify(messengerMock).send(eq(123L), contains("уже есть активный экспорт"));
-            verify(jobProducerMock, never()).enqueue(anyLong(), anyLong(), anyString(), any(), any(), any());
+            verify(jobProducerMock, never()).enqueueExport(anyLong(), anyLong(), anyString(), any(), any(), any());
         }
 
         @Test
@@ -420,6 +416,21 @@ class ExportBotTest {
             verify(jobProducerMock, atLeast(1))
                     .storeQueueMsgId(eq("export_test_id"), eq(123L), anyInt());
         }
+
+        @Test
+        @DisplayName("изменения сессии за update сохраняются одной записью, без изменений — без записи")
+        void testSessionSavedOncePerUpdate() {
+            bot.consume(createTextMessageUpdate(123L, "@my_channel"));
+
+            @SuppressWarnings("unchecked")
+            ArgumentCaptor<Map<String, String>> fields = ArgumentCaptor.forClass(Map.class);
+            verify(sessionStoreMock).load(123L);
+            verify(sessionStoreMock).save(eq(123L), fields.capture());
+            assertThat(fields.getValue()).containsEntry(UserSession.FIELD_STATE, "AWAITING_DATE_CHOICE");
+
+            bot.consume(createTextMessageUpdate(123L, "/cancel"));
+            verify(sessionStoreMock).save(eq(123L), any());
+        }
     }
 
     @Nested
@@ -581,7 +592,7 @@ class ExportBotTest {
             bot.consume(createTextMessageUpdate(123L, "https://t.me/public_channel/148220"));
             bot.consume(createCallbackUpdate(123L, ExportBot.CB_EXPORT_ALL));
 
-            verify(jobProducerMock).enqueue(eq(123L), eq(123L), eq("public_channel"),
+            verify(jobProducerMock).enqueueExport(eq(123L), eq(123L), eq("public_channel"),
                     eq(148220), isNull(), isNull());
         }
 
@@ -591,7 +602,7 @@ class ExportBotTest {
             bot.consume(createTextMessageUpdate(123L, "https://t.me/public_channel"));
             bot.consume(createCallbackUpdate(123L, ExportBot.CB_EXPORT_ALL));
 
-            verify(jobProducerMock).enqueue(eq(123L), eq(123L), eq("public_channel"),
+            verify(jobProducerMock).enqueueExport(eq(123L), eq(123L), eq("public_channel"),
                     isNull(), isNull(), isNull());
         }
     }
@@ -790,7 +801,7 @@ class ExportBotTest {
             bot.consume(createCallbackUpdate(50L, ExportBot.CB_EXPORT_ALL));
 
             verify(messengerMock).send(eq(50L), anyString());
-            verify(jobProducerMock, never()).enqueue(anyLong(), anyLong(), anyString(), any(), any(), any());
+            verify(jobProducerMock, never()).enqueueExport(anyLong(), anyLong(), anyString(), any(), any(), any());
         }
 
         @Test
@@ -805,13 +816,13 @@ class ExportBotTest {
 
             // Оба пути блокированы → enqueue ни разу не вызван
             verify(messengerMock, org.mockito.Mockito.atLeastOnce()).send(eq(51L), anyString());
-            verify(jobProducerMock, never()).enqueue(anyLong(), anyLong(), anyString(), any(), any(), any());
+            verify(jobProducerMock, never()).enqueueExport(anyLong(), anyLong(), anyString(), any(), any(), any());
         }
 
         @Test
         @DisplayName("enqueue бросает IllegalStateException: сообщение о дублировании")
         void enqueueIllegalStateNotifiesUser() {
-            when(jobProducerMock.enqueue(anyLong(), anyLong(), anyString(), any(), any(), any()))
+            when(jobProducerMock.enqueueExport(anyLong(), anyLong(), anyString(), any(), any(), any()))
                     .thenThrow(new IllegalStateException("duplicate"));
 
             bot.consume(createTextMessageUpdate(52L, "@chan"));
@@ -823,7 +834,7 @@ class ExportBotTest {
         @Test
         @DisplayName("enqueue бросает RuntimeException: сообщение об ошибке очереди")
         void enqueueRuntimeExceptionNotifiesUser() {
-            when(jobProducerMock.enqueue(anyLong(), anyLong(), anyString(), any(), any(), any()))
+            when(jobProducerMock.enqueueExport(anyLong(), anyLong(), anyString(), any(), any(), any()))
                     .thenThrow(new RuntimeException("redis down"));
 
             bot.consume(createTextMessageUpdate(53L, "@chan"));
@@ -848,6 +859,15 @@ class ExportBotTest {
         void updatesConsumerReturnsSelf() {
             assertThat(bot.getUpdatesConsumer()).isSameAs(bot);
         }
+
+        @Test
+        @DisplayName("ExportBotLongPolling регистрирует в long polling тот же бот")
+        void longPollingAdapterDelegates() {
+            ExportBotLongPolling polling = new ExportBotLongPolling(bot);
+
+            assertThat(polling.getBotToken()).isEqualTo("token");
+            assertThat(polling.getUpdatesConsumer()).isSameAs(bot);
+        }
     }
 
     @Nested
@@ -963,7 +983,7 @@ class ExportBotTest {
             return new ExportBot("token", "https://test.example.com/dashboard/mini-app",
                     messengerMock, i18n, provider,
                     new io.micrometer.core.instrument.simple.SimpleMeterRegistry(),
-                    securityGateMock, cmd, cb);
+                    securityGateMock, cmd, cb, registry);
         }
     }
 
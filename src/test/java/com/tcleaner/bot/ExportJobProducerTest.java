@@ -3,24 +3,31 @@ package com.tcleaner.bot;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.tcleaner.dashboard.events.StatsStreamPublisher;
+import com.tcleaner.dashboard.service.queue.ExportCostEstimator;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.redis.core.HashOperations;
 import org.springframework.data.redis.core.ListOperations;
 import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.RedisScript;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.mockito.Mockito.doThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -30,6 +37,7 @@ import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.argThat;
@@ -37,6 +45,7 @@ import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -62,7 +71,15 @@ class ExportJobProducerTest {
         @SuppressWarnings("unchecked")
         ObjectProvider<StatsStreamPublisher> noPublisher = mock(ObjectProvider.class);
         lenient().when(noPublisher.getIfAvailable()).thenReturn(null);
-        jobProducer = new ExportJobProducer(redis, new ObjectMapper(), "telegram_export", noPublisher);
+        jobProducer = new ExportJobProducer(redis, new ObjectMapper(), "telegram_export", noPublisher, "list",
+                provider(null));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> ObjectProvider<T> provider(T bean) {
+        ObjectProvider<T> provider = mock(ObjectProvider.class);
+        lenient().when(provider.getIfAvailable()).thenReturn(bean);
+        return provider;
     }
 
     private List<Object> pipelineResult(boolean processing, boolean completed, boolean failed,
@@ -77,54 +94,140 @@ class ExportJobProducerTest {
         return res;
     }
 
+    @SuppressWarnings("unchecked")
+    private void stubEnqueueScript(List<Object> reply) {
+        when(redis.execute(any(RedisScript.class), anyList(), any(Object[].class))).thenReturn(reply);
+    }
+
     @Nested
-    @DisplayName("Защита от дубликатов (SET NX)")
+    @DisplayName("Защита от дубликатов (Lua: SET NX внутри скрипта)")
     class DuplicateProtectionTests {
 
         @Test
         @DisplayName("должен добавить первый экспорт успешно")
         void shouldEnqueueFirstExport() {
             long userId = 12345L;
-
-            when(valueOps.setIfAbsent(eq("active_export:" + userId), anyString(),
-                    eq(60L), eq(TimeUnit.MINUTES))).thenReturn(true);
+            stubEnqueueScript(List.of(1L, "ignored", 0L, 1L, 0L, 0L));
 
             String taskId = jobProducer.enqueue(userId, userId, 123456789L);
 
             assertNotNull(taskId);
             assertTrue(taskId.startsWith("export_"));
-            verify(listOps).rightPush(anyString(), anyString());
         }
 
         @Test
         @DisplayName("должен отклонить второй экспорт при активном первом (SET NX)")
         void shouldRejectDuplicateExport() {
             long userId = 54321L;
+            stubEnqueueScript(List.of(0L, "export_existing"));
 
-            when(valueOps.setIfAbsent(eq("active_export:" + userId), anyString(),
-                    eq(60L), eq(TimeUnit.MINUTES))).thenReturn(false);
-            when(valueOps.get("active_export:" + userId)).thenReturn("export_existing");
-
-            assertThrows(
+            IllegalStateException ex = assertThrows(
                     IllegalStateException.class,
                     () -> jobProducer.enqueue(userId, userId, 987654321L)
             );
 
-            verify(listOps, never()).rightPush(anyString(), anyString());
+            assertTrue(ex.getMessage().contains("export_existing"));
+            verify(redis, never()).delete(anyString());
         }
 
         @Test
-        @DisplayName("rightPush бросает → откатывает active_export")
-        void shouldRollBackActiveExportOnQueueFailure() {
+        @DisplayName("скрипт бросает → RuntimeException, отдельного отката брони нет")
+        void shouldWrapScriptFailureWithoutRollback() {
             long userId = 55555L;
-            when(valueOps.setIfAbsent(eq("active_export:" + userId), anyString(),
-                    eq(60L), eq(TimeUnit.MINUTES))).thenReturn(true);
-            when(listOps.rightPush(anyString(), anyString()))
+            when(redis.execute(any(RedisScript.class), anyList(), any(Object[].class)))
                     .thenThrow(new RuntimeException("Redis down"));
 
             assertThrows(RuntimeException.class, () -> jobProducer.enqueue(userId, userId, 111L));
 
-            verify(redis).delete("active_export:" + userId);
+            verify(redis, never()).delete(anyString());
+        }
+    }
+
+    @Nested
+    @DisplayName("enqueueExport: один вызов скрипта")
+    class EnqueueExportTests {
+
+        @Test
+        @DisplayName("передаёт ключи и аргументы, разбирает cached/pending/hasActive из ответа")
+        @SuppressWarnings("unchecked")
+        void shouldPassKeysAndParseReply() {
+            stubEnqueueScript(List.of(1L, "ignored", 1L, 4L, 1L, 3L));
+
+            ExportJobProducer.EnqueueResult result =
+                    jobProducer.enqueueExport(7L, 70L, "@chan", 15, "2026-01-01", null);
+
+            assertTrue(result.taskId().startsWith("export_"));
+            assertTrue(result.cached());
+            assertEquals(4L, result.pendingInQueue());
+            assertTrue(result.hasActiveJob());
+            assertEquals(3L, result.aheadInQueue());
+
+            ArgumentCaptor<List<String>> keys = ArgumentCaptor.forClass(List.class);
+            ArgumentCaptor<Object[]> args = ArgumentCaptor.forClass(Object[].class);
+            verify(redis).execute(any(RedisScript.class), keys.capture(), args.capture());
+            assertEquals(List.of(
+                    "active_export:7",
+                    "job_json:" + result.taskId(),
+                    "job_queue:" + result.taskId(),
+                    "telegram_export",
+                    "telegram_export_express",
+                    "telegram_export_subscription",
+                    "active_processing_job",
+                    "telegram_export:pq",
+                    "telegram_export:pq:payloads"), keys.getValue());
+            Object[] argv = args.getValue();
+            assertEquals(result.taskId(), argv[0]);
+            assertTrue(argv[1].toString().contains("\"topic_id\":15"));
+            assertTrue(argv[1].toString().contains("\"enqueued_at\":"));
+            assertEquals("3600", argv[2]);
+            assertEquals("@chan", argv[3]);
+            assertEquals("list", argv[4]);
+            // Никаких отдельных round-trip'ов помимо скрипта
+            verify(redis, never()).opsForValue();
+            verify(redis, never()).opsForList();
+        }
+
+        @Test
+        @DisplayName("не кэширован, воркер свободен → cached=false, hasActive=false")
+        void shouldParseNotCachedReply() {
+            stubEnqueueScript(List.of(1L, "ignored", 0L, 1L, 0L, 0L));
+
+            ExportJobProducer.EnqueueResult result =
+                    jobProducer.enqueueExport(8L, 8L, "@chan", null, null, null);
+
+            assertFalse(result.cached());
+            assertEquals(1L, result.pendingInQueue());
+            assertFalse(result.hasActiveJob());
+        }
+
+        @Test
+        @DisplayName("пустой ответ скрипта → RuntimeException")
+        void shouldFailOnEmptyReply() {
+            stubEnqueueScript(List.of());
+
+            assertThrows(RuntimeException.class,
+                    () -> jobProducer.enqueueExport(9L, 9L, "@chan", null, null, null));
+        }
+
+        @Test
+        @DisplayName("null-ответ скрипта → RuntimeException")
+        void shouldFailOnNullReply() {
+            stubEnqueueScript(null);
+
+            assertThrows(RuntimeException.class,
+                    () -> jobProducer.enqueueExport(10L, 10L, "@chan", null, null, null));
+        }
+
+        @Test
+        @DisplayName("числа в ответе строками (нестандартный сериализатор) тоже разбираются")
+        void shouldParseStringNumbers() {
+            stubEnqueueScript(List.of("1", "ignored", "0", "3", "1", "2"));
+
+            ExportJobProducer.EnqueueResult result =
+                    jobProducer.enqueueExport(11L, 11L, "@chan", null, null, null);
+
+            assertEquals(3L, result.pendingInQueue());
+            assertTrue(result.hasActiveJob());
         }
     }
 
@@ -389,7 +492,7 @@ class ExportJobProducerTest {
         @Test
         @DisplayName("enqueue(long,long,long) делегирует во внутренний метод")
         void enqueueWithLongChatId() {
-            when(valueOps.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(true);
+            stubEnqueueScript(List.of(1L, "ignored", 0L, 1L, 0L, 0L));
             String taskId = jobProducer.enqueue(1L, 1L, 100L);
             assertTrue(taskId.startsWith("export_"));
         }
@@ -397,7 +500,7 @@ class ExportJobProducerTest {
         @Test
         @DisplayName("enqueue(long,long,long,String,String) делегирует во внутренний метод")
         void enqueueWithLongChatIdAndDates() {
-            when(valueOps.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(true);
+            stubEnqueueScript(List.of(1L, "ignored", 0L, 1L, 0L, 0L));
             String taskId = jobProducer.enqueue(2L, 2L, 200L, "2026-01-01", "2026-01-31");
             assertTrue(taskId.startsWith("export_"));
         }
@@ -405,7 +508,7 @@ class ExportJobProducerTest {
         @Test
         @DisplayName("enqueue(long,long,String) делегирует во внутренний метод")
         void enqueueWithStringChatId() {
-            when(valueOps.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(true);
+            stubEnqueueScript(List.of(1L, "ignored", 0L, 1L, 0L, 0L));
             String taskId = jobProducer.enqueue(3L, 3L, "@chan");
             assertTrue(taskId.startsWith("export_"));
         }
@@ -413,7 +516,7 @@ class ExportJobProducerTest {
         @Test
         @DisplayName("enqueue(long,long,String,String,String) делегирует во внутренний метод")
         void enqueueWithStringChatIdAndDates() {
-            when(valueOps.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(true);
+            stubEnqueueScript(List.of(1L, "ignored", 0L, 1L, 0L, 0L));
             String taskId = jobProducer.enqueue(4L, 4L, "@chan2", "2026-02-01", "2026-02-28");
             assertTrue(taskId.startsWith("export_"));
         }
@@ -429,10 +532,8 @@ class ExportJobProducerTest {
         @BeforeEach
         void setUpWithPublisher() {
             publisherMock = mock(StatsStreamPublisher.class);
-            @SuppressWarnings("unchecked")
-            ObjectProvider<StatsStreamPublisher> provider = mock(ObjectProvider.class);
-            lenient().when(provider.getIfAvailable()).thenReturn(publisherMock);
-            producerWithPublisher = new ExportJobProducer(redis, new ObjectMapper(), "telegram_export", provider);
+            producerWithPublisher = new ExportJobProducer(redis, new ObjectMapper(), "telegram_export",
+                    provider(publisherMock), "list", provider(null));
         }
 
         @Test
@@ -520,4 +621,287 @@ class ExportJobProducerTest {
             );
         }
     }
+
+    @Nested
+    @DisplayName("telegram.queue.backend=zset — приоритетная очередь")
+    class PriorityQueueBackendTests {
+
+        @Mock
+        private ZSetOperations<String, String> zsetOps;
+
+        @Mock
+        private HashOperations<String, Object, Object> hashOps;
+
+        private ExportJobProducer zsetProducer;
+
+        @BeforeEach
+        void setUpZset() {
+            lenient().when(redis.opsForZSet()).thenReturn(zsetOps);
+            lenient().doReturn(hashOps).when(redis).opsForHash();
+            @SuppressWarnings("unchecked")
+            ObjectProvider<StatsStreamPublisher> noPublisher = mock(ObjectProvider.class);
+            zsetProducer = new ExportJobProducer(redis, new ObjectMapper(), "telegram_export", noPublisher, "zset",
+                    provider(null));
+        }
+
+        @Test
+        @DisplayName("неизвестный backend → IllegalArgumentException на старте")
+        void rejectsUnknownBackend() {
+            @SuppressWarnings("unchecked")
+            ObjectProvider<StatsStreamPublisher> noPublisher = mock(ObjectProvider.class);
+            assertThrows(IllegalArgumentException.class,
+                    () -> new ExportJobProducer(redis, new ObjectMapper(), "q", noPublisher, "kafka", provider(null)));
+        }
+
+        @Test
+        @DisplayName("enqueueExport передаёт backend=zset и основание score в скрипт")
+        void enqueuePassesZsetMode() {
+            stubEnqueueScript(List.of(1L, "ignored", 0L, 2L, 0L, 1L));
+
+            ExportJobProducer.EnqueueResult result =
+                    zsetProducer.enqueueExport(1L, 1L, "@chan", null, null, null);
+
+            assertEquals(1L, result.aheadInQueue());
+            ArgumentCaptor<Object[]> args = ArgumentCaptor.forClass(Object[].class);
+            verify(redis).execute(any(RedisScript.class), anyList(), args.capture());
+            assertEquals("zset", args.getValue()[4]);
+            assertEquals("10000000000000", args.getValue()[5]);
+        }
+
+        @Test
+        @DisplayName("cancel: job_queue = {queue}:pq → ZREM + HDEL по taskId, без LREM")
+        void cancelRemovesByTaskId() {
+            String taskId = "export_z1";
+            when(valueOps.get("active_export:7")).thenReturn(taskId);
+            when(valueOps.get("job_json:" + taskId)).thenReturn("{\"task_id\":\"" + taskId + "\"}");
+            when(valueOps.get("job_queue:" + taskId)).thenReturn("telegram_export:pq");
+            when(zsetOps.remove("telegram_export:pq", taskId)).thenReturn(1L);
+
+            zsetProducer.cancelExport(7L);
+
+            verify(zsetOps).remove("telegram_export:pq", taskId);
+            verify(hashOps).delete("telegram_export:pq:payloads", taskId);
+            verify(listOps, never()).remove(anyString(), anyLong(), any());
+            verify(redis).delete("active_export:7");
+        }
+
+        @Test
+        @DisplayName("cancel: задача уже взята воркером (ZREM=0) — флаг отмены всё равно стоит")
+        void cancelAlreadyClaimed() {
+            String taskId = "export_z2";
+            when(valueOps.get("active_export:8")).thenReturn(taskId);
+            when(valueOps.get("job_json:" + taskId)).thenReturn("{}");
+            when(valueOps.get("job_queue:" + taskId)).thenReturn("telegram_export:pq");
+            when(zsetOps.remove("telegram_export:pq", taskId)).thenReturn(0L);
+
+            zsetProducer.cancelExport(8L);
+
+            verify(valueOps).set(eq("cancel_export:" + taskId), eq("1"), eq(60L), eq(TimeUnit.MINUTES));
+        }
+
+        @Test
+        @DisplayName("cancel: legacy-задача из списка в режиме zset — по-прежнему LREM")
+        void cancelLegacyListJob() {
+            String taskId = "export_legacy";
+            String json = "{\"task_id\":\"" + taskId + "\"}";
+            when(valueOps.get("active_export:9")).thenReturn(taskId);
+            when(valueOps.get("job_json:" + taskId)).thenReturn(json);
+            when(valueOps.get("job_queue:" + taskId)).thenReturn("telegram_export");
+
+            zsetProducer.cancelExport(9L);
+
+            verify(listOps).remove("telegram_export", 1, json);
+            verify(zsetOps, never()).remove(anyString(), any());
+        }
+
+        @Test
+        @DisplayName("getQueuePosition: ZRANK по taskId")
+        void queuePositionUsesRank() {
+            when(zsetOps.rank("telegram_export:pq", "export_r")).thenReturn(4L);
+
+            assertEquals(4L, zsetProducer.getQueuePosition("export_r"));
+        }
+
+        @Test
+        @DisplayName("getQueuePosition: backend=list → null без обращения к Redis")
+        void queuePositionNullForListBackend() {
+            assertNull(jobProducer.getQueuePosition("export_r"));
+            verify(redis, never()).opsForZSet();
+        }
+
+        @Test
+        @DisplayName("getQueueLength: legacy-списки + ZCARD")
+        void queueLengthIncludesZcard() {
+            when(listOps.size(anyString())).thenReturn(1L);
+            when(zsetOps.zCard("telegram_export:pq")).thenReturn(5L);
+
+            assertEquals(8L, zsetProducer.getQueueLength());
+        }
+
+        @Test
+        @DisplayName("getQueueLength: ZCARD null → только списки")
+        void queueLengthZcardNull() {
+            when(listOps.size(anyString())).thenReturn(null);
+            when(zsetOps.zCard("telegram_export:pq")).thenReturn(null);
+
+            assertEquals(0L, zsetProducer.getQueueLength());
+        }
+
+        @Test
+        @DisplayName("enqueueSubscription: ZADD и job_json/job_queue одним скриптом с priority=2")
+        @SuppressWarnings("unchecked")
+        void subscriptionGoesToZset() {
+            String taskId = zsetProducer.enqueueSubscription(1L, 1L, "@chan", "2026-01-01", "2026-01-31", 5L);
+
+            ArgumentCaptor<List<String>> keys = ArgumentCaptor.forClass(List.class);
+            ArgumentCaptor<Object[]> args = ArgumentCaptor.forClass(Object[].class);
+            verify(redis).execute(any(RedisScript.class), keys.capture(), args.capture());
+            assertEquals(List.of("telegram_export:pq", "telegram_export:pq:payloads",
+                    "job_json:" + taskId, "job_queue:" + taskId), keys.getValue());
+            assertEquals(taskId, args.getValue()[0]);
+            assertEquals("2", args.getValue()[2]);
+            assertEquals("3600", args.getValue()[4]);
+            verify(valueOps, never()).set(anyString(), anyString(), anyLong(), any(TimeUnit.class));
+            verify(listOps, never()).rightPush(anyString(), anyString());
+        }
+
+        @Test
+        @DisplayName("getActiveExport: ZSCORE есть → задача активна даже при пустых списках")
+        @SuppressWarnings("unchecked")
+        void activeWhenInZset() {
+            when(valueOps.get("active_export:3")).thenReturn("export_q");
+            List<Object> res = pipelineResult(false, false, false, 0L, 0L, true);
+            res.add(1.0e13);
+            when(redis.executePipelined(any(SessionCallback.class))).thenReturn(res);
+
+            assertEquals("export_q", zsetProducer.getActiveExport(3L));
+        }
+
+        @Test
+        @DisplayName("getActiveExport: ZSCORE null и списки пусты → протухший active_export чистится")
+        @SuppressWarnings("unchecked")
+        void staleWhenNotInZset() {
+            when(valueOps.get("active_export:4")).thenReturn("export_gone");
+            List<Object> res = pipelineResult(false, false, false, 0L, 0L, false);
+            res.add(null);
+            when(redis.executePipelined(any(SessionCallback.class))).thenReturn(res);
+
+            assertNull(zsetProducer.getActiveExport(4L));
+            verify(redis).delete("active_export:4");
+        }
+    }
+
+    @Nested
+    @DisplayName("Shortest-job-first: оценка стоимости в аргументах скрипта")
+    class CostEstimateTests {
+
+        @Mock
+        private ExportCostEstimator costEstimator;
+
+        private ExportJobProducer sjfProducer;
+
+        @BeforeEach
+        void setUpSjf() {
+            @SuppressWarnings("unchecked")
+            ObjectProvider<StatsStreamPublisher> noPublisher = mock(ObjectProvider.class);
+            sjfProducer = new ExportJobProducer(redis, new ObjectMapper(), "telegram_export", noPublisher,
+                    "zset", provider(costEstimator));
+        }
+
+        @Test
+        @DisplayName("penalty для cache-hit/miss, флаг cheap и aging уходят в ARGV[7..10], предсказание запоминается")
+        void passesPenaltiesAndRemembersPrediction() {
+            when(costEstimator.estimate("@chan", null, "2026-01-01", null))
+                    .thenReturn(new ExportCostEstimator.Estimate(20, 100, 200, 1_000, true));
+            when(costEstimator.maxPenaltyMs()).thenReturn(1_800_000L);
+            stubEnqueueScript(List.of(1L, "ignored", 0L, 1L, 0L, 0L));
+
+            ExportJobProducer.EnqueueResult result =
+                    sjfProducer.enqueueExport(1L, 1L, "@chan", null, "2026-01-01", null);
+
+            ArgumentCaptor<Object[]> args = ArgumentCaptor.forClass(Object[].class);
+            verify(redis).execute(any(RedisScript.class), anyList(), args.capture());
+            assertEquals("200", args.getValue()[6]);
+            assertEquals("1000", args.getValue()[7]);
+            assertEquals("1", args.getValue()[8]);
+            assertEquals("1800000", args.getValue()[9]);
+            verify(costEstimator).remember(result.taskId(), 100L, false);
+        }
+
+        @Test
+        @DisplayName("cache-hit по ответу скрипта → запоминается стоимость с кэшем")
+        void remembersCachedCost() {
+            when(costEstimator.estimate(anyString(), any(), any(), any()))
+                    .thenReturn(new ExportCostEstimator.Estimate(20, 100, 200, 1_000, false));
+            stubEnqueueScript(List.of(1L, "ignored", 1L, 1L, 0L, 0L));
+
+            ExportJobProducer.EnqueueResult result =
+                    sjfProducer.enqueueExport(1L, 1L, "@chan", null, null, null);
+
+            verify(costEstimator).remember(result.taskId(), 20L, true);
+        }
+
+        @Test
+        @DisplayName("истории нет в кэше → постановка по оценке по умолчанию, score уточняется после загрузки")
+        void provisionalEstimateRescoredOnceHistoryLoads() {
+            when(costEstimator.estimate(anyString(), any(), any(), any()))
+                    .thenReturn(new ExportCostEstimator.Estimate(20, 100, 200, 1_000, false, true));
+            when(costEstimator.estimateLoaded("@chan", null, null, null))
+                    .thenReturn(CompletableFuture.completedFuture(
+                            new ExportCostEstimator.Estimate(30, 400, 300, 4_000, false)));
+            stubEnqueueScript(List.of(1L, "ignored", 0L, 1L, 0L, 0L));
+
+            ExportJobProducer.EnqueueResult result =
+                    sjfProducer.enqueueExport(1L, 1L, "@chan", null, null, null);
+
+            verify(costEstimator).remember(result.taskId(), 100L, false);
+            verify(costEstimator).revise(result.taskId(), 400L);
+            ArgumentCaptor<Object[]> args = ArgumentCaptor.forClass(Object[].class);
+            verify(redis, times(2)).execute(any(RedisScript.class), anyList(), args.capture());
+            assertArrayEquals(new Object[]{result.taskId(), "3000"}, args.getAllValues().get(1));
+        }
+
+        @Test
+        @DisplayName("оценка из кэша истории → без повторной оценки и пересчёта score")
+        void loadedEstimateNotRescored() {
+            when(costEstimator.estimate(anyString(), any(), any(), any()))
+                    .thenReturn(new ExportCostEstimator.Estimate(20, 100, 200, 1_000, false));
+            stubEnqueueScript(List.of(1L, "ignored", 0L, 1L, 0L, 0L));
+
+            sjfProducer.enqueueExport(1L, 1L, "@chan", null, null, null);
+
+            verify(costEstimator, never()).estimateLoaded(anyString(), any(), any(), any());
+            verify(redis, times(1)).execute(any(RedisScript.class), anyList(), any(Object[].class));
+        }
+
+        @Test
+        @DisplayName("оценщик бросает → постановка без штрафа, как FIFO")
+        void estimatorFailureFallsBackToFifo() {
+            when(costEstimator.estimate(anyString(), any(), any(), any()))
+                    .thenThrow(new IllegalStateException("boom"));
+            stubEnqueueScript(List.of(1L, "ignored", 0L, 1L, 0L, 0L));
+
+            assertDoesNotThrow(() -> sjfProducer.enqueueExport(1L, 1L, "@chan", null, null, null));
+
+            ArgumentCaptor<Object[]> args = ArgumentCaptor.forClass(Object[].class);
+            verify(redis).execute(any(RedisScript.class), anyList(), args.capture());
+            assertEquals("0", args.getValue()[6]);
+            assertEquals("0", args.getValue()[7]);
+            assertEquals("0", args.getValue()[8]);
+        }
+
+        @Test
+        @DisplayName("без оценщика (list-конструктор) → нулевые штрафы, aging выключен")
+        void noEstimatorSendsZeros() {
+            stubEnqueueScript(List.of(1L, "ignored", 0L, 1L, 0L, 0L));
+
+            jobProducer.enqueueExport(1L, 1L, "@chan", null, null, null);
+
+            ArgumentCaptor<Object[]> args = ArgumentCaptor.forClass(Object[].class);
+            verify(redis).execute(any(RedisScript.class), anyList(), args.capture());
+            assertEquals(10, args.getValue().length);
+            assertEquals("0", args.getValue()[8]);
+            assertEquals("0", args.getValue()[9]);
+        }
+    }
 }
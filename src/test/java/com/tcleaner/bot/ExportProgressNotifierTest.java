@@ -0,0 +1,268 @@
+package com.tcleaner.bot;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tcleaner.core.BotLanguage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.support.ReloadableResourceBundleMessageSource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.ArgumentMatchers.notNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@DisplayName("ExportProgressNotifier — live-прогресс в сообщении \"задача принята\"")
+class ExportProgressNotifierTest {
+
+    private static final Instant T0 = Instant.parse("2026-01-01T00:00:00Z");
+    private static final String HEADER = "HEADER";
+
+    private final Map<String, String> heartbeats = new HashMap<>();
+    private ExportJobProducer jobProducer;
+    private BotMessenger messenger;
+    private BotI18n i18n;
+    private MutableClock clock;
+    private ExportProgressNotifier notifier;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate redis = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> valueOps = mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(valueOps);
+        when(valueOps.multiGet(anyList())).thenAnswer(inv -> ((List<String>) inv.getArgument(0)).stream()
+                .map(heartbeats::get)
+                .toList());
+        jobProducer = mock(ExportJobProducer.class);
+        messenger = mock(BotMessenger.class);
+        i18n = new BotI18n(newTestMessageSource());
+        clock = new MutableClock(T0);
+        notifier = newNotifier(redis, 20);
+    }
+
+    private ExportProgressNotifier newNotifier(StringRedisTemplate redis, int maxEditsPerFlush) {
+        return new ExportProgressNotifier(redis, new ObjectMapper(), jobProducer, messenger, i18n,
+                new BotKeyboards(i18n), new QueueDisplayBuilder(i18n), new SimpleMeterRegistry(), clock,
+                Duration.ofSeconds(5), maxEditsPerFlush, Duration.ofHours(2));
+    }
+
+    private void track(String taskId, int messageId) {
+        notifier.track(taskId, 100L, messageId, BotLanguage.EN, HEADER, "sent");
+    }
+
+    private void advance(Duration duration) {
+        clock.set(clock.instant().plus(duration));
+    }
+
+    private String text(String key, Object... args) {
+        return HEADER + i18n.msg(BotLanguage.EN, key, args);
+    }
+
+    @Nested
+    @DisplayName("ожидающие задачи")
+    class Waiting {
+
+        @Test
+        @DisplayName("позиция изменилась → edit с кнопкой отмены; не изменилась → без edit'а")
+        void editsOnPositionChange() {
+            track("t1", 42);
+            when(jobProducer.getQueuePosition("t1")).thenReturn(1L);
+            when(jobProducer.hasActiveProcessingJob()).thenReturn(true);
+            advance(Duration.ofSeconds(5));
+
+            notifier.markAllDirty();
+            notifier.flush();
+            advance(Duration.ofSeconds(5));
+            notifier.markAllDirty();
+            notifier.flush();
+
+            verify(messenger, times(1)).editMessage(eq(100L), eq(42),
+                    eq(text("bot.queue.position", 3, 2)), notNull());
+        }
+
+        @Test
+        @DisplayName("позиция неизвестна (backend=list) → сообщение не трогается")
+        void skipsWithoutRank() {
+            track("t1", 42);
+            when(jobProducer.getQueuePosition("t1")).thenReturn(null);
+            advance(Duration.ofSeconds(5));
+
+            notifier.markAllDirty();
+            notifier.flush();
+
+            verify(messenger, never()).editMessage(anyLong(), anyInt(), anyString(), any());
+        }
+    }
+
+    @Nested
+    @DisplayName("активная задача")
+    class Active {
+
+        @Test
+        @DisplayName("серия heartbeat'ов в пределах интервала → один edit, следующий — после интервала")
+        void coalescesEdits() {
+            track("t1", 42);
+            heartbeats.put("worker:heartbeat:t1", "{\"ts\":1,\"stage\":\"fetch\",\"fetched\":1000}");
+            advance(Duration.ofSeconds(5));
+
+            notifier.onHeartbeatEvent("__keyspace@0__:worker:heartbeat:t1", "set");
+            notifier.flush();
+            heartbeats.put("worker:heartbeat:t1", "{\"ts\":2,\"stage\":\"fetch\",\"fetched\":2000}");
+            for (int i = 0; i < 10; i++) {
+                notifier.onHeartbeatEvent("__keyspace@0__:worker:heartbeat:t1", "set");
+                advance(Duration.ofMillis(300));
+                notifier.flush();
+            }
+            verify(messenger, times(1)).editMessage(anyLong(), anyInt(), anyString(), any());
+
+            advance(Duration.ofSeconds(2));
+            notifier.flush();
+
+            verify(messenger).editMessage(eq(100L), eq(42), eq(text("bot.progress.fetched", 1000)), notNull());
+            verify(messenger).editMessage(eq(100L), eq(42), eq(text("bot.progress.fetched", 2000)), notNull());
+        }
+
+        @Test
+        @DisplayName("heartbeat без fetched не сбрасывает счётчик; convert → свой этап")
+        void keepsMaxFetched() {
+            track("t1", 42);
+            heartbeats.put("worker:heartbeat:t1", "{\"ts\":1,\"stage\":\"fetch\",\"fetched\":3000}");
+            advance(Duration.ofSeconds(5));
+            notifier.markAllDirty();
+            notifier.flush();
+
+            heartbeats.put("worker:heartbeat:t1", "{\"ts\":2,\"stage\":\"fetch\"}");
+            advance(Duration.ofSeconds(5));
+            notifier.markAllDirty();
+            notifier.flush();
+            heartbeats.put("worker:heartbeat:t1", "{\"ts\":3,\"stage\":\"convert\"}");
+            advance(Duration.ofSeconds(5));
+            notifier.markAllDirty();
+            notifier.flush();
+
+            verify(messenger, times(1)).editMessage(eq(100L), eq(42), eq(text("bot.progress.fetched", 3000)), any());
+            verify(messenger).editMessage(eq(100L), eq(42), eq(text("bot.progress.convert")), notNull());
+        }
+
+        @Test
+        @DisplayName("heartbeat удалён → финальный текст без клавиатуры, задача больше не отслеживается")
+        void finishesAndUntracks() {
+            track("t1", 42);
+            heartbeats.put("worker:heartbeat:t1", "{\"ts\":1,\"stage\":\"start\"}");
+            advance(Duration.ofSeconds(5));
+            notifier.markAllDirty();
+            notifier.flush();
+
+            heartbeats.clear();
+            notifier.onHeartbeatEvent("__keyspace@0__:worker:heartbeat:t1", "del");
+            advance(Duration.ofSeconds(5));
+            notifier.flush();
+            advance(Duration.ofSeconds(5));
+            notifier.markAllDirty();
+            notifier.flush();
+
+            verify(messenger).editMessage(eq(100L), eq(42), eq(text("bot.progress.finished")), isNull());
+            verify(messenger, times(2)).editMessage(anyLong(), anyInt(), anyString(), any());
+        }
+    }
+
+    @Nested
+    @DisplayName("лимит edit'ов")
+    class Budget {
+
+        @Test
+        @DisplayName("больше задач, чем max-edits-per-flush → остальные в следующем проходе")
+        void spreadsEditsAcrossFlushes() {
+            StringRedisTemplate redis = mock(StringRedisTemplate.class);
+            @SuppressWarnings("unchecked")
+            ValueOperations<String, String> valueOps = mock(ValueOperations.class);
+            when(redis.opsForValue()).thenReturn(valueOps);
+            notifier = newNotifier(redis, 1);
+            track("t1", 1);
+            track("t2", 2);
+            when(jobProducer.getQueuePosition(anyString())).thenReturn(0L, 1L);
+            advance(Duration.ofSeconds(5));
+
+            notifier.markAllDirty();
+            notifier.flush();
+            verify(messenger, times(1)).editMessage(anyLong(), anyInt(), anyString(), any());
+
+            notifier.flush();
+            verify(messenger, times(2)).editMessage(anyLong(), anyInt(), anyString(), any());
+        }
+
+        @Test
+        @DisplayName("событие по чужому ключу игнорируется")
+        void ignoresForeignChannel() {
+            track("t1", 42);
+            advance(Duration.ofSeconds(5));
+
+            notifier.onHeartbeatEvent("__keyspace@0__:bot:blocked:1", "set");
+            notifier.flush();
+
+            verify(jobProducer, never()).getQueuePosition(anyString());
+        }
+    }
+
+    private static ReloadableResourceBundleMessageSource newTestMessageSource() {
+        ReloadableResourceBundleMessageSource src = new ReloadableResourceBundleMessageSource();
+        src.setBasename("classpath:bot_messages");
+        src.setDefaultEncoding(StandardCharsets.UTF_8.name());
+        src.setFallbackToSystemLocale(false);
+        src.setDefaultLocale(Locale.ENGLISH);
+        return src;
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void set(Instant instant) {
+            this.now = instant;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.tcleaner.bot;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tcleaner.dashboard.events.StatsStreamPublisher;
+import com.tcleaner.dashboard.service.queue.ExportCostEstimator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Aging между уровнями очереди ({@code enqueue_export.lua}) на настоящем Redis: большая
+ * main-задача не голодает под непрерывным потоком дешёвых express-задач.
+ */
+@Testcontainers
+@DisplayName("Очередь экспорта — aging между express и main")
+class ExportQueueAgingIntegrationTest {
+
+    @Container
+    static final GenericContainer<?> REDIS =
+            new GenericContainer<>("redis:7-alpine").withExposedPorts(6379);
+
+    private static final String QUEUE = "aging_export";
+    private static final long AGING_MS = 300;
+
+    private LettuceConnectionFactory factory;
+    private StringRedisTemplate redis;
+    private ExportCostEstimator costEstimator;
+
+    @BeforeEach
+    void setUp() {
+        factory = new LettuceConnectionFactory(REDIS.getHost(), REDIS.getMappedPort(6379));
+        factory.afterPropertiesSet();
+        redis = new StringRedisTemplate(factory);
+        try (RedisConnection connection = factory.getConnection()) {
+            connection.serverCommands().flushAll();
+        }
+
+        costEstimator = mock(ExportCostEstimator.class);
+        when(costEstimator.maxPenaltyMs()).thenReturn(AGING_MS);
+        when(costEstimator.estimate(anyString(), any(), any(), any()))
+                .thenReturn(new ExportCostEstimator.Estimate(10, 50, 0, 0, true));
+        when(costEstimator.estimate(eq("@big"), any(), any(), any()))
+                .thenReturn(new ExportCostEstimator.Estimate(100_000, 500_000, 100, 100, false));
+    }
+
+    @AfterEach
+    void tearDown() {
+        factory.destroy();
+    }
+
+    @ParameterizedTest(name = "backend={0}")
+    @ValueSource(strings = {"list", "zset"})
+    @DisplayName("большая задача перед потоком дешёвых в итоге забирается воркером")
+    void bigJobIsEventuallyClaimed(String backend) throws Exception {
+        @SuppressWarnings("unchecked")
+        ObjectProvider<StatsStreamPublisher> noPublisher = mock(ObjectProvider.class);
+        @SuppressWarnings("unchecked")
+        ObjectProvider<ExportCostEstimator> estimator = mock(ObjectProvider.class);
+        when(estimator.getIfAvailable()).thenReturn(costEstimator);
+        ExportJobProducer producer = new ExportJobProducer(redis, new ObjectMapper(), QUEUE, noPublisher,
+                backend, estimator);
+        long enqueuedAt = System.currentTimeMillis();
+        String big = producer.enqueueExport(1L, 1L, "@big", null, null, null).taskId();
+        long claimedAfter = -1;
+
+        List<String> claimed = new ArrayList<>();
+        long user = 2;
+        // Дешёвых задач приходит вдвое больше, чем воркер успевает взять: express не пустеет.
+        for (int i = 0; i < 40 && !claimed.contains(big); i++) {
+            producer.enqueueExport(user, user, "@cheap" + user, null, null, null);
+            user++;
+            producer.enqueueExport(user, user, "@cheap" + user, null, null, null);
+            user++;
+            claimed.add(claim(backend));
+            if (big.equals(claimed.get(claimed.size() - 1))) {
+                claimedAfter = System.currentTimeMillis() - enqueuedAt;
+            }
+            Thread.sleep(50);
+        }
+
+        assertThat(claimed.get(0)).as("shortest-job-first: первой идёт дешёвая задача").isNotEqualTo(big);
+        assertThat(claimed).contains(big);
+        // Express не пустеет: большую задачу поднимает только aging.
+        assertThat(claimedAfter).isGreaterThanOrEqualTo(AGING_MS);
+    }
+
+    // Воркер: zset — минимальный score (ZRANGE 0 0 + ZREM), list — express, затем main.
+    private String claim(String backend) throws Exception {
+        if ("zset".equals(backend)) {
+            ZSetOperations.TypedTuple<String> top = redis.opsForZSet().popMin(QUEUE + ":pq");
+            return top != null ? top.getValue() : null;
+        }
+        String json = redis.opsForList().leftPop(QUEUE + "_express");
+        if (json == null) {
+            json = redis.opsForList().leftPop(QUEUE);
+        }
+        return json != null ? new ObjectMapper().readTree(json).get("task_id").asText() : null;
+    }
+}
@@ -8,12 +8,18 @@ import org.junit.jupiter.api.Test;
 import org.springframework.context.support.ReloadableResourceBundleMessageSource;
 import org.telegram.telegrambots.meta.api.objects.User;
 
+import java.time.Duration;
+
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
 
 @DisplayName("QueueDisplayBuilder — pure formatters for queue/date/displayName")
 class QueueDisplayBuilderTest {
 
     private QueueDisplayBuilder builder;
+    private BotI18n i18n;
 
     @BeforeEach
     void setUp() {
@@ -22,7 +28,7 @@ class QueueDisplayBuilderTest {
         ms.setDefaultEncoding("UTF-8");
         ms.setFallbackToSystemLocale(false);
         ms.setDefaultLocale(java.util.Locale.ENGLISH);
-        BotI18n i18n = new BotI18n(ms);
+        i18n = new BotI18n(ms);
         builder = new QueueDisplayBuilder(i18n);
     }
 
@@ -53,6 +59,72 @@ class QueueDisplayBuilderTest {
             // i18n позиция формата "{0}-я / впереди {1}" — проверяем что числа в строке
             assertThat(result).contains("4").contains("3");
         }
+
+        @Test
+        @DisplayName("EnqueueResult: точный aheadInQueue=5 + active — сам 7-й, впереди 6")
+        void exactPositionFromEnqueueResult() {
+            String result = builder.build(BotLanguage.RU,
+                    new ExportJobProducer.EnqueueResult("t", false, 9, true, 5));
+            assertThat(result).isEqualTo(builder.build(BotLanguage.RU, false, 6, true));
+            assertThat(result).contains("7").contains("6");
+        }
+
+        @Test
+        @DisplayName("EnqueueResult: cached — cached-сообщение")
+        void cachedFromEnqueueResult() {
+            assertThat(builder.build(BotLanguage.RU, new ExportJobProducer.EnqueueResult("t", true, 9, true, 5)))
+                    .isEqualTo(builder.build(BotLanguage.RU, true, 9, true));
+        }
+
+        @Test
+        @DisplayName("EnqueueResult: впереди никого и воркер свободен — starting")
+        void startingFromEnqueueResult() {
+            assertThat(builder.build(BotLanguage.RU, new ExportJobProducer.EnqueueResult("t", false, 1, false, 0)))
+                    .isEqualTo(builder.build(BotLanguage.RU, false, 1, false));
+        }
+    }
+
+    @Nested
+    @DisplayName("build — ETA по статистике throughput")
+    class BuildEta {
+
+        private QueueEtaEstimator eta;
+        private QueueDisplayBuilder withEta;
+
+        @BeforeEach
+        void setUpEta() {
+            eta = mock(QueueEtaEstimator.class);
+            withEta = new QueueDisplayBuilder(i18n, eta);
+        }
+
+        @Test
+        @DisplayName("оценка есть — строка с ETA и диапазоном в минутах (вверх, минимум 1)")
+        void appendsEta() {
+            when(eta.estimate(5, true, "t")).thenReturn(new QueueEtaEstimator.Eta(
+                    Duration.ofSeconds(601), Duration.ofSeconds(10), Duration.ofSeconds(1200), 20));
+
+            String result = withEta.build(BotLanguage.RU, new ExportJobProducer.EnqueueResult("t", false, 9, true, 5));
+
+            assertThat(result)
+                    .startsWith(builder.build(BotLanguage.RU, false, 6, true))
+                    .contains("~11").contains("1–20");
+        }
+
+        @Test
+        @DisplayName("статистики ещё нет — текст как без оценщика")
+        void noEtaYet() {
+            ExportJobProducer.EnqueueResult enqueued = new ExportJobProducer.EnqueueResult("t", false, 1, false, 0);
+
+            assertThat(withEta.build(BotLanguage.RU, enqueued)).isEqualTo(builder.build(BotLanguage.RU, enqueued));
+        }
+
+        @Test
+        @DisplayName("cached — ETA не считается")
+        void cachedSkipsEta() {
+            withEta.build(BotLanguage.RU, new ExportJobProducer.EnqueueResult("t", true, 1, false, 0));
+
+            verifyNoInteractions(eta);
+        }
     }
 
     @Nested
@@ -0,0 +1,239 @@
+package com.tcleaner.bot;
+
+import com.tcleaner.dashboard.service.queue.ExportCostEstimator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@DisplayName("QueueEtaEstimator — ETA по затухающей статистике throughput")
+class QueueEtaEstimatorTest {
+
+    private static final Instant T0 = Instant.parse("2026-04-15T12:00:00Z");
+
+    private ExportCostEstimator costEstimator;
+    private QueueEtaEstimator estimator;
+
+    @BeforeEach
+    void setUp() {
+        costEstimator = mock(ExportCostEstimator.class);
+        estimator = new QueueEtaEstimator(Duration.ofHours(6), costEstimator);
+    }
+
+    /**
+     * Задачи подряд по {@code seconds}: первая приходит в свободный воркер в {@code from},
+     * остальные ждали в очереди с часа до него.
+     */
+    private Instant runSequential(Instant from, int count, long seconds, long messages) {
+        Instant finished = from;
+        for (int i = 0; i < count; i++) {
+            Instant next = finished.plusSeconds(seconds);
+            Instant started = i == 0 ? from : from.minusSeconds(3600);
+            estimator.recordFinished("t" + from.getEpochSecond() + "-" + i, started, next, messages, true);
+            finished = next;
+        }
+        return finished;
+    }
+
+    @Nested
+    @DisplayName("время обслуживания")
+    class ServiceTime {
+
+        @Test
+        @DisplayName("ожидание в очереди вычитается: считается от освобождения воркера")
+        void subtractsQueueWait() {
+            Instant last = runSequential(T0, 5, 60, 100);
+
+            assertThat(estimator.meanJobSeconds()).isCloseTo(60.0, within(1e-6));
+            assertThat(last).isEqualTo(T0.plusSeconds(300));
+        }
+
+        @Test
+        @DisplayName("задача пришла в простаивающий воркер → от started_at")
+        void idleWorkerCountsFromArrival() {
+            estimator.recordFinished("a", T0, T0.plusSeconds(10), 1L, true);
+            estimator.recordFinished("b", T0.plusSeconds(100), T0.plusSeconds(130), 1L, true);
+
+            // (10 + 30) / 2 с поправкой на затухание за 2 минуты при half-life 6 ч
+            assertThat(estimator.meanJobSeconds()).isCloseTo(20.0, within(0.1));
+        }
+
+        @Test
+        @DisplayName("FAILED сдвигает момент освобождения, но в статистику не входит")
+        void failedOnlyMovesBusyMarker() {
+            estimator.recordFinished("a", T0, T0.plusSeconds(500), null, false);
+            estimator.recordFinished("b", T0, T0.plusSeconds(530), 1L, true);
+
+            assertThat(estimator.meanJobSeconds()).isCloseTo(30.0, within(1e-6));
+        }
+
+        @Test
+        @DisplayName("начало обработки известно → от него, порядок событий и соседние задачи не важны")
+        void countsFromProcessingStart() {
+            estimator.recordFinished("b", T0, T0.plusSeconds(130), 1L, true, T0.plusSeconds(100));
+            // Пришло позже, но завершилось раньше: по запасной формуле было бы пропущено.
+            estimator.recordFinished("a", T0, T0.plusSeconds(40), 1L, true, T0.plusSeconds(10));
+
+            assertThat(estimator.meanJobSeconds()).isCloseTo(30.0, within(1e-6));
+        }
+
+        @Test
+        @DisplayName("без начала обработки: задача, завершившаяся раньше уже учтённой, не входит в статистику")
+        void ignoresOutOfOrderWithoutProcessingStart() {
+            estimator.recordFinished("b", T0, T0.plusSeconds(130), 1L, true);
+            estimator.recordFinished("a", T0, T0.plusSeconds(40), 1L, true);
+            estimator.recordFinished("c", T0, T0.plusSeconds(150), 1L, true);
+
+            // b — 130 с от постановки в простаивающий воркер, c — 20 с после b; a пропущена.
+            assertThat(estimator.meanJobSeconds()).isCloseTo(75.0, within(0.1));
+        }
+
+        @Test
+        @DisplayName("без дат, с неположительным или гигантским временем — пропуск")
+        void skipsInvalid() {
+            estimator.recordFinished("a", null, T0, 1L, true);
+            estimator.recordFinished("b", T0, null, 1L, true);
+            estimator.recordFinished("c", T0, T0, 1L, true);
+            estimator.recordFinished("d", T0, T0.plus(Duration.ofHours(7)), 1L, true);
+            // переупорядоченное событие: завершилось раньше уже учтённого
+            estimator.recordFinished("e", T0, T0.plusSeconds(60), 1L, true);
+
+            assertThat(estimator.meanJobSeconds()).isNull();
+        }
+    }
+
+    @Nested
+    @DisplayName("estimate")
+    class Estimate {
+
+        @Test
+        @DisplayName("меньше MIN_SAMPLES наблюдений → null")
+        void notEnoughSamples() {
+            runSequential(T0, QueueEtaEstimator.MIN_SAMPLES - 1, 60, 100);
+
+            assertThat(estimator.estimate(3, true, null)).isNull();
+        }
+
+        @Test
+        @DisplayName("одинаковые задачи по 60с: 3 впереди + сама = 240с, без активной — без остатка")
+        void constantServiceTime() {
+            runSequential(T0, 10, 60, 100);
+
+            QueueEtaEstimator.Eta eta = estimator.estimate(3, false, null);
+
+            assertThat(eta.expected()).isEqualTo(Duration.ofSeconds(240));
+            assertThat(eta.low()).isEqualTo(eta.expected());
+            assertThat(eta.high()).isEqualTo(eta.expected());
+            assertThat(eta.samples()).isEqualTo(10);
+        }
+
+        @Test
+        @DisplayName("активная задача добавляет E[S²]/2E[S] — при постоянном S это S/2")
+        void activeJobResidual() {
+            runSequential(T0, 10, 60, 100);
+
+            assertThat(estimator.estimate(0, true, null).expected()).isEqualTo(Duration.ofSeconds(90));
+        }
+
+        @Test
+        @DisplayName("разброс времени → интервал вокруг ожидаемого, нижняя граница не отрицательна")
+        void bandFromVariance() {
+            Instant t = T0;
+            for (int i = 0; i < 10; i++) {
+                long seconds = i % 2 == 0 ? 10 : 110;
+                estimator.recordFinished("v" + i, t, t.plusSeconds(seconds), 1L, true);
+                t = t.plusSeconds(seconds);
+            }
+
+            QueueEtaEstimator.Eta eta = estimator.estimate(4, false, null);
+
+            assertThat(eta.expected().toSeconds()).isBetween(295L, 305L);
+            assertThat(eta.low()).isLessThan(eta.expected()).isGreaterThanOrEqualTo(Duration.ZERO);
+            assertThat(eta.high()).isGreaterThan(eta.expected());
+        }
+
+        @Test
+        @DisplayName("собственная задача — по регрессии источника: overhead + messages / throughput")
+        void ownJobFromSourceModel() {
+            // Telegram: 5с overhead + 0.1 с/сообщение
+            Instant t = T0;
+            long[] sizes = {100, 200, 300, 400, 500, 600};
+            for (int i = 0; i < sizes.length; i++) {
+                String taskId = "tg" + i;
+                when(costEstimator.prediction(taskId)).thenReturn(new ExportCostEstimator.Prediction(sizes[i], false));
+                Instant finished = t.plusMillis(5_000 + sizes[i] * 100);
+                estimator.recordFinished(taskId, t, finished, sizes[i], true);
+                t = finished;
+            }
+            when(costEstimator.prediction("mine")).thenReturn(new ExportCostEstimator.Prediction(1_000, false));
+
+            QueueEtaEstimator.Eta eta = estimator.estimate(0, false, "mine");
+
+            assertThat(eta.expected().toMillis()).isCloseTo(105_000L, within(10L));
+            Map<QueueEtaEstimator.Source, QueueEtaEstimator.Throughput> throughput = estimator.throughput();
+            assertThat(throughput).containsOnlyKeys(QueueEtaEstimator.Source.TELEGRAM);
+            assertThat(throughput.get(QueueEtaEstimator.Source.TELEGRAM).messagesPerSecond())
+                    .isCloseTo(10.0, within(1e-6));
+            assertThat(throughput.get(QueueEtaEstimator.Source.TELEGRAM).overheadSeconds())
+                    .isCloseTo(5.0, within(1e-6));
+        }
+
+        @Test
+        @DisplayName("источник без достаточной истории → собственная задача по среднему")
+        void ownJobFallsBackToMean() {
+            runSequential(T0, 10, 60, 100);
+            when(costEstimator.prediction("mine")).thenReturn(new ExportCostEstimator.Prediction(1_000, true));
+
+            assertThat(estimator.estimate(0, false, "mine").expected()).isEqualTo(Duration.ofSeconds(60));
+        }
+
+        @Test
+        @DisplayName("без ExportCostEstimator источники не копятся, ETA по среднему")
+        void withoutCostEstimator() {
+            estimator = new QueueEtaEstimator(Duration.ofHours(6));
+            runSequential(T0, 10, 60, 100);
+
+            assertThat(estimator.throughput()).isEmpty();
+            assertThat(estimator.estimate(1, false, "x").expected()).isEqualTo(Duration.ofSeconds(120));
+        }
+    }
+
+    @Nested
+    @DisplayName("затухание")
+    class Decay {
+
+        @Test
+        @DisplayName("после многих half-life свежие наблюдения доминируют")
+        void recentDominates() {
+            runSequential(T0, 10, 600, 100);
+            runSequential(T0.plus(Duration.ofDays(10)), 10, 30, 100);
+
+            assertThat(estimator.meanJobSeconds()).isCloseTo(30.0, within(0.01));
+        }
+
+        @Test
+        @DisplayName("источник, не встречавшийся много half-life, не даёт оценку собственной задачи")
+        void staleSourceNotReady() {
+            Instant t = T0;
+            for (int i = 0; i < 6; i++) {
+                String taskId = "c" + i;
+                when(costEstimator.prediction(taskId)).thenReturn(new ExportCostEstimator.Prediction(10, true));
+                estimator.recordFinished(taskId, t, t.plusSeconds(1), 10L, true);
+                t = t.plusSeconds(1);
+            }
+            runSequential(T0.plus(Duration.ofDays(10)), 10, 60, 100);
+            when(costEstimator.prediction("mine")).thenReturn(new ExportCostEstimator.Prediction(10, true));
+
+            assertThat(estimator.estimate(0, false, "mine").expected().toMillis()).isCloseTo(60_000L, within(10L));
+        }
+    }
+}
@@ -3,6 +3,8 @@ package com.tcleaner.bot;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import java.util.Map;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
 @DisplayName("UserSession")
@@ -49,4 +51,37 @@ class UserSessionTest {
         session.setTopicId(456);
         assertThat(session.getLastAccess()).isAfterOrEqualTo(before);
     }
+
+    @Test
+    @DisplayName("drainChanges: снимок изменений один раз, fromFields восстанавливает сессию")
+    void drainChangesRoundTrip() {
+        UserSession session = new UserSession();
+        assertThat(session.drainChanges()).isNull();
+        session.setChatId("@chan");
+        session.setTopicId(12);
+        session.setState(UserSession.State.AWAITING_TO_DATE);
+
+        Map<String, String> fields = session.drainChanges();
+
+        assertThat(session.drainChanges()).isNull();
+        assertThat(fields).containsEntry(UserSession.FIELD_FROM_DATE, "");
+        UserSession restored = UserSession.fromFields(fields, 5);
+        assertThat(restored.getChatId()).isEqualTo("@chan");
+        assertThat(restored.getTopicId()).isEqualTo(12);
+        assertThat(restored.getFromDate()).isNull();
+        assertThat(restored.getState()).isEqualTo(UserSession.State.AWAITING_TO_DATE);
+        assertThat(restored.getVersion()).isEqualTo(5L);
+        assertThat(restored.isDirty()).isFalse();
+    }
+
+    @Test
+    @DisplayName("reset() пустой сессии не считается изменением, неизвестное состояние → IDLE")
+    void resetOfIdleIsNotAChange() {
+        UserSession session = new UserSession();
+        session.reset();
+        assertThat(session.isDirty()).isFalse();
+
+        assertThat(UserSession.fromFields(Map.of(UserSession.FIELD_STATE, "REMOVED"), 1).getState())
+                .isEqualTo(UserSession.State.IDLE);
+    }
 }
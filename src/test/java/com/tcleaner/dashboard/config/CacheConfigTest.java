@@ -0,0 +1,171 @@
+package com.tcleaner.dashboard.config;
+
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.tcleaner.dashboard.service.stats.StatsCacheKey;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.tcleaner.dashboard.config.CacheConfig.LIVE;
+import static com.tcleaner.dashboard.config.CacheConfig.PROFILE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Защита stats-кешей от stampede: single-flight промаха, фоновое обновление постаревших
+ * записей в ограниченном пуле.
+ */
+@DisplayName("CacheConfig")
+class CacheConfigTest {
+
+    // Задачи обновления копятся здесь и выполняются тестом вручную.
+    private final List<Runnable> refreshes = new ArrayList<>();
+    private CacheManager cacheManager;
+    private Method userDetail;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        userDetail = Service.class.getMethod("userDetail", long.class);
+        cacheManager = new CacheConfig().cacheManager(Duration.ofMinutes(5), Duration.ofHours(6), Duration.ofHours(1),
+                0.8, refreshes::add);
+    }
+
+    private CaffeineCache cache(String name) {
+        return (CaffeineCache) cacheManager.getCache(name);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static LoadingCache<Object, Object> loading(CaffeineCache cache) {
+        return (LoadingCache<Object, Object>) cache.getNativeCache();
+    }
+
+    @Test
+    @DisplayName("одновременные промахи по ключу — один расчёт, остальные получают его результат")
+    void singleFlight() throws Exception {
+        CaffeineCache cache = cache(LIVE);
+        StatsCacheKey key = StatsCacheKey.of(new Service("v"), userDetail, 7L);
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(pool.submit(() -> cache.get(key, () -> {
+                    calls.incrementAndGet();
+                    release.await(5, TimeUnit.SECONDS);
+                    return "loaded";
+                })));
+            }
+            release.countDown();
+            for (Future<String> result : results) {
+                assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("loaded");
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertThat(calls).hasValue(1);
+    }
+
+    @Test
+    @DisplayName("обновление: до пересчёта в пуле отдаётся старое значение, после — новое")
+    void refreshServesStaleValue() throws Exception {
+        CaffeineCache cache = cache(PROFILE);
+        Service service = new Service("old");
+        StatsCacheKey key = StatsCacheKey.of(service, userDetail, 7L);
+        cache.get(key, () -> service.userDetail(7L));
+        service.value = "new";
+
+        loading(cache).refresh(key);
+
+        assertThat(refreshes).hasSize(1);
+        assertThat(cache.get(key).get()).isEqualTo("old");
+        refreshes.forEach(Runnable::run);
+        assertThat(cache.get(key).get()).isEqualTo("new");
+    }
+
+    @Test
+    @DisplayName("Optional разворачивается, пустой — null, как у @Cacheable")
+    void refreshUnwrapsOptional() throws Exception {
+        CaffeineCache cache = cache(PROFILE);
+        Service service = new Service(Optional.of("present"));
+        StatsCacheKey key = StatsCacheKey.of(service, userDetail, 7L);
+        cache.put(key, "old");
+
+        loading(cache).refresh(key);
+        refreshes.forEach(Runnable::run);
+        assertThat(cache.get(key).get()).isEqualTo("present");
+
+        service.value = Optional.empty();
+        refreshes.clear();
+        loading(cache).refresh(key);
+        refreshes.forEach(Runnable::run);
+        assertThat(cache.get(key)).isNotNull();
+        assertThat(cache.get(key).get()).isNull();
+    }
+
+    @Test
+    @DisplayName("refreshAfterWrite — доля TTL из dashboard.cache.refresh-after")
+    void refreshAfterIsFractionOfTtl() {
+        assertThat(cache(LIVE).getNativeCache().policy().refreshAfterWrite().orElseThrow().getRefreshesAfter())
+                .isEqualTo(Duration.ofMinutes(4));
+    }
+
+    @Test
+    @DisplayName("переполненная очередь пула обновления — отказ и stats.cache.refresh.rejected")
+    void refreshExecutorIsBounded() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ThreadPoolExecutor executor = new CacheConfig().statsCacheRefreshExecutor(1, 1, registry);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            executor.execute(() -> awaitQuietly(release));
+            executor.execute(() -> awaitQuietly(release));
+
+            assertThatThrownBy(() -> executor.execute(() -> { }))
+                    .isInstanceOf(RejectedExecutionException.class);
+            assertThat(registry.get("stats.cache.refresh.rejected").counter().count()).isEqualTo(1.0);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Цель фонового пересчёта: метод с параметром botUserId, как у StatsQueryService.
+    public static final class Service {
+
+        volatile Object value;
+
+        Service(Object value) {
+            this.value = value;
+        }
+
+        public Object userDetail(long botUserId) {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.tcleaner.dashboard.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DisplayName("DashboardReadPool")
+class DashboardReadPoolTest {
+
+    private static final String PARAMS = "date_class=text&open_mode=1&cache_size=-32768&mmap_size=268435456";
+
+    @Nested
+    @DisplayName("readUrl")
+    class ReadUrl {
+
+        @Test
+        @DisplayName("берёт файл из writer-URL и заменяет параметры")
+        void replacesWriterParams() {
+            assertThat(DashboardReadPool.readUrl("jdbc:sqlite:./dashboard.db?date_class=text&journal_mode=WAL",
+                    "open_mode=1")).isEqualTo("jdbc:sqlite:./dashboard.db?open_mode=1");
+        }
+
+        @Test
+        @DisplayName("writer-URL без параметров, пустые параметры чтения")
+        void noParams() {
+            assertThat(DashboardReadPool.readUrl("jdbc:sqlite:/tmp/a.db", PARAMS))
+                    .isEqualTo("jdbc:sqlite:/tmp/a.db?" + PARAMS);
+            assertThat(DashboardReadPool.readUrl("jdbc:sqlite:/tmp/a.db?date_class=text", " "))
+                    .isEqualTo("jdbc:sqlite:/tmp/a.db");
+        }
+    }
+
+    @Nested
+    @DisplayName("на файле SQLite")
+    class OnFile {
+
+        @TempDir
+        Path dir;
+
+        private String writerUrl;
+        private SimpleMeterRegistry registry;
+        private DashboardReadPool pool;
+
+        @BeforeEach
+        void setUp() {
+            writerUrl = "jdbc:sqlite:" + dir.resolve("dashboard.db") + "?date_class=text&journal_mode=WAL";
+            SingleConnectionDataSource writer = new SingleConnectionDataSource(writerUrl, true);
+            JdbcTemplate writerJdbc = new JdbcTemplate(writer);
+            writerJdbc.execute("CREATE TABLE t (id INTEGER PRIMARY KEY)");
+            writerJdbc.update("INSERT INTO t (id) VALUES (1), (2)");
+            writer.destroy();
+
+            registry = new SimpleMeterRegistry();
+            pool = new DashboardReadPool(writerUrl, PARAMS, 2, registry);
+        }
+
+        @AfterEach
+        void tearDown() {
+            pool.close();
+        }
+
+        @Test
+        @DisplayName("читает данные writer-а с cache_size/mmap_size из параметров")
+        void reads() {
+            JdbcTemplate jdbc = pool.jdbc();
+
+            assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM t", Long.class)).isEqualTo(2L);
+            assertThat(jdbc.queryForObject("PRAGMA cache_size", Long.class)).isEqualTo(-32768L);
+            assertThat(jdbc.queryForObject("PRAGMA mmap_size", Long.class)).isEqualTo(268435456L);
+        }
+
+        @Test
+        @DisplayName("запись отклоняется SQLITE_READONLY")
+        void rejectsWrites() {
+            assertThatThrownBy(() -> pool.jdbc().update("DELETE FROM t"))
+                    .isInstanceOf(DataAccessException.class)
+                    .hasMessageContaining("SQLITE_READONLY");
+            assertThat(pool.jdbc().queryForObject("SELECT COUNT(*) FROM t", Long.class)).isEqualTo(2L);
+        }
+
+        @Test
+        @DisplayName("snapshot: коммит writer-а между запросами транзакции не виден до её конца")
+        void snapshotIsStable() {
+            SingleConnectionDataSource writer = new SingleConnectionDataSource(writerUrl, true);
+            try {
+                Long[] counts = pool.snapshot().execute(status -> {
+                    Long before = pool.jdbc().queryForObject("SELECT COUNT(*) FROM t", Long.class);
+                    new JdbcTemplate(writer).update("INSERT INTO t (id) VALUES (3)");
+                    return new Long[]{before, pool.jdbc().queryForObject("SELECT COUNT(*) FROM t", Long.class)};
+                });
+
+                assertThat(counts).containsExactly(2L, 2L);
+                assertThat(pool.jdbc().queryForObject("SELECT COUNT(*) FROM t", Long.class)).isEqualTo(3L);
+            } finally {
+                writer.destroy();
+            }
+        }
+
+        @Test
+        @DisplayName("метрики пула — hikaricp.connections.*{pool=sqlite-read}")
+        void metrics() {
+            pool.jdbc().queryForObject("SELECT 1", Integer.class);
+
+            assertThat(registry.find("hikaricp.connections.acquire").tag("pool", DashboardReadPool.POOL_NAME)
+                    .timer()).isNotNull();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.tcleaner.dashboard.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@DisplayName("DashboardWriter — единственный writer SQLite")
+class DashboardWriterTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+    private final ExecutorService callers = Executors.newFixedThreadPool(4);
+    private DashboardWriter writer;
+
+    @BeforeEach
+    void setUp() {
+        writer = new DashboardWriter(transactionManager, registry, 32);
+    }
+
+    @AfterEach
+    void tearDown() {
+        writer.stop();
+        callers.shutdownNow();
+    }
+
+    private CompletableFuture<Object> submitAsync(DashboardWriter.WriteBody body) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return writer.submit(body);
+            } catch (Throwable ex) {
+                throw new CompletionException(ex);
+            }
+        }, callers);
+    }
+
+    /** Занимает writer до {@code release}, чтобы следующие записи собрались в одну пачку. */
+    private CountDownLatch blockWriter() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        submitAsync(() -> {
+            started.countDown();
+            return release.await(5, TimeUnit.SECONDS);
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        return release;
+    }
+
+    private void awaitBacklog(int size) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (registry.get("dashboard.write.backlog").gauge().value() < size) {
+            assertThat(System.nanoTime()).isLessThan(deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    @Nested
+    @DisplayName("очередь")
+    class Queue {
+
+        @Test
+        @DisplayName("до старта запись выполняется на месте, в потоке вызывающего")
+        void runsInlineBeforeStart() throws Throwable {
+            assertThat(writer.submit(() -> Thread.currentThread().getName()))
+                    .isEqualTo(Thread.currentThread().getName());
+        }
+
+        @Test
+        @DisplayName("запись выполняется потоком sqlite-writer, результат и исключение — у вызывающего")
+        void runsOnWriterThread() throws Throwable {
+            writer.start();
+            IllegalStateException failure = new IllegalStateException("boom");
+
+            assertThat(writer.submit(() -> Thread.currentThread().getName())).isEqualTo("sqlite-writer");
+            assertThatThrownBy(() -> writer.submit(() -> {
+                throw failure;
+            })).isSameAs(failure);
+            // Одиночная запись — своей транзакцией метода, без транзакции пачки.
+            verify(transactionManager, never()).getTransaction(any());
+        }
+
+        @Test
+        @DisplayName("после stop запись выполняется на месте")
+        void runsInlineAfterStop() throws Throwable {
+            writer.start();
+            writer.stop();
+
+            assertThat(writer.submit(() -> Thread.currentThread().getName()))
+                    .isEqualTo(Thread.currentThread().getName());
+        }
+    }
+
+    @Nested
+    @DisplayName("group commit")
+    class GroupCommit {
+
+        @Test
+        @DisplayName("накопившиеся записи коммитятся одной транзакцией")
+        void commitsQueuedWritesTogether() throws Exception {
+            writer.start();
+            CountDownLatch release = blockWriter();
+            CompletableFuture<Object> first = submitAsync(() -> 1);
+            CompletableFuture<Object> second = submitAsync(() -> 2);
+            CompletableFuture<Object> third = submitAsync(() -> 3);
+            awaitBacklog(3);
+
+            release.countDown();
+
+            assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo(1);
+            assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo(2);
+            assertThat(third.get(5, TimeUnit.SECONDS)).isEqualTo(3);
+            verify(transactionManager, times(1)).getTransaction(any());
+            verify(transactionManager, times(1)).commit(any());
+            assertThat(registry.get("dashboard.write.group.size").summary().max()).isEqualTo(3.0);
+        }
+
+        @Test
+        @DisplayName("падение одной записи откатывает пачку, каждая повторяется своей транзакцией")
+        void retriesEachWriteAloneAfterFailure() throws Exception {
+            writer.start();
+            AtomicInteger okRuns = new AtomicInteger();
+            CountDownLatch release = blockWriter();
+            CompletableFuture<Object> ok = submitAsync(() -> okRuns.incrementAndGet());
+            CompletableFuture<Object> failing = submitAsync(() -> {
+                throw new IllegalArgumentException("constraint");
+            });
+            awaitBacklog(2);
+
+            release.countDown();
+
+            // Первый прогон — в откаченной пачке, результат — от повтора своей транзакцией.
+            assertThat(ok.get(5, TimeUnit.SECONDS)).isEqualTo(2);
+            assertThatThrownBy(() -> failing.get(5, TimeUnit.SECONDS))
+                    .hasRootCauseInstanceOf(IllegalArgumentException.class);
+            verify(transactionManager).rollback(any());
+            verify(transactionManager, never()).commit(any());
+            assertThat(registry.get("dashboard.write.group.retries").counter().count()).isEqualTo(1.0);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.tcleaner.dashboard.config;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+
+@DisplayName("ForeignKeyCheck")
+class ForeignKeyCheckTest {
+
+    private SingleConnectionDataSource dataSource;
+    private JdbcTemplate jdbc;
+
+    @BeforeEach
+    void setUp() {
+        dataSource = new SingleConnectionDataSource("jdbc:sqlite::memory:", true);
+        jdbc = new JdbcTemplate(dataSource);
+        jdbc.execute("CREATE TABLE parent (id INTEGER PRIMARY KEY)");
+        jdbc.execute("CREATE TABLE child (id INTEGER PRIMARY KEY, parent_id INTEGER REFERENCES parent (id))");
+        jdbc.update("INSERT INTO parent (id) VALUES (1)");
+    }
+
+    @AfterEach
+    void tearDown() {
+        dataSource.destroy();
+    }
+
+    @Test
+    @DisplayName("ссылки на существующих родителей — нарушений нет")
+    void noViolations() {
+        jdbc.update("INSERT INTO child (id, parent_id) VALUES (1, 1), (2, NULL)");
+
+        assertThat(new ForeignKeyCheck(jdbc).violations()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("строки, записанные без foreign_keys, считаются по таблице и родителю")
+    void countsViolations() {
+        jdbc.execute("PRAGMA foreign_keys = OFF");
+        jdbc.update("INSERT INTO child (id, parent_id) VALUES (1, 1), (2, 7), (3, 8)");
+        ForeignKeyCheck check = new ForeignKeyCheck(jdbc);
+
+        assertThat(check.violations()).containsExactly(Map.entry("child → parent", 2L));
+        assertThatCode(check::check).doesNotThrowAnyException();
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM child", Long.class)).isEqualTo(3L);
+    }
+}
@@ -73,6 +73,20 @@ class RedisStreamsConfigTest {
             config.ensureConsumerGroup();
         }
 
+        @Test
+        @DisplayName("Несколько партиций: group создаётся в каждом стриме <key>:<n>")
+        @SuppressWarnings("unchecked")
+        void createsGroupPerPartition() {
+            config = new RedisStreamsConfig(redisMock, new StatsStreamProperties(
+                    "stats:events", "dashboard-writer", "java-bot-1", 1000L, true, 1, null, 2));
+
+            config.ensureConsumerGroup();
+
+            verify(streamOpsMock).createGroup(eq("stats:events:0"), eq(ReadOffset.from("0")), eq("dashboard-writer"));
+            verify(streamOpsMock).createGroup(eq("stats:events:1"), eq(ReadOffset.from("0")), eq("dashboard-writer"));
+            verify(streamOpsMock, never()).createGroup(eq("stats:events"), any(), anyString());
+        }
+
         @Test
         @DisplayName("Nested cause содержит BUSYGROUP: распознаётся как busyGroup")
         @SuppressWarnings("unchecked")
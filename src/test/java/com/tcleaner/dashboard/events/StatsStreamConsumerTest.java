@@ -2,17 +2,22 @@ package com.tcleaner.dashboard.events;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.data.redis.connection.stream.MapRecord;
 import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo.XInfoGroups;
 import org.springframework.data.redis.connection.stream.StreamRecords;
 import org.springframework.data.redis.core.StreamOperations;
 import org.springframework.data.redis.core.StringRedisTemplate;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -55,7 +60,7 @@ class StatsStreamConsumerTest {
         ObjectProvider<com.tcleaner.dashboard.service.ingestion.ExportEventIngestionService> noIngestion =
                 mock(ObjectProvider.class);
         when(noIngestion.getIfAvailable()).thenReturn(null);
-        consumer = new StatsStreamConsumer(mapper, redis, props, noIngestion) {
+        consumer = new StatsStreamConsumer(mapper, redis, props, noIngestion, provider(null)) {
             @Override
             void handle(StatsEventPayload payload) {
                 captured.set(payload);
@@ -135,7 +140,8 @@ class StatsStreamConsumerTest {
         ObjectProvider<com.tcleaner.dashboard.service.ingestion.ExportEventIngestionService> noIngestion =
                 mock(ObjectProvider.class);
         when(noIngestion.getIfAvailable()).thenReturn(null);
-        StatsStreamConsumer throwingConsumer = new StatsStreamConsumer(mapper, redis, props, noIngestion) {
+        StatsStreamConsumer throwingConsumer = new StatsStreamConsumer(mapper, redis, props, noIngestion,
+                provider(null)) {
             @Override
             void handle(StatsEventPayload payload) {
                 throw new RuntimeException("DB transient error");
@@ -182,7 +188,7 @@ class StatsStreamConsumerTest {
                 mock(ObjectProvider.class);
         when(provider.getIfAvailable()).thenReturn(realService);
 
-        StatsStreamConsumer realConsumer = new StatsStreamConsumer(mapper, redis, props, provider);
+        StatsStreamConsumer realConsumer = new StatsStreamConsumer(mapper, redis, props, provider, provider(null));
 
         StatsEventPayload original = StatsEventPayload.builder()
                 .type(StatsEventType.EXPORT_STARTED).taskId("task-real").ts(Instant.now()).build();
@@ -203,7 +209,7 @@ class StatsStreamConsumerTest {
         // captured.get() остаётся null т.к. в setUp() handle переопределён
         // — но в этом тесте нужно проверить default handle (с service==null)
         StatsStreamConsumer defaultConsumer = new StatsStreamConsumer(mapper, redis, props,
-                mockedNullProvider());
+                mockedNullProvider(), provider(null));
 
         StatsEventPayload original = StatsEventPayload.builder()
                 .type(StatsEventType.EXPORT_STARTED).taskId("task-no-svc").ts(Instant.now()).build();
@@ -217,6 +223,123 @@ class StatsStreamConsumerTest {
         verify(streamOps).acknowledge(props.key(), props.group(), "0-8");
     }
 
+    @Test
+    @DisplayName("batch: полная пачка → один ingestBatch и один XACK на все id")
+    void batchIngestsAndAcksOnce() throws Exception {
+        List<List<StatsEventPayload>> batches = new ArrayList<>();
+        StatsStreamConsumer batchConsumer = batchConsumer(3, batches, null);
+
+        batchConsumer.onMessage(record("1-1", "t1"));
+        batchConsumer.onMessage(record("1-2", "t2"));
+        verify(streamOps, never()).acknowledge(anyString(), anyString(), any(String[].class));
+        batchConsumer.onMessage(record("1-3", "t3"));
+
+        assertThat(batches).hasSize(1);
+        assertThat(batches.get(0)).extracting(StatsEventPayload::getTaskId).containsExactly("t1", "t2", "t3");
+        verify(streamOps, times(1)).acknowledge(props.key(), props.group(), "1-1", "1-2", "1-3");
+    }
+
+    @Test
+    @DisplayName("batch: неполная пачка уходит по linger")
+    void lingerFlushesPartialBatch() throws Exception {
+        List<List<StatsEventPayload>> batches = new ArrayList<>();
+        StatsStreamConsumer batchConsumer = batchConsumer(10, batches, null);
+
+        batchConsumer.onMessage(record("2-1", "t1"));
+        batchConsumer.onMessage(record("2-2", "t2"));
+        batchConsumer.flushLingering();
+
+        assertThat(batches).hasSize(1);
+        verify(streamOps).acknowledge(props.key(), props.group(), "2-1", "2-2");
+    }
+
+    @Test
+    @DisplayName("batch: битое событие изолируется делением пачки, остальные и poison-JSON подтверждаются")
+    void bisectsPoisonEvent() throws Exception {
+        List<List<StatsEventPayload>> batches = new ArrayList<>();
+        StatsStreamConsumer batchConsumer = batchConsumer(5, batches, "bad");
+
+        batchConsumer.onMessage(record("3-1", "t1"));
+        batchConsumer.onMessage(record("3-2", "bad"));
+        batchConsumer.onMessage(StreamRecords.newRecord().in(props.key()).withId(RecordId.of("3-3"))
+                .ofMap(Map.of("payload", "{not-json")));
+        batchConsumer.onMessage(record("3-4", "t4"));
+        batchConsumer.onMessage(record("3-5", "t5"));
+
+        assertThat(batches).flatExtracting(b -> b).extracting(StatsEventPayload::getTaskId)
+                .containsExactly("t1", "t4", "t5");
+        verify(streamOps, times(1)).acknowledge(props.key(), props.group(), "3-3", "3-1", "3-4", "3-5");
+    }
+
+    @Test
+    @DisplayName("партиции: записи разных стримов — одна пачка single-writer, XACK в свой стрим")
+    void partitionsShareWriterAndAckPerStream() throws Exception {
+        List<List<StatsEventPayload>> batches = new ArrayList<>();
+        StatsStreamConsumer batchConsumer = batchConsumer(3, batches, null);
+
+        batchConsumer.onMessage(record("stats:events:0", "4-1", "t1"));
+        batchConsumer.onMessage(record("stats:events:1", "4-1", "t2"));
+        batchConsumer.onMessage(record("stats:events:0", "4-2", "t1"));
+
+        assertThat(batches).singleElement().satisfies(batch ->
+                assertThat(batch).extracting(StatsEventPayload::getTaskId).containsExactly("t1", "t2", "t1"));
+        verify(streamOps).acknowledge("stats:events:0", props.group(), "4-1", "4-2");
+        verify(streamOps).acknowledge("stats:events:1", props.group(), "4-1");
+    }
+
+    @Test
+    @DisplayName("refreshLag: lag и pending группы по каждой партиции → gauge-и с тегом partition")
+    void refreshLagPublishesPerPartitionGauges() {
+        StatsStreamProperties partitioned = new StatsStreamProperties(
+                "stats:events", "dashboard-writer", "java-bot-1", 1000, true, 1, null, 2);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        StatsStreamConsumer partitionedConsumer =
+                new StatsStreamConsumer(mapper, redis, partitioned, mockedNullProvider(), provider(registry));
+        when(streamOps.groups("stats:events:0")).thenReturn(XInfoGroups.fromList(List.of(List.of(
+                "name", "dashboard-writer", "consumers", 1L, "pending", 2L, "last-delivered-id", "0-1", "lag", 5L))));
+        when(streamOps.groups("stats:events:1")).thenThrow(new RuntimeException("NOGROUP"));
+
+        partitionedConsumer.refreshLag();
+
+        assertThat(registry.get("stats.ingest.lag").tag("partition", "0").gauge().value()).isEqualTo(5.0);
+        assertThat(registry.get("stats.ingest.pending").tag("partition", "0").gauge().value()).isEqualTo(2.0);
+        assertThat(registry.get("stats.ingest.lag").tag("partition", "1").gauge().value()).isZero();
+    }
+
+    // Успешные пачки складываются в batches; событие с taskId == failTaskId роняет любую пачку с ним.
+    private StatsStreamConsumer batchConsumer(int batchSize, List<List<StatsEventPayload>> batches,
+                                              String failTaskId) {
+        StatsStreamProperties batchProps = new StatsStreamProperties(
+                "stats:events", "dashboard-writer", "java-bot-1", 1000, true, batchSize, Duration.ZERO, 1);
+        return new StatsStreamConsumer(mapper, redis, batchProps, mockedNullProvider(), provider(null)) {
+            @Override
+            void handle(StatsEventPayload payload) {
+                handleBatch(List.of(payload));
+            }
+
+            @Override
+            void handleBatch(List<StatsEventPayload> payloads) {
+                if (payloads.stream().anyMatch(p -> p.getTaskId().equals(failTaskId))) {
+                    throw new IllegalStateException("constraint violation");
+                }
+                batches.add(payloads);
+            }
+        };
+    }
+
+    private MapRecord<String, String, String> record(String id, String taskId) throws Exception {
+        return record(props.key(), id, taskId);
+    }
+
+    private MapRecord<String, String, String> record(String stream, String id, String taskId) throws Exception {
+        StatsEventPayload payload = StatsEventPayload.builder()
+                .type(StatsEventType.EXPORT_STARTED).taskId(taskId).ts(Instant.now()).build();
+        return StreamRecords.newRecord()
+                .in(stream)
+                .withId(RecordId.of(id))
+                .ofMap(Map.of("payload", mapper.writeValueAsString(payload)));
+    }
+
     @SuppressWarnings("unchecked")
     private ObjectProvider<com.tcleaner.dashboard.service.ingestion.ExportEventIngestionService> mockedNullProvider() {
         ObjectProvider<com.tcleaner.dashboard.service.ingestion.ExportEventIngestionService> p =
@@ -224,4 +347,11 @@ class StatsStreamConsumerTest {
         when(p.getIfAvailable()).thenReturn(null);
         return p;
     }
+
+    @SuppressWarnings("unchecked")
+    private static <T> ObjectProvider<T> provider(T bean) {
+        ObjectProvider<T> p = mock(ObjectProvider.class);
+        when(p.getIfAvailable()).thenReturn(bean);
+        return p;
+    }
 }
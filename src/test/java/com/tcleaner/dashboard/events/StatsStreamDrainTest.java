@@ -0,0 +1,92 @@
+package com.tcleaner.dashboard.events;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.stream.StreamInfo.XInfoGroups;
+import org.springframework.data.redis.connection.stream.StreamInfo.XInfoStream;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.Iterator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@DisplayName("StatsStreamDrain — дочитывание стримов прежнего числа партиций")
+class StatsStreamDrainTest {
+
+    private StringRedisTemplate redis;
+    private StreamOperations<String, Object, Object> ops;
+    private StatsStreamDrain drain;
+
+    @BeforeEach
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    void setUp() {
+        redis = mock(StringRedisTemplate.class);
+        ops = mock(StreamOperations.class);
+        when(redis.opsForStream()).thenReturn((StreamOperations) ops);
+        when(redis.hasKey(anyString())).thenReturn(true);
+        // Было 4 партиции и до них один stats:events, стало 2.
+        drain = new StatsStreamDrain(redis, new StatsStreamProperties(
+                "stats:events", "dashboard-writer", "java-bot-1", 1000, true, 1, null, 2));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void scanReturns(String... keys) {
+        Cursor<String> cursor = mock(Cursor.class);
+        Iterator<String> it = List.of(keys).iterator();
+        when(cursor.hasNext()).thenAnswer(inv -> it.hasNext());
+        when(cursor.next()).thenAnswer(inv -> it.next());
+        when(redis.scan(any(ScanOptions.class))).thenReturn(cursor);
+    }
+
+    private void group(String stream, long pending, String lastDelivered, String lastGenerated) {
+        when(ops.groups(stream)).thenReturn(XInfoGroups.fromList(List.of(List.of(
+                "name", "dashboard-writer", "consumers", 1L, "pending", pending,
+                "last-delivered-id", lastDelivered))));
+        when(ops.info(stream)).thenReturn(XInfoStream.fromList(List.of(
+                "length", 10L, "last-generated-id", lastGenerated)));
+    }
+
+    @Test
+    @DisplayName("старые стримы с невыданными или неподтверждёнными записями дочитываются, пустые — нет")
+    void findsStreamsWithBacklog() {
+        scanReturns("stats:events:0", "stats:events:1", "stats:events:2", "stats:events:3", "stats:events:dead");
+        group("stats:events", 0, "5-0", "9-0");
+        group("stats:events:2", 3, "7-0", "7-0");
+        group("stats:events:3", 0, "8-0", "8-0");
+
+        assertThat(drain.draining()).containsExactly("stats:events", "stats:events:2");
+    }
+
+    @Test
+    @DisplayName("стрим без группы dashboard-writer не дочитывается")
+    void ignoresStreamsWithoutGroup() {
+        when(ops.groups("stats:events")).thenReturn(XInfoGroups.fromList(List.of()));
+
+        assertThat(drain.hasBacklog("stats:events")).isFalse();
+    }
+
+    @Test
+    @DisplayName("refresh убирает дочитанный стрим, ошибка Redis его оставляет")
+    void refreshDropsDrainedStreams() {
+        scanReturns("stats:events:2", "stats:events:3");
+        group("stats:events", 0, "5-0", "9-0");
+        group("stats:events:2", 1, "7-0", "7-0");
+        group("stats:events:3", 1, "8-0", "8-0");
+        assertThat(drain.draining()).hasSize(3);
+
+        group("stats:events", 0, "9-0", "9-0");
+        when(ops.groups("stats:events:3")).thenThrow(new RuntimeException("connection reset"));
+        drain.refresh();
+
+        assertThat(drain.draining()).containsExactly("stats:events:2", "stats:events:3");
+    }
+}
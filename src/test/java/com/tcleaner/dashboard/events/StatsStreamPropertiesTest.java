@@ -36,4 +36,20 @@ class StatsStreamPropertiesTest {
         assertThat(props.maxlen()).isEqualTo(42);
         assertThat(props.enabled()).isFalse();
     }
+
+    @Test
+    @DisplayName("одна партиция — прежний key; несколько — <key>:<n> по CRC32 ключа, стабильно")
+    void partitionKeys() {
+        StatsStreamProperties single = new StatsStreamProperties("stats:events", "g", "c", 1, true);
+        StatsStreamProperties four = new StatsStreamProperties(
+                "stats:events", "g", "c", 1, true, 1, null, 4);
+
+        assertThat(single.partitions()).isEqualTo(1);
+        assertThat(single.streamKeyFor("task-1")).isEqualTo("stats:events");
+        assertThat(four.streamKeys())
+                .containsExactly("stats:events:0", "stats:events:1", "stats:events:2", "stats:events:3");
+        // zlib.crc32(b"task-1") % 4 == 3 — export-worker кладёт событие в тот же стрим.
+        assertThat(four.streamKeyFor("task-1")).isEqualTo("stats:events:3");
+        assertThat(four.streamKeyFor(null)).isEqualTo("stats:events:0");
+    }
 }
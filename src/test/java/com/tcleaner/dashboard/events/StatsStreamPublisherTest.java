@@ -2,10 +2,14 @@ package com.tcleaner.dashboard.events;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.stubbing.Answer;
 import org.springframework.data.redis.connection.RedisConnection;
 import org.springframework.data.redis.connection.RedisStreamCommands;
 import org.springframework.data.redis.connection.RedisStreamCommands.XAddOptions;
@@ -15,104 +19,262 @@ import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
  * Проверяет, что publisher кладёт в стрим single-field map
- * {@code {"payload": <json>}} + approximate MAXLEN options.
- * Ошибки сети/сериализации молча логируются и возвращают null
- * (статистика не валит основной flow экспорта).
+ * {@code {"payload": <json>}} + approximate MAXLEN options, схлопывает
+ * {@code bot_user.seen} и пишет буфер pipeline-ом. Ошибки сети/сериализации
+ * не пробрасываются (статистика не валит основной flow экспорта): упавшая пачка
+ * возвращается в буфер, полный буфер ненадолго задерживает publish.
  */
 @DisplayName("StatsStreamPublisher")
 class StatsStreamPublisherTest {
 
+    private static final Instant T0 = Instant.parse("2026-04-15T12:00:00Z");
+
     private ObjectMapper mapper;
     private StringRedisTemplate redis;
+    private RedisStreamCommands streamCmds;
     private StatsStreamProperties props;
+    private MeterRegistry registry;
+    private Answer<List<Object>> pipeline;
     private StatsStreamPublisher publisher;
 
     @BeforeEach
+    @SuppressWarnings({"unchecked", "rawtypes"})
     void setUp() {
         mapper = new ObjectMapper().registerModule(new JavaTimeModule());
         redis = mock(StringRedisTemplate.class);
+        RedisConnection connection = mock(RedisConnection.class);
+        streamCmds = mock(RedisStreamCommands.class);
+        when(connection.streamCommands()).thenReturn(streamCmds);
+        when(streamCmds.xAdd(any(MapRecord.class), any(XAddOptions.class))).thenReturn(RecordId.of("0-1"));
+        pipeline = invocation -> {
+            RedisCallback<?> callback = invocation.getArgument(0);
+            callback.doInRedis(connection);
+            return List.of();
+        };
+        when(redis.executePipelined(any(RedisCallback.class))).thenAnswer(pipeline);
         props = new StatsStreamProperties("stats:events", "dashboard-writer", "java-bot-1", 1000, true);
-        publisher = new StatsStreamPublisher(redis, mapper, props);
+        registry = new SimpleMeterRegistry();
+        publisher = new StatsStreamPublisher(redis, mapper, props, registry, 3, 4, Duration.ZERO);
     }
 
-    @Test
-    @SuppressWarnings({"unchecked", "rawtypes"})
-    @DisplayName("publish сериализует payload и вызывает xAdd")
-    void publishInvokesXAddWithPayload() throws Exception {
-        RedisConnection connection = mock(RedisConnection.class);
-        RedisStreamCommands streamCmds = mock(RedisStreamCommands.class);
-        when(connection.streamCommands()).thenReturn(streamCmds);
-        when(streamCmds.xAdd(any(MapRecord.class), any(XAddOptions.class)))
-                .thenReturn(RecordId.of("0-1"));
-        when(redis.execute(any(RedisCallback.class)))
-                .thenAnswer(invocation -> {
-                    RedisCallback<?> callback = invocation.getArgument(0);
-                    return callback.doInRedis(connection);
-                });
-
-        publisher.publish(StatsEventPayload.builder()
+    private static StatsEventPayload seen(long userId, String username, Instant ts) {
+        return StatsEventPayload.builder()
+                .type(StatsEventType.BOT_USER_SEEN)
+                .botUserId(userId)
+                .username(username)
+                .ts(ts)
+                .build();
+    }
+
+    private static StatsEventPayload started(String taskId) {
+        return StatsEventPayload.builder()
                 .type(StatsEventType.EXPORT_STARTED)
-                .taskId("task-1")
+                .taskId(taskId)
                 .botUserId(42L)
-                .ts(Instant.parse("2026-04-15T12:00:00Z"))
-                .build());
+                .ts(T0)
+                .build();
+    }
 
-        ArgumentCaptor<MapRecord> recordCaptor = ArgumentCaptor.forClass(MapRecord.class);
-        ArgumentCaptor<XAddOptions> optsCaptor = ArgumentCaptor.forClass(XAddOptions.class);
-        verify(streamCmds).xAdd(recordCaptor.capture(), optsCaptor.capture());
+    private double count(String outcome) {
+        return registry.get("stats.publish.events").tag("outcome", outcome).counter().count();
+    }
 
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private List<String> publishedJson() {
+        ArgumentCaptor<MapRecord> recordCaptor = ArgumentCaptor.forClass(MapRecord.class);
+        verify(streamCmds, atLeastOnce()).xAdd(recordCaptor.capture(), any(XAddOptions.class));
         // byte[]-ключи в Map сравниваются по identity — .get() не подходит.
         // Обходим через entrySet + Arrays.equals, что и стабильнее, и ближе к реальности.
-        MapRecord<byte[], byte[], byte[]> captured = recordCaptor.getValue();
-        byte[] payloadBytes = captured.getValue().entrySet().stream()
-                .filter(e -> java.util.Arrays.equals(e.getKey(), "payload".getBytes(StandardCharsets.UTF_8)))
-                .map(java.util.Map.Entry::getValue)
-                .findFirst()
-                .orElseThrow(() -> new AssertionError("payload-field not found"));
-        String json = new String(payloadBytes, StandardCharsets.UTF_8);
-        assertThat(json)
-                .contains("\"type\":\"export.started\"")
-                .contains("\"task_id\":\"task-1\"");
+        return recordCaptor.getAllValues().stream()
+                .map(record -> ((MapRecord<byte[], byte[], byte[]>) record).getValue().entrySet().stream()
+                        .filter(e -> Arrays.equals(e.getKey(), "payload".getBytes(StandardCharsets.UTF_8)))
+                        .map(Map.Entry::getValue)
+                        .map(bytes -> new String(bytes, StandardCharsets.UTF_8))
+                        .findFirst()
+                        .orElseThrow(() -> new AssertionError("payload-field not found")))
+                .toList();
     }
 
-    @Test
-    @SuppressWarnings({"unchecked", "rawtypes"})
-    @DisplayName("сбой Redis → null, но не исключение")
-    void redisFailureDoesNotThrow() {
-        when(redis.execute(any(RedisCallback.class)))
-                .thenThrow(new RuntimeException("connection refused"));
+    @Nested
+    @DisplayName("формат записи")
+    class Format {
 
-        publisher.publish(StatsEventPayload.builder()
-                .type(StatsEventType.EXPORT_STARTED)
-                .taskId("task-err")
-                .build());
+        @Test
+        @DisplayName("flush сериализует payload в поле payload и ставит approximate MAXLEN")
+        @SuppressWarnings("unchecked")
+        void publishInvokesXAddWithPayload() {
+            publisher.publish(started("task-1"));
+            publisher.flush();
+
+            ArgumentCaptor<XAddOptions> optsCaptor = ArgumentCaptor.forClass(XAddOptions.class);
+            verify(streamCmds).xAdd(any(MapRecord.class), optsCaptor.capture());
+            assertThat(optsCaptor.getValue().getMaxlen()).isEqualTo(1000L);
+            assertThat(optsCaptor.getValue().isApproximateTrimming()).isTrue();
+            assertThat(publishedJson()).singleElement().asString()
+                    .contains("\"type\":\"export.started\"")
+                    .contains("\"task_id\":\"task-1\"");
+        }
+
+        @Test
+        @DisplayName("пустой payload не ломает сериализацию — в стрим уходит {} без NPE")
+        void doesNotFailOnEmptyPayload() {
+            publisher.publish(new StatsEventPayload());
+            publisher.flush();
+
+            assertThat(count("flushed")).isEqualTo(1.0);
+        }
+
+        @Test
+        @DisplayName("партиции: событие задачи уходит в стрим по CRC32(task_id), seen — по bot_user_id")
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        void routesToPartitionStream() {
+            StatsStreamProperties partitioned = new StatsStreamProperties(
+                    "stats:events", "dashboard-writer", "java-bot-1", 1000, true, 1, null, 4);
+            publisher = new StatsStreamPublisher(redis, mapper, partitioned, registry, 10, 100, Duration.ZERO);
+
+            publisher.publish(started("task-1"));
+            publisher.publish(seen(7L, "u", T0));
+            publisher.flush();
+
+            ArgumentCaptor<MapRecord> recordCaptor = ArgumentCaptor.forClass(MapRecord.class);
+            verify(streamCmds, times(2)).xAdd(recordCaptor.capture(), any(XAddOptions.class));
+            assertThat(recordCaptor.getAllValues())
+                    .extracting(r -> new String((byte[]) r.getStream(), StandardCharsets.UTF_8))
+                    .containsExactlyInAnyOrder(partitioned.streamKeyFor("7"), "stats:events:3");
+        }
+
+        @Test
+        @DisplayName("пустой буфер → flush не ходит в Redis")
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        void emptyFlushIsNoop() {
+            publisher.flush();
+
+            verify(redis, never()).executePipelined(any(RedisCallback.class));
+        }
     }
 
-    @Test
-    @SuppressWarnings({"unchecked", "rawtypes"})
-    @DisplayName("пустой payload не ломает сериализацию — в стрим уходит {} без NPE")
-    void doesNotFailOnEmptyPayload() {
-        RedisConnection connection = mock(RedisConnection.class);
-        RedisStreamCommands streamCmds = mock(RedisStreamCommands.class);
-        when(connection.streamCommands()).thenReturn(streamCmds);
-        when(streamCmds.xAdd(any(MapRecord.class), any(XAddOptions.class)))
-                .thenReturn(RecordId.of("0-2"));
-        when(redis.execute(any(RedisCallback.class)))
-                .thenAnswer(invocation -> {
-                    RedisCallback<?> callback = invocation.getArgument(0);
-                    return callback.doInRedis(connection);
-                });
-
-        publisher.publish(new StatsEventPayload());
+    @Nested
+    @DisplayName("буферизация")
+    class Buffering {
+
+        @Test
+        @DisplayName("bot_user.seen одного пользователя схлопывается до последнего username и ts")
+        void coalescesSeenByUser() {
+            publisher.publish(seen(7L, "old", T0));
+            publisher.publish(seen(7L, "new", T0.plusSeconds(5)));
+            publisher.publish(seen(7L, "stale", T0.plusSeconds(1)));
+            publisher.flush();
+
+            assertThat(publishedJson()).singleElement().asString().contains("\"username\":\"new\"");
+            assertThat(count("coalesced")).isEqualTo(2.0);
+            assertThat(count("flushed")).isEqualTo(1.0);
+        }
+
+        @Test
+        @DisplayName("batch-size событий → один pipeline сразу, без ожидания linger")
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        void flushesOnBatchSize() {
+            publisher.publish(started("t1"));
+            publisher.publish(seen(7L, "u", T0));
+            verify(redis, never()).executePipelined(any(RedisCallback.class));
+
+            publisher.publish(started("t2"));
+
+            verify(redis, times(1)).executePipelined(any(RedisCallback.class));
+            verify(streamCmds, times(3)).xAdd(any(MapRecord.class), any(XAddOptions.class));
+            assertThat(publisher.buffered()).isZero();
+        }
+
+        @Test
+        @DisplayName("буфер полон (Redis не успевает) → новое событие dropped, схлопывание работает")
+        void dropsWhenFull() {
+            publisher = new StatsStreamPublisher(redis, mapper, props, registry, 10, 2, Duration.ZERO);
+
+            publisher.publish(started("t1"));
+            publisher.publish(seen(7L, "u", T0));
+            publisher.publish(started("t2"));
+            publisher.publish(seen(7L, "u2", T0.plusSeconds(1)));
+
+            assertThat(publisher.buffered()).isEqualTo(2);
+            assertThat(count("dropped")).isEqualTo(1.0);
+            assertThat(count("coalesced")).isEqualTo(1.0);
+        }
+
+        @Test
+        @DisplayName("буфер полон → publish ждёт, пока flush освободит место, и событие не теряется")
+        void blocksUntilFlushFreesSpace() throws Exception {
+            publisher = new StatsStreamPublisher(redis, mapper, props, registry, 10, 2, Duration.ofSeconds(10));
+            publisher.publish(started("t1"));
+            publisher.publish(started("t2"));
+
+            CompletableFuture<Void> blocked = CompletableFuture.runAsync(() -> publisher.publish(started("t3")));
+            Thread.sleep(100);
+            assertThat(blocked).isNotDone();
+
+            publisher.flush();
+            blocked.get(5, TimeUnit.SECONDS);
+
+            assertThat(publisher.buffered()).isEqualTo(1);
+            assertThat(count("dropped")).isZero();
+        }
+
+        @Test
+        @DisplayName("сбой Redis → исключение не пробрасывается, пачка возвращается в буфер")
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        void redisFailureDoesNotThrow() {
+            when(redis.executePipelined(any(RedisCallback.class)))
+                    .thenThrow(new RuntimeException("connection refused"));
+
+            publisher.publish(started("task-err"));
+            publisher.publish(seen(7L, "u", T0));
+            publisher.flush();
+
+            assertThat(publisher.buffered()).isEqualTo(2);
+            assertThat(count("retried")).isEqualTo(2.0);
+            assertThat(count("dropped")).isZero();
+        }
+
+        @Test
+        @DisplayName("после сбоя следующий flush отправляет возвращённую пачку раньше новых событий")
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        void retriesFailedBatchInOrder() {
+            when(redis.executePipelined(any(RedisCallback.class)))
+                    .thenThrow(new RuntimeException("connection refused"))
+                    .thenAnswer(pipeline);
+
+            publisher.publish(started("t1"));
+            publisher.publish(seen(7L, "u", T0));
+            publisher.flush();
+            publisher.publish(started("t2"));
+            publisher.flush();
+
+            assertThat(publishedJson()).hasSize(3)
+                    .satisfiesExactly(
+                            json -> assertThat(json).contains("\"username\":\"u\""),
+                            json -> assertThat(json).contains("\"task_id\":\"t1\""),
+                            json -> assertThat(json).contains("\"task_id\":\"t2\""));
+            assertThat(count("retried")).isEqualTo(2.0);
+            assertThat(count("flushed")).isEqualTo(3.0);
+            assertThat(publisher.buffered()).isZero();
+        }
     }
 }
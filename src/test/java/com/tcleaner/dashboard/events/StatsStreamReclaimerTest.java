@@ -0,0 +1,211 @@
+package com.tcleaner.dashboard.events;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.RedisStreamCommands.XAddOptions;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@DisplayName("StatsStreamReclaimer — XCLAIM с backoff и dead-letter стрим")
+class StatsStreamReclaimerTest {
+
+    private static final String STREAM = "stats:events";
+    private static final String DEAD = "stats:events:dead";
+
+    private StringRedisTemplate redis;
+    private StreamOperations<String, Object, Object> ops;
+    private StatsStreamConsumer consumer;
+    private StatsStreamProperties props;
+    private SimpleMeterRegistry registry;
+    private StatsStreamReclaimer reclaimer;
+
+    @BeforeEach
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    void setUp() {
+        redis = mock(StringRedisTemplate.class);
+        ops = mock(StreamOperations.class);
+        when(redis.opsForStream()).thenReturn((StreamOperations) ops);
+        consumer = mock(StatsStreamConsumer.class);
+        props = new StatsStreamProperties(STREAM, "dashboard-writer", "java-bot-1", 1000, true);
+        registry = new SimpleMeterRegistry();
+        reclaimer = new StatsStreamReclaimer(redis, props, consumer, provider(null), provider(registry),
+                Duration.ofMinutes(1), Duration.ofMinutes(10), 3, 100);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> ObjectProvider<T> provider(T bean) {
+        ObjectProvider<T> provider = mock(ObjectProvider.class);
+        when(provider.getIfAvailable()).thenReturn(bean);
+        return provider;
+    }
+
+    private void pending(PendingMessage... messages) {
+        when(ops.pending(STREAM, "dashboard-writer")).thenReturn(new PendingMessagesSummary(
+                "dashboard-writer", messages.length,
+                Range.closed(messages[0].getIdAsString(), messages[messages.length - 1].getIdAsString()),
+                Map.of("java-bot-1", (long) messages.length)));
+        when(ops.pending(eq(STREAM), eq("dashboard-writer"), any(Range.class), anyLong()))
+                .thenReturn(new PendingMessages("dashboard-writer", List.of(messages)));
+    }
+
+    private static PendingMessage message(String id, Duration idle, long deliveries) {
+        return new PendingMessage(RecordId.of(id), Consumer.from("dashboard-writer", "java-bot-1"), idle, deliveries);
+    }
+
+    private static MapRecord<String, Object, Object> record(String stream, String id, Map<String, String> value) {
+        return StreamRecords.newRecord().in(stream).withId(RecordId.of(id)).ofMap(new HashMap<Object, Object>(value));
+    }
+
+    private double count(String name) {
+        return registry.get(name).counter().count();
+    }
+
+    @Nested
+    @DisplayName("reclaim")
+    class Reclaim {
+
+        @Test
+        @DisplayName("простой дольше backoff → XCLAIM и повтор через consumer.onMessage")
+        @SuppressWarnings("unchecked")
+        void claimsIdleEntries() {
+            pending(message("1-1", Duration.ofMinutes(2), 1));
+            when(ops.claim(eq(STREAM), eq("dashboard-writer"), eq("java-bot-1"), eq(Duration.ofMinutes(1)),
+                    any(RecordId[].class)))
+                    .thenReturn(List.of(record(STREAM, "1-1", Map.of("payload", "{}"))));
+
+            reclaimer.reclaim();
+
+            ArgumentCaptor<MapRecord<String, String, String>> captor = ArgumentCaptor.forClass(MapRecord.class);
+            verify(consumer).onMessage(captor.capture());
+            assertThat(captor.getValue().getId().getValue()).isEqualTo("1-1");
+            assertThat(captor.getValue().getValue()).containsEntry("payload", "{}");
+            assertThat(count("stats.ingest.reclaimed")).isEqualTo(1.0);
+        }
+
+        @Test
+        @DisplayName("backoff растёт с числом доставок и упирается в max-backoff; минуты простоя после 2-й мало")
+        void backoffIsExponential() {
+            assertThat(reclaimer.backoff(message("1-1", Duration.ZERO, 1))).isEqualTo(Duration.ofMinutes(1));
+            assertThat(reclaimer.backoff(message("1-1", Duration.ZERO, 3))).isEqualTo(Duration.ofMinutes(4));
+            assertThat(reclaimer.backoff(message("1-1", Duration.ZERO, 40))).isEqualTo(Duration.ofMinutes(10));
+
+            pending(message("1-1", Duration.ofMinutes(1), 2));
+            reclaimer.reclaim();
+
+            verify(ops, never()).claim(anyString(), anyString(), anyString(), any(Duration.class),
+                    any(RecordId[].class));
+        }
+
+        @Test
+        @DisplayName("страница целиком в backoff → XPENDING читается дальше по PEL, а не с начала")
+        @SuppressWarnings("unchecked")
+        void pagesPastBackedOffEntries() {
+            reclaimer = new StatsStreamReclaimer(redis, props, consumer, provider(null), provider(registry),
+                    Duration.ofMinutes(1), Duration.ofMinutes(10), 3, 2);
+            pending(message("1-1", Duration.ofSeconds(5), 1), message("1-2", Duration.ofSeconds(5), 1));
+            when(ops.pending(STREAM, "dashboard-writer", Range.rightUnbounded(Range.Bound.inclusive("1-3")), 2L))
+                    .thenReturn(new PendingMessages("dashboard-writer",
+                            List.of(message("5-0", Duration.ofMinutes(2), 1))));
+            when(ops.claim(eq(STREAM), eq("dashboard-writer"), eq("java-bot-1"), eq(Duration.ofMinutes(1)),
+                    any(RecordId[].class)))
+                    .thenReturn(List.of(record(STREAM, "5-0", Map.of("payload", "{}"))));
+
+            reclaimer.reclaim();
+
+            verify(ops).claim(STREAM, "dashboard-writer", "java-bot-1", Duration.ofMinutes(1), RecordId.of("5-0"));
+            verify(consumer).onMessage(any(MapRecord.class));
+        }
+
+        @Test
+        @DisplayName("max-deliveries → запись в dead-letter стрим с исходным stream/id и XACK")
+        @SuppressWarnings("unchecked")
+        void movesToDeadLetter() {
+            pending(message("1-1", Duration.ofHours(1), 3));
+            when(ops.range(eq(STREAM), any(Range.class)))
+                    .thenReturn(List.of(record(STREAM, "1-1", Map.of("payload", "{\"type\":\"x\"}"))));
+
+            reclaimer.reclaim();
+
+            ArgumentCaptor<MapRecord<String, String, String>> captor = ArgumentCaptor.forClass(MapRecord.class);
+            verify(ops).add(captor.capture(), any(XAddOptions.class));
+            assertThat(captor.getValue().getStream()).isEqualTo(DEAD);
+            assertThat(captor.getValue().getValue())
+                    .containsEntry("payload", "{\"type\":\"x\"}")
+                    .containsEntry("stream", STREAM)
+                    .containsEntry("id", "1-1")
+                    .containsEntry("deliveries", "3");
+            verify(ops).acknowledge(STREAM, "dashboard-writer", "1-1");
+            verifyNoInteractions(consumer);
+            assertThat(count("stats.ingest.dead_lettered")).isEqualTo(1.0);
+        }
+
+        @Test
+        @DisplayName("stream выключен → Redis не трогается")
+        void disabledIsNoop() {
+            reclaimer = new StatsStreamReclaimer(redis,
+                    new StatsStreamProperties(STREAM, "dashboard-writer", "java-bot-1", 1000, false), consumer,
+                    provider(null), provider(null), Duration.ofMinutes(1), Duration.ofHours(1), 10, 100);
+
+            reclaimer.reclaim();
+
+            verifyNoInteractions(redis);
+        }
+    }
+
+    @Nested
+    @DisplayName("replayDeadLetters")
+    class ReplayDeadLetters {
+
+        @Test
+        @DisplayName("возвращает payload в исходный стрим (неизвестный — в партицию 0) и удаляет dead letter")
+        @SuppressWarnings("unchecked")
+        void replaysIntoSourceStream() {
+            when(ops.range(eq(DEAD), any(Range.class), any(Limit.class))).thenReturn(List.of(
+                    record(DEAD, "9-1", Map.of("payload", "{\"a\":1}", "stream", STREAM)),
+                    record(DEAD, "9-2", Map.of("payload", "{\"a\":2}", "stream", "stats:events:7"))));
+            when(ops.size(DEAD)).thenReturn(0L);
+
+            StatsStreamReclaimer.Replay result = reclaimer.replayDeadLetters(100);
+
+            assertThat(result).isEqualTo(new StatsStreamReclaimer.Replay(2, 0));
+            ArgumentCaptor<MapRecord<String, String, String>> captor = ArgumentCaptor.forClass(MapRecord.class);
+            verify(ops, times(2)).add(captor.capture(), any(XAddOptions.class));
+            assertThat(captor.getAllValues()).extracting(MapRecord::getStream).containsOnly(STREAM);
+            assertThat(captor.getAllValues()).extracting(r -> r.getValue().get("payload"))
+                    .containsExactly("{\"a\":1}", "{\"a\":2}");
+            verify(ops).delete(DEAD, RecordId.of("9-1"));
+            verify(ops).delete(DEAD, RecordId.of("9-2"));
+        }
+    }
+}
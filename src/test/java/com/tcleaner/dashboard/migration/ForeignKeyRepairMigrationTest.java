@@ -0,0 +1,87 @@
+package com.tcleaner.dashboard.migration;
+
+import liquibase.Contexts;
+import liquibase.LabelExpression;
+import liquibase.Liquibase;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Changeset 020: строки, записанные без {@code foreign_keys}, получают родителей-заглушки до
+ * того, как проверки FK начнут ронять UPDATE по ним.
+ */
+@DisplayName("Changeset 020 — ремонт нарушений FOREIGN KEY")
+class ForeignKeyRepairMigrationTest {
+
+    private static final String CHANGELOG = "db/changelog/db.changelog-master.sql";
+
+    @Test
+    @DisplayName("заглушки пользователя и чата по событиям, висящая ссылка dashboard_users обнуляется")
+    void repairsOrphans(@TempDir Path tmp) throws Exception {
+        String url = "jdbc:sqlite:" + tmp.resolve("fk.db").toAbsolutePath() + "?foreign_keys=true";
+        int before = changesetsBefore("app:020-");
+        try (Connection conn = DriverManager.getConnection(url)) {
+            Liquibase liquibase = liquibase(conn);
+            liquibase.update(before, new Contexts(), new LabelExpression());
+
+            // Liquibase оставляет autocommit выключенным, а внутри транзакции PRAGMA foreign_keys не действует.
+            conn.setAutoCommit(true);
+            JdbcTemplate jdbc = new JdbcTemplate(new SingleConnectionDataSource(conn, true));
+            jdbc.execute("PRAGMA foreign_keys = OFF");
+            jdbc.update("INSERT INTO export_events (task_id, bot_user_id, chat_ref_id, started_at, status, "
+                    + "messages_count, bytes_count) VALUES "
+                    + "('t1', 7, 9, '2025-01-02 10:00:00.000', 'COMPLETED', 10, 100), "
+                    + "('t2', 7, 9, '2025-01-05 10:00:00.000', 'FAILED', NULL, NULL), "
+                    + "('t3', 7, 9, '2025-01-03 10:00:00.000', 'CANCELLED', 3, 3)");
+            jdbc.update("INSERT INTO dashboard_users (username, password_hash, role, created_at, bot_user_id) "
+                    + "VALUES ('u', 'h', 'USER', '2025-01-01 00:00:00.000', 42)");
+            jdbc.execute("PRAGMA foreign_keys = ON");
+
+            liquibase.update(new Contexts(), new LabelExpression());
+
+            assertThat(jdbc.queryForList("PRAGMA foreign_key_check")).isEmpty();
+            assertThat(jdbc.queryForMap("SELECT first_seen, last_seen, total_exports, total_messages, "
+                    + "total_bytes FROM bot_users WHERE bot_user_id = 7"))
+                    .containsExactlyInAnyOrderEntriesOf(Map.of(
+                            "first_seen", "2025-01-02 10:00:00.000",
+                            "last_seen", "2025-01-05 10:00:00.000",
+                            "total_exports", 2,
+                            "total_messages", 10,
+                            "total_bytes", 100));
+            assertThat(jdbc.queryForObject("SELECT canonical_chat_id FROM chats WHERE id = 9", String.class))
+                    .isEqualTo("orphan:9");
+            assertThat(jdbc.queryForObject("SELECT bot_user_id FROM dashboard_users WHERE username = 'u'",
+                    Long.class)).isNull();
+        }
+    }
+
+    private static Liquibase liquibase(Connection conn) throws Exception {
+        Database db = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(new JdbcConnection(conn));
+        return new Liquibase(CHANGELOG, new ClassLoaderResourceAccessor(), db);
+    }
+
+    // Сколько changesets в changelog до id: update(n) накатывает первые n.
+    private static int changesetsBefore(String id) throws Exception {
+        try (InputStream in = ForeignKeyRepairMigrationTest.class.getClassLoader().getResourceAsStream(CHANGELOG)) {
+            String changelog = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            String head = changelog.substring(0, changelog.indexOf("--changeset " + id));
+            return head.split("\n--changeset ", -1).length - 1;
+        }
+    }
+}
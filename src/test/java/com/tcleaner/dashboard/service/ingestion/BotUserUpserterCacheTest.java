@@ -0,0 +1,213 @@
+package com.tcleaner.dashboard.service.ingestion;
+
+import com.tcleaner.core.BotLanguage;
+import com.tcleaner.dashboard.domain.BotUser;
+import com.tcleaner.dashboard.repository.BotUserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Instant;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Near-cache профиля в {@link BotUserUpserter}: без Spring context и без транзакций
+ * (изменения кэша применяются сразу), плюс явная проверка поведения при откате.
+ */
+@DisplayName("BotUserUpserter — near-cache профиля")
+class BotUserUpserterCacheTest {
+
+    private BotUserRepository repository;
+    private StringRedisTemplate redis;
+    private SimpleMeterRegistry registry;
+    private BotUserUpserter upserter;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(BotUserRepository.class);
+        redis = mock(StringRedisTemplate.class);
+        registry = new SimpleMeterRegistry();
+        when(repository.save(any(BotUser.class))).thenAnswer(inv -> inv.getArgument(0));
+        upserter = new BotUserUpserter(repository, redis, registry);
+    }
+
+    @AfterEach
+    void clearSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    private static BotUser user(long id, String language) {
+        return BotUser.builder().botUserId(id).username("u" + id).language(language)
+                .firstSeen(Instant.EPOCH).lastSeen(Instant.EPOCH)
+                .totalExports(0).totalMessages(0L).totalBytes(0L).build();
+    }
+
+    @Test
+    @DisplayName("повторные resolveLanguage — один findById, hit ratio в метриках")
+    void repeatedLookupsHitCache() {
+        when(repository.findById(1L)).thenReturn(Optional.of(user(1L, "ru")));
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(upserter.resolveLanguage(1L)).isEqualTo(BotLanguage.RU);
+        }
+
+        verify(repository, times(1)).findById(1L);
+        assertThat(registry.get("cache.gets").tag("cache", BotUserUpserter.CACHE_NAME)
+                .tag("result", "hit").functionCounter().count()).isEqualTo(4.0);
+    }
+
+    @Test
+    @DisplayName("пользователя нет — негативная запись, повторный запрос в БД не идёт")
+    void missingUserCachedNegatively() {
+        when(repository.findById(2L)).thenReturn(Optional.empty());
+
+        assertThat(upserter.getLanguage(2L)).isEmpty();
+        assertThat(upserter.getProfile(2L)).isEmpty();
+
+        verify(repository, times(1)).findById(2L);
+    }
+
+    @Test
+    @DisplayName("setLanguage сбрасывает кэш и публикует botUserId в канал инвалидации")
+    void setLanguageInvalidatesAndPublishes() {
+        BotUser stored = user(3L, "en");
+        when(repository.findById(3L)).thenReturn(Optional.of(stored));
+        assertThat(upserter.resolveLanguage(3L)).isEqualTo(BotLanguage.EN);
+
+        upserter.setLanguage(3L, "de");
+
+        assertThat(upserter.resolveLanguage(3L)).isEqualTo(BotLanguage.DE);
+        verify(repository, times(3)).findById(3L);
+        verify(redis).convertAndSend(BotUserUpserter.INVALIDATION_CHANNEL, "3");
+    }
+
+    @Test
+    @DisplayName("ошибка публикации не ломает setLanguage")
+    void publishFailureSwallowed() {
+        when(repository.findById(4L)).thenReturn(Optional.empty());
+        doThrow(new IllegalStateException("redis down")).when(redis).convertAndSend(anyString(), any());
+
+        upserter.setLanguage(4L, "es");
+
+        verify(repository).save(any(BotUser.class));
+    }
+
+    @Test
+    @DisplayName("upsert (bot_user.seen) кладёт свежий профиль — без чтения на следующем запросе")
+    void upsertRefreshesProfile() {
+        when(repository.findById(5L)).thenReturn(Optional.empty());
+        assertThat(upserter.getProfile(5L)).isEmpty();
+
+        upserter.upsert(5L, "fresh", "Fresh", Instant.EPOCH);
+
+        assertThat(upserter.getProfile(5L)).contains(new BotUserUpserter.Profile(null, "fresh"));
+        verify(repository, times(2)).findById(5L);
+    }
+
+    @Test
+    @DisplayName("touch: закэшированный профиль получает новый username без чтения, язык сохраняется")
+    void touchRefreshesCachedUsername() {
+        when(repository.findById(9L)).thenReturn(Optional.of(user(9L, "fr")));
+        upserter.getProfile(9L);
+
+        upserter.touch(9L, "renamed", null, Instant.EPOCH);
+        upserter.touch(9L, "  ", null, Instant.EPOCH);
+
+        assertThat(upserter.getProfile(9L)).contains(new BotUserUpserter.Profile("fr", "renamed"));
+        verify(repository).upsertSeen(9L, "renamed", null, Instant.EPOCH);
+        verify(repository).upsertSeen(9L, null, null, Instant.EPOCH);
+        verify(repository, times(1)).findById(9L);
+    }
+
+    @Test
+    @DisplayName("touch: незакэшированный профиль не загружается, негативная запись заменяется")
+    void touchDoesNotLoadProfile() {
+        when(repository.findById(10L)).thenReturn(Optional.empty());
+        upserter.getProfile(10L);
+
+        upserter.touch(10L, "newbie", null, Instant.EPOCH);
+        upserter.touch(11L, "other", null, Instant.EPOCH);
+
+        assertThat(upserter.getProfile(10L)).contains(new BotUserUpserter.Profile(null, "newbie"));
+        verify(repository, times(1)).findById(10L);
+        verify(repository, never()).findById(11L);
+    }
+
+    @Test
+    @DisplayName("evictLocal — следующее чтение снова из БД")
+    void evictLocal() {
+        when(repository.findById(6L)).thenReturn(Optional.of(user(6L, "tr")));
+        upserter.getLanguage(6L);
+
+        upserter.evictLocal(6L);
+        upserter.getLanguage(6L);
+
+        verify(repository, times(2)).findById(6L);
+    }
+
+    @Test
+    @DisplayName("сброс во время чтения на промахе — прочитанный профиль в кэш не попадает")
+    void invalidationDuringLoadSkipsFill() {
+        when(repository.findById(12L)).thenAnswer(inv -> {
+            // setLanguage на другом потоке закоммитился, пока шло чтение.
+            upserter.evictLocal(12L);
+            return Optional.of(user(12L, "en"));
+        });
+
+        upserter.getLanguage(12L);
+        upserter.getLanguage(12L);
+
+        verify(repository, times(2)).findById(12L);
+    }
+
+    @Test
+    @DisplayName("внутри транзакции кэш не заполняется до коммита; при откате — не заполняется вовсе")
+    void noCacheFillBeforeCommit() {
+        when(repository.findById(7L)).thenReturn(Optional.of(user(7L, "zh")));
+        TransactionSynchronizationManager.initSynchronization();
+
+        upserter.getLanguage(7L);
+        upserter.getLanguage(7L);
+        for (TransactionSynchronization sync : TransactionSynchronizationManager.getSynchronizations()) {
+            sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+        }
+        TransactionSynchronizationManager.clearSynchronization();
+        upserter.getLanguage(7L);
+
+        verify(repository, times(3)).findById(7L);
+        verify(redis, never()).convertAndSend(anyString(), any());
+    }
+
+    @Test
+    @DisplayName("коммит транзакции — профиль попадает в кэш")
+    void cacheFilledAfterCommit() {
+        when(repository.findById(8L)).thenReturn(Optional.of(user(8L, "id")));
+        TransactionSynchronizationManager.initSynchronization();
+
+        upserter.getLanguage(8L);
+        for (TransactionSynchronization sync : TransactionSynchronizationManager.getSynchronizations()) {
+            sync.afterCommit();
+        }
+        TransactionSynchronizationManager.clearSynchronization();
+        upserter.getLanguage(8L);
+
+        verify(repository, times(1)).findById(8L);
+    }
+}
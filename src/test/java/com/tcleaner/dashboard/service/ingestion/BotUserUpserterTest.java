@@ -2,6 +2,7 @@ package com.tcleaner.dashboard.service.ingestion;
 
 import com.tcleaner.core.TelegramExporter;
 import com.tcleaner.dashboard.domain.BotUser;
+import com.tcleaner.dashboard.repository.BotUserRepository;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -25,6 +26,9 @@ class BotUserUpserterTest {
     @Autowired
     private BotUserUpserter upserter;
 
+    @Autowired
+    private BotUserRepository repository;
+
     @MockitoBean
     private TelegramExporter mockExporter;
 
@@ -92,6 +96,23 @@ class BotUserUpserterTest {
         assertThat(user.getFirstSeen()).isBetween(before, after);
     }
 
+    @Test
+    @DisplayName("touch: native upsert с теми же правилами — firstSeen и счётчики не трогаются")
+    void touchAppliesUpsertRules() {
+        Instant t1 = Instant.parse("2026-04-15T11:00:00Z");
+        Instant tStale = Instant.parse("2026-04-15T10:00:00Z");
+
+        upserter.touch(43L, "bob", "Bob", t1);
+        upserter.touch(43L, " ", null, tStale);
+
+        BotUser user = repository.findById(43L).orElseThrow();
+        assertThat(user.getUsername()).isEqualTo("bob");
+        assertThat(user.getDisplayName()).isEqualTo("Bob");
+        assertThat(user.getFirstSeen()).isEqualTo(t1);
+        assertThat(user.getLastSeen()).isEqualTo(t1);
+        assertThat(user.getTotalExports()).isZero();
+    }
+
     // ─── language ──────────────────────────────────────────────────────────
 
     @Test
@@ -78,4 +78,22 @@ class ChatUpserterTest {
 
         assertThat(chat.getChatTitle()).isEqualTo("Original");
     }
+
+    @Test
+    @DisplayName("touch: ON CONFLICT по (canonical, topic) — одна строка, title и lastSeen только вперёд")
+    void touchUpsertsWithoutEntity() {
+        Instant t1 = Instant.parse("2026-04-15T10:00:00Z");
+        Instant t2 = Instant.parse("2026-04-15T11:00:00Z");
+
+        assertThat(upserter.touch("-100321", "@c", null, "Title", t2)).isEqualTo("-100321");
+        upserter.touch("-100321", "@other", null, " ", t1);
+        upserter.touch("", "@raw", 7, null, t1);
+
+        Chat chat = repository.findByCanonicalChatIdAndTopicId("-100321", null).orElseThrow();
+        assertThat(chat.getChatTitle()).isEqualTo("Title");
+        assertThat(chat.getChatIdRaw()).isEqualTo("@c");
+        assertThat(chat.getLastSeen()).isEqualTo(t2);
+        assertThat(repository.findByCanonicalChatIdAndTopicId("@raw", 7)).isPresent();
+        assertThat(repository.count()).isEqualTo(2);
+    }
 }
@@ -1,5 +1,6 @@
 package com.tcleaner.dashboard.service.ingestion;
 
+import com.tcleaner.bot.QueueEtaEstimator;
 import com.tcleaner.core.TelegramExporter;
 import com.tcleaner.dashboard.domain.BotUser;
 import com.tcleaner.dashboard.domain.Chat;
@@ -13,16 +14,29 @@ import com.tcleaner.dashboard.repository.BotUserRepository;
 import com.tcleaner.dashboard.repository.ChatRepository;
 import com.tcleaner.dashboard.repository.ChatSubscriptionRepository;
 import com.tcleaner.dashboard.repository.ExportEventRepository;
+import com.tcleaner.dashboard.service.queue.ExportCostEstimator;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.time.Instant;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 /**
  * Проверяет merge-семантику ingestion-сервиса:
@@ -56,6 +70,12 @@ class ExportEventIngestionServiceTest {
     @MockitoBean
     private TelegramExporter mockExporter;
 
+    @MockitoBean
+    private ExportCostEstimator costEstimator;
+
+    @MockitoBean
+    private QueueEtaEstimator queueEtaEstimator;
+
     private static final long USER_ID = 42L;
     private static final String TASK = "task-xyz";
     private static final Instant TS = Instant.parse("2026-04-15T12:00:00Z");
@@ -348,6 +368,82 @@ class ExportEventIngestionServiceTest {
                 .build());
     }
 
+    @Test
+    @DisplayName("SJF-метрики: первый переход в COMPLETED отдаёт messages_count в estimator, повтор — нет")
+    void completedRecordsActualCostOnce() {
+        service.ingest(started());
+        StatsEventPayload completed = StatsEventPayload.builder()
+                .type(StatsEventType.EXPORT_COMPLETED)
+                .taskId(TASK).botUserId(USER_ID)
+                .messagesCount(100L)
+                .status("completed").ts(TS.plusSeconds(30)).build();
+        service.ingest(completed);
+        service.ingest(completed);
+        runAfterCommit();
+
+        verify(costEstimator, times(1)).recordActual(TASK, 100L);
+    }
+
+    @Test
+    @DisplayName("SJF-метрики: FAILED и COMPLETED без messages_count не сравниваются с оценкой")
+    void failedOrCountlessDoesNotRecordCost() {
+        service.ingest(started());
+        service.ingest(StatsEventPayload.builder()
+                .type(StatsEventType.EXPORT_FAILED)
+                .taskId(TASK).botUserId(USER_ID)
+                .messagesCount(10L)
+                .status("failed").ts(TS.plusSeconds(30)).build());
+        service.ingest(StatsEventPayload.builder()
+                .type(StatsEventType.EXPORT_COMPLETED)
+                .taskId("task-no-count").botUserId(USER_ID)
+                .chatIdRaw("@chat").canonicalChatId("-100777")
+                .status("completed").ts(TS).build());
+        runAfterCommit();
+
+        verify(costEstimator, never()).recordActual(anyString(), anyLong());
+    }
+
+    @Test
+    @DisplayName("ETA: terminal-событие отдаёт тайминги в QueueEtaEstimator до сверки с оценкой стоимости")
+    void terminalFeedsQueueEtaBeforeCostCheck() {
+        service.ingest(started());
+        StatsEventPayload completed = StatsEventPayload.builder()
+                .type(StatsEventType.EXPORT_COMPLETED)
+                .taskId(TASK).botUserId(USER_ID)
+                .messagesCount(100L)
+                .status("completed").ts(TS.plusSeconds(30))
+                .processingStartedAt(TS.plusSeconds(10)).build();
+        service.ingest(completed);
+        service.ingest(completed);
+        // Одиночное событие, как и пачка, отдаёт статистику только после коммита.
+        verify(queueEtaEstimator, never()).recordFinished(anyString(), any(), any(), any(), anyBoolean(), any());
+        runAfterCommit();
+
+        InOrder order = inOrder(queueEtaEstimator, costEstimator);
+        order.verify(queueEtaEstimator)
+                .recordFinished(TASK, TS, TS.plusSeconds(30), 100L, true, TS.plusSeconds(10));
+        order.verify(costEstimator).recordActual(TASK, 100L);
+        verify(queueEtaEstimator, times(1)).recordFinished(anyString(), any(), any(), any(), anyBoolean(), any());
+    }
+
+    @Test
+    @DisplayName("ETA: FAILED отдаётся как неуспешное завершение (только освобождение воркера)")
+    void failedFeedsQueueEtaAsNotCompleted() {
+        service.ingest(started());
+        service.ingest(StatsEventPayload.builder()
+                .type(StatsEventType.EXPORT_FAILED)
+                .taskId(TASK).botUserId(USER_ID)
+                .status("failed").ts(TS.plusSeconds(5)).build());
+        runAfterCommit();
+
+        verify(queueEtaEstimator).recordFinished(TASK, TS, TS.plusSeconds(5), null, false, null);
+    }
+
+    // Тестовая транзакция откатывается — afterCommit-хуки ingestion вызываем сами, каждый один раз.
+    private static void runAfterCommit() {
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+    }
+
     private static StatsEventPayload started(Long subscriptionId) {
         return StatsEventPayload.builder()
                 .type(StatsEventType.EXPORT_STARTED)
@@ -497,6 +593,24 @@ class ExportEventIngestionServiceTest {
         assertThat(ev.getBytesCount()).isEqualTo(2048L);
     }
 
+    @Test
+    @DisplayName("native upsert чата: поздний title обновляет ту же строку chats, last_seen не откатывается")
+    void chatMetadataUpsertedInPlace() {
+        service.ingest(started());
+        service.ingest(StatsEventPayload.builder()
+                .type(StatsEventType.EXPORT_BYTES_MEASURED)
+                .taskId(TASK).bytesCount(1L)
+                .canonicalChatId("-100777").chatIdRaw("@chat")
+                .chatTitle("Renamed")
+                .ts(TS.minusSeconds(60)).build());
+
+        ExportEvent ev = events.findByTaskId(TASK).orElseThrow();
+        Chat chat = chats.findById(ev.getChatRefId()).orElseThrow();
+        assertThat(chat.getChatTitle()).isEqualTo("Renamed");
+        assertThat(chat.getLastSeen()).isEqualTo(TS);
+        assertThat(chats.count()).isEqualTo(1);
+    }
+
     @Test
     @DisplayName("coalesce с пустой String — пропуск (isBlank ветка)")
     void coalesceSkipsBlankString() {
@@ -546,4 +660,23 @@ class ExportEventIngestionServiceTest {
         BotUser user = users.findById(USER_ID).orElseThrow();
         assertThat(user.getTotalExports()).isZero();
     }
+
+    @Test
+    @DisplayName("ingestBatch: started + completed одной транзакцией, ETA/cost — только после коммита")
+    void batchAppliesInOrderAndDefersStats() {
+        service.ingestBatch(List.of(
+                started(),
+                StatsEventPayload.builder()
+                        .type(StatsEventType.EXPORT_COMPLETED)
+                        .taskId(TASK).botUserId(USER_ID)
+                        .messagesCount(100L)
+                        .status("completed").ts(TS.plusSeconds(30)).build()));
+
+        ExportEvent ev = events.findByTaskId(TASK).orElseThrow();
+        assertThat(ev.getStatus()).isEqualTo(ExportStatus.COMPLETED);
+        assertThat(users.findById(USER_ID).orElseThrow().getTotalExports()).isEqualTo(1);
+        // Тестовая транзакция не коммитится — отложенная статистика не применяется.
+        verify(queueEtaEstimator, never()).recordFinished(anyString(), any(), any(), any(), anyBoolean(), any());
+        verify(costEstimator, never()).recordActual(anyString(), anyLong());
+    }
 }
@@ -0,0 +1,251 @@
+package com.tcleaner.dashboard.service.live;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tcleaner.dashboard.domain.ExportStatus;
+import com.tcleaner.dashboard.dto.LiveUpdateDto;
+import com.tcleaner.dashboard.events.StatsEventPayload;
+import com.tcleaner.dashboard.events.StatsEventType;
+import com.tcleaner.dashboard.repository.ExportEventRepository;
+import com.tcleaner.dashboard.repository.ExportEventRepository.IngestResult;
+import com.tcleaner.dashboard.service.ingestion.BotUserUpserter;
+import com.tcleaner.dashboard.service.ingestion.ChatUpserter;
+import com.tcleaner.dashboard.service.ingestion.ExportEventIngestionService;
+import com.tcleaner.dashboard.service.subscription.SubscriptionService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Живая лента: RBAC-фильтр сессий, backpressure (resync при переполнении), heartbeat и
+ * дельты, которые ingestion отдаёт после коммита. Отправка в сокет — через ручной executor.
+ */
+@DisplayName("LiveFeedBroadcaster")
+class LiveFeedBroadcasterTest {
+
+    private final List<Runnable> pending = new ArrayList<>();
+    private SimpleMeterRegistry registry;
+    private LiveFeedBroadcaster broadcaster;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        broadcaster = new LiveFeedBroadcaster(new ObjectMapper(), null, registry, false, pending::add,
+                2, 3, Duration.ofMinutes(1));
+    }
+
+    private void runPending() {
+        while (!pending.isEmpty()) {
+            pending.remove(0).run();
+        }
+    }
+
+    private static LiveUpdateDto update(String taskId, long botUserId) {
+        return new LiveUpdateDto("created", taskId, botUserId, null, null, null, "QUEUED", null, 1, 0, 0,
+                "2026-04-15T12:00:00Z");
+    }
+
+    @Nested
+    @DisplayName("раздача")
+    class Delivery {
+
+        @Test
+        @DisplayName("USER получает только свои события, ADMIN — все")
+        void filtersByScope() {
+            RecordingEmitter own = new RecordingEmitter();
+            RecordingEmitter admin = new RecordingEmitter();
+            broadcaster.subscribe(1L, own);
+            broadcaster.subscribe(null, admin);
+
+            broadcaster.publish(List.of(update("t1", 1L), update("t2", 2L)));
+            runPending();
+
+            assertThat(own.text()).contains("event:update", "taskId=t1").doesNotContain("taskId=t2");
+            assertThat(admin.text()).contains("taskId=t1", "taskId=t2");
+        }
+
+        @Test
+        @DisplayName("переполненная очередь сессии: обновления сброшены, клиенту — resync")
+        void overflowSendsResync() {
+            RecordingEmitter slow = new RecordingEmitter();
+            broadcaster.subscribe(null, slow);
+
+            broadcaster.deliverLocal(List.of(update("t1", 1L), update("t2", 1L), update("t3", 1L)));
+            runPending();
+
+            assertThat(slow.text()).contains("event:resync").doesNotContain("taskId=t");
+            assertThat(registry.counter("dashboard.live.dropped").count()).isEqualTo(1);
+        }
+
+        @Test
+        @DisplayName("heartbeat — комментарий; оборванное соединение снимает сессию")
+        void heartbeatAndDisconnect() {
+            RecordingEmitter alive = new RecordingEmitter();
+            RecordingEmitter broken = new RecordingEmitter();
+            broken.fail = true;
+            broadcaster.subscribe(null, alive);
+            broadcaster.subscribe(null, broken);
+
+            broadcaster.heartbeat();
+            runPending();
+
+            assertThat(alive.text()).contains(":hb");
+            assertThat(broadcaster.subscriberCount()).isEqualTo(1);
+        }
+
+        @Test
+        @DisplayName("лимит сессий → null")
+        void maxSubscribers() {
+            for (int i = 0; i < 3; i++) {
+                assertThat(broadcaster.subscribe(null, new RecordingEmitter())).isNotNull();
+            }
+            assertThat(broadcaster.subscribe(null, new RecordingEmitter())).isNull();
+        }
+
+        @Test
+        @DisplayName("сообщение relay-канала разбирается обратно в обновления")
+        void relayRoundTrip() throws Exception {
+            String body = new ObjectMapper().writeValueAsString(List.of(update("t1", 1L)));
+
+            assertThat(broadcaster.parse(body)).containsExactly(update("t1", 1L));
+        }
+    }
+
+    @Nested
+    @DisplayName("из ingestion")
+    class FromIngestion {
+
+        private ExportEventRepository events;
+        private LiveFeedBroadcaster feed;
+        private ExportEventIngestionService svc;
+
+        @BeforeEach
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        void init() {
+            events = mock(ExportEventRepository.class);
+            ChatUpserter chatUpserter = mock(ChatUpserter.class);
+            when(chatUpserter.touch(any(), any(), any(), any(), any())).thenReturn("c");
+            feed = mock(LiveFeedBroadcaster.class);
+            ObjectProvider none = mock(ObjectProvider.class);
+            ObjectProvider<LiveFeedBroadcaster> feedProvider = mock(ObjectProvider.class);
+            when(feedProvider.getIfAvailable()).thenReturn(feed);
+            svc = new ExportEventIngestionService(events, mock(BotUserUpserter.class), chatUpserter,
+                    mock(SubscriptionService.class), none, none, none, feedProvider, none);
+        }
+
+        private IngestResult result(ExportStatus previous, ExportStatus status) {
+            IngestResult result = mock(IngestResult.class);
+            // Mockito отдаёт 0 для Long — NULL-колонки RETURNING задаём явно.
+            when(result.getChatRefId()).thenReturn(null);
+            when(result.getFinishedAtMillis()).thenReturn(null);
+            when(result.getSubscriptionId()).thenReturn(null);
+            when(result.getMessagesCount()).thenReturn(null);
+            when(result.getPreviousMessagesCount()).thenReturn(null);
+            when(result.getBytesCount()).thenReturn(null);
+            when(result.getPreviousBytesCount()).thenReturn(null);
+            when(result.getPreviousStatus()).thenReturn(previous);
+            when(result.getStatus()).thenReturn(status);
+            when(result.getBotUserId()).thenReturn(7L);
+            return result;
+        }
+
+        private void stubMerge(IngestResult result) {
+            when(events.mergeForIngest(anyString(), any(), any(), any(), any(), any(), any(), any(), any(), any(),
+                    any(), any())).thenReturn(Optional.of(result));
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<LiveUpdateDto> published() {
+            ArgumentCaptor<List<LiveUpdateDto>> captor = ArgumentCaptor.forClass(List.class);
+            verify(feed).publish(captor.capture());
+            return captor.getValue();
+        }
+
+        @Test
+        @DisplayName("новое событие → created с +1 экспортом")
+        void created() {
+            IngestResult inserted = result(null, ExportStatus.QUEUED);
+            when(inserted.getStartedAtMillis()).thenReturn(Instant.parse("2026-04-15T12:00:00Z").toEpochMilli());
+            when(events.upsertForIngest(anyString(), anyLong(), any(), any(), any(), any(), any(), any(),
+                    any(), any(), any(), any(), any(), any(), any(), any())).thenReturn(inserted);
+
+            svc.ingest(StatsEventPayload.builder().type(StatsEventType.EXPORT_STARTED).taskId("t1")
+                    .botUserId(7L).chatIdRaw("@c").chatTitle("Chat").ts(Instant.parse("2026-04-15T12:00:00Z"))
+                    .build());
+
+            assertThat(published()).containsExactly(new LiveUpdateDto("created", "t1", 7L, null, null, "Chat",
+                    "QUEUED", null, 1, 0, 0, "2026-04-15T12:00:00Z"));
+        }
+
+        @Test
+        @DisplayName("переход в COMPLETED → updated с дельтой сообщений; повтор без изменений — пусто")
+        void updated() {
+            IngestResult merged = result(ExportStatus.QUEUED, ExportStatus.COMPLETED);
+            when(merged.getChatRefId()).thenReturn(3L);
+            when(merged.getPreviousMessagesCount()).thenReturn(40L);
+            when(merged.getMessagesCount()).thenReturn(100L);
+            stubMerge(merged);
+
+            svc.ingest(StatsEventPayload.builder().type(StatsEventType.EXPORT_COMPLETED).taskId("t1")
+                    .messagesCount(100L).build());
+
+            LiveUpdateDto update = published().get(0);
+            assertThat(update.kind()).isEqualTo("updated");
+            assertThat(update.status()).isEqualTo("COMPLETED");
+            assertThat(update.previousStatus()).isEqualTo("QUEUED");
+            assertThat(update.exports()).isZero();
+            assertThat(update.messages()).isEqualTo(60L);
+        }
+
+        @Test
+        @DisplayName("terminal не откатывается: повторный COMPLETED после CANCELLED — без обновления")
+        void terminalRepeatIsSilent() {
+            stubMerge(result(ExportStatus.CANCELLED, ExportStatus.CANCELLED));
+
+            svc.ingest(StatsEventPayload.builder().type(StatsEventType.EXPORT_COMPLETED).taskId("t1").build());
+
+            assertThat(published()).isEmpty();
+            verify(feed, never()).deliverLocal(any());
+        }
+    }
+
+    /** Emitter без HTTP-ответа: запоминает отправленные события. */
+    private static final class RecordingEmitter extends SseEmitter {
+
+        private final List<String> sent = new ArrayList<>();
+        private boolean fail;
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            if (fail) {
+                throw new IOException("broken pipe");
+            }
+            sent.add(builder.build().stream().map(d -> String.valueOf(d.getData())).collect(Collectors.joining()));
+        }
+
+        String text() {
+            return String.join("", sent);
+        }
+    }
+}
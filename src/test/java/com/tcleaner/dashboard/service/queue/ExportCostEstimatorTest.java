@@ -0,0 +1,293 @@
+package com.tcleaner.dashboard.service.queue;
+
+import com.tcleaner.core.TelegramExporter;
+import com.tcleaner.dashboard.events.StatsEventPayload;
+import com.tcleaner.dashboard.events.StatsEventType;
+import com.tcleaner.dashboard.service.ingestion.ExportEventIngestionService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+@SpringBootTest
+@Transactional
+@DisplayName("ExportCostEstimator — оценка стоимости для shortest-job-first")
+class ExportCostEstimatorTest {
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private ExportEventIngestionService ingestion;
+
+    @MockitoBean
+    private TelegramExporter mockExporter;
+
+    private static final Instant TS = Instant.parse("2026-04-15T12:00:00Z");
+
+    @Nested
+    @DisplayName("predictMessages / penalty — чистая арифметика")
+    class Arithmetic {
+
+        private ExportCostEstimator pure;
+        private SimpleMeterRegistry registry;
+
+        @BeforeEach
+        void setUp() {
+            registry = new SimpleMeterRegistry();
+            pure = new ExportCostEstimator(mock(JdbcTemplate.class), Runnable::run, registry,
+                    10, Duration.ofMinutes(30), 2000);
+        }
+
+        @Test
+        @DisplayName("нет истории, полный экспорт → DEFAULT_MESSAGES")
+        void defaultForFullExport() {
+            assertThat(pure.predictMessages(ExportCostEstimator.ChatHistory.EMPTY, null, null))
+                    .isEqualTo(ExportCostEstimator.DEFAULT_MESSAGES);
+        }
+
+        @Test
+        @DisplayName("нет истории, окно 73 дня → доля DEFAULT_MESSAGES от года")
+        void defaultScaledByWindow() {
+            assertThat(pure.predictMessages(ExportCostEstimator.ChatHistory.EMPTY,
+                    "2026-01-01T00:00:00", "2026-03-14T00:00:00"))
+                    .isEqualTo(1_000L);
+        }
+
+        @Test
+        @DisplayName("плотность 100/день × окно 10 дней = 1000")
+        void densityTimesWindow() {
+            ExportCostEstimator.ChatHistory history = new ExportCostEstimator.ChatHistory(null, 100.0);
+            assertThat(pure.predictMessages(history, "2026-01-01T00:00:00", "2026-01-10T00:00:00"))
+                    .isEqualTo(1_000L);
+        }
+
+        @Test
+        @DisplayName("оценка по плотности не больше размера полной выгрузки")
+        void densityCappedByFullCount() {
+            ExportCostEstimator.ChatHistory history = new ExportCostEstimator.ChatHistory(500L, 100.0);
+            assertThat(pure.predictMessages(history, "2026-01-01T00:00:00", "2026-01-10T00:00:00"))
+                    .isEqualTo(500L);
+        }
+
+        @Test
+        @DisplayName("полный экспорт: известный размер полной выгрузки, иначе плотность × год")
+        void fullExportFromHistory() {
+            assertThat(pure.predictMessages(new ExportCostEstimator.ChatHistory(8_000L, 3.0), null, null))
+                    .isEqualTo(8_000L);
+            assertThat(pure.predictMessages(new ExportCostEstimator.ChatHistory(null, 2.0), null, null))
+                    .isEqualTo(730L);
+        }
+
+        @Test
+        @DisplayName("окно без плотности, но с размером полной выгрузки — доля от года")
+        void windowFromFullCount() {
+            ExportCostEstimator.ChatHistory history = new ExportCostEstimator.ChatHistory(36_500L, null);
+            assertThat(pure.predictMessages(history, "2026-01-01T00:00:00", "2026-01-10T00:00:00"))
+                    .isEqualTo(1_000L);
+        }
+
+        @Test
+        @DisplayName("toDate=null — окно до сегодняшнего дня")
+        void openEndedWindow() {
+            ExportCostEstimator.ChatHistory history = new ExportCostEstimator.ChatHistory(null, 1.0);
+            String from = LocalDate.now().minusDays(4).atStartOfDay().toString();
+            assertThat(pure.predictMessages(history, from, null)).isEqualTo(5L);
+        }
+
+        @Test
+        @DisplayName("penalty = messages × ms-per-message, с капом max-penalty (aging)")
+        void penaltyCapped() {
+            assertThat(pure.penaltyMs(100)).isEqualTo(1_000L);
+            assertThat(pure.penaltyMs(10_000_000)).isEqualTo(Duration.ofMinutes(30).toMillis());
+        }
+
+        @Test
+        @DisplayName("ошибка БД → оценка по умолчанию, cache-hit дешевле в CACHED_FACTOR раз")
+        void dbFailureFallsBackToDefault() {
+            JdbcTemplate jdbc = mock(JdbcTemplate.class);
+            doThrow(new IllegalStateException("db down"))
+                    .when(jdbc).query(anyString(), any(RowCallbackHandler.class), any(Object[].class));
+            ExportCostEstimator failing =
+                    new ExportCostEstimator(jdbc, Runnable::run, registry, 10, Duration.ofMinutes(30), 2000);
+
+            ExportCostEstimator.Estimate estimate = failing.estimate("@chan", null, null, null);
+
+            assertThat(estimate.uncachedMessages()).isEqualTo(ExportCostEstimator.DEFAULT_MESSAGES);
+            assertThat(estimate.cachedMessages()).isEqualTo(1_000L);
+            assertThat(estimate.uncachedPenaltyMs()).isEqualTo(50_000L);
+            assertThat(estimate.cachedPenaltyMs()).isEqualTo(10_000L);
+            assertThat(estimate.cheap()).isFalse();
+            assertThat(estimate.provisional()).isTrue();
+        }
+
+        @Test
+        @DisplayName("истории нет в кэше → оценка по умолчанию без запроса в потоке вызова, история — в фоне")
+        void missLoadsHistoryInBackground() {
+            JdbcTemplate jdbc = mock(JdbcTemplate.class);
+            List<Runnable> background = new ArrayList<>();
+            ExportCostEstimator async =
+                    new ExportCostEstimator(jdbc, background::add, registry, 10, Duration.ofMinutes(30), 2000);
+
+            ExportCostEstimator.Estimate first = async.estimate("@chan", null, null, null);
+            CompletableFuture<ExportCostEstimator.Estimate> refined = async.estimateLoaded("@chan", null, null, null);
+
+            assertThat(first.provisional()).isTrue();
+            assertThat(first.uncachedMessages()).isEqualTo(ExportCostEstimator.DEFAULT_MESSAGES);
+            assertThat(refined).isNotDone();
+            verifyNoInteractions(jdbc);
+            assertThat(background).hasSize(1);
+
+            background.get(0).run();
+
+            assertThat(refined).isCompleted();
+            assertThat(refined.join().provisional()).isFalse();
+            assertThat(async.estimate("@chan", null, null, null).provisional()).isFalse();
+            assertThat(background).hasSize(1);
+        }
+
+        @Test
+        @DisplayName("revise заменяет предсказание, но не сверенное и не заново")
+        void reviseReplacesPendingPrediction() {
+            pure.remember("export_r", 5_000, false);
+
+            pure.revise("export_r", 300);
+            pure.revise("export_unknown", 300);
+
+            assertThat(pure.prediction("export_r")).isEqualTo(new ExportCostEstimator.Prediction(300, false));
+            assertThat(pure.prediction("export_unknown")).isNull();
+            assertThat(registry.get("export.cost.predicted.messages").summary().totalAmount()).isEqualTo(5_000.0);
+        }
+
+        @Test
+        @DisplayName("null-идентификатор → без запроса в БД, оценка по умолчанию")
+        void nullIdentifier() {
+            assertThat(pure.estimate(null, null, null, null).uncachedMessages())
+                    .isEqualTo(ExportCostEstimator.DEFAULT_MESSAGES);
+        }
+
+        @Test
+        @DisplayName("recordActual без remember → export.cost.unmatched")
+        void unmatchedActual() {
+            pure.recordActual("export_unknown", 10);
+
+            assertThat(registry.get("export.cost.unmatched").counter().count()).isEqualTo(1.0);
+            assertThat(registry.get("export.cost.actual.messages").summary().count()).isZero();
+        }
+
+        @Test
+        @DisplayName("remember → recordActual: predicted/actual/ratio записаны, повтор не считается")
+        void matchedActual() {
+            pure.remember("export_a", 99, true);
+            assertThat(pure.prediction("export_a"))
+                    .isEqualTo(new ExportCostEstimator.Prediction(99, true));
+            pure.recordActual("export_a", 199);
+            pure.recordActual("export_a", 199);
+
+            assertThat(registry.get("export.cost.predicted.messages").summary().totalAmount()).isEqualTo(99.0);
+            assertThat(registry.get("export.cost.actual.messages").summary().count()).isEqualTo(1L);
+            assertThat(registry.get("export.cost.prediction.ratio").summary().totalAmount()).isEqualTo(2.0);
+            assertThat(registry.get("export.cost.unmatched").counter().count()).isEqualTo(1.0);
+            assertThat(pure.prediction("export_a")).isNull();
+        }
+
+        @Test
+        @DisplayName("parseDay: ISO datetime, SQLite TEXT и мусор")
+        void parseDayFormats() {
+            LocalDate day = LocalDate.of(2026, 4, 1);
+            assertThat(ExportCostEstimator.parseDay("2026-04-01T00:00:00")).isEqualTo(day);
+            assertThat(ExportCostEstimator.parseDay("2026-04-01 00:00:00.000")).isEqualTo(day);
+            assertThat(ExportCostEstimator.parseDay("2026-04-01")).isEqualTo(day);
+            assertThat(ExportCostEstimator.parseDay("garbage!!!")).isNull();
+            assertThat(ExportCostEstimator.parseDay("short")).isNull();
+            assertThat(ExportCostEstimator.parseDay(null)).isNull();
+        }
+    }
+
+    @Nested
+    @DisplayName("история из export_events")
+    class History {
+
+        private ExportCostEstimator estimator;
+
+        @BeforeEach
+        void setUp() {
+            // История грузится в потоке теста: фоновый поток не видит незакоммиченную транзакцию теста.
+            estimator = new ExportCostEstimator(jdbc, Runnable::run, new SimpleMeterRegistry(),
+                    10, Duration.ofMinutes(30), 2000);
+        }
+
+        @Test
+        @DisplayName("полная выгрузка и выгрузка за окно → размер и плотность по chat_id_raw")
+        void historyFromCompletedExports() {
+            ingestCompleted("sjf-full", "sjf_chat", null, null, 8_000L);
+            ingestCompleted("sjf-window", "sjf_chat", "2026-04-01", "2026-04-10", 300L);
+
+            ExportCostEstimator.Estimate full = estimator.estimate("sjf_chat", null, null, null);
+            ExportCostEstimator.Estimate week = estimator.estimate("sjf_chat", null,
+                    "2026-04-01T00:00:00", "2026-04-05T00:00:00");
+
+            assertThat(full.uncachedMessages()).isEqualTo(8_000L);
+            assertThat(full.cheap()).isFalse();
+            assertThat(week.uncachedMessages()).isEqualTo(150L);
+            assertThat(week.cheap()).isTrue();
+        }
+
+        @Test
+        @DisplayName("незавершённые экспорты и другой топик историю не дают")
+        void ignoresUnfinishedAndOtherTopic() {
+            ingestion.ingest(started("sjf-queued", "sjf_other", null, null, null));
+            ingestCompleted("sjf-topic", "sjf_other", null, null, 9_999L, 5);
+
+            assertThat(estimator.estimate("sjf_other", null, null, null).uncachedMessages())
+                    .isEqualTo(ExportCostEstimator.DEFAULT_MESSAGES);
+            assertThat(estimator.estimate("sjf_other", 5, null, null).uncachedMessages())
+                    .isEqualTo(9_999L);
+        }
+
+        private void ingestCompleted(String taskId, String chat, String from, String to, long messages) {
+            ingestCompleted(taskId, chat, from, to, messages, null);
+        }
+
+        private void ingestCompleted(String taskId, String chat, String from, String to, long messages,
+                                     Integer topicId) {
+            ingestion.ingest(started(taskId, chat, from, to, topicId));
+            ingestion.ingest(StatsEventPayload.builder()
+                    .type(StatsEventType.EXPORT_COMPLETED)
+                    .taskId(taskId).botUserId(7L)
+                    .messagesCount(messages)
+                    .status("completed").ts(TS.plusSeconds(60)).build());
+        }
+
+        private StatsEventPayload started(String taskId, String chat, String from, String to, Integer topicId) {
+            return StatsEventPayload.builder()
+                    .type(StatsEventType.EXPORT_STARTED)
+                    .taskId(taskId).botUserId(7L)
+                    .chatIdRaw(chat).topicId(topicId)
+                    .fromDate(from).toDate(to)
+                    .source("bot").status("queued").ts(TS)
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.tcleaner.dashboard.service.queue;
+
+import com.tcleaner.bot.ExportJobProducer;
+import com.tcleaner.bot.QueueEtaEstimator;
+import com.tcleaner.dashboard.dto.QueueEtaDto;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Юнит-тесты сборки DTO: размер очереди из Redis + оценка в памяти. Без Spring context.
+ */
+@DisplayName("QueueEtaService")
+class QueueEtaServiceTest {
+
+    private ExportJobProducer producer;
+    private QueueEtaEstimator estimator;
+    private QueueEtaService service;
+
+    @BeforeEach
+    void setUp() {
+        producer = mock(ExportJobProducer.class);
+        estimator = mock(QueueEtaEstimator.class);
+        when(estimator.throughput()).thenReturn(Map.of(
+                QueueEtaEstimator.Source.TELEGRAM, new QueueEtaEstimator.Throughput(12.5, 4.0, 30)));
+        service = new QueueEtaService(producer, estimator);
+    }
+
+    @Test
+    @DisplayName("оценка есть → available=true, секунды и throughput по источникам")
+    void available() {
+        when(producer.getQueueLength()).thenReturn(4L);
+        when(producer.hasActiveProcessingJob()).thenReturn(true);
+        when(estimator.estimate(4L, true, null)).thenReturn(new QueueEtaEstimator.Eta(
+                Duration.ofSeconds(300), Duration.ofSeconds(120), Duration.ofSeconds(480), 30));
+        when(estimator.meanJobSeconds()).thenReturn(60.0);
+
+        QueueEtaDto dto = service.get();
+
+        assertThat(dto.available()).isTrue();
+        assertThat(dto.pendingInQueue()).isEqualTo(4L);
+        assertThat(dto.hasActiveJob()).isTrue();
+        assertThat(dto.etaSeconds()).isEqualTo(300L);
+        assertThat(dto.lowSeconds()).isEqualTo(120L);
+        assertThat(dto.highSeconds()).isEqualTo(480L);
+        assertThat(dto.samples()).isEqualTo(30L);
+        assertThat(dto.sources()).containsOnlyKeys("telegram");
+        assertThat(dto.sources().get("telegram").messagesPerSecond()).isEqualTo(12.5);
+    }
+
+    @Test
+    @DisplayName("статистики мало → available=false, размер очереди всё равно отдаётся")
+    void notEnoughSamples() {
+        when(producer.getQueueLength()).thenReturn(2L);
+
+        QueueEtaDto dto = service.get();
+
+        assertThat(dto.available()).isFalse();
+        assertThat(dto.pendingInQueue()).isEqualTo(2L);
+        assertThat(dto.etaSeconds()).isNull();
+    }
+
+    @Test
+    @DisplayName("Redis недоступен → available=false без исключения, оценка не считается")
+    void redisDown() {
+        when(producer.getQueueLength()).thenThrow(new IllegalStateException("redis down"));
+
+        QueueEtaDto dto = service.get();
+
+        assertThat(dto.available()).isFalse();
+        assertThat(dto.pendingInQueue()).isZero();
+        verify(estimator, never()).estimate(anyLong(), anyBoolean(), any());
+    }
+}
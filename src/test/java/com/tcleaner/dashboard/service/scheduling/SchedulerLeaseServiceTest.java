@@ -0,0 +1,187 @@
+package com.tcleaner.dashboard.service.scheduling;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@DisplayName("SchedulerLeaseService — lease задач планировщика в Redis")
+class SchedulerLeaseServiceTest {
+
+    private static final String JOB = "test-job";
+    private static final List<String> ACQUIRE_KEYS =
+            List.of("scheduler:lease:test-job", "scheduler:fence:test-job", "scheduler:last-run:test-job");
+    private static final List<String> RENEW_KEYS = List.of("scheduler:lease:test-job");
+    private static final List<String> RELEASE_KEYS =
+            List.of("scheduler:lease:test-job", "scheduler:last-run:test-job");
+
+    private StringRedisTemplate redis;
+    private SimpleMeterRegistry registry;
+    private SchedulerLeaseService service;
+
+    @BeforeEach
+    void setUp() {
+        redis = mock(StringRedisTemplate.class);
+        registry = new SimpleMeterRegistry();
+        service = new SchedulerLeaseService(redis, registry, Clock.systemUTC(),
+                Duration.ofMinutes(2), Duration.ofSeconds(30));
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void acquireReturns(long token, long lastRunMs) {
+        when(redis.execute(any(RedisScript.class), eq(ACQUIRE_KEYS), any(Object[].class)))
+                .thenReturn(List.of(token, lastRunMs));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void releaseReturns(long result) {
+        when(redis.execute(any(RedisScript.class), eq(RELEASE_KEYS), any(Object[].class))).thenReturn(result);
+    }
+
+    private double count(String name) {
+        return registry.get(name).tag("job", JOB).counter().count();
+    }
+
+    @Nested
+    @DisplayName("захват")
+    class Acquire {
+
+        @Test
+        @SuppressWarnings("unchecked")
+        @DisplayName("lease свободен → задача получает fencing-токен, lease отпускается с min-hold")
+        void runsWithToken() {
+            acquireReturns(7L, 0L);
+            releaseReturns(1L);
+            AtomicLong seen = new AtomicLong();
+            AtomicBoolean heldDuringRun = new AtomicBoolean();
+
+            boolean ran = service.runExclusive(JOB, lease -> {
+                seen.set(lease.fencingToken());
+                heldDuringRun.set(registry.get("scheduler.lease.held").tag("job", JOB).gauge().value() == 1.0);
+            });
+
+            assertThat(ran).isTrue();
+            assertThat(seen.get()).isEqualTo(7L);
+            assertThat(heldDuringRun).isTrue();
+            assertThat(registry.get("scheduler.lease.held").tag("job", JOB).gauge().value()).isZero();
+            assertThat(count("scheduler.lease.acquired")).isEqualTo(1.0);
+            assertThat(registry.get("scheduler.job.lag.seconds").tag("job", JOB).gauge().value())
+                    .isBetween(0.0, 5.0);
+
+            ArgumentCaptor<Object[]> args = ArgumentCaptor.forClass(Object[].class);
+            verify(redis).execute(any(RedisScript.class), eq(RELEASE_KEYS), args.capture());
+            assertThat(args.getValue()[0]).asString().endsWith(":7");
+            assertThat(Long.parseLong((String) args.getValue()[1])).isBetween(25_000L, 30_000L);
+        }
+
+        @Test
+        @DisplayName("lease у другого узла → задача не выполняется")
+        void skipsWhenHeldElsewhere() {
+            acquireReturns(0L, 1L);
+            AtomicBoolean ran = new AtomicBoolean();
+
+            assertThat(service.runExclusive(JOB, lease -> ran.set(true))).isFalse();
+
+            assertThat(ran).isFalse();
+            assertThat(count("scheduler.lease.skipped")).isEqualTo(1.0);
+        }
+
+        @Test
+        @SuppressWarnings("unchecked")
+        @DisplayName("Redis недоступен → запуск пропускается (fail-closed)")
+        void skipsOnRedisFailure() {
+            when(redis.execute(any(RedisScript.class), eq(ACQUIRE_KEYS), any(Object[].class)))
+                    .thenThrow(new IllegalStateException("connection refused"));
+            AtomicBoolean ran = new AtomicBoolean();
+
+            assertThat(service.runExclusive(JOB, lease -> ran.set(true))).isFalse();
+
+            assertThat(ran).isFalse();
+            assertThat(count("scheduler.lease.skipped")).isEqualTo(1.0);
+        }
+
+        @Test
+        @SuppressWarnings("unchecked")
+        @DisplayName("исключение задачи → lease всё равно отпускается")
+        void releasesOnTaskFailure() {
+            acquireReturns(3L, 0L);
+            releaseReturns(1L);
+
+            try {
+                service.runExclusive(JOB, lease -> {
+                    throw new IllegalStateException("boom");
+                });
+            } catch (IllegalStateException expected) {
+                // задача сама решает, что делать с ошибкой
+            }
+
+            verify(redis).execute(any(RedisScript.class), eq(RELEASE_KEYS), any(Object[].class));
+        }
+    }
+
+    @Nested
+    @DisplayName("потеря lease")
+    class Lost {
+
+        @Test
+        @SuppressWarnings("unchecked")
+        @DisplayName("продление отклонено → isHeld() = false во время выполнения")
+        void renewalRejectedRevokes() throws InterruptedException {
+            service.shutdown();
+            service = new SchedulerLeaseService(redis, registry, Clock.systemUTC(),
+                    Duration.ofMillis(30), Duration.ZERO);
+            acquireReturns(5L, 0L);
+            when(redis.execute(any(RedisScript.class), eq(RENEW_KEYS), any(Object[].class))).thenReturn(0L);
+            releaseReturns(0L);
+            AtomicBoolean revoked = new AtomicBoolean();
+
+            service.runExclusive(JOB, lease -> {
+                long deadline = System.currentTimeMillis() + 2_000;
+                while (lease.isHeld() && System.currentTimeMillis() < deadline) {
+                    Thread.onSpinWait();
+                }
+                revoked.set(!lease.isHeld());
+            });
+
+            assertThat(revoked).isTrue();
+            assertThat(count("scheduler.lease.lost")).isEqualTo(1.0);
+        }
+
+        @Test
+        @DisplayName("lease истёк к моменту release → lost, last-run не обновляется")
+        void releaseRejected() {
+            acquireReturns(9L, 0L);
+            releaseReturns(0L);
+
+            service.runExclusive(JOB, lease -> { });
+
+            assertThat(count("scheduler.lease.lost")).isEqualTo(1.0);
+            assertThat(registry.get("scheduler.job.lag.seconds").tag("job", JOB).gauge().value()).isNaN();
+            verify(redis, never()).opsForValue();
+        }
+    }
+}
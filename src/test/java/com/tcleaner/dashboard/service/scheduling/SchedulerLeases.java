@@ -0,0 +1,30 @@
+package com.tcleaner.dashboard.service.scheduling;
+
+import java.util.function.Consumer;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Фабрика {@link SchedulerLeaseService} для unit-тестов планировщиков: lease всегда
+ * захватывается, задача выполняется сразу в потоке теста.
+ */
+public final class SchedulerLeases {
+
+    private SchedulerLeases() {
+    }
+
+    /** Одиночный узел: каждый {@code runExclusive} выполняет задачу с удерживаемым lease. */
+    @SuppressWarnings("unchecked")
+    public static SchedulerLeaseService granted() {
+        SchedulerLeaseService leases = mock(SchedulerLeaseService.class);
+        lenient().when(leases.runExclusive(anyString(), any())).thenAnswer(inv -> {
+            Consumer<SchedulerLease> task = inv.getArgument(1);
+            task.accept(new SchedulerLease(inv.getArgument(0), 1L));
+            return true;
+        });
+        return leases;
+    }
+}
@@ -0,0 +1,92 @@
+package com.tcleaner.dashboard.service.stats;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+@DisplayName("HyperLogLog")
+class HyperLogLogTest {
+
+    private static HyperLogLog of(long from, long to) {
+        HyperLogLog hll = new HyperLogLog();
+        for (long id = from; id < to; id++) {
+            hll.add(id);
+        }
+        return hll;
+    }
+
+    @Nested
+    @DisplayName("estimate")
+    class Estimate {
+
+        @Test
+        @DisplayName("пустой скетч — 0, повторы не считаются")
+        void emptyAndDuplicates() {
+            assertThat(new HyperLogLog().estimate()).isZero();
+            assertThat(new HyperLogLog().add(42L).add(42L).add(42L).estimate()).isEqualTo(1L);
+        }
+
+        @ParameterizedTest(name = "{0} уникальных")
+        @ValueSource(ints = {100, 5_000, 50_000, 500_000})
+        @DisplayName("в пределах 3σ от точного значения")
+        void withinThreeSigma(int n) {
+            long estimate = of(1_000_000L, 1_000_000L + n).estimate();
+
+            assertThat((double) estimate).isCloseTo(n, within(3 * HyperLogLog.RELATIVE_ERROR * n));
+        }
+
+        @Test
+        @DisplayName("merge — оценка объединения, а не суммы")
+        void mergeIsUnion() {
+            HyperLogLog merged = of(0, 30_000).merge(of(15_000, 45_000));
+
+            assertThat((double) merged.estimate()).isCloseTo(45_000, within(3 * HyperLogLog.RELATIVE_ERROR * 45_000));
+        }
+    }
+
+    @Nested
+    @DisplayName("toBytes / fromBytes")
+    class Serialization {
+
+        @Test
+        @DisplayName("мало юзеров — sparse: 3 байта на регистр")
+        void sparseRoundTrip() {
+            HyperLogLog hll = of(1, 11);
+
+            byte[] bytes = hll.toBytes();
+
+            assertThat(bytes[0]).isEqualTo(HyperLogLog.SPARSE);
+            assertThat(bytes).hasSizeLessThanOrEqualTo(1 + 3 * 10);
+            assertThat(HyperLogLog.fromBytes(bytes).estimate()).isEqualTo(hll.estimate());
+        }
+
+        @Test
+        @DisplayName("много юзеров — dense: байт на регистр")
+        void denseRoundTrip() {
+            HyperLogLog hll = of(0, 20_000);
+
+            byte[] bytes = hll.toBytes();
+
+            assertThat(bytes[0]).isEqualTo(HyperLogLog.DENSE);
+            assertThat(bytes).hasSize(1 + HyperLogLog.REGISTERS);
+            assertThat(HyperLogLog.fromBytes(bytes).estimate()).isEqualTo(hll.estimate());
+        }
+
+        @Test
+        @DisplayName("битый скетч → IllegalArgumentException")
+        void rejectsGarbage() {
+            assertThatThrownBy(() -> HyperLogLog.fromBytes(new byte[0]))
+                    .isInstanceOf(IllegalArgumentException.class);
+            assertThatThrownBy(() -> HyperLogLog.fromBytes(new byte[]{HyperLogLog.SPARSE, 1}))
+                    .isInstanceOf(IllegalArgumentException.class);
+            assertThatThrownBy(() -> HyperLogLog.fromBytes(new byte[]{HyperLogLog.SPARSE, (byte) 0xFF, 0, 1}))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.tcleaner.dashboard.service.stats;
+
+import com.tcleaner.dashboard.config.CacheConfig;
+import com.tcleaner.dashboard.dto.DashboardCacheStatsDto;
+import com.tcleaner.dashboard.service.stats.StatsCacheInvalidator.Touched;
+import com.tcleaner.dashboard.service.stats.StatsPeriod.Granularity;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+
+import static com.tcleaner.dashboard.config.CacheConfig.HISTORICAL;
+import static com.tcleaner.dashboard.config.CacheConfig.LIVE;
+import static com.tcleaner.dashboard.config.CacheConfig.PROFILE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Точечная инвалидация stats-кешей: структурные ключи {@link StatsCacheKey} из аргументов
+ * методов {@link StatsQueryService} и сброс только задетых ключей.
+ */
+@DisplayName("StatsCacheInvalidator")
+class StatsCacheInvalidatorTest {
+
+    private static final StatsPeriod APRIL = new StatsPeriod(
+            LocalDate.of(2026, 4, 1), LocalDate.of(2026, 4, 30), Granularity.WEEK);
+    private static final LocalDate APRIL_10 = LocalDate.of(2026, 4, 10);
+
+    private CacheManager cacheManager;
+    private StringRedisTemplate redis;
+    private SimpleMeterRegistry registry;
+    private StatsCacheInvalidator invalidator;
+
+    @BeforeEach
+    void setUp() {
+        cacheManager = new CacheConfig().cacheManager(Duration.ofMinutes(5), Duration.ofHours(6), Duration.ofHours(1),
+                0.8, Runnable::run);
+        redis = mock(StringRedisTemplate.class);
+        registry = new SimpleMeterRegistry();
+        invalidator = new StatsCacheInvalidator(cacheManager, redis, registry, true);
+    }
+
+    private static StatsCacheKey key(String name, Object... params) {
+        for (Method method : StatsQueryService.class.getMethods()) {
+            if (method.getName().equals(name)) {
+                return StatsCacheKey.of(method, params);
+            }
+        }
+        throw new AssertionError("нет метода " + name);
+    }
+
+    private StatsCacheKey cached(String cacheName, StatsCacheKey key) {
+        cacheManager.getCache(cacheName).put(key, "value");
+        return key;
+    }
+
+    private boolean present(String cacheName, StatsCacheKey key) {
+        Cache.ValueWrapper value = cacheManager.getCache(cacheName).get(key);
+        return value != null;
+    }
+
+    @Nested
+    @DisplayName("ключи")
+    class Keys {
+
+        @Test
+        @DisplayName("период, botUserId и прочие аргументы разбираются по параметрам метода")
+        void parsesArguments() {
+            StatsCacheKey key = key("topChats", APRIL, 7L, 10);
+
+            assertThat(key.query()).isEqualTo("topChats");
+            assertThat(key.from()).isEqualTo(APRIL.from());
+            assertThat(key.to()).isEqualTo(APRIL.to());
+            assertThat(key.botUserId()).isEqualTo(7L);
+            assertThat(key.args()).containsExactly(10, Granularity.WEEK);
+        }
+
+        @Test
+        @DisplayName("overviewWithDelta покрывает и предыдущий период; null botUserId — ADMIN (0)")
+        void deltaCoversPreviousPeriod() {
+            StatsCacheKey key = key("overviewWithDelta", APRIL, null);
+
+            assertThat(key.from()).isEqualTo(APRIL.previous().from());
+            assertThat(key.botUserId()).isZero();
+        }
+
+        @Test
+        @DisplayName("одинаковые аргументы разных методов — разные ключи")
+        void queryIsPartOfKey() {
+            assertThat(key("overview", APRIL, 1L)).isNotEqualTo(key("statusBreakdown", APRIL, 1L));
+            assertThat(key("overview", APRIL, 1L)).isEqualTo(key("overview", APRIL, 1L));
+        }
+
+        @Test
+        @DisplayName("reload вызывает метод на цели и в равенство ключей не входит")
+        void reloadIsNotPartOfKey() throws Exception {
+            Method userDetail = StatsQueryService.class.getMethod("userDetail", long.class);
+            StatsQueryService target = mock(StatsQueryService.class);
+
+            StatsCacheKey key = StatsCacheKey.of(target, userDetail, 7L);
+            key.reload().call();
+
+            verify(target).userDetail(7L);
+            assertThat(key).isEqualTo(StatsCacheKey.of(userDetail, 7L))
+                    .hasSameHashCodeAs(StatsCacheKey.of(userDetail, 7L));
+        }
+    }
+
+    @Nested
+    @DisplayName("evictLocal")
+    class Evict {
+
+        @Test
+        @DisplayName("день внутри периода: сбрасываются ADMIN-агрегат и агрегат владельца, чужой остаётся")
+        void evictsPeriodsContainingDay() {
+            StatsCacheKey admin = cached(LIVE, key("overview", APRIL, null));
+            StatsCacheKey owner = cached(HISTORICAL, key("timeSeries", APRIL, "bytes", 7L));
+            StatsCacheKey other = cached(HISTORICAL, key("timeSeries", APRIL, "bytes", 8L));
+            StatsCacheKey march = cached(LIVE, key("overview",
+                    new StatsPeriod(LocalDate.of(2026, 3, 1), LocalDate.of(2026, 3, 31), Granularity.DAY), null));
+
+            invalidator.evictLocal(List.of(new Touched(7L, 3L, APRIL_10)));
+
+            assertThat(present(LIVE, admin)).isFalse();
+            assertThat(present(HISTORICAL, owner)).isFalse();
+            assertThat(present(HISTORICAL, other)).isTrue();
+            assertThat(present(LIVE, march)).isTrue();
+        }
+
+        @Test
+        @DisplayName("recentEvents с фильтром по другому чату не сбрасывается; неизвестный чат — сбрасывает")
+        void recentEventsByChat() {
+            StatsCacheKey chat3 = cached(LIVE, key("recentEvents", 7L, 3L, null, 50));
+            StatsCacheKey chat4 = cached(LIVE, key("recentEvents", 7L, 4L, null, 50));
+
+            invalidator.evictLocal(List.of(new Touched(7L, 3L, APRIL_10)));
+            assertThat(present(LIVE, chat3)).isFalse();
+            assertThat(present(LIVE, chat4)).isTrue();
+
+            invalidator.evictLocal(List.of(new Touched(7L, null, APRIL_10)));
+            assertThat(present(LIVE, chat4)).isFalse();
+        }
+
+        @Test
+        @DisplayName("bot_user.seen (без дня) сбрасывает только профиль пользователя")
+        void seenEvictsProfileOnly() {
+            StatsCacheKey profile = cached(PROFILE, key("userDetail", 7L));
+            StatsCacheKey overview = cached(LIVE, key("overview", APRIL, 7L));
+
+            invalidator.evictLocal(List.of(new Touched(7L, null, null)));
+
+            assertThat(present(PROFILE, profile)).isFalse();
+            assertThat(present(LIVE, overview)).isTrue();
+        }
+    }
+
+    @Nested
+    @DisplayName("invalidate и статистика")
+    class InvalidateAndStats {
+
+        @Test
+        @DisplayName("изменения публикуются в канал и разбираются обратно")
+        void publishesAndParses() {
+            List<Touched> touched = List.of(new Touched(7L, 3L, APRIL_10), new Touched(8L, null, null));
+
+            invalidator.invalidate(touched);
+
+            verify(redis).convertAndSend(StatsCacheInvalidator.INVALIDATION_CHANNEL, "7:3:2026-04-10,8::");
+            assertThat(Touched.parse("7:3:2026-04-10,8::")).isEqualTo(touched);
+        }
+
+        @Test
+        @DisplayName("пустой набор изменений → ни сброса, ни публикации")
+        void emptyIsNoop() {
+            invalidator.invalidate(List.of());
+
+            verify(redis, never()).convertAndSend(anyString(), anyString());
+        }
+
+        @Test
+        @DisplayName("stats: hit/miss по каждому кешу, число снятых ключей и stats.cache.hit.ratio")
+        void reportsStats() {
+            StatsCacheKey key = cached(LIVE, key("overview", APRIL, null));
+            cacheManager.getCache(LIVE).get(key);
+            cacheManager.getCache(LIVE).get(key("overview", APRIL, 99L));
+            invalidator.evictLocal(List.of(new Touched(1L, null, APRIL_10)));
+
+            DashboardCacheStatsDto live = invalidator.stats().stream()
+                    .filter(s -> s.cache().equals(LIVE)).findFirst().orElseThrow();
+            assertThat(live.hits()).isEqualTo(1);
+            assertThat(live.misses()).isEqualTo(1);
+            assertThat(live.invalidations()).isEqualTo(1);
+            assertThat(registry.get("stats.cache.hit.ratio").tag("cache", LIVE).gauge().value()).isEqualTo(0.5);
+            assertThat(invalidator.stats()).extracting(DashboardCacheStatsDto::cache)
+                    .containsExactly(LIVE, HISTORICAL, PROFILE);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.tcleaner.dashboard.service.stats;
 
 import com.tcleaner.core.TelegramExporter;
+import com.tcleaner.dashboard.config.CacheConfig;
 import com.tcleaner.dashboard.domain.BotUser;
 import com.tcleaner.dashboard.domain.Chat;
 import com.tcleaner.dashboard.domain.ExportEvent;
@@ -17,12 +18,15 @@ import com.tcleaner.dashboard.repository.ExportEventRepository;
 import com.tcleaner.dashboard.service.stats.StatsPeriod.Granularity;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -57,6 +61,12 @@ class StatsQueryServiceTest {
     @Autowired
     private CacheManager cacheManager;
 
+    @Autowired
+    private ActiveUserSketches sketches;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
     @MockitoBean
     private TelegramExporter mockExporter;
 
@@ -187,6 +197,29 @@ class StatsQueryServiceTest {
         assertThat(dto.deltaBytes()).isNegative();
     }
 
+    @Test
+    @DisplayName("overviewWithDelta: топы с именами, юзер только из prev в топ не попадает, кеш — одна запись")
+    void overviewWithDeltaSingleUnit() {
+        botUserRepo.save(BotUser.builder()
+                .botUserId(3L).username("carol")
+                .firstSeen(Instant.parse("2026-04-01T00:00:00Z"))
+                .lastSeen(Instant.parse("2026-04-01T00:00:00Z"))
+                .totalExports(1).totalMessages(1L).totalBytes(10L).build());
+        eventRepo.save(makeEvent("prevCarol", 3L, chatId,
+                Instant.parse("2026-04-02T12:00:00Z"), ExportStatus.COMPLETED, 1L, 10L));
+
+        OverviewDto dto = svc.overviewWithDelta(PERIOD, null);
+
+        assertThat(dto.topUsers()).extracting(UserStatsRow::username).containsExactly("alice", "bob");
+        assertThat(dto.topUsers().get(0).lastSeen()).startsWith("2026-04-12");
+        assertThat(dto.topChats()).singleElement()
+                .satisfies(c -> assertThat(c.chatTitle()).isEqualTo("Test Chat"));
+        assertThat(dto.statusBreakdown()).containsEntry("COMPLETED", 2L).containsEntry("FAILED", 1L);
+        assertThat(dto.deltaUsers()).isEqualTo(100.0);   // current: alice, bob; prev: carol
+        assertThat(((CaffeineCache) cacheManager.getCache(CacheConfig.HISTORICAL)).getNativeCache().asMap())
+                .isEmpty();
+    }
+
     // ─── topUsers ────────────────────────────────────────────────────────────
 
     @Test
@@ -221,6 +254,8 @@ class StatsQueryServiceTest {
         assertThat(row.exportCount()).isEqualTo(3);
         assertThat(row.totalBytes()).isEqualTo(3500L);
         assertThat(row.chatTitle()).isEqualTo("Test Chat");
+        assertThat(row.activeUsers()).isEqualTo(2);
+        assertThat(row.activeUsersErrorBound()).isNull();
     }
 
     @Test
@@ -333,6 +368,111 @@ class StatsQueryServiceTest {
         assertThat(rows.get(0).displayName()).isEqualTo("Charlie");
     }
 
+    // ─── streamEvents ──────────────────────────────────────────────────────────
+
+    @Test
+    @DisplayName("streamEvents: страницы по cursor без пропусков и повторов, одинаковый started_at — по id")
+    void streamEventsKeysetPages() {
+        eventRepo.save(makeEvent("t3b", 1L, chatId,
+                Instant.parse("2026-04-14T12:00:00Z"), ExportStatus.COMPLETED, 1L, 1L));
+        List<String> seen = new java.util.ArrayList<>();
+
+        EventCursor next = svc.streamEvents(null, null, null, null, 2,
+                row -> seen.add(row.taskId()));
+        assertThat(seen).containsExactly("t3b", "t3");
+        assertThat(next).isNotNull();
+
+        next = svc.streamEvents(null, null, null, EventCursor.decode(next.encode()), 2,
+                row -> seen.add(row.taskId()));
+        assertThat(seen).containsExactly("t3b", "t3", "t2", "t1");
+
+        next = svc.streamEvents(null, null, null, next, 2, row -> seen.add(row.taskId()));
+        assertThat(seen).containsExactly("t3b", "t3", "t2", "t1", "t0");
+        assertThat(next).isNull();
+    }
+
+    @Test
+    @DisplayName("streamEvents: фильтр по пользователю и статусу; invalid status → ничего, cursor=null")
+    void streamEventsFilters() {
+        List<String> seen = new java.util.ArrayList<>();
+
+        EventCursor next = svc.streamEvents(1L, null, "completed", null, 10, row -> seen.add(row.taskId()));
+        assertThat(seen).containsExactly("t2", "t1", "t0");
+        assertThat(next).isNull();
+
+        seen.clear();
+        assertThat(svc.streamEvents(null, null, "garbage", null, 10, row -> seen.add(row.taskId()))).isNull();
+        assertThat(seen).isEmpty();
+    }
+
+    // ─── уникальные юзеры: HLL-скетчи / точный режим ─────────────────────────
+
+    @Nested
+    @DisplayName("уникальные юзеры")
+    class ActiveUsers {
+
+        @Test
+        @DisplayName("период ≤ exact-max-days: COUNT(DISTINCT), errorBound = null")
+        void exactForShortPeriod() {
+            OverviewDto dto = svc.overviewWithDelta(PERIOD, null);
+            List<TimeSeriesPointDto> pts = svc.timeSeries(PERIOD, "users", null);
+
+            assertThat(dto.totalUsers()).isEqualTo(2);
+            assertThat(dto.usersErrorBound()).isNull();
+            assertThat(pts).extracting(TimeSeriesPointDto::errorBound).containsOnlyNulls();
+        }
+
+        @Test
+        @DisplayName("период длиннее exact-max-days: объединение дневных скетчей с errorBound")
+        void sketchedForLongPeriod() {
+            sketches.rebuild(PERIOD.from(), PERIOD.to());
+            StatsQueryService sketched = new StatsQueryService(jdbc, null, 0);
+
+            OverviewDto dto = sketched.overviewWithDelta(PERIOD, null);
+            List<TimeSeriesPointDto> pts = sketched.timeSeries(PERIOD, "users", null);
+
+            assertThat(dto.totalUsers()).isEqualTo(2);
+            assertThat(dto.usersErrorBound()).isEqualTo(HyperLogLog.RELATIVE_ERROR);
+            assertThat(dto.topChats()).singleElement().satisfies(chat -> {
+                assertThat(chat.activeUsers()).isEqualTo(2);
+                assertThat(chat.activeUsersErrorBound()).isEqualTo(HyperLogLog.RELATIVE_ERROR);
+            });
+            assertThat(pts).filteredOn(p -> p.period().equals("2026-04-10")).singleElement()
+                    .satisfies(p -> {
+                        assertThat(p.value()).isEqualTo(1L);
+                        assertThat(p.errorBound()).isEqualTo(HyperLogLog.RELATIVE_ERROR);
+                    });
+            assertThat(pts).filteredOn(p -> p.period().equals("2026-04-11")).singleElement()
+                    .satisfies(p -> assertThat(p.value()).isZero());
+        }
+
+        @Test
+        @DisplayName("USER-scope всегда точный, даже за длинный период")
+        void userScopeAlwaysExact() {
+            StatsQueryService sketched = new StatsQueryService(jdbc, null, 0);
+
+            OverviewDto dto = sketched.overview(PERIOD, 1L);
+
+            assertThat(dto.totalUsers()).isEqualTo(1);
+            assertThat(dto.usersErrorBound()).isNull();
+        }
+
+        @Test
+        @DisplayName("record: новые события попадают в скетч своего дня и чата")
+        void recordAddsToDaySketch() {
+            sketches.record(List.of("t1", "t3"));
+            eventRepo.save(makeEvent("t4", 2L, chatId,
+                    Instant.parse("2026-04-10T18:00:00Z"), ExportStatus.QUEUED, null, null));
+            sketches.record(List.of("t4"));
+            StatsQueryService sketched = new StatsQueryService(jdbc, null, 0);
+            StatsPeriod day = new StatsPeriod(LocalDate.of(2026, 4, 10), LocalDate.of(2026, 4, 10), Granularity.DAY);
+
+            assertThat(sketched.overview(day, null).totalUsers()).isEqualTo(2);
+            assertThat(sketched.topChats(day, null, 10).get(0).activeUsers()).isEqualTo(2);
+            assertThat(sketched.overview(PERIOD, null).totalUsers()).isEqualTo(2);
+        }
+    }
+
     // ─── userDetail ───────────────────────────────────────────────────────────
 
     @Test
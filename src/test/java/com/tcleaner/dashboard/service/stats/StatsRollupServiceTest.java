@@ -0,0 +1,190 @@
+package com.tcleaner.dashboard.service.stats;
+
+import com.tcleaner.core.TelegramExporter;
+import com.tcleaner.dashboard.domain.BotUser;
+import com.tcleaner.dashboard.domain.Chat;
+import com.tcleaner.dashboard.domain.ExportEvent;
+import com.tcleaner.dashboard.domain.ExportSource;
+import com.tcleaner.dashboard.domain.ExportStatus;
+import com.tcleaner.dashboard.dto.OverviewDto;
+import com.tcleaner.dashboard.repository.BotUserRepository;
+import com.tcleaner.dashboard.repository.ChatRepository;
+import com.tcleaner.dashboard.repository.ExportEventRepository;
+import com.tcleaner.dashboard.service.stats.StatsPeriod.Granularity;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Дневные rollup-ы: триггеры на export_events держат их в согласии с событиями,
+ * {@link StatsRollupService#rebuild} пересобирает дни из export_events.
+ */
+@SpringBootTest
+@Transactional
+@DisplayName("StatsRollupService")
+class StatsRollupServiceTest {
+
+    private static final StatsPeriod PERIOD = new StatsPeriod(
+            LocalDate.of(2026, 4, 10), LocalDate.of(2026, 4, 11), Granularity.DAY);
+
+    @Autowired private StatsRollupService rollupService;
+    @Autowired private StatsQueryService queryService;
+    @Autowired private ExportEventRepository eventRepo;
+    @Autowired private BotUserRepository botUserRepo;
+    @Autowired private ChatRepository chatRepo;
+    @Autowired private JdbcTemplate jdbc;
+    @Autowired private CacheManager cacheManager;
+    @Autowired private ActiveUserSketches sketches;
+
+    @MockitoBean private TelegramExporter mockExporter;
+
+    private Long chatId;
+
+    @BeforeEach
+    void seed() {
+        cacheManager.getCacheNames().forEach(n -> cacheManager.getCache(n).clear());
+        Instant now = Instant.parse("2026-04-10T00:00:00Z");
+        botUserRepo.save(BotUser.builder()
+                .botUserId(1L).username("alice").displayName("Alice")
+                .firstSeen(now).lastSeen(now).build());
+        chatId = chatRepo.save(Chat.builder()
+                .canonicalChatId("-100rollup").chatIdRaw("@rollup")
+                .firstSeen(now).lastSeen(now).build()).getId();
+
+        eventRepo.save(event("r1", Instant.parse("2026-04-10T08:00:00Z"), ExportStatus.QUEUED, null, null));
+        eventRepo.save(event("r2", Instant.parse("2026-04-11T23:30:00Z"), ExportStatus.COMPLETED, 10L, 100L));
+    }
+
+    private ExportEvent event(String taskId, Instant startedAt, ExportStatus status, Long messages, Long bytes) {
+        return ExportEvent.builder()
+                .taskId(taskId).botUserId(1L).chatRefId(chatId)
+                .startedAt(startedAt).status(status)
+                .messagesCount(messages).bytesCount(bytes)
+                .source(ExportSource.BOT)
+                .createdAt(startedAt).updatedAt(startedAt)
+                .build();
+    }
+
+    @Nested
+    @DisplayName("триггеры export_events")
+    class Triggers {
+
+        @Test
+        @DisplayName("INSERT попадает в день старта, включая последнюю минуту дня")
+        void insertCountsByStartDay() {
+            Long day11 = jdbc.queryForObject(
+                    "SELECT exports FROM stats_daily WHERE day = '2026-04-11'", Long.class);
+
+            assertThat(day11).isEqualTo(1L);
+            assertThat(queryService.overview(PERIOD, null).totalExports()).isEqualTo(2);
+        }
+
+        @Test
+        @DisplayName("merge в terminal переносит счётчик статуса и добавляет messages/bytes")
+        void mergeMovesStatusAndAddsCounts() {
+            Instant finishedAt = Instant.parse("2026-04-10T08:05:00Z");
+            eventRepo.mergeForIngest("r1", ExportStatus.COMPLETED.name(), finishedAt,
+                    5L, 50L, null, null, null, null, null, null, finishedAt);
+
+            OverviewDto dto = queryService.overview(PERIOD, 1L);
+            assertThat(dto.totalExports()).isEqualTo(2);
+            assertThat(dto.totalMessages()).isEqualTo(15L);
+            assertThat(dto.totalBytes()).isEqualTo(150L);
+            assertThat(dto.statusBreakdown()).containsExactly(Map.entry("COMPLETED", 2L));
+        }
+
+        @Test
+        @DisplayName("DELETE вычитает событие; опустевший юзер не считается активным")
+        void deleteSubtracts() {
+            jdbc.update("DELETE FROM export_events WHERE task_id IN ('r1', 'r2')");
+
+            OverviewDto dto = queryService.overview(PERIOD, null);
+            assertThat(dto.totalExports()).isZero();
+            assertThat(dto.totalUsers()).isZero();
+            assertThat(dto.topUsers()).isEmpty();
+            assertThat(dto.topChats()).isEmpty();
+        }
+    }
+
+    @Nested
+    @DisplayName("rebuild")
+    class Rebuild {
+
+        @Test
+        @DisplayName("разъехавшиеся rollup-ы пересобираются из export_events, кеш сбрасывается")
+        void rebuildsDriftedDays() {
+            assertThat(queryService.overview(PERIOD, null).totalExports()).isEqualTo(2);
+            jdbc.update("UPDATE stats_daily SET exports = 99");
+            jdbc.update("DELETE FROM stats_daily_status");
+
+            StatsRollupService.Rebuild result = rollupService.rebuild(PERIOD.from(), PERIOD.to());
+
+            assertThat(result.days()).isEqualTo(2);
+            assertThat(result.events()).isEqualTo(2L);
+            OverviewDto dto = queryService.overview(PERIOD, null);
+            assertThat(dto.totalExports()).isEqualTo(2);
+            assertThat(dto.statusBreakdown()).containsOnlyKeys("QUEUED", "COMPLETED");
+        }
+
+        @Test
+        @DisplayName("дни вне диапазона не трогаются")
+        void keepsDaysOutsideRange() {
+            jdbc.update("UPDATE stats_daily SET exports = 99 WHERE day = '2026-04-11'");
+
+            rollupService.rebuild(PERIOD.from(), PERIOD.from());
+
+            assertThat(jdbc.queryForObject("SELECT exports FROM stats_daily WHERE day = '2026-04-11'", Long.class))
+                    .isEqualTo(99L);
+        }
+
+        @Test
+        @DisplayName("from позже to → IllegalArgumentException")
+        void rejectsInvertedRange() {
+            assertThatThrownBy(() -> rollupService.rebuild(PERIOD.to(), PERIOD.from()))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+
+        @Test
+        @DisplayName("HLL-скетчи дней пересобираются вместе с rollup-ами")
+        void rebuildsSketches() {
+            rollupService.rebuild(PERIOD.from(), PERIOD.to());
+
+            assertThat(jdbc.queryForList("SELECT day FROM stats_daily_users_hll ORDER BY day", String.class))
+                    .containsExactly("2026-04-10", "2026-04-11");
+            assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM stats_daily_chat_users_hll WHERE chat_ref_id = ?",
+                    Long.class, chatId)).isEqualTo(2L);
+        }
+    }
+
+    @Nested
+    @DisplayName("backfillSketches")
+    class Backfill {
+
+        @Test
+        @DisplayName("заполняет дни без скетча, повторный запуск — no-op")
+        void fillsMissingDays() {
+            assertThat(sketches.missingDays()).contains("2026-04-10", "2026-04-11");
+
+            rollupService.backfillSketches();
+
+            assertThat(sketches.missingDays()).isEmpty();
+            byte[] day = jdbc.queryForObject("SELECT sketch FROM stats_daily_users_hll WHERE day = '2026-04-10'",
+                    byte[].class);
+            assertThat(HyperLogLog.fromBytes(day).estimate()).isEqualTo(1L);
+        }
+    }
+}
@@ -6,6 +6,9 @@ import com.tcleaner.bot.BotMessenger;
 import com.tcleaner.core.BotLanguage;
 import com.tcleaner.dashboard.domain.ChatSubscription;
 import com.tcleaner.dashboard.repository.ChatSubscriptionRepository;
+import com.tcleaner.dashboard.service.scheduling.SchedulerLease;
+import com.tcleaner.dashboard.service.scheduling.SchedulerLeaseService;
+import com.tcleaner.dashboard.service.scheduling.SchedulerLeases;
 import com.tcleaner.dashboard.service.ingestion.BotUserUpserter;
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
@@ -51,7 +54,7 @@ class ConfirmationSchedulerTest {
     @BeforeEach
     void initScheduler() {
         scheduler = new ConfirmationScheduler(repository, subscriptionService, messenger,
-                i18n, keyboards, userUpserter, new SimpleMeterRegistry());
+                i18n, keyboards, userUpserter, new SimpleMeterRegistry(), SchedulerLeases.granted());
     }
 
     // ------------------------------------------------------------------ helpers
@@ -79,6 +82,35 @@ class ConfirmationSchedulerTest {
         verify(subscriptionService, never()).archive(anyLong());
     }
 
+    @Test
+    @DisplayName("tick: lease у другого узла → проходы не выполняются")
+    void tick_leaseHeldElsewhere_skipped() {
+        SchedulerLeaseService leases = mock(SchedulerLeaseService.class);
+        when(leases.runExclusive(eq(ConfirmationScheduler.JOB), any())).thenReturn(false);
+        ConfirmationScheduler clustered = new ConfirmationScheduler(repository, subscriptionService, messenger,
+                i18n, keyboards, userUpserter, new SimpleMeterRegistry(), leases);
+
+        clustered.tick();
+
+        verify(repository, never()).findDueForConfirmation(any());
+        verify(repository, never()).findDueForArchive(any());
+    }
+
+    @Test
+    @DisplayName("runCycle: lease потерян → ни запросов подтверждения, ни архивации")
+    void runCycle_leaseLost_stopsBothPasses() {
+        when(repository.findDueForConfirmation(any())).thenReturn(List.of(sub(SUB_ID_1, BOT_USER_ID_1)));
+        when(repository.findDueForArchive(any())).thenReturn(List.of(sub(SUB_ID_2, BOT_USER_ID_2)));
+        SchedulerLease lease = mock(SchedulerLease.class);
+        when(lease.isHeld()).thenReturn(false);
+
+        scheduler.runCycle(lease);
+
+        verify(subscriptionService, never()).markConfirmSent(anyLong());
+        verify(subscriptionService, never()).archive(anyLong());
+        verify(messenger, never()).sendWithKeyboard(anyLong(), anyString(), any());
+    }
+
     @Test
     @DisplayName("sendConfirmationPrompts: для найденных подписок отправляет сообщение + markConfirmSent")
     void sendConfirmationPrompts_foundSubscriptions_sendsMessageAndMarksConfirmSent() {
@@ -6,6 +6,9 @@ import com.tcleaner.dashboard.domain.ChatSubscription;
 import com.tcleaner.dashboard.domain.SubscriptionStatus;
 import com.tcleaner.dashboard.repository.ChatRepository;
 import com.tcleaner.dashboard.repository.ChatSubscriptionRepository;
+import com.tcleaner.dashboard.service.scheduling.SchedulerLease;
+import com.tcleaner.dashboard.service.scheduling.SchedulerLeaseService;
+import com.tcleaner.dashboard.service.scheduling.SchedulerLeases;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -29,6 +32,7 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -50,7 +54,7 @@ class SubscriptionSchedulerTest {
     @BeforeEach
     void init() {
         scheduler = new SubscriptionScheduler(repository, subscriptionService, jobProducer, chatRepository,
-                new io.micrometer.core.instrument.simple.SimpleMeterRegistry());
+                new io.micrometer.core.instrument.simple.SimpleMeterRegistry(), SchedulerLeases.granted());
     }
 
     // ------------------------------------------------------------------ helpers
@@ -118,6 +122,38 @@ class SubscriptionSchedulerTest {
         verify(repository, never()).findDueForRun(any());
     }
 
+    @Test
+    @DisplayName("runDueSubscriptions: lease у другого узла → цикл не выполняется")
+    void skipsWithoutLease() {
+        SchedulerLeaseService leases = mock(SchedulerLeaseService.class);
+        when(leases.runExclusive(eq(SubscriptionScheduler.JOB), any())).thenReturn(false);
+        SubscriptionScheduler clustered = new SubscriptionScheduler(repository, subscriptionService, jobProducer,
+                chatRepository, new io.micrometer.core.instrument.simple.SimpleMeterRegistry(), leases);
+
+        clustered.runDueSubscriptions();
+
+        verify(jobProducer, never()).hasActiveProcessingJob();
+        verify(repository, never()).findDueForRun(any());
+    }
+
+    @Test
+    @DisplayName("runCycle: lease потерян → кандидаты не ставятся в очередь")
+    void stopsWhenLeaseLost() {
+        when(jobProducer.hasActiveProcessingJob()).thenReturn(false);
+        when(jobProducer.getQueueLength()).thenReturn(0L);
+        ChatSubscription sub = activeSub(1L, 100L, 200L, 24, mskHhMm(10),
+                Instant.now().minusSeconds(25 * 3600L), null);
+        when(repository.findDueForRun(any())).thenReturn(List.of(sub));
+        when(chatRepository.findAllById(any())).thenReturn(List.of(chat(200L, "@testchat")));
+        SchedulerLease lease = mock(SchedulerLease.class);
+        when(lease.isHeld()).thenReturn(false);
+
+        scheduler.runCycle(lease);
+
+        verify(subscriptionService, never()).recordRunStarted(anyLong());
+        verify(jobProducer, never()).enqueueSubscription(anyLong(), anyLong(), anyString(), anyString(), anyString(), anyLong());
+    }
+
     @Test
     @DisplayName("runDueSubscriptions: idle + кандидат в окне → enqueue вызван + recordRunStarted вызван")
     void enqueuedAndRunStartedWhenIdleAndInWindow() {
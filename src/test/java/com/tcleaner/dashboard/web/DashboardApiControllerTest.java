@@ -25,8 +25,11 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -106,6 +109,16 @@ class DashboardApiControllerTest {
 
     // ─── /stats/overview ─────────────────────────────────────────────────────
 
+    @Test
+    @DisplayName("/stats/queue-eta доступен USER: размер очереди и флаг готовности оценки")
+    void queueEtaForUser() throws Exception {
+        mockMvc.perform(get("/dashboard/api/stats/queue-eta").with(user(USER_1)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.available").isBoolean())
+                .andExpect(jsonPath("$.pendingInQueue").isNumber())
+                .andExpect(jsonPath("$.sources").isMap());
+    }
+
     @Test
     @DisplayName("ADMIN: /overview без userId — суммирует всех")
     void overviewAdminNoFilter() throws Exception {
@@ -371,6 +384,35 @@ class DashboardApiControllerTest {
                 .andExpect(jsonPath("$[0].status").value("FAILED"));
     }
 
+    // ─── ETag ────────────────────────────────────────────────────────────────
+
+    @Test
+    @DisplayName("stats-ответ несёт сильный ETag и no-store; If-None-Match с ним → 304 без тела")
+    void etagRevalidation() throws Exception {
+        String etag = mockMvc.perform(get("/dashboard/api/stats/user/1").with(user(USER_1)))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Cache-Control", "no-store"))
+                .andExpect(header().string("Vary", org.hamcrest.Matchers.containsString("Accept-Encoding")))
+                .andReturn().getResponse().getHeader("ETag");
+
+        assertThat(etag).startsWith("\"").doesNotStartWith("W/");
+        mockMvc.perform(get("/dashboard/api/stats/user/1").header("If-None-Match", etag).with(user(USER_1)))
+                .andExpect(status().isNotModified())
+                .andExpect(content().bytes(new byte[0]));
+    }
+
+    @Test
+    @DisplayName("ETag одного пользователя не даёт 304 на данные другого")
+    void etagIsPerContent() throws Exception {
+        String etag = mockMvc.perform(get("/dashboard/api/stats/user/1").with(user(ADMIN)))
+                .andReturn().getResponse().getHeader("ETag");
+
+        mockMvc.perform(get("/dashboard/api/stats/user/2").header("If-None-Match", etag).with(user(ADMIN)))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Cache-Control", "no-store"))
+                .andExpect(jsonPath("$.username").value("bob"));
+    }
+
     // ─── Bad params ──────────────────────────────────────────────────────────
 
     @Test
@@ -0,0 +1,136 @@
+package com.tcleaner.dashboard.web;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@DisplayName("JsonResponseCache")
+class JsonResponseCacheTest {
+
+    private SimpleMeterRegistry registry;
+    private JsonResponseCache cache;
+    private HttpServletRequest request;
+    private HttpServletResponse response;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        cache = new JsonResponseCache(new ObjectMapper(), 100, DataSize.ofBytes(1024), registry);
+        request = mock(HttpServletRequest.class);
+        response = mock(HttpServletResponse.class);
+    }
+
+    private ResponseEntity<byte[]> respond(Object body, String acceptEncoding) {
+        when(request.getHeader(HttpHeaders.ACCEPT_ENCODING)).thenReturn(acceptEncoding);
+        return cache.respond(body, new ServletWebRequest(request, response));
+    }
+
+    private static List<Map<String, Object>> rows(int n) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            rows.add(Map.of("botUserId", i, "username", "user" + i));
+        }
+        return rows;
+    }
+
+    @Nested
+    @DisplayName("respond")
+    class Respond {
+
+        @Test
+        @DisplayName("тот же DTO — те же байты без повторной сериализации")
+        void reusesBytesForSameDto() {
+            Map<String, Long> dto = Map.of("COMPLETED", 3L);
+
+            byte[] first = respond(dto, null).getBody();
+            byte[] second = respond(dto, null).getBody();
+
+            assertThat(first).isSameAs(second);
+            assertThat(new String(first)).isEqualTo("{\"COMPLETED\":3}");
+            assertThat(registry.get("cache.gets").tag("cache", JsonResponseCache.CACHE_NAME)
+                    .tag("result", "hit").functionCounter().count()).isEqualTo(1.0);
+        }
+
+        @Test
+        @DisplayName("равный по содержимому новый DTO — тот же ETag, другой — другой")
+        void etagFollowsContent() {
+            String etag = respond(rows(3), null).getHeaders().getETag();
+
+            assertThat(respond(rows(3), null).getHeaders().getETag()).isEqualTo(etag);
+            assertThat(respond(rows(4), null).getHeaders().getETag()).isNotEqualTo(etag);
+        }
+
+        @Test
+        @DisplayName("Cache-Control не трогается (no-store фильтра); Vary: Accept-Encoding")
+        void revalidationHeaders() {
+            ResponseEntity<byte[]> entity = respond(rows(1), null);
+
+            verify(response, never()).setHeader(eq(HttpHeaders.CACHE_CONTROL), anyString());
+            assertThat(entity.getHeaders().containsKey(HttpHeaders.CACHE_CONTROL)).isFalse();
+            assertThat(entity.getHeaders().getVary()).containsExactly(HttpHeaders.ACCEPT_ENCODING);
+        }
+
+        @Test
+        @DisplayName("большой ответ и gzip у клиента — заранее сжатые байты с отдельным ETag")
+        void gzipForLargeResponse() throws Exception {
+            List<Map<String, Object>> dto = rows(200);
+            ResponseEntity<byte[]> plain = respond(dto, null);
+            ResponseEntity<byte[]> gzip = respond(dto, "gzip, deflate, br");
+
+            assertThat(gzip.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING)).isEqualTo("gzip");
+            assertThat(gzip.getHeaders().getETag()).isNotEqualTo(plain.getHeaders().getETag());
+            assertThat(gzip.getBody().length).isLessThan(plain.getBody().length);
+            try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip.getBody()))) {
+                assertThat(in.readAllBytes()).isEqualTo(plain.getBody());
+            }
+        }
+
+        @Test
+        @DisplayName("ответ короче порога сжатия отдаётся как есть")
+        void smallResponseIsNotCompressed() {
+            ResponseEntity<byte[]> entity = respond(rows(1), "gzip");
+
+            assertThat(entity.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING)).isFalse();
+        }
+    }
+
+    @ParameterizedTest(name = "\"{0}\" → {1}")
+    @CsvSource(delimiter = '|', value = {
+            "gzip, deflate, br | true",
+            "br;q=1.0, GZIP;q=0.5 | true",
+            "* | true",
+            "gzip;q=0 | false",
+            "gzip;q=0.000, identity | false",
+            "deflate, br | false",
+            "'' | false"
+    })
+    @DisplayName("acceptsGzip")
+    void acceptsGzip(String acceptEncoding, boolean expected) {
+        assertThat(JsonResponseCache.acceptsGzip(acceptEncoding)).isEqualTo(expected);
+    }
+}
@@ -0,0 +1,72 @@
+package com.tcleaner.dashboard.web;
+
+import com.tcleaner.core.TelegramExporter;
+import com.tcleaner.dashboard.DashboardTestUsers;
+import com.tcleaner.dashboard.auth.DashboardUserDetails;
+import com.tcleaner.dashboard.events.StatsStreamReclaimer;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * RBAC + контракт POST /dashboard/api/admin/stats/dead-letters/replay.
+ * Reclaimer мокается — проверяется гейт, CSRF и ограничение limit.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@DisplayName("StatsDeadLetterController")
+class StatsDeadLetterControllerTest {
+
+    private static final String URL = "/dashboard/api/admin/stats/dead-letters/replay";
+
+    @Autowired private MockMvc mockMvc;
+
+    @MockitoBean private TelegramExporter mockExporter;
+    @MockitoBean private StatsStreamReclaimer reclaimer;
+
+    private static final DashboardUserDetails ADMIN = DashboardTestUsers.admin();
+    private static final DashboardUserDetails USER_1 = DashboardTestUsers.user("alice", 1L);
+
+    @Test
+    @DisplayName("ADMIN: 200, limit ограничен сверху 10000")
+    void adminReplays() throws Exception {
+        when(reclaimer.replayDeadLetters(10_000)).thenReturn(new StatsStreamReclaimer.Replay(3, 0));
+
+        mockMvc.perform(post(URL).param("limit", "50000").with(user(ADMIN)).with(csrf()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.replayed").value(3))
+                .andExpect(jsonPath("$.remaining").value(0));
+    }
+
+    @Test
+    @DisplayName("USER: 403 (ADMIN-only endpoint)")
+    void userForbidden() throws Exception {
+        mockMvc.perform(post(URL).with(user(USER_1)).with(csrf()))
+                .andExpect(status().isForbidden());
+
+        verify(reclaimer, never()).replayDeadLetters(anyInt());
+    }
+
+    @Test
+    @DisplayName("ADMIN без CSRF-токена: 403")
+    void csrfRequired() throws Exception {
+        mockMvc.perform(post(URL).with(user(ADMIN)))
+                .andExpect(status().isForbidden());
+
+        verify(reclaimer, never()).replayDeadLetters(anyInt());
+    }
+}
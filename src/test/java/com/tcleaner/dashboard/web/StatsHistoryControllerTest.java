@@ -0,0 +1,125 @@
+package com.tcleaner.dashboard.web;
+
+import com.tcleaner.core.TelegramExporter;
+import com.tcleaner.dashboard.DashboardTestUsers;
+import com.tcleaner.dashboard.auth.DashboardUserDetails;
+import com.tcleaner.dashboard.dto.EventRowDto;
+import com.tcleaner.dashboard.service.stats.EventCursor;
+import com.tcleaner.dashboard.service.stats.StatsQueryService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * RBAC + формат GET /dashboard/api/stats/history. Сервис мокается: keyset-запрос
+ * проверяется в {@code StatsQueryServiceTest}, здесь — JSON/NDJSON-обёртка и cursor.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@DisplayName("StatsHistoryController")
+class StatsHistoryControllerTest {
+
+    private static final String URL = "/dashboard/api/stats/history";
+    private static final EventCursor NEXT = new EventCursor("2026-04-12 12:00:00.000", 2L);
+
+    @Autowired private MockMvc mockMvc;
+
+    @MockitoBean private TelegramExporter mockExporter;
+    @MockitoBean private StatsQueryService statsQueryService;
+
+    private static final DashboardUserDetails ADMIN = DashboardTestUsers.admin();
+    private static final DashboardUserDetails USER_1 = DashboardTestUsers.user("alice", 1L);
+
+    @BeforeEach
+    void stub() {
+        when(statsQueryService.streamEvents(any(), any(), any(), any(), anyInt(), any())).thenAnswer(inv -> {
+            Consumer<EventRowDto> sink = inv.getArgument(5);
+            sink.accept(row("t2"));
+            sink.accept(row("t1"));
+            return NEXT;
+        });
+    }
+
+    @Test
+    @DisplayName("ADMIN: JSON {items, nextCursor}, limit ограничен сверху 10000")
+    void adminJson() throws Exception {
+        MvcResult started = mockMvc.perform(get(URL).param("limit", "50000").with(user(ADMIN)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items", hasSize(2)))
+                .andExpect(jsonPath("$.items[0].taskId").value("t2"))
+                .andExpect(jsonPath("$.nextCursor").value(NEXT.encode()));
+        verify(statsQueryService).streamEvents(isNull(), isNull(), isNull(), isNull(), eq(10_000), any());
+    }
+
+    @Test
+    @DisplayName("USER: NDJSON — событие на строку, последней строкой nextCursor; только свой botUserId")
+    void userNdjson() throws Exception {
+        MvcResult started = mockMvc.perform(get(URL)
+                        .param("cursor", NEXT.encode())
+                        .accept(StatsHistoryController.NDJSON)
+                        .with(user(USER_1)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        String body = mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(StatsHistoryController.NDJSON))
+                .andReturn().getResponse().getContentAsString();
+
+        String[] lines = body.split("\n");
+        assertThat(lines).hasSize(3);
+        assertThat(lines[0]).contains("\"taskId\":\"t2\"");
+        assertThat(lines[2]).isEqualTo("{\"nextCursor\":\"" + NEXT.encode() + "\"}");
+        verify(statsQueryService).streamEvents(eq(1L), isNull(), isNull(), eq(NEXT), eq(100), any());
+    }
+
+    @Test
+    @DisplayName("USER: чужой userId → 403 до начала стрима")
+    void userForbidden() throws Exception {
+        mockMvc.perform(get(URL).param("userId", "2").with(user(USER_1)))
+                .andExpect(status().isForbidden());
+
+        verify(statsQueryService, never()).streamEvents(any(), any(), any(), any(), anyInt(), any());
+    }
+
+    @Test
+    @DisplayName("битый cursor → 400")
+    void badCursor() throws Exception {
+        mockMvc.perform(get(URL).param("cursor", "not-a-cursor!").with(user(ADMIN)))
+                .andExpect(status().isBadRequest());
+    }
+
+    private static EventRowDto row(String taskId) {
+        return new EventRowDto(taskId, 1L, "alice", "Alice", "Test Chat", "-100chat1",
+                "2026-04-12T12:00:00Z", null, "COMPLETED", 10L, 100L, "BOT", null);
+    }
+}
@@ -0,0 +1,78 @@
+package com.tcleaner.dashboard.web;
+
+import com.tcleaner.core.TelegramExporter;
+import com.tcleaner.dashboard.DashboardTestUsers;
+import com.tcleaner.dashboard.auth.DashboardUserDetails;
+import com.tcleaner.dashboard.service.live.LiveFeedBroadcaster;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * RBAC GET /dashboard/api/stats/live: scope сессии задаётся при подписке.
+ * Broadcaster мокается — раздача проверяется в {@code LiveFeedBroadcasterTest}.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@DisplayName("StatsLiveController")
+class StatsLiveControllerTest {
+
+    private static final String URL = "/dashboard/api/stats/live";
+
+    @Autowired private MockMvc mockMvc;
+
+    @MockitoBean private TelegramExporter mockExporter;
+    @MockitoBean private LiveFeedBroadcaster broadcaster;
+
+    private static final DashboardUserDetails ADMIN = DashboardTestUsers.admin();
+    private static final DashboardUserDetails USER_1 = DashboardTestUsers.user("alice", 1L);
+
+    @Test
+    @DisplayName("ADMIN: поток открыт, scope — все пользователи")
+    void adminSubscribesToAll() throws Exception {
+        when(broadcaster.subscribe(null)).thenReturn(new SseEmitter());
+
+        mockMvc.perform(get(URL).with(user(ADMIN)))
+                .andExpect(request().asyncStarted());
+        verify(broadcaster).subscribe(null);
+    }
+
+    @Test
+    @DisplayName("USER: подписка только на свой botUserId")
+    void userSubscribesToOwn() throws Exception {
+        when(broadcaster.subscribe(1L)).thenReturn(new SseEmitter());
+
+        mockMvc.perform(get(URL).with(user(USER_1)))
+                .andExpect(request().asyncStarted());
+        verify(broadcaster).subscribe(1L);
+    }
+
+    @Test
+    @DisplayName("USER: чужой userId → 403")
+    void userForbidden() throws Exception {
+        mockMvc.perform(get(URL).param("userId", "2").with(user(USER_1)))
+                .andExpect(status().isForbidden());
+        verify(broadcaster, never()).subscribe(any());
+    }
+
+    @Test
+    @DisplayName("лимит сессий исчерпан → 503")
+    void tooManySessions() throws Exception {
+        mockMvc.perform(get(URL).with(user(ADMIN)))
+                .andExpect(status().isServiceUnavailable());
+    }
+}
@@ -0,0 +1,80 @@
+package com.tcleaner.dashboard.web;
+
+import com.tcleaner.core.TelegramExporter;
+import com.tcleaner.dashboard.DashboardTestUsers;
+import com.tcleaner.dashboard.auth.DashboardUserDetails;
+import com.tcleaner.dashboard.service.stats.StatsRollupService;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.LocalDate;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * RBAC + контракт POST /dashboard/api/admin/stats/rollups/rebuild.
+ * Сервис мокается — проверяется гейт и разбор дат.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@DisplayName("StatsRollupController")
+class StatsRollupControllerTest {
+
+    private static final String URL = "/dashboard/api/admin/stats/rollups/rebuild";
+
+    @Autowired private MockMvc mockMvc;
+
+    @MockitoBean private TelegramExporter mockExporter;
+    @MockitoBean private StatsRollupService rollupService;
+
+    private static final DashboardUserDetails ADMIN = DashboardTestUsers.admin();
+    private static final DashboardUserDetails USER_1 = DashboardTestUsers.user("alice", 1L);
+
+    @Test
+    @DisplayName("ADMIN: 200, пересобранный диапазон в ответе")
+    void adminRebuilds() throws Exception {
+        LocalDate from = LocalDate.of(2026, 4, 1);
+        LocalDate to = LocalDate.of(2026, 4, 30);
+        when(rollupService.rebuild(from, to)).thenReturn(new StatsRollupService.Rebuild(from, to, 12, 340));
+
+        mockMvc.perform(post(URL).param("from", "2026-04-01").param("to", "2026-04-30")
+                        .with(user(ADMIN)).with(csrf()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.from").value("2026-04-01"))
+                .andExpect(jsonPath("$.days").value(12))
+                .andExpect(jsonPath("$.events").value(340));
+    }
+
+    @Test
+    @DisplayName("невалидная дата: 400")
+    void badDate() throws Exception {
+        mockMvc.perform(post(URL).param("from", "april").param("to", "2026-04-30")
+                        .with(user(ADMIN)).with(csrf()))
+                .andExpect(status().isBadRequest());
+
+        verify(rollupService, never()).rebuild(any(), any());
+    }
+
+    @Test
+    @DisplayName("USER: 403 (ADMIN-only endpoint)")
+    void userForbidden() throws Exception {
+        mockMvc.perform(post(URL).param("from", "2026-04-01").param("to", "2026-04-30")
+                        .with(user(USER_1)).with(csrf()))
+                .andExpect(status().isForbidden());
+
+        verify(rollupService, never()).rebuild(any(), any());
+    }
+}